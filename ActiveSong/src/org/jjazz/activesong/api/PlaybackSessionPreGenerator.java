@@ -0,0 +1,375 @@
+/*
+ *  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ *  Copyright @2019 Jerome Lelasseux. All rights reserved.
+ *
+ *  This file is part of the JJazzLabX software.
+ *
+ *  JJazzLabX is free software: you can redistribute it and/or modify
+ *  it under the terms of the Lesser GNU General Public License (LGPLv3)
+ *  as published by the Free Software Foundation, either version 3 of the License,
+ *  or (at your option) any later version.
+ *
+ *  JJazzLabX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with JJazzLabX.  If not, see <https://www.gnu.org/licenses/>
+ *
+ *  Contributor(s):
+ */
+package org.jjazz.activesong.api;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import org.jjazz.midimix.api.MidiMix;
+import org.jjazz.musiccontrol.api.MusicController;
+import org.jjazz.musiccontrol.api.PlaybackSettings;
+import org.jjazz.musiccontrol.api.playbacksession.DynamicSongSession;
+import org.jjazz.musiccontrol.api.playbacksession.PlaybackSession;
+import org.jjazz.musiccontrol.api.playbacksession.UpdatableSongSession;
+import org.jjazz.rhythm.api.MusicGenerationException;
+import org.jjazz.song.api.Song;
+import org.jjazz.songcontext.api.SongContext;
+import org.jjazz.util.api.ResUtil;
+import org.netbeans.api.progress.BaseProgressUtils;
+import org.openide.util.Exceptions;
+
+/**
+ * Pre-generate in the background the playback session of the active song, so that playback can start without waiting for the
+ * music generation.
+ * <p>
+ * When the changes of the active song settle down (see getDelayMs()) and the MusicController is stopped, an
+ * UpdatableSongSession/DynamicSongSession is generated in a background thread for the active song, unless a clean generated
+ * session already exists. Once generated the DynamicSongSession keeps itself up to date for the changes it can handle as
+ * updates, other changes make it dirty and trigger a new pre-generation.
+ * <p>
+ * Playback actions should use getSession(SongContext) to get the session: it returns the pre-generated session when available,
+ * waiting for it with a progress dialog if its generation is in progress.
+ * <p>
+ * Methods must be called on the EDT.
+ */
+public class PlaybackSessionPreGenerator implements PropertyChangeListener
+{
+
+    public static final int DEFAULT_DELAY_MS = 1000;
+    private static PlaybackSessionPreGenerator INSTANCE;
+    private boolean isEnabled = true;
+    private Song song;
+    private MidiMix midiMix;
+    /**
+     * Incremented each time the active song, its MidiMix or the playback settings change.
+     */
+    private int changeCount;
+    private int preGenerationChangeCount;
+    private UpdatableSongSession preGeneratedSession;
+    private Future<?> preGenerationTask;
+    private final Timer timer;
+    private final ExecutorService executor;
+    private static final Logger LOGGER = Logger.getLogger(PlaybackSessionPreGenerator.class.getSimpleName());
+
+    public static PlaybackSessionPreGenerator getInstance()
+    {
+        synchronized (PlaybackSessionPreGenerator.class)
+        {
+            if (INSTANCE == null)
+            {
+                INSTANCE = new PlaybackSessionPreGenerator();
+            }
+        }
+        return INSTANCE;
+    }
+
+    private PlaybackSessionPreGenerator()
+    {
+        timer = new Timer(DEFAULT_DELAY_MS, e -> preGenerate());
+        timer.setRepeats(false);
+
+        executor = Executors.newSingleThreadExecutor(r ->
+        {
+            Thread t = new Thread(r, "PlaybackSessionPreGenerator");
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+
+        var asm = ActiveSongManager.getInstance();
+        asm.addPropertyListener(this);
+        MusicController.getInstance().addPropertyChangeListener(this);
+        PlaybackSettings.getInstance().addPropertyChangeListener(this);
+
+        activeSongChanged(asm.getActiveSong(), asm.getActiveMidiMix());
+    }
+
+    public boolean isEnabled()
+    {
+        return isEnabled;
+    }
+
+    /**
+     * Enable or disable the pre-generation.
+     * <p>
+     * When disabled the pre-generated session is discarded if it's not used by the MusicController.
+     *
+     * @param b
+     */
+    public void setEnabled(boolean b)
+    {
+        if (b == isEnabled)
+        {
+            return;
+        }
+        isEnabled = b;
+        if (isEnabled)
+        {
+            timer.restart();
+        } else
+        {
+            timer.stop();
+            discardPreGeneratedSession();
+        }
+    }
+
+    /**
+     * The delay without change of the active song before starting a pre-generation.
+     *
+     * @return
+     */
+    public int getDelayMs()
+    {
+        return timer.getInitialDelay();
+    }
+
+    /**
+     * @param delayMs Must be &gt;= 0
+     * @see #getDelayMs()
+     */
+    public void setDelayMs(int delayMs)
+    {
+        if (delayMs < 0)
+        {
+            throw new IllegalArgumentException("delayMs=" + delayMs);   //NOI18N
+        }
+        timer.setInitialDelay(delayMs);
+    }
+
+    /**
+     * Get the UpdatableSongSession/DynamicSongSession to play the specified context.
+     * <p>
+     * Same as UpdatableSongSession.getSession(DynamicSongSession.getSession(context)) except that if the pre-generation of the
+     * context session is in progress, wait for its completion with a progress dialog. The EDT is never blocked.
+     *
+     * @param context
+     * @return A session in the NEW or GENERATED state. If NEW, caller is responsible for generating it.
+     */
+    public UpdatableSongSession getSession(SongContext context)
+    {
+        if (context == null)
+        {
+            throw new NullPointerException("context");   //NOI18N
+        }
+        if (preGenerationTask != null && !preGenerationTask.isDone())
+        {
+            // Wait outside of the EDT, the progress dialog is only shown if it takes time
+            Future<?> task = preGenerationTask;
+            BaseProgressUtils.showProgressDialogAndRun(() -> waitCompletion(task), ResUtil.getString(getClass(), "PreparingMusic"));
+        }
+        preGenerationDone();
+        return UpdatableSongSession.getSession(DynamicSongSession.getSession(context));
+    }
+
+    // ----------------------------------------------------------------------------
+    // PropertyChangeListener interface
+    // ----------------------------------------------------------------------------
+    @Override
+    public void propertyChange(PropertyChangeEvent evt)
+    {
+        LOGGER.log(Level.FINE, "propertyChange() -- evt={0}", evt);   //NOI18N
+
+        if (evt.getSource() == ActiveSongManager.getInstance())
+        {
+            if (evt.getPropertyName().equals(ActiveSongManager.PROP_ACTIVE_SONG))
+            {
+                activeSongChanged((Song) evt.getNewValue(), (MidiMix) evt.getOldValue());
+            }
+        } else if (evt.getSource() == MusicController.getInstance())
+        {
+            if (evt.getPropertyName().equals(MusicController.PROP_STATE) && evt.getNewValue() == MusicController.State.STOPPED)
+            {
+                timer.restart();
+            }
+        } else if (evt.getSource() == song || evt.getSource() == midiMix)
+        {
+            if ((evt.getPropertyName().equals(Song.PROP_MODIFIED_OR_SAVED) || evt.getPropertyName().equals(MidiMix.PROP_MODIFIED_OR_SAVED))
+                    && evt.getNewValue() == Boolean.TRUE)
+            {
+                changed();
+            }
+        } else if (evt.getSource() == PlaybackSettings.getInstance())
+        {
+            changed();
+        }
+    }
+
+    // ----------------------------------------------------------------------------
+    // Private methods
+    // ----------------------------------------------------------------------------
+    private void activeSongChanged(Song sg, MidiMix mm)
+    {
+        if (song != null)
+        {
+            song.removePropertyChangeListener(this);
+            midiMix.removePropertyChangeListener(this);
+        }
+
+        discardPreGeneratedSession();
+
+        song = sg;
+        midiMix = sg == null ? null : mm;
+        if (song != null)
+        {
+            song.addPropertyChangeListener(this);
+            midiMix.addPropertyChangeListener(this);
+        }
+
+        changed();
+    }
+
+    private void changed()
+    {
+        changeCount++;
+        if (isEnabled)
+        {
+            timer.restart();
+        }
+    }
+
+    /**
+     * Start the background generation of the active song session if needed.
+     */
+    private void preGenerate()
+    {
+        MusicController mc = MusicController.getInstance();
+        if (!isEnabled || song == null || preGenerationTask != null || !mc.getState().equals(MusicController.State.STOPPED))
+        {
+            // If generation is in progress or MusicController not stopped, we'll be called again upon completion or stop
+            return;
+        }
+
+
+        SongContext context = new SongContext(song, midiMix);
+        UpdatableSongSession session = UpdatableSongSession.getSession(DynamicSongSession.getSession(context));
+        if (!session.getState().equals(PlaybackSession.State.NEW))
+        {
+            // A clean generated session already exists
+            return;
+        }
+
+
+        if (session != preGeneratedSession)
+        {
+            discardPreGeneratedSession();
+        }
+        preGeneratedSession = session;
+        preGenerationChangeCount = changeCount;
+
+
+        // Copy the context on the EDT, generate in the background
+        SongContext workContext = session.getBaseSession().getWorkContextCopy();
+        LOGGER.log(Level.FINE, "preGenerate() starting pre-generation for context={0}", context);   //NOI18N
+        Runnable r = () ->
+        {
+            try
+            {
+                session.generate(true, workContext);
+            } catch (MusicGenerationException ex)
+            {
+                // Session remains NEW, user will be notified when starting playback
+                LOGGER.log(Level.FINE, "preGenerate() pre-generation failed: {0}", ex.getMessage());   //NOI18N
+            }
+        };
+        FutureTask<?> task = new FutureTask<Void>(r, null)
+        {
+            @Override
+            protected void done()
+            {
+                // Called once the task is done, so that preGenerationDone() won't block
+                SwingUtilities.invokeLater(() -> preGenerationDone());
+            }
+        };
+        preGenerationTask = task;
+        executor.execute(task);
+    }
+
+    /**
+     * Process the completion of the pre-generation task, if any and if it is done.
+     * <p>
+     * The pre-generated session is discarded if generation failed or if there was a change since the context was copied.
+     */
+    private void preGenerationDone()
+    {
+        if (preGenerationTask == null || !preGenerationTask.isDone())
+        {
+            return;
+        }
+
+        waitCompletion(preGenerationTask);      // Does not block, task is done
+        preGenerationTask = null;
+
+
+        if (preGenerationChangeCount != changeCount || !preGeneratedSession.getState().equals(PlaybackSession.State.GENERATED))
+        {
+            LOGGER.log(Level.FINE, "preGenerationDone() discarding pre-generated session, changed={0}", preGenerationChangeCount != changeCount);   //NOI18N
+            boolean restart = preGenerationChangeCount != changeCount;
+            discardPreGeneratedSession();
+            if (restart && isEnabled)
+            {
+                timer.restart();
+            }
+        }
+    }
+
+    /**
+     * Wait for the completion of the specified task.
+     *
+     * @param task
+     */
+    private void waitCompletion(Future<?> task)
+    {
+        try
+        {
+            task.get();
+        } catch (InterruptedException | ExecutionException ex)
+        {
+            Exceptions.printStackTrace(ex);
+        }
+    }
+
+    /**
+     * Close the pre-generated session, unless it's used by the MusicController or its generation is in progress.
+     */
+    private void discardPreGeneratedSession()
+    {
+        if (preGeneratedSession == null || preGenerationTask != null)
+        {
+            // If in progress, changeCount was modified: session will be discarded upon completion
+            return;
+        }
+        if (MusicController.getInstance().getPlaybackSession() != preGeneratedSession)
+        {
+            preGeneratedSession.close();
+        }
+        preGeneratedSession = null;
+    }
+}
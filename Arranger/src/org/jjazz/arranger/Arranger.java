@@ -43,7 +43,9 @@ import org.jjazz.leadsheet.chordleadsheet.api.item.CLI_Factory;
 import org.jjazz.leadsheet.chordleadsheet.api.item.CLI_Section;
 import org.jjazz.leadsheet.chordleadsheet.api.item.ChordLeadSheetItem;
 import org.jjazz.leadsheet.chordleadsheet.api.item.ExtChordSymbol;
+import org.jjazz.midimix.api.MidiMix;
 import org.jjazz.musiccontrol.api.MusicController;
+import org.jjazz.musiccontrol.api.PlaybackSettings;
 import org.jjazz.musiccontrol.api.playbacksession.DynamicSongSession;
 import org.jjazz.musiccontrol.api.playbacksession.UpdatableSongSession;
 import org.jjazz.rhythm.api.AdaptedRhythm;
@@ -64,6 +66,9 @@ import org.openide.util.Exceptions;
  * Do the arranger thing for a specific song part.
  * <p>
  * Listen to RhythmParameter changes of that song part.
+ * <p>
+ * While playing, the common chord variants are pre-rendered in the background by a ChordVariantCache, so that most user chord
+ * changes are played without waiting for the music generation.
  */
 public class Arranger implements SgsChangeListener, PropertyChangeListener
 {
@@ -79,6 +84,8 @@ public class Arranger implements SgsChangeListener, PropertyChangeListener
     private SongContext songContextWork;
     private SongPart songPartWork;
     private CLI_ChordSymbol firstChordSymbol;
+    private DynamicSongSession dynamicSession;
+    private ChordVariantCache chordVariantCache;
     private boolean playing;
     private SwingPropertyChangeSupport pcs = new SwingPropertyChangeSupport(this);
     private static final Logger LOGGER = Logger.getLogger(Arranger.class.getSimpleName());  //NOI18N    
@@ -136,6 +143,7 @@ public class Arranger implements SgsChangeListener, PropertyChangeListener
         if (songContextWork != null)
         {
             songContextWork.getSong().setTempo(tempo);
+            refreshChordVariants();
         }
     }
 
@@ -166,6 +174,9 @@ public class Arranger implements SgsChangeListener, PropertyChangeListener
         dynSession.setPreUpdateBufferTimeMs(5);     // Each user chord change generates only 2 song changes (remove and add 1 CLI_ChordSymbol)
         dynSession.setPostUpdateSleepTimeMs(100);    // This allow user to change chord quickly
         dynSession.setUserErrorExceptionHandler(null);  // User execption may occur depending on timing, as we remove then add a chord symbol at section start
+        chordVariantCache = new ChordVariantCache();
+        dynSession.setPreRenderedPhrasesProvider(chordVariantCache);
+        dynamicSession = dynSession;
 
         var updatableSession = UpdatableSongSession.getSession(dynSession);
         mc.setPlaybackSession(updatableSession); // Will generate session is state==NEW. Can raise MusicGenerationException
@@ -175,6 +186,12 @@ public class Arranger implements SgsChangeListener, PropertyChangeListener
         mc.play(0);
 
 
+        // Pre-render the chord variants in the background, must be done again if something else than the chord changes
+        chordVariantCache.preRender(dynSession.getWorkContextCopy());
+        songContextRef.getMidiMix().addPropertyChangeListener(this);
+        PlaybackSettings.getInstance().addPropertyChangeListener(this);
+
+
         playing = true;
         pcs.firePropertyChange(PROP_PLAYING, false, true);
 
@@ -188,6 +205,14 @@ public class Arranger implements SgsChangeListener, PropertyChangeListener
             LOGGER.fine("stop()");
             playing = false;                // Must be before calling stop() below    
             MusicController.getInstance().stop();
+            songContextRef.getMidiMix().removePropertyChangeListener(this);
+            PlaybackSettings.getInstance().removePropertyChangeListener(this);
+            if (chordVariantCache != null)
+            {
+                chordVariantCache.shutdown();
+                chordVariantCache = null;
+            }
+            dynamicSession = null;
             pcs.firePropertyChange(PROP_PLAYING, true, false);
         }
     }
@@ -265,6 +290,7 @@ public class Arranger implements SgsChangeListener, PropertyChangeListener
             RpChangedEvent rpe = (RpChangedEvent) e;
             SongStructure sgs = songContextWork.getSong().getSongStructure();
             sgs.setRhythmParameterValue(songPartWork, (RhythmParameter) rpe.getRhytmParameter(), rpe.getNewValue());
+            refreshChordVariants();
         }
     }
 
@@ -294,6 +320,27 @@ public class Arranger implements SgsChangeListener, PropertyChangeListener
                         throw new AssertionError(state.name());
                 }
             }
+        } else if (evt.getSource() == songContextRef.getMidiMix())
+        {
+            switch (evt.getPropertyName())
+            {
+                case MidiMix.PROP_CHANNEL_DRUMS_REROUTED:
+                case MidiMix.PROP_DRUMS_INSTRUMENT_KEYMAP:
+                case MidiMix.PROP_INSTRUMENT_TRANSPOSITION:
+                case MidiMix.PROP_INSTRUMENT_VELOCITY_SHIFT:
+                    // These change the generated phrases
+                    refreshChordVariants();
+                    break;
+                default:
+                    // Nothing
+                    break;
+            }
+        } else if (evt.getSource() == PlaybackSettings.getInstance())
+        {
+            if (evt.getPropertyName().equals(PlaybackSettings.PROP_PLAYBACK_KEY_TRANSPOSITION))
+            {
+                refreshChordVariants();
+            }
         }
     }
 
@@ -445,6 +492,19 @@ public class Arranger implements SgsChangeListener, PropertyChangeListener
 
     }
 
+    /**
+     * Restart the chord variants pre-rendering with the current work context.
+     * <p>
+     * Do nothing if not playing.
+     */
+    private void refreshChordVariants()
+    {
+        if (chordVariantCache != null && dynamicSession != null)
+        {
+            chordVariantCache.preRender(dynamicSession.getWorkContextCopy());
+        }
+    }
+
     static private String toDumpString(ChordLeadSheet cls)
     {
         StringBuilder sb = new StringBuilder();
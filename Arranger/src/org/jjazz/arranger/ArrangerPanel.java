@@ -29,11 +29,6 @@ import java.beans.PropertyChangeListener;
 import java.beans.PropertyVetoException;
 import java.text.ParseException;
 import java.util.List;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.sound.midi.MidiMessage;
@@ -84,7 +79,6 @@ public class ArrangerPanel extends javax.swing.JPanel implements PropertyChangeL
     private final ChordSymbolFinder chordSymbolFinder;
     private Transmitter transmitterChordSymbolFinder;
     private ChordReceiver chordReceiver;
-    private final Future<?> chordSymbolFinderBuildFuture;
     private static final Logger LOGGER = Logger.getLogger(ArrangerPanel.class.getSimpleName());  //NOI18N  
 
     /**
@@ -106,7 +100,7 @@ public class ArrangerPanel extends javax.swing.JPanel implements PropertyChangeL
         spn_splitNote.setModel(new SpinnerListModel(notes));
 
         // Prepare the data
-        chordSymbolFinderBuildFuture = Executors.newSingleThreadExecutor().submit(() -> ChordSymbolFinder.buildStaticData());   // Can take a few seconds on slow computers
+        ChordSymbolFinder.buildStaticData();
         chordSymbolFinder = new ChordSymbolFinder(4);
     }
 
@@ -259,18 +253,6 @@ public class ArrangerPanel extends javax.swing.JPanel implements PropertyChangeL
     {
         LOGGER.log(Level.FINE, "togglePlayPause() --  isSelected()={0}", tbtn_playPause.isSelected());
 
-        try
-        {
-            // Wait in case ChordSymbolFinder.buildStaticData() is not yet complete
-            chordSymbolFinderBuildFuture.get(5, TimeUnit.SECONDS);
-        } catch (InterruptedException | ExecutionException | TimeoutException ex)
-        {
-            // Should never happen
-            Exceptions.printStackTrace(ex);
-            return;
-        }
-
-
         var jms = JJazzMidiSystem.getInstance();
         MusicController mc = MusicController.getInstance();
 
@@ -0,0 +1,328 @@
+/*
+ *  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ *  Copyright @2019 Jerome Lelasseux. All rights reserved.
+ *
+ *  This file is part of the JJazzLabX software.
+ *
+ *  JJazzLabX is free software: you can redistribute it and/or modify
+ *  it under the terms of the Lesser GNU General Public License (LGPLv3)
+ *  as published by the Free Software Foundation, either version 3 of the License,
+ *  or (at your option) any later version.
+ *
+ *  JJazzLabX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with JJazzLabX.  If not, see <https://www.gnu.org/licenses/>
+ *
+ *  Contributor(s):
+ */
+package org.jjazz.arranger;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.jjazz.harmony.api.ChordType;
+import org.jjazz.harmony.api.ChordTypeDatabase;
+import org.jjazz.harmony.api.Note;
+import org.jjazz.leadsheet.chordleadsheet.api.ChordLeadSheet;
+import org.jjazz.leadsheet.chordleadsheet.api.item.CLI_ChordSymbol;
+import org.jjazz.leadsheet.chordleadsheet.api.item.CLI_Factory;
+import org.jjazz.leadsheet.chordleadsheet.api.item.ExtChordSymbol;
+import org.jjazz.musiccontrol.api.playbacksession.DynamicSongSession;
+import org.jjazz.musiccontrol.api.playbacksession.UpdatableSongSession;
+import org.jjazz.phrase.api.PhraseSnapshot;
+import org.jjazz.rhythm.api.MusicGenerationException;
+import org.jjazz.rhythm.api.RhythmParameter;
+import org.jjazz.rhythm.api.RhythmVoice;
+import org.jjazz.rhythmmusicgeneration.api.SongSequenceBuilder;
+import org.jjazz.song.api.Song;
+import org.jjazz.song.api.SongFactory;
+import org.jjazz.songcontext.api.SongContext;
+import org.jjazz.songstructure.api.SongPart;
+
+/**
+ * Pre-render in the background the phrases of the arranger work context for the common chord variants.
+ * <p>
+ * The work context has only one chord symbol at the start of the arranger song part. For each root and each chord type of
+ * CHORD_TYPE_NAMES, the phrases are generated once with that chord symbol, so that a live chord change can be played without
+ * waiting for the music generation. Chord symbols with a bass note different from the root are not pre-rendered.
+ * <p>
+ * Pre-rendered phrases are valid only for the context used by preRender(): preRender() must be called again when the tempo, the
+ * rhythm parameters, the MidiMix or the playback transposition change. The context tempo and rhythm parameter values are also
+ * checked by getPhrases(), so that outdated phrases are never returned.
+ */
+public class ChordVariantCache implements DynamicSongSession.PreRenderedPhrasesProvider
+{
+
+    /**
+     * The pre-rendered chord types.
+     */
+    public static final String[] CHORD_TYPE_NAMES = new String[]
+    {
+        "", "m", "7", "M7", "m7", "m7b5", "dim7", "7sus", "6", "m6"
+    };
+    /**
+     * Pitch order used to pre-render the roots: by distance from the current root on the circle of fifths.
+     */
+    private static final int[] FIFTHS_ORDER = new int[]
+    {
+        0, 7, 5, 2, 10, 9, 3, 4, 8, 11, 1, 6
+    };
+    /**
+     * The phrases of the last preRender(), replaced at each preRender() or clear(): a running pre-rendering task stops when it
+     * changes, and it can only store phrases in its own Generation.
+     */
+    private volatile Generation generation;
+    private final AtomicInteger nbHits = new AtomicInteger();
+    private final AtomicInteger nbMisses = new AtomicInteger();
+    private final ExecutorService executor;
+    private static final Logger LOGGER = Logger.getLogger(ChordVariantCache.class.getSimpleName());  //NOI18N
+
+    public ChordVariantCache()
+    {
+        executor = Executors.newSingleThreadExecutor(r ->
+        {
+            Thread t = new Thread(r, "ChordVariantCache");
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);     // Don't compete with the live updates
+            return t;
+        });
+    }
+
+    /**
+     * Discard the cached phrases and start pre-rendering the chord variants of the specified context in the background.
+     * <p>
+     * A previous pre-rendering task is stopped.
+     *
+     * @param workContext A context copy which is not modified anymore, e.g. from DynamicSongSession.getWorkContextCopy(). Its
+     * first song part parent section must start with a chord symbol.
+     */
+    public void preRender(SongContext workContext)
+    {
+        checkNotNull(workContext);
+        Generation taskGeneration = new Generation(getSignature(workContext));
+        generation = taskGeneration;
+
+
+        executor.submit(() ->
+        {
+            long t0 = System.currentTimeMillis();
+            int nbVariants = 0;
+            CLI_ChordSymbol cliCs = getFirstChordSymbol(workContext);
+            if (cliCs == null)
+            {
+                return;
+            }
+            int rootPitch = cliCs.getData().getRootNote().getRelativePitch();
+            for (int fifth : FIFTHS_ORDER)
+            {
+                int root = (rootPitch + fifth) % 12;
+                for (String ctName : CHORD_TYPE_NAMES)
+                {
+                    if (generation != taskGeneration)
+                    {
+                        LOGGER.log(Level.FINE, "preRender() task cancelled after {0} variants", nbVariants);   //NOI18N
+                        return;
+                    }
+                    var mapRvSnapshot = render(workContext, cliCs, root, ctName);
+                    if (mapRvSnapshot != null)
+                    {
+                        // If generation has changed meanwhile, taskGeneration is not used anymore
+                        taskGeneration.cache.put(getKey(root, ctName), mapRvSnapshot);
+                        nbVariants++;
+                    }
+                }
+            }
+            LOGGER.log(Level.FINE, "preRender() {0} variants pre-rendered in {1}ms", new Object[]   //NOI18N
+            {
+                nbVariants, System.currentTimeMillis() - t0
+            });
+        });
+    }
+
+    /**
+     * Discard the cached phrases and stop the pre-rendering task.
+     */
+    public void clear()
+    {
+        generation = null;
+    }
+
+    /**
+     * Clear the cache and release the pre-rendering thread.
+     * <p>
+     * The cache can't be used anymore.
+     */
+    public void shutdown()
+    {
+        clear();
+        executor.shutdownNow();
+        LOGGER.log(Level.FINE, "shutdown() nbHits={0} nbMisses={1}", new Object[]   //NOI18N
+        {
+            nbHits.get(), nbMisses.get()
+        });
+    }
+
+    /**
+     * @return The number of pre-rendered chord variants currently available.
+     */
+    public int getSize()
+    {
+        Generation g = generation;
+        return g == null ? 0 : g.cache.size();
+    }
+
+    public int getNbHits()
+    {
+        return nbHits.get();
+    }
+
+    public int getNbMisses()
+    {
+        return nbMisses.get();
+    }
+
+    // =========================================================================================
+    // DynamicSongSession.PreRenderedPhrasesProvider interface
+    // =========================================================================================
+    @Override
+    public Map<RhythmVoice, PhraseSnapshot> getPhrases(SongContext workContext)
+    {
+        Map<RhythmVoice, PhraseSnapshot> res = null;
+        Generation g = generation;
+        CLI_ChordSymbol cliCs = getFirstChordSymbol(workContext);
+
+        if (g != null && cliCs != null && g.contextSignature.equals(getSignature(workContext)))
+        {
+            ExtChordSymbol ecs = cliCs.getData();
+            int root = ecs.getRootNote().getRelativePitch();
+            if (root == ecs.getBassNote().getRelativePitch())
+            {
+                res = g.cache.get(getKey(root, ecs.getChordType().getName()));
+            }
+        }
+
+        if (res != null)
+        {
+            nbHits.incrementAndGet();
+        } else
+        {
+            nbMisses.incrementAndGet();
+        }
+        LOGGER.log(Level.FINE, "getPhrases() cliCs={0} hit={1}", new Object[]   //NOI18N
+        {
+            cliCs, res != null
+        });
+        return res;
+    }
+
+    // =========================================================================================
+    // Private methods
+    // =========================================================================================
+
+    /**
+     * Generate the phrases of a copy of workContext where the first chord symbol is replaced.
+     *
+     * @return Null if generation failed
+     */
+    private Map<RhythmVoice, PhraseSnapshot> render(SongContext workContext, CLI_ChordSymbol cliCs, int root, String ctName)
+    {
+        ChordType ct = ChordTypeDatabase.getInstance().getChordType(ctName);
+        if (ct == null)
+        {
+            LOGGER.log(Level.WARNING, "render() Unknown chord type ctName={0}", ctName);   //NOI18N
+            return null;
+        }
+
+        Song song = SongFactory.getInstance().getCopy(workContext.getSong(), false);
+        ChordLeadSheet cls = song.getChordLeadSheet();
+        CLI_ChordSymbol oldCliCs = getFirstChordSymbol(new SongContext(song, workContext.getMidiMix(), workContext.getBarRange()));
+        var oldEcs = cliCs.getData();
+        var newEcs = new ExtChordSymbol(new Note(root), new Note(root), ct, oldEcs.getRenderingInfo(), oldEcs.getAlternateChordSymbol(),
+                oldEcs.getAlternateFilter());
+        cls.removeItem(oldCliCs);
+        cls.addItem(CLI_Factory.getDefault().createChordSymbol(cls, newEcs, oldCliCs.getPosition()));
+
+
+        SongContext context = new SongContext(song, workContext.getMidiMix(), workContext.getBarRange());
+        try
+        {
+            return UpdatableSongSession.toSnapshotMap(new SongSequenceBuilder(context).buildMapRvPhrase(true));
+        } catch (MusicGenerationException ex)
+        {
+            // Just skip this variant, it will be generated by the session if ever used
+            LOGGER.log(Level.FINE, "render() root={0} ctName={1} ex={2}", new Object[]   //NOI18N
+            {
+                root, ctName, ex.getMessage()
+            });
+            return null;
+        }
+    }
+
+    /**
+     * The first chord symbol of the parent section of the first context song part.
+     *
+     * @return Can be null
+     */
+    static private CLI_ChordSymbol getFirstChordSymbol(SongContext context)
+    {
+        SongPart spt = context.getSongParts().get(0);
+        List<? extends CLI_ChordSymbol> items = context.getSong().getChordLeadSheet().getItems(spt.getParentSection(), CLI_ChordSymbol.class);
+        return items.isEmpty() ? null : items.get(0);
+    }
+
+    /**
+     * A string which changes if the context tempo, song parts or rhythm parameter values change.
+     */
+    static private String getSignature(SongContext context)
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append(context.getSong().getTempo());
+        for (SongPart spt : context.getSongParts())
+        {
+            sb.append('|').append(spt.getRhythm().getUniqueId()).append(':').append(spt.getStartBarIndex()).append(':').append(spt.getNbBars());
+            for (RhythmParameter<?> rp : spt.getRhythm().getRhythmParameters())
+            {
+                sb.append(':').append(spt.getRPValue(rp));
+            }
+        }
+        return sb.toString();
+    }
+
+    static private String getKey(int root, String ctName)
+    {
+        return root + "_" + ctName;
+    }
+
+    // =========================================================================================
+    // Inner classes
+    // =========================================================================================
+    /**
+     * The phrases pre-rendered for one context.
+     */
+    static private class Generation
+    {
+
+        /**
+         * The signature of the context used by preRender().
+         */
+        private final String contextSignature;
+        private final Map<String, Map<RhythmVoice, PhraseSnapshot>> cache = new ConcurrentHashMap<>();
+
+        private Generation(String contextSignature)
+        {
+            this.contextSignature = contextSignature;
+        }
+    }
+
+}
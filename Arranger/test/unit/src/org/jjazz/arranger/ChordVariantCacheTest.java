@@ -0,0 +1,245 @@
+/*
+ *  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ * 
+ *  Copyright @2019 Jerome Lelasseux. All rights reserved.
+ *
+ *  This file is part of the JJazzLabX software.
+ *   
+ *  JJazzLabX is free software: you can redistribute it and/or modify
+ *  it under the terms of the Lesser GNU General Public License (LGPLv3) 
+ *  as published by the Free Software Foundation, either version 3 of the License, 
+ *  or (at your option) any later version.
+ *
+ *  JJazzLabX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the 
+ *  GNU Lesser General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with JJazzLabX.  If not, see <https://www.gnu.org/licenses/>
+ * 
+ *  Contributor(s): 
+ */
+package org.jjazz.arranger;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.jjazz.harmony.api.ChordType;
+import org.jjazz.harmony.api.ChordTypeDatabase;
+import org.jjazz.harmony.api.Note;
+import org.jjazz.harmony.api.TimeSignature;
+import org.jjazz.leadsheet.chordleadsheet.api.ChordLeadSheet;
+import org.jjazz.leadsheet.chordleadsheet.api.ChordLeadSheetFactory;
+import org.jjazz.leadsheet.chordleadsheet.api.item.CLI_ChordSymbol;
+import org.jjazz.leadsheet.chordleadsheet.api.item.ExtChordSymbol;
+import org.jjazz.midi.api.InstrumentMix;
+import org.jjazz.midi.api.InstrumentSettings;
+import org.jjazz.midimix.api.MidiMix;
+import org.jjazz.musiccontrol.api.playbacksession.UpdatableSongSession;
+import org.jjazz.phrase.api.PhraseSnapshot;
+import org.jjazz.rhythm.api.Rhythm;
+import org.jjazz.rhythm.api.RhythmVoice;
+import org.jjazz.rhythm.api.rhythmparameters.RP_STD_Variation;
+import org.jjazz.rhythm.database.api.RhythmDatabase;
+import org.jjazz.rhythmmusicgeneration.api.SongSequenceBuilder;
+import org.jjazz.song.api.Song;
+import org.jjazz.song.api.SongFactory;
+import org.jjazz.songcontext.api.SongContext;
+import org.jjazz.songstructure.api.SongPart;
+import org.jjazz.songstructure.api.SongStructure;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Check the ChordVariantCache pre-rendered phrases on a stub rhythm work context.
+ */
+public class ChordVariantCacheTest
+{
+
+    private static final String STUB_RHYTHM_ID = "RhythmStubID-4/4";
+    private static final long PRE_RENDER_TIMEOUT_MS = 30000;
+    private Random random;
+    private Song song;
+    private MidiMix midiMix;
+    private ChordVariantCache cache;
+
+    public ChordVariantCacheTest()
+    {
+    }
+
+    @BeforeClass
+    public static void setUpClass()
+    {
+        RhythmDatabase.getUnitTestDefault();
+    }
+
+    @Before
+    public void setUp() throws Exception
+    {
+        random = new Random(86420L);
+        song = createSong();
+        midiMix = createMidiMix(song);
+        cache = new ChordVariantCache();
+        preRender(new SongContext(SongFactory.getInstance().getCopy(song, false), midiMix));
+    }
+
+    @After
+    public void tearDown()
+    {
+        cache.shutdown();
+        song.close(false);
+    }
+
+    @Test
+    public void testHit() throws Exception
+    {
+        System.out.println("=== testHit()");
+        int nbHits = cache.getNbHits();
+        for (int i = 0; i < 30; i++)
+        {
+            int root = random.nextInt(12);
+            String ctName = ChordVariantCache.CHORD_TYPE_NAMES[random.nextInt(ChordVariantCache.CHORD_TYPE_NAMES.length)];
+            ChordType ct = ChordTypeDatabase.getInstance().getChordType(ctName);
+            SongContext workContext = getWorkContext(new ExtChordSymbol(new Note(root), ct));
+
+            var mapRvSnapshots = cache.getPhrases(workContext);
+            assertNotNull("root=" + root + " ctName=" + ctName, mapRvSnapshots);
+            assertEquals("root=" + root + " ctName=" + ctName, buildMapRvSnapshot(workContext), mapRvSnapshots);
+            assertEquals(nbHits + i + 1, cache.getNbHits());
+        }
+    }
+
+    @Test
+    public void testMissSlashChord() throws Exception
+    {
+        System.out.println("=== testMissSlashChord()");
+        assertMiss(getWorkContext(new ExtChordSymbol("C7/E")));
+        assertMiss(getWorkContext(new ExtChordSymbol("Dm/C")));
+
+
+        // Same chords without the bass note are pre-rendered
+        assertNotNull(cache.getPhrases(getWorkContext(new ExtChordSymbol("C7"))));
+        assertNotNull(cache.getPhrases(getWorkContext(new ExtChordSymbol("Dm"))));
+    }
+
+    @Test
+    public void testMissChordTypeNotPreRendered() throws Exception
+    {
+        System.out.println("=== testMissChordTypeNotPreRendered()");
+        assertMiss(getWorkContext(new ExtChordSymbol("C13b9")));
+    }
+
+    @Test
+    public void testMissTempoChange() throws Exception
+    {
+        System.out.println("=== testMissTempoChange()");
+        SongContext workContext = getWorkContext(new ExtChordSymbol("F7"));
+        assertNotNull(cache.getPhrases(workContext));
+        workContext.getSong().setTempo(song.getTempo() + 10);
+        assertMiss(workContext);
+    }
+
+    @Test
+    public void testMissRpChange() throws Exception
+    {
+        System.out.println("=== testMissRpChange()");
+        SongContext workContext = getWorkContext(new ExtChordSymbol("Ebm7"));
+        assertNotNull(cache.getPhrases(workContext));
+
+        SongStructure sgs = workContext.getSong().getSongStructure();
+        SongPart spt = sgs.getSongParts().get(0);
+        RP_STD_Variation rp = RP_STD_Variation.getVariationRp(spt.getRhythm());
+        String value = rp.getNextValue(spt.getRPValue(rp));
+        assertNotEquals(spt.getRPValue(rp), value);
+        sgs.setRhythmParameterValue(spt, rp, value);
+        assertMiss(workContext);
+    }
+
+    @Test
+    public void testMissAfterClear() throws Exception
+    {
+        System.out.println("=== testMissAfterClear()");
+        SongContext workContext = getWorkContext(new ExtChordSymbol("Bb6"));
+        assertNotNull(cache.getPhrases(workContext));
+        cache.clear();
+        assertEquals(0, cache.getSize());
+        assertMiss(workContext);
+
+
+        // Available again after a new pre-rendering
+        preRender(new SongContext(SongFactory.getInstance().getCopy(song, false), midiMix));
+        assertEquals(buildMapRvSnapshot(workContext), cache.getPhrases(workContext));
+    }
+
+    // =================================================================================================
+    // Private methods
+    // =================================================================================================
+    /**
+     * A one-section song which uses the stub rhythm, which starts with a C chord symbol.
+     */
+    private Song createSong() throws Exception
+    {
+        ChordLeadSheet cls = ChordLeadSheetFactory.getDefault().createEmptyLeadSheet("A", TimeSignature.FOUR_FOUR, 4, true);
+        Song res = SongFactory.getInstance().createSong("ChordVariantCacheTest", cls);
+        SongStructure sgs = res.getSongStructure();
+        Rhythm r = RhythmDatabase.getUnitTestDefault().getRhythmInstance(STUB_RHYTHM_ID);
+        SongPart spt = sgs.getSongParts().get(0);
+        SongPart newSpt = sgs.createSongPart(r, spt.getName(), spt.getStartBarIndex(), spt.getNbBars(), spt.getParentSection(), false);
+        sgs.replaceSongParts(List.of(spt), List.of(newSpt));
+        return res;
+    }
+
+    private MidiMix createMidiMix(Song sg)
+    {
+        MidiMix res = new MidiMix(sg);
+        for (RhythmVoice rv : sg.getSongStructure().getUniqueRhythmVoices(true))
+        {
+            res.setInstrumentMix(rv.getPreferredChannel(), rv, new InstrumentMix(rv.getPreferredInstrument(), new InstrumentSettings()));
+        }
+        return res;
+    }
+
+    /**
+     * Pre-render the chord variants of workContext and wait until all of them are available.
+     */
+    private void preRender(SongContext workContext) throws InterruptedException
+    {
+        int nbVariants = 12 * ChordVariantCache.CHORD_TYPE_NAMES.length;
+        cache.preRender(workContext);
+        long t0 = System.currentTimeMillis();
+        while (cache.getSize() < nbVariants)
+        {
+            assertTrue("size=" + cache.getSize(), System.currentTimeMillis() - t0 < PRE_RENDER_TIMEOUT_MS);
+            Thread.sleep(10);
+        }
+        assertEquals(nbVariants, cache.getSize());
+    }
+
+    /**
+     * A work context copy of song whose first chord symbol is replaced by ecs.
+     */
+    private SongContext getWorkContext(ExtChordSymbol ecs)
+    {
+        Song workSong = SongFactory.getInstance().getCopy(song, false);
+        ChordLeadSheet cls = workSong.getChordLeadSheet();
+        CLI_ChordSymbol cliCs = cls.getItems(CLI_ChordSymbol.class).get(0);
+        cls.changeItem(cliCs, ecs);
+        return new SongContext(workSong, midiMix);
+    }
+
+    private Map<RhythmVoice, PhraseSnapshot> buildMapRvSnapshot(SongContext workContext) throws Exception
+    {
+        return UpdatableSongSession.toSnapshotMap(new SongSequenceBuilder(workContext).buildMapRvPhrase(true));
+    }
+
+    private void assertMiss(SongContext workContext)
+    {
+        int nbMisses = cache.getNbMisses();
+        assertNull(cache.getPhrases(workContext));
+        assertEquals(nbMisses + 1, cache.getNbMisses());
+    }
+}
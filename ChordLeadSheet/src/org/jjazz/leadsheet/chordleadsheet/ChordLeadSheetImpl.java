@@ -198,15 +198,7 @@ public class ChordLeadSheetImpl implements ChordLeadSheet, Serializable
     @SuppressWarnings("unchecked")
     public <T> List<? extends T> getItems(Class<T> aClass)
     {
-        List<T> result = new ArrayList<>();
-        for (ChordLeadSheetItem<?> item : items)
-        {
-            if (aClass == null || aClass.isAssignableFrom(item.getClass()))
-            {
-                result.add((T) item);
-            }
-        }
-        return result;
+        return new ArrayList<>((List<? extends T>) items.getTypedView(aClass));
     }
 
     @Override
@@ -218,20 +210,20 @@ public class ChordLeadSheetImpl implements ChordLeadSheet, Serializable
                     "barFrom=" + barFrom + " barTo=" + barTo + " aClass=" + aClass);
         }
         T res = null;
-        for (int i = items.size() - 1; i >= 0; i--)
+        for (int i = items.getBarStartIndex(barTo + 1) - 1; i >= 0; i--)
         {
             var item = items.get(i);
             int barIndex = item.getPosition().getBar();
 
 
-            if (barIndex > barTo || (aClass != null && !aClass.isAssignableFrom(item.getClass())))
+            if (barIndex < barFrom)
             {
-                continue;
+                break;
             }
 
-            if (barIndex < barFrom)
+            if (aClass != null && !aClass.isAssignableFrom(item.getClass()))
             {
-                break;
+                continue;
             }
 
             res = (T) item;
@@ -244,31 +236,21 @@ public class ChordLeadSheetImpl implements ChordLeadSheet, Serializable
     @Override
     public <T> ChordLeadSheetItem<T> getNextItem(ChordLeadSheetItem<T> item)
     {
-        ChordLeadSheetItem<T> res = null;
-        boolean takeNext = false;
-        boolean itemFound = false;
+        int index = items.indexOf(item);
+        if (index == -1)
+        {
+            throw new IllegalArgumentException("Item not found: " + item);
+        }
 
-        for (int i = 0; i < items.size(); i++)
+        ChordLeadSheetItem<T> res = null;
+        for (int i = index + 1; i < items.size(); i++)
         {
             var it = items.get(i);
-
-            if (takeNext && item.getClass().isAssignableFrom(it.getClass()))
+            if (item.getClass().isAssignableFrom(it.getClass()))
             {
                 res = (ChordLeadSheetItem<T>) it;
                 break;
             }
-
-            if (it == item)
-            {
-                takeNext = true;
-                itemFound = true;
-            }
-
-        }
-
-        if (!itemFound)
-        {
-            throw new IllegalArgumentException("Item not found: " + item);
         }
 
         return res;
@@ -277,38 +259,27 @@ public class ChordLeadSheetImpl implements ChordLeadSheet, Serializable
     @Override
     public <T> ChordLeadSheetItem<T> getPreviousItem(ChordLeadSheetItem<T> item)
     {
-        ChordLeadSheetItem<T> res = null;
-        boolean takeNext = false;
-        boolean itemFound = false;
+        int index = items.indexOf(item);
+        if (index == -1)
+        {
+            throw new IllegalArgumentException("Item not found: " + item);
+        }
 
-        for (int i = items.size() - 1; i >= 0; i--)
+        ChordLeadSheetItem<T> res = null;
+        for (int i = index - 1; i >= 0; i--)
         {
             var it = items.get(i);
-
-            if (takeNext && item.getClass().isAssignableFrom(it.getClass()))
+            if (item.getClass().isAssignableFrom(it.getClass()))
             {
                 res = (ChordLeadSheetItem<T>) it;
                 break;
             }
-
-            if (it == item)
-            {
-                takeNext = true;
-                itemFound = true;
-            }
-
-        }
-
-        if (!itemFound)
-        {
-            throw new IllegalArgumentException("Item not found: " + item);
         }
 
         return res;
     }
 
     @Override
-    @SuppressWarnings("unchecked")
     public <T> List<? extends T> getItems(int barFrom, int barTo, Class<T> aClass)
     {
         if (barFrom < 0 || barTo < barFrom || barTo >= getSizeInBars())
@@ -317,50 +288,45 @@ public class ChordLeadSheetImpl implements ChordLeadSheet, Serializable
                     "barFrom=" + barFrom + " barTo=" + barTo + " aClass=" + aClass);
         }
 
-        List<T> result = new ArrayList<>();
-        for (ChordLeadSheetItem<?> item : items)
+        return new ArrayList<>(items.getItemsView(barFrom, barTo, aClass));
+    }
+
+    @Override
+    public <T> List<? extends T> getItems(CLI_Section cliSection, Class<T> aClass)
+    {
+        return new ArrayList<>(getItemsView(cliSection, aClass));
+    }
+
+    @Override
+    public <T> List<? extends T> getItemsView(int barFrom, int barTo, Class<T> aClass)
+    {
+        if (barFrom < 0 || barTo < barFrom || barTo >= getSizeInBars())
         {
-            int barIndex = item.getPosition().getBar();
-            if (barIndex >= barFrom && barIndex <= barTo && (aClass == null || aClass.isAssignableFrom(item.getClass())))
-            {
-                result.add((T) item);
-            } else if (barIndex > barTo)
-            {
-                break;
-            }
+            throw new IllegalArgumentException( //NOI18N
+                    "barFrom=" + barFrom + " barTo=" + barTo + " aClass=" + aClass);
         }
-        return result;
+        return items.getItemsView(barFrom, barTo, aClass);
     }
 
     @Override
-    @SuppressWarnings("unchecked")
-    public <T> List<? extends T> getItems(CLI_Section cliSection, Class<T> aClass)
+    public <T> List<? extends T> getItemsView(CLI_Section cliSection, Class<T> aClass)
     {
         if (cliSection == null)
         {
             throw new IllegalArgumentException("cliSection=" + cliSection + " aClass=" + aClass);   //NOI18N
         }
-        List<T> result = new ArrayList<>();
-        int index = items.indexOf(cliSection);
-        if (index == -1)
+        if (items.indexOf(cliSection) == -1)
         {
             throw new IllegalArgumentException("cliSection=" + cliSection + " aClass=" + aClass + " items=" + items);   //NOI18N
         }
-        index++;
-        while (index < items.size())
+        IntRange barRange = getBarRange(cliSection);
+        List<? extends T> res = items.getItemsView(barRange.from, barRange.to, aClass);
+        if (!res.isEmpty() && res.get(0) == cliSection)
         {
-            ChordLeadSheetItem<?> item = items.get(index);
-            if (item instanceof CLI_Section)
-            {
-                break;
-            }
-            if (aClass == null || aClass.isAssignableFrom(item.getClass()))
-            {
-                result.add((T) item);
-            }
-            index++;
+            // Section is always the first item of its bar
+            res = res.subList(1, res.size());
         }
-        return result;
+        return res;
     }
 
     @Override
@@ -370,20 +336,9 @@ public class ChordLeadSheetImpl implements ChordLeadSheet, Serializable
         {
             throw new IllegalArgumentException("barIndex=" + barIndex);   //NOI18N
         }
-        CLI_Section lastSection = (CLI_Section) items.get(0);       // The initial block
-        for (int i = 1; i < items.size(); i++)
-        {
-            ChordLeadSheetItem<?> item = items.get(i);
-            if (item.getPosition().getBar() > barIndex)
-            {
-                break;
-            }
-            if (item instanceof CLI_Section)
-            {
-                lastSection = (CLI_Section) item;
-            }
-        }
-        return lastSection;
+        CLI_Section section = items.getSection(barIndex);
+        assert section != null : "barIndex=" + barIndex + " items=" + items;   //NOI18N
+        return section;
     }
 
     @Override
@@ -393,15 +348,11 @@ public class ChordLeadSheetImpl implements ChordLeadSheet, Serializable
         {
             throw new NullPointerException("sectionName=" + sectionName);   //NOI18N
         }
-        for (ChordLeadSheetItem<?> item : items)
+        for (CLI_Section cliSection : items.getSections())
         {
-            if (item instanceof CLI_Section)
+            if (cliSection.getData().getName().equals(sectionName))
             {
-                CLI_Section cliSection = (CLI_Section) item;
-                if (cliSection.getData().getName().equals(sectionName))
-                {
-                    return cliSection;
-                }
+                return cliSection;
             }
         }
         return null;
@@ -421,17 +372,8 @@ public class ChordLeadSheetImpl implements ChordLeadSheet, Serializable
             throw new IllegalArgumentException("cliSection=" + cliSection);   //NOI18N
         }
 
-        index++;
-        while (index < items.size())
-        {
-            ChordLeadSheetItem<?> item = items.get(index);
-            if (item instanceof CLI_Section)
-            {
-                return new IntRange(startBar, item.getPosition().getBar() - 1);
-            }
-            index++;
-        }
-        return new IntRange(startBar, getSizeInBars() - 1);
+        CLI_Section nextSection = items.getNextSection(index);
+        return new IntRange(startBar, nextSection == null ? getSizeInBars() - 1 : nextSection.getPosition().getBar() - 1);
     }
 
     @Override
@@ -864,8 +806,8 @@ public class ChordLeadSheetImpl implements ChordLeadSheet, Serializable
 
         // OK move is safe, change is safe
         final WritableItem<Section> wSection = (WritableItem<Section>) cliSection;
-        wSection.setPosition(new Position(newBarIndex, 0));
         items.remove(wSection);
+        wSection.setPosition(new Position(newBarIndex, 0));
         items.insertOrdered(wSection);
 
         // Section items adjusting must be done BEFORE firing the moved section undoable event
@@ -884,8 +826,8 @@ public class ChordLeadSheetImpl implements ChordLeadSheet, Serializable
             public void undoBody()
             {
                 LOGGER.finer("moveSection.undoBody() cliSection=" + cliSection + " newBarIndex=" + newBarIndex);   //NOI18N
-                wSection.setPosition(new Position(oldBarIndex, 0));
                 items.remove(wSection);
+                wSection.setPosition(new Position(oldBarIndex, 0));
                 items.insertOrdered(wSection);
                 fireAuthorizedChangeEvent(new SectionMovedEvent(ChordLeadSheetImpl.this, cliSection, newBarIndex, oldBarIndex));
             }
@@ -894,8 +836,8 @@ public class ChordLeadSheetImpl implements ChordLeadSheet, Serializable
             public void redoBody()
             {
                 LOGGER.finer("moveSection.redoBody() cliSection=" + cliSection + " newBarIndex=" + newBarIndex);   //NOI18N
-                wSection.setPosition(new Position(newBarIndex, 0));
                 items.remove(wSection);
+                wSection.setPosition(new Position(newBarIndex, 0));
                 items.insertOrdered(wSection);
                 fireAuthorizedChangeEvent(new SectionMovedEvent(ChordLeadSheetImpl.this, cliSection, oldBarIndex, newBarIndex));
             }
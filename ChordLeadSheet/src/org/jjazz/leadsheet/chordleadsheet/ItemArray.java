@@ -23,18 +23,46 @@
 package org.jjazz.leadsheet.chordleadsheet;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import org.jjazz.leadsheet.chordleadsheet.api.item.CLI_Section;
 import org.jjazz.leadsheet.chordleadsheet.api.item.ChordLeadSheetItem;
 
 /**
  * A special array with additional methods to deal with ChordLeadSheetItems and CLI_Sections.
  * <p>
  * Items are stored ordered by position. We guarantee that CLI_Section is always the first item for a bar.
- *
+ * <p>
+ * Bar-based lookups use a per-bar offset table (index of the first item of each bar) and a table of the section indexes. Item
+ * positions can be changed in place by the ChordLeadSheet, so the bar offset table is checked before each use and rebuilt if it
+ * is not valid anymore. The section table is rebuilt after each structural change of the array.
+ * <p>
+ * Per-class views (e.g. only the chord symbols) are also maintained so that typed queries don't need to filter all the items.
+ * They are built on demand and discarded after each structural change of the array.
+ * <p>
+ * The leadsheet can be read by several threads (e.g. music generation), so the caches are read and rebuilt while holding the
+ * array lock.
  */
 public class ItemArray extends ArrayList<ChordLeadSheetItem<?>>
 {
 
+    /**
+     * barOffsets[bar] = index of the first item whose bar is &gt;= bar.
+     */
+    private int[] barOffsets = new int[0];
+    /**
+     * The indexes of the CLI_Sections.
+     */
+    private int[] sectionIndexes = new int[0];
+    private int sectionIndexesModCount = -1;
+    /**
+     * The items of a given class, ordered by position.
+     */
+    private final HashMap<Class<?>, List<ChordLeadSheetItem<?>>> typedViews = new HashMap<>();
+    private int typedViewsModCount = -1;
+
     /**
      * Insert an item at the appropriate position.
      * <p>
@@ -45,22 +73,19 @@ public class ItemArray extends ArrayList<ChordLeadSheetItem<?>>
      */
     public int insertOrdered(ChordLeadSheetItem<?> item)
     {
-        int i;
-        for (i = 0; i < size(); i++)
+        int bar = item.getPosition().getBar();
+        int i = getBarStartIndex(bar);
+        while (i < size())
         {
             ChordLeadSheetItem<?> cli = get(i);
             int compare = item.getPosition().compareTo(cli.getPosition());
             if (compare < 0 || (compare == 0 && item.isBarSingleItem()))
             {
-                add(i, item);
                 break;
             }
+            i++;
         }
-        if (i == size())
-        {
-            // insert at the end
-            add(item);
-        }
+        add(i, item);
         return i;
     }
 
@@ -72,16 +97,197 @@ public class ItemArray extends ArrayList<ChordLeadSheetItem<?>>
      */
     public int getItemIndex(int fromBarIndex)
     {
-        int index = 0;
-        for (ChordLeadSheetItem<?> item : this)
+        int index = getBarStartIndex(fromBarIndex);
+        return index == size() ? -1 : index;
+    }
+
+    /**
+     * The index of the first item found at barIndex or after barIndex.
+     *
+     * @param barIndex
+     * @return size() if no item found from barIndex
+     */
+    public synchronized int getBarStartIndex(int barIndex)
+    {
+        if (barIndex <= 0)
+        {
+            return 0;
+        }
+        int index = barIndex < barOffsets.length ? barOffsets[barIndex] : size();
+        if (!isBarStartIndex(index, barIndex))
+        {
+            rebuildBarOffsets();
+            index = barIndex < barOffsets.length ? barOffsets[barIndex] : size();
+        }
+        return index;
+    }
+
+    /**
+     * Get the section which contains barIndex.
+     * <p>
+     * The first item is always considered as the initial section, even if it was moved after barIndex (e.g. while bars are
+     * inserted at bar 0).
+     *
+     * @param barIndex
+     * @return Null if array is empty
+     */
+    public CLI_Section getSection(int barIndex)
+    {
+        if (isEmpty())
         {
-            if (item.getPosition().getBar() >= fromBarIndex)
+            return null;
+        }
+        int[] sIndexes = getSectionIndexes();
+
+        // Binary search of the last section after the initial section starting at or before barIndex
+        int low = 0;
+        int high = sIndexes.length - 1;
+        int res = -1;
+        if (high >= 0 && sIndexes[0] == 0)
+        {
+            res = 0;
+            low = 1;
+        }
+        while (low <= high)
+        {
+            int mid = (low + high) >>> 1;
+            if (get(sIndexes[mid]).getPosition().getBar() <= barIndex)
+            {
+                res = mid;
+                low = mid + 1;
+            } else
+            {
+                high = mid - 1;
+            }
+        }
+        return res == -1 ? (CLI_Section) get(0) : (CLI_Section) get(sIndexes[res]);
+    }
+
+    /**
+     * Get the first section after the specified item index.
+     *
+     * @param index
+     * @return Null if no section found
+     */
+    public CLI_Section getNextSection(int index)
+    {
+        for (int sIndex : getSectionIndexes())
+        {
+            if (sIndex > index)
             {
-                return index;
+                return (CLI_Section) get(sIndex);
             }
-            index++;
         }
-        return -1;
+        return null;
+    }
+
+    /**
+     * @return The sections ordered by position.
+     */
+    public List<CLI_Section> getSections()
+    {
+        int[] sIndexes = getSectionIndexes();
+        List<CLI_Section> res = new ArrayList<>(sIndexes.length);
+        for (int sIndex : sIndexes)
+        {
+            res.add((CLI_Section) get(sIndex));
+        }
+        return res;
+    }
+
+    /**
+     * The items which are instance of aClass, ordered by position.
+     *
+     * @param aClass If null or ChordLeadSheetItem.class, all items are returned.
+     * @return An unmodifiable list. It does not reflect the changes made to this array after this call.
+     */
+    public synchronized List<ChordLeadSheetItem<?>> getTypedView(Class<?> aClass)
+    {
+        if (typedViewsModCount != modCount)
+        {
+            typedViews.clear();
+            typedViewsModCount = modCount;
+        }
+        Class<?> key = aClass == null ? ChordLeadSheetItem.class : aClass;
+        List<ChordLeadSheetItem<?>> res = typedViews.get(key);
+        if (res == null)
+        {
+            ArrayList<ChordLeadSheetItem<?>> view = new ArrayList<>();
+            for (ChordLeadSheetItem<?> item : this)
+            {
+                if (key.isAssignableFrom(item.getClass()))
+                {
+                    view.add(item);
+                }
+            }
+            view.trimToSize();
+            res = Collections.unmodifiableList(view);
+            typedViews.put(key, res);
+        }
+        return res;
+    }
+
+    /**
+     * The items which are instance of aClass in the specified bar range, ordered by position.
+     * <p>
+     * No copy is made: the returned list is a range of the typed view.
+     *
+     * @param <T>
+     * @param barFrom
+     * @param barTo
+     * @param aClass If null all items are returned.
+     * @return An unmodifiable list. It does not reflect the changes made to this array after this call.
+     * @see #getTypedView(java.lang.Class)
+     */
+    @SuppressWarnings("unchecked")
+    public <T> List<? extends T> getItemsView(int barFrom, int barTo, Class<T> aClass)
+    {
+        var view = getTypedView(aClass);
+        int indexFrom = getBarStartIndex(view, barFrom);
+        int indexTo = getBarStartIndex(view, barTo + 1);
+        return (List<? extends T>) view.subList(indexFrom, Math.max(indexFrom, indexTo));
+    }
+
+    /**
+     * Overridden to only search the bar of the item when possible.
+     *
+     * @param o
+     * @return
+     */
+    @Override
+    public int indexOf(Object o)
+    {
+        if (o instanceof ChordLeadSheetItem)
+        {
+            int bar = ((ChordLeadSheetItem<?>) o).getPosition().getBar();
+            for (int i = getBarStartIndex(bar); i < size(); i++)
+            {
+                ChordLeadSheetItem<?> item = get(i);
+                if (item.equals(o))
+                {
+                    return i;
+                }
+                if (item.getPosition().getBar() > bar)
+                {
+                    break;
+                }
+            }
+        }
+
+        // Item not found in its bar: it may have been moved without being reinserted
+        return super.indexOf(o);
+    }
+
+    @Override
+    public boolean remove(Object o)
+    {
+        int index = indexOf(o);
+        if (index == -1)
+        {
+            return false;
+        }
+        remove(index);
+        return true;
     }
 
     /**
@@ -98,11 +304,83 @@ public class ItemArray extends ArrayList<ChordLeadSheetItem<?>>
         {
             throw new IllegalArgumentException("indexFrom=" + indexFrom + " indexTo=" + indexTo);   //NOI18N
         }
-        ArrayList<ChordLeadSheetItem<?>> result = new ArrayList<>();
-        for (int i = indexFrom; i <= indexTo; i++)
+        return new ArrayList<>(subList(indexFrom, indexTo + 1));
+    }
+
+    // =================================================================================
+    // Private methods
+    // =================================================================================
+    /**
+     * Check that index is the index of the first item at or after barIndex.
+     *
+     * @param index
+     * @param barIndex
+     * @return
+     */
+    private boolean isBarStartIndex(int index, int barIndex)
+    {
+        return index >= 0 && index <= size()
+                && (index == size() || get(index).getPosition().getBar() >= barIndex)
+                && (index == 0 || get(index - 1).getPosition().getBar() < barIndex);
+    }
+
+    private void rebuildBarOffsets()
+    {
+        int lastBar = isEmpty() ? 0 : get(size() - 1).getPosition().getBar();
+        int[] offsets = new int[lastBar + 1];
+        int index = 0;
+        for (int bar = 0; bar <= lastBar; bar++)
+        {
+            while (index < size() && get(index).getPosition().getBar() < bar)
+            {
+                index++;
+            }
+            offsets[bar] = index;
+        }
+        barOffsets = offsets;
+    }
+
+    /**
+     * Binary search of the first item at or after barIndex.
+     *
+     * @param list A list ordered by position
+     * @param barIndex
+     * @return list.size() if no item found
+     */
+    private int getBarStartIndex(List<ChordLeadSheetItem<?>> list, int barIndex)
+    {
+        int low = 0;
+        int high = list.size();
+        while (low < high)
+        {
+            int mid = (low + high) >>> 1;
+            if (list.get(mid).getPosition().getBar() < barIndex)
+            {
+                low = mid + 1;
+            } else
+            {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private synchronized int[] getSectionIndexes()
+    {
+        if (sectionIndexesModCount != modCount)
         {
-            result.add(get(i));
+            int n = 0;
+            int[] res = new int[size()];
+            for (int i = 0; i < size(); i++)
+            {
+                if (get(i) instanceof CLI_Section)
+                {
+                    res[n++] = i;
+                }
+            }
+            sectionIndexes = Arrays.copyOf(res, n);
+            sectionIndexesModCount = modCount;
         }
-        return result;
+        return sectionIndexes;
     }
 }
@@ -261,6 +261,36 @@ public interface ChordLeadSheet
      */
     public <T> List<? extends T> getItems(CLI_Section sectionItem, Class<T> aClass);
 
+    /**
+     * Get a read-only view of the items which belong to bars between barFrom and barTo (included), ordered by position.
+     * <p>
+     * Unlike getItems(barFrom, barTo, aClass) the items are not copied in a new list, which makes this method suited to iterate
+     * many times over the items of a given type. The returned list does not reflect the changes made to the chord leadsheet after
+     * this call.
+     *
+     * @param <T>
+     * @param barFrom
+     * @param barTo
+     * @param aClass Return only items which are instance of class aClass. If null all items are returned.
+     * @return An unmodifiable list, can be empty if no item found.
+     * @see #getItems(int, int, java.lang.Class)
+     */
+    public <T> List<? extends T> getItemsView(int barFrom, int barTo, Class<T> aClass);
+
+    /**
+     * Get a read-only view of the items which belong to a specific section, ordered by position.
+     * <p>
+     * Unlike getItems(sectionItem, aClass) the items are not copied in a new list. The returned list does not reflect the changes
+     * made to the chord leadsheet after this call.
+     *
+     * @param <T>
+     * @param sectionItem
+     * @param aClass Return only items which are instance of class aClass. If null all items are returned.
+     * @return An unmodifiable list of the items that are part of sectionItem. The sectionItem itself is not included.
+     * @see #getItems(org.jjazz.leadsheet.chordleadsheet.api.item.CLI_Section, java.lang.Class)
+     */
+    public <T> List<? extends T> getItemsView(CLI_Section sectionItem, Class<T> aClass);
+
     /**
      * Get the Section for a specific bar.
      * <p>
@@ -23,6 +23,7 @@
 package org.jjazz.leadsheet.chordleadsheet;
 
 import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.List;
 import org.jjazz.harmony.api.TimeSignature;
 import org.jjazz.leadsheet.chordleadsheet.api.UnsupportedEditException;
@@ -34,6 +35,7 @@ import org.jjazz.leadsheet.chordleadsheet.item.CLI_SectionImpl;
 import org.jjazz.leadsheet.chordleadsheet.item.CLI_ChordSymbolImpl;
 import org.jjazz.leadsheet.chordleadsheet.api.item.Position;
 import org.jjazz.undomanager.api.JJazzUndoManager;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import org.junit.*;
 import org.openide.util.Exceptions;
@@ -468,6 +470,126 @@ public class ChordLeadSheetImplTest
         assertTrue(cls1.getSizeInBars() == 3 && cls1.getItems(ChordLeadSheetItem.class).size() == 6);   //NOI18N
     }
 
+    // Bar-indexed lookups --------------------------------------------------
+    @Test
+    public void testBarIndexMoveSectionUndoRedo()
+    {
+        System.out.println("=== bar index after moveSection, undo and redo");
+        CLI_Section cliSection = cls1.getSection("Section3");
+        try
+        {
+            cls1.moveSection(cliSection, 1);
+        } catch (UnsupportedEditException ex)
+        {
+            Exceptions.printStackTrace(ex);
+        }
+        assertTrue(cls1.getSection(1) == cliSection);   //NOI18N
+        checkBarIndexAfterUndoRedo();
+    }
+
+    @Test
+    public void testBarIndexRemoveSectionUndoRedo()
+    {
+        System.out.println("=== bar index after removeSection, undo and redo");
+        CLI_Section cliSection = cls1.getSection("Section2");
+        try
+        {
+            cls1.removeSection(cliSection);
+        } catch (UnsupportedEditException ex)
+        {
+            Exceptions.printStackTrace(ex);
+        }
+        assertTrue(cls1.getSection(3).getData().getName().equals("Section1"));   //NOI18N
+        checkBarIndexAfterUndoRedo();
+    }
+
+    @Test
+    public void testBarIndexAddSectionAndItemsUndoRedo()
+    {
+        System.out.println("=== bar index after addSection, addItem, moveItem, undo and redo");
+        try
+        {
+            cls1.addSection(cliSection44_b4);
+        } catch (UnsupportedEditException ex)
+        {
+            Exceptions.printStackTrace(ex);
+        }
+        cls1.addItem(cliChordSymbolG_b6_0);
+        cls1.moveItem(cliChordSymbolG_b6_0, new Position(3, 1));
+        assertTrue(cls1.getSection(3).getData().getName().equals("Section2"));   //NOI18N
+        assertTrue(cls1.getSection(4) == cliSection44_b4);   //NOI18N
+        checkBarIndexAfterUndoRedo();
+    }
+
+    @Test
+    public void testBarIndexInsertAndDeleteBarsUndoRedo()
+    {
+        System.out.println("=== bar index after insertBars at 0, deleteBars, undo and redo");
+        cls1.insertBars(0, 2);
+        assertTrue(cls1.getSection(2).getData().getName().equals("Section1") && cls1.getSection(1) == cls1.getSection(0));   //NOI18N
+        try
+        {
+            cls1.deleteBars(3, 5);
+        } catch (UnsupportedEditException ex)
+        {
+            Exceptions.printStackTrace(ex);
+        }
+        checkBarIndexAfterUndoRedo();
+    }
+
+    /**
+     * Check the bar-indexed lookups of cls1, then undo the current edit and check again, then redo it and check again.
+     */
+    private void checkBarIndexAfterUndoRedo()
+    {
+        checkBarIndex(cls1);
+        undoManager.endCEdit("UT-edit");
+        undoManager.undo();
+        checkBarIndex(cls1);
+        assertTrue(diffCls(cls1, cls2));   //NOI18N
+        undoManager.redo();
+        checkBarIndex(cls1);
+        undoManager.undo();
+        undoManager.redo();
+        checkBarIndex(cls1);
+        undoManager.startCEdit("UT-edit");
+    }
+
+    /**
+     * Compare the bar-indexed lookups with a linear scan of all the items.
+     */
+    private void checkBarIndex(ChordLeadSheetImpl cls)
+    {
+        List<ChordLeadSheetItem<?>> allItems = cls.getItems();
+        CLI_Section lastSection = (CLI_Section) allItems.get(0);
+        for (int bar = 0; bar < cls.getSizeInBars(); bar++)
+        {
+            List<ChordLeadSheetItem<?>> barItems = new ArrayList<>();
+            List<CLI_ChordSymbol> barChords = new ArrayList<>();
+            for (ChordLeadSheetItem<?> item : allItems)
+            {
+                if (item.getPosition().getBar() == bar)
+                {
+                    barItems.add(item);
+                    if (item instanceof CLI_ChordSymbol)
+                    {
+                        barChords.add((CLI_ChordSymbol) item);
+                    } else if (item instanceof CLI_Section)
+                    {
+                        lastSection = (CLI_Section) item;
+                    }
+                }
+            }
+            assertEquals("bar=" + bar, lastSection, cls.getSection(bar));   //NOI18N
+            assertEquals("bar=" + bar, barItems, cls.getItems(bar, bar, ChordLeadSheetItem.class));   //NOI18N
+            assertEquals("bar=" + bar, barChords, cls.getItems(bar, bar, CLI_ChordSymbol.class));   //NOI18N
+        }
+
+        List<CLI_Section> sections = new ArrayList<>();
+        allItems.stream().filter(item -> item instanceof CLI_Section).forEach(item -> sections.add((CLI_Section) item));
+        assertEquals(sections, cls.getItems(CLI_Section.class));   //NOI18N
+    }
+
     // Undo --------------------------------------------------
     private void undoAll()
     {
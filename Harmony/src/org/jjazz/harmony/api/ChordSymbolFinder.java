@@ -24,25 +24,26 @@ package org.jjazz.harmony.api;
 
 
 import static com.google.common.base.Preconditions.checkArgument;
-import com.google.common.math.BigIntegerMath;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
-import org.jjazz.util.api.Utilities;
 
 /**
  * Find matching chord symbol(s) from individual notes.
+ * <p>
+ * Matching is independent of the notes order and octave: chord symbols are looked up in a table indexed by the 12-bit pitch
+ * class set of the notes (bit i set if relative pitch i is used).
  */
 public class ChordSymbolFinder
 {
 
 
     static public final int MAX_NOTES = 5;
-    static long[] positions3;
-    static long[] positions4;
-    static long[] positions5;
+    /**
+     * Chord symbols indexed by pitch class set, 4096 entries.
+     */
+    static private volatile long[] pitchClassSets;
     static private List<ChordType> allChordTypes;
     private final int maxNbNotes;
     private static final Logger LOGGER = Logger.getLogger(ChordSymbolFinder.class.getSimpleName());  //NOI18N
@@ -68,16 +69,16 @@ public class ChordSymbolFinder
     }
 
     /**
-     * This must be called once before using any ChordFinder instance.
+     * Build the pitch class set table from the ChordTypeDatabase.
      * <p>
-     * The method may take up to 2 or 3 seconds on very slow computers to complete. If called more than once, does nothing.
+     * Fast (less than 1ms), it is automatically called by the first find() if needed. If called more than once, does nothing.
      */
-    static public void buildStaticData()
+    static synchronized public void buildStaticData()
     {
-        if (allChordTypes == null)
+        if (pitchClassSets == null)
         {
             allChordTypes = Arrays.asList(ChordTypeDatabase.getInstance().getChordTypes());
-            buildPositionsDatabase();
+            pitchClassSets = buildPitchClassSetsTable();
         }
     }
 
@@ -132,37 +133,49 @@ public class ChordSymbolFinder
 
     /**
      * Find the chord symbols which match the specified notes.
+     * <p>
+     * Notes order does not matter. Notes must have distinct relative pitches.
      *
      * @param notes
      * @return Can return max 4 chord symbols (e.g. for dim7 notes like C Eb Gb A)
      */
     public List<ChordSymbol> find(List<Note> notes)
     {
+        int pcs = getPitchClassSet(notes);
+        if (notes.size() != Integer.bitCount(pcs))
+        {
+            // Duplicate relative pitches
+            return new ArrayList<>();
+        }
+        return find(pcs);
+    }
+
+    /**
+     * Find the chord symbols which match the specified pitch class set.
+     * <p>
+     * Can be used directly with a bitmask of the pressed keys of a Midi keyboard.
+     *
+     * @param pitchClassSet A 12-bit value, bit i is set if relative pitch i is used (bit 0=C, bit 1=C#, ...).
+     * @return Can return max 4 chord symbols (e.g. for dim7 notes like C Eb Gb A). Empty if the number of pitch classes is not in
+     * the [3;getMaxNbNotes()] range.
+     * @see #getPitchClassSet(java.util.List)
+     */
+    public List<ChordSymbol> find(int pitchClassSet)
+    {
+        if (pitchClassSet < 0 || pitchClassSet > 0xFFF)
+        {
+            throw new IllegalArgumentException("pitchClassSet=" + pitchClassSet);   //NOI18N
+        }
         checkStaticData();
 
         List<ChordSymbol> res = new ArrayList<>();
-        if (notes.size() < 3 || notes.size() > getMaxNbNotes())
+        int nbNotes = Integer.bitCount(pitchClassSet);
+        if (nbNotes < 3 || nbNotes > getMaxNbNotes())
         {
             return res;
         }
 
-        int index = computeIndex(notes);
-        long value;
-        switch (notes.size())
-        {
-            case 3:
-                value = positions3[index];
-                break;
-            case 4:
-                value = positions4[index];
-                break;
-            case 5:
-                value = positions5[index];
-                break;
-            default:
-                throw new IllegalStateException("pitches.size()=" + notes.size());
-        }
-        List<ChordSymbol> list = decodeChordSymbols(value);
+        List<ChordSymbol> list = decodeChordSymbols(pitchClassSets[pitchClassSet]);
         if (list != null)
         {
             res.addAll(list);
@@ -171,39 +184,36 @@ public class ChordSymbolFinder
         return res;
     }
 
-
     /**
-     * Get the index in the positions database for the specified notes list.
+     * Get the 12-bit pitch class set of the specified notes.
      *
      * @param notes
-     * @return
+     * @return Bit i is set if a note has relative pitch i.
      */
-    static public int computeIndex(List<Note> notes)
+    static public int getPitchClassSet(List<Note> notes)
     {
-        int index;
-        int p0 = notes.get(0).getRelativePitch();
-        int p1 = notes.get(1).getRelativePitch();
-        int p2 = notes.get(2).getRelativePitch();
-        int p3;
-        int p4;
-        switch (notes.size())
+        int res = 0;
+        for (Note n : notes)
         {
-            case 3:
-                index = p0 + 12 * p1 + 12 * 12 * p2;
-                break;
-            case 4:
-                p3 = notes.get(3).getRelativePitch();
-                index = p0 + 12 * p1 + 12 * 12 * p2 + 12 * 12 * 12 * p3;
-                break;
-            case 5:
-                p3 = notes.get(3).getRelativePitch();
-                p4 = notes.get(4).getRelativePitch();
-                index = p0 + 12 * p1 + 12 * 12 * p2 + 12 * 12 * 12 * p3 + 12 * 12 * 12 * 12 * p4;
-                break;
-            default:
-                throw new IllegalStateException("pitches.size()=" + notes.size());
+            res |= 1 << n.getRelativePitch();
         }
-        return index;
+        return res;
+    }
+
+    /**
+     * Get the 12-bit pitch class set of the specified Midi pitches.
+     *
+     * @param pitches
+     * @return Bit i is set if a pitch has relative pitch i.
+     */
+    static public int getPitchClassSet(int... pitches)
+    {
+        int res = 0;
+        for (int p : pitches)
+        {
+            res |= 1 << (p % 12);
+        }
+        return res;
     }
 
 
@@ -211,35 +221,27 @@ public class ChordSymbolFinder
     // Private methods
     // =====================================================================================
     /**
-     * Build the internal database : all relative pitch permutations for each chord symbol.
+     * Build the pitch class set table: each chord type with 3 to MAX_NOTES notes in each key.
      * <p>
-     * Can take some time to complete, maybe 1 or 2 seconds on slow computers ?
+     * Chord types come from ChordTypeDatabase, so the table is always consistent with the database content. Chord symbols for a
+     * given pitch class set are stored by root pitch then by database order.
+     *
+     * @return
      */
-    static private void buildPositionsDatabase()
+    static private long[] buildPitchClassSetsTable()
     {
         long startTime = System.nanoTime();
 
-        positions3 = new long[12 * 12 * 12];             // 1.7k
-        if (MAX_NOTES > 3)
-        {
-            positions4 = new long[12 * 12 * 12 * 12];          // 20k
-        }
-        if (MAX_NOTES > 4)
-        {
-            positions5 = new long[12 * 12 * 12 * 12 * 12];       // 248k
-        }
-
-
-        long positionCount = 0;
+        long[] res = new long[1 << 12];
+        int count = 0;
 
         // Each key
         for (int rootPitch = 0; rootPitch < 12; rootPitch++)
         {
             Note rootNote = new Note(rootPitch);
 
-
             // Each chord type
-            for (ChordType ct : ChordTypeDatabase.getInstance().getChordTypes())
+            for (ChordType ct : allChordTypes)
             {
                 var chord = ct.getChord();
                 int nbNotes = chord.size();
@@ -248,52 +250,19 @@ public class ChordSymbolFinder
                     continue;
                 }
 
-
-                chord.transpose(rootPitch);
-                ChordSymbol cs = new ChordSymbol(rootNote, ct);
-
-
-                // Compute all possible positions for this chord symbol
-                List<Integer> pitches = chord.getNotes().stream().map(n -> n.getRelativePitch()).collect(Collectors.toList());
-                List<Integer[]> pitchPermutations = new ArrayList<>(BigIntegerMath.factorial(nbNotes).intValue());
-                Utilities.heapPermutation(pitches.toArray(new Integer[nbNotes]), nbNotes, pitchPermutations);
-
-
-                // Each position                
-                for (Integer[] perm : pitchPermutations)
+                int pcs = 0;
+                for (Note n : chord.getNotes())
                 {
-                    int index;
-                    long value;
-                    switch (nbNotes)
-                    {
-                        case 3:
-                            index = computeIndex(Arrays.asList(new Note(perm[0]), new Note(perm[1]), new Note(perm[2])));
-                            value = positions3[index];
-                            value = encodeChordSymbol(cs, value);
-                            positions3[index] = value;
-                            break;
-                        case 4:
-                            index = computeIndex(Arrays.asList(new Note(perm[0]), new Note(perm[1]), new Note(perm[2]), new Note(perm[3])));
-                            value = positions4[index];
-                            value = encodeChordSymbol(cs, value);
-                            positions4[index] = value;
-                            break;
-                        case 5:
-                            index = computeIndex(Arrays.asList(new Note(perm[0]), new Note(perm[1]), new Note(perm[2]), new Note(perm[3]), new Note(perm[4])));
-                            value = positions5[index];
-                            value = encodeChordSymbol(cs, value);
-                            positions5[index] = value;
-                            break;
-                        default:
-                            throw new IllegalStateException("nbNotes=" + nbNotes);
-                    }
-                    positionCount++;
+                    pcs |= 1 << ((n.getRelativePitch() + rootPitch) % 12);
                 }
-
+                res[pcs] = encodeChordSymbol(new ChordSymbol(rootNote, ct), res[pcs]);
+                count++;
             }
         }
+
         double durationInMs = (System.nanoTime() - startTime) / 1000000d;
-        LOGGER.info("buildPositionsDatabase() complete in " + durationInMs + "ms for " + positionCount + " positions.");
+        LOGGER.info("buildPitchClassSetsTable() complete in " + durationInMs + "ms for " + count + " chord symbols.");   //NOI18N
+        return res;
     }
 
     /**
@@ -431,9 +400,9 @@ public class ChordSymbolFinder
 
     static private void checkStaticData()
     {
-        if (positions3 == null)
+        if (pitchClassSets == null)
         {
-            throw new IllegalStateException("Static data not built yet!");
+            buildStaticData();
         }
     }
 
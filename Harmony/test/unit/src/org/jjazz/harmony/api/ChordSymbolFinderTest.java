@@ -24,15 +24,18 @@ package org.jjazz.harmony.api;
 
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.openide.util.Exceptions;
+import static org.junit.Assert.*;
 
 /**
  *
@@ -129,6 +132,79 @@ public class ChordSymbolFinderTest
         }
     }
 
+    /**
+     * Check find() for each chord type in each key against a brute force search, and that the result does not depend on the notes
+     * order and octave.
+     */
+    @Test
+    public void testFindPitchClassSet()
+    {
+        System.out.println("=== testFindPitchClassSet()");
+        Random random = new Random(24681357L);
+        ChordSymbolFinder instance = new ChordSymbolFinder(ChordSymbolFinder.MAX_NOTES);
+        int nbTested = 0;
+        for (ChordType ct : ChordTypeDatabase.getInstance().getChordTypes())
+        {
+            int nbNotes = ct.getChord().size();
+            if (nbNotes < 3 || nbNotes > ChordSymbolFinder.MAX_NOTES)
+            {
+                continue;
+            }
+            for (int rootPitch = 0; rootPitch < 12; rootPitch++)
+            {
+                ChordSymbol cs = new ChordSymbol(new Note(rootPitch), ct);
+                List<Note> notes = cs.getChord().getNotes();
+                int pcs = ChordSymbolFinder.getPitchClassSet(notes);
+                List<ChordSymbol> expected = findBruteForce(pcs);
+                assertTrue("cs=" + cs, expected.contains(cs));
+                assertEquals("cs=" + cs, expected, instance.find(notes));
+                assertEquals("cs=" + cs, expected, instance.find(pcs));
+
+
+                // Notes order and octave don't matter
+                for (int i = 0; i < 5; i++)
+                {
+                    List<Note> notes2 = new ArrayList<>();
+                    for (Note n : notes)
+                    {
+                        notes2.add(new Note(n.getRelativePitch() + 12 * (2 + random.nextInt(7))));
+                    }
+                    Collections.shuffle(notes2, random);
+                    assertEquals("cs=" + cs + " notes2=" + notes2, expected, instance.find(notes2));
+                    int[] pitches = notes2.stream().mapToInt(n -> n.getPitch()).toArray();
+                    assertEquals("cs=" + cs, pcs, ChordSymbolFinder.getPitchClassSet(pitches));
+                }
+                nbTested++;
+            }
+        }
+        assertTrue(nbTested > 0);
+    }
+
+    /**
+     * Check all the pitch class sets, including the ones which don't match a chord type and the maxNbNotes limit.
+     */
+    @Test
+    public void testFindAllPitchClassSets()
+    {
+        System.out.println("=== testFindAllPitchClassSets()");
+        for (int maxNbNotes = 3; maxNbNotes <= ChordSymbolFinder.MAX_NOTES; maxNbNotes++)
+        {
+            ChordSymbolFinder instance = new ChordSymbolFinder(maxNbNotes);
+            for (int pcs = 0; pcs < 4096; pcs++)
+            {
+                int nbNotes = Integer.bitCount(pcs);
+                List<ChordSymbol> expected = nbNotes <= maxNbNotes ? findBruteForce(pcs) : new ArrayList<>();
+                assertEquals("pcs=" + Integer.toBinaryString(pcs) + " maxNbNotes=" + maxNbNotes, expected, instance.find(pcs));
+            }
+        }
+
+
+        // Duplicate relative pitches
+        ChordSymbolFinder instance = new ChordSymbolFinder(ChordSymbolFinder.MAX_NOTES);
+        List<Note> notes = List.of(new Note(60), new Note(64), new Note(67), new Note(72));
+        assertTrue(instance.find(notes).isEmpty());
+    }
+
     private void testPitches(ChordSymbolFinder instance, List<Note> data)
     {
         long startTime = System.nanoTime();
@@ -145,6 +221,31 @@ public class ChordSymbolFinderTest
         }
     }
 
+    /**
+     * The chord symbols whose notes match pcs, ordered by root pitch then by ChordTypeDatabase order.
+     */
+    private List<ChordSymbol> findBruteForce(int pcs)
+    {
+        List<ChordSymbol> res = new ArrayList<>();
+        int nbNotes = Integer.bitCount(pcs);
+        if (nbNotes < 3)
+        {
+            return res;
+        }
+        for (int rootPitch = 0; rootPitch < 12; rootPitch++)
+        {
+            for (ChordType ct : ChordTypeDatabase.getInstance().getChordTypes())
+            {
+                ChordSymbol cs = new ChordSymbol(new Note(rootPitch), ct);
+                if (cs.getChord().size() == nbNotes && ChordSymbolFinder.getPitchClassSet(cs.getChord().getNotes()) == pcs)
+                {
+                    res.add(cs);
+                }
+            }
+        }
+        return res;
+    }
+
     private void addTestData(String s)
     {
         List<Note> res = new ArrayList<>();
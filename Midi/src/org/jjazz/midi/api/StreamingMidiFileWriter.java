@@ -0,0 +1,447 @@
+/*
+ *  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ *  Copyright @2019 Jerome Lelasseux. All rights reserved.
+ *
+ *  This file is part of the JJazzLabX software.
+ *
+ *  JJazzLabX is free software: you can redistribute it and/or modify
+ *  it under the terms of the Lesser GNU General Public License (LGPLv3)
+ *  as published by the Free Software Foundation, either version 3 of the License,
+ *  or (at your option) any later version.
+ *
+ *  JJazzLabX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with JJazzLabX.  If not, see <https://www.gnu.org/licenses/>
+ *
+ *  Contributor(s):
+ */
+package org.jjazz.midi.api;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.StandardOpenOption;
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Track;
+
+/**
+ * Write a Standard Midi File (type 0 or 1) track by track, event by event, without building a javax.sound.midi.Sequence.
+ * <p>
+ * Events are encoded directly into a buffer flushed to the output channel. Delta times are computed on the fly, running status
+ * is used for channel messages, and the length of each track is patched in the track header when the track is ended.
+ * <p>
+ * The written bytes are identical to MidiSystem.write(sequence, fileType, file) for a sequence with the same tracks: events must
+ * be written in the order of the Track events.
+ * <p>
+ * Usage: startTrack(), writeEvent()/writeShortMessage() calls, endTrack(), repeated for each track, then close().
+ */
+public class StreamingMidiFileWriter implements Closeable
+{
+
+    public static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MThd_MAGIC = 0x4d546864;
+    private static final int MTrk_MAGIC = 0x4d54726b;
+    private static final long MASK = 0x7F;
+    private final SeekableByteChannel channel;
+    private final ByteBuffer buffer;
+    private final int fileType;
+    private final int nbTracks;
+    private int nbWrittenTracks;
+    private boolean isTrackStarted;
+    /**
+     * The channel position of the first byte in buffer.
+     */
+    private long bufferPosition;
+    private long trackLengthPosition;
+    private long trackStartPosition;
+    private long currentTick;
+    private int runningStatus;
+
+    /**
+     * Create a writer for a new file.
+     * <p>
+     * If file exists it is overwritten.
+     *
+     * @param file
+     * @param fileType   0 or 1
+     * @param nbTracks   Must be 1 if fileType is 0
+     * @param resolution The PPQ resolution
+     * @return
+     * @throws IOException
+     */
+    static public StreamingMidiFileWriter open(File file, int fileType, int nbTracks, int resolution) throws IOException
+    {
+        checkNotNull(file);
+        var channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+        try
+        {
+            return new StreamingMidiFileWriter(channel, fileType, nbTracks, resolution);
+        } catch (IOException | RuntimeException ex)
+        {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Create a writer and write the file header.
+     *
+     * @param channel    Data are written from the current position of the channel
+     * @param fileType   0 or 1
+     * @param nbTracks   Must be 1 if fileType is 0
+     * @param resolution The PPQ resolution
+     * @throws IOException
+     */
+    public StreamingMidiFileWriter(SeekableByteChannel channel, int fileType, int nbTracks, int resolution) throws IOException
+    {
+        checkNotNull(channel);
+        checkArgument(fileType == 0 || fileType == 1, "fileType=%s", fileType);
+        checkArgument(nbTracks > 0 && nbTracks <= 0xFFFF && (fileType == 1 || nbTracks == 1), "fileType=%s nbTracks=%s", fileType,
+                nbTracks);
+        checkArgument(resolution > 0 && resolution <= 0x7FFF, "resolution=%s", resolution);
+
+        this.channel = channel;
+        this.fileType = fileType;
+        this.nbTracks = nbTracks;
+        buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        bufferPosition = channel.position();
+
+        buffer.putInt(MThd_MAGIC);
+        buffer.putInt(6);
+        buffer.putShort((short) fileType);
+        buffer.putShort((short) nbTracks);
+        buffer.putShort((short) resolution);
+    }
+
+    public int getFileType()
+    {
+        return fileType;
+    }
+
+    public int getNbTracks()
+    {
+        return nbTracks;
+    }
+
+    /**
+     * Start a new track.
+     *
+     * @throws IOException
+     * @throws IllegalStateException If a track is already started or if all tracks are already written
+     */
+    public void startTrack() throws IOException
+    {
+        if (isTrackStarted || nbWrittenTracks == nbTracks)
+        {
+            throw new IllegalStateException("isTrackStarted=" + isTrackStarted + " nbWrittenTracks=" + nbWrittenTracks);   //NOI18N
+        }
+        ensureRemaining(8);
+        buffer.putInt(MTrk_MAGIC);
+        trackLengthPosition = getPosition();
+        buffer.putInt(0);       // Updated in endTrack()
+        trackStartPosition = getPosition();
+        currentTick = 0;
+        runningStatus = -1;
+        isTrackStarted = true;
+    }
+
+    /**
+     * Write a 2-data bytes channel message (note ON/OFF, poly pressure, control change, pitch bend).
+     * <p>
+     * Avoid the creation of a ShortMessage, e.g. for notes.
+     *
+     * @param tick
+     * @param status The status byte, e.g. ShortMessage.NOTE_ON | channel
+     * @param data1
+     * @param data2
+     * @throws IOException
+     */
+    public void writeShortMessage(long tick, int status, int data1, int data2) throws IOException
+    {
+        checkArgument(getDataLength(status) == 2, "status=%s", status);
+        checkTrackStarted();
+        ensureRemaining(13);
+        writeDeltaTime(tick);
+        writeStatus(status);
+        buffer.put((byte) data1);
+        buffer.put((byte) data2);
+    }
+
+    /**
+     * Write an event.
+     * <p>
+     * Like MidiSystem.write(), system real time and system common messages other than sysex are ignored.
+     *
+     * @param tick
+     * @param mm   An EndOfTrack MetaMessage is not allowed, see endTrack(long)
+     * @throws IOException
+     */
+    public void writeEvent(long tick, MidiMessage mm) throws IOException
+    {
+        checkNotNull(mm);
+        checkArgument(!isEndOfTrack(mm), "mm=%s", mm);
+        checkTrackStarted();
+
+        int status = mm.getStatus();
+        byte[] data;
+        switch (status)
+        {
+            case 0xF0:
+            case 0xF7:
+                // Sysex: status is always written, followed by the length
+                data = mm.getMessage();
+                ensureRemaining(20 + data.length);
+                writeDeltaTime(tick);
+                runningStatus = status;
+                buffer.put(data[0]);
+                writeVarInt(data.length - 1);
+                writeBytes(data, 1, data.length - 1);
+                break;
+            case 0xFF:
+                // Meta: message already contains the type and the length
+                data = mm.getMessage();
+                ensureRemaining(10 + data.length);
+                writeDeltaTime(tick);
+                runningStatus = status;
+                writeBytes(data, 0, data.length);
+                break;
+            default:
+                int dataLength = getDataLength(status);
+                if (dataLength < 0)
+                {
+                    // Ignored, but tick is taken into account
+                    currentTick = tick;
+                    break;
+                }
+                data = mm.getMessage();
+                ensureRemaining(13);
+                writeDeltaTime(tick);
+                writeStatus(status);
+                buffer.put(data[1]);
+                if (dataLength == 2)
+                {
+                    buffer.put(data[2]);
+                }
+        }
+    }
+
+    /**
+     * Write an event.
+     *
+     * @param me
+     * @throws IOException
+     * @see #writeEvent(long, javax.sound.midi.MidiMessage)
+     */
+    public void writeEvent(MidiEvent me) throws IOException
+    {
+        writeEvent(me.getTick(), me.getMessage());
+    }
+
+    /**
+     * Write the EndOfTrack event and complete the track.
+     *
+     * @param tick The EndOfTrack position
+     * @throws IOException
+     */
+    public void endTrack(long tick) throws IOException
+    {
+        checkTrackStarted();
+        ensureRemaining(13);
+        writeDeltaTime(tick);
+        buffer.put((byte) 0xFF);
+        buffer.put((byte) MidiConst.META_END_OF_TRACK);
+        buffer.put((byte) 0);
+
+
+        // Update the track length
+        long length = getPosition() - trackStartPosition;
+        if (trackLengthPosition >= bufferPosition)
+        {
+            buffer.putInt((int) (trackLengthPosition - bufferPosition), (int) length);
+        } else
+        {
+            flush();
+            long pos = channel.position();
+            channel.position(trackLengthPosition);
+            ByteBuffer bb = ByteBuffer.allocate(4).putInt((int) length);
+            bb.flip();
+            while (bb.hasRemaining())
+            {
+                channel.write(bb);
+            }
+            channel.position(pos);
+        }
+
+        isTrackStarted = false;
+        nbWrittenTracks++;
+    }
+
+    /**
+     * Write a complete track.
+     *
+     * @param track
+     * @throws IOException
+     */
+    public void writeTrack(Track track) throws IOException
+    {
+        startTrack();
+        int last = track.size() - 1;
+        for (int i = 0; i < last; i++)
+        {
+            writeEvent(track.get(i));
+        }
+        endTrack(track.get(last).getTick());        // javax Track always ends with an EndOfTrack event
+    }
+
+    /**
+     * Flush the buffered data and close the channel.
+     *
+     * @throws IOException If not all the tracks were written. Channel is closed anyway.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        try
+        {
+            flush();
+        } finally
+        {
+            channel.close();
+        }
+        if (isTrackStarted || nbWrittenTracks != nbTracks)
+        {
+            throw new IOException("Incomplete Midi file: " + nbWrittenTracks + " tracks written, " + nbTracks + " expected");   //NOI18N
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "StreamingMidiFileWriter[type=" + fileType + ", tracks=" + nbWrittenTracks + "/" + nbTracks + "]";
+    }
+
+    // =================================================================================================
+    // Private methods
+    // =================================================================================================
+    /**
+     * @param status
+     * @return The number of data bytes of a channel message, or -1 if status is not a channel message.
+     */
+    private int getDataLength(int status)
+    {
+        switch (status & 0xF0)
+        {
+            case 0x80:
+            case 0x90:
+            case 0xA0:
+            case 0xB0:
+            case 0xE0:
+                return 2;
+            case 0xC0:
+            case 0xD0:
+                return 1;
+            default:
+                return -1;
+        }
+    }
+
+    private boolean isEndOfTrack(MidiMessage mm)
+    {
+        return mm instanceof MetaMessage && ((MetaMessage) mm).getType() == MidiConst.META_END_OF_TRACK;
+    }
+
+    private void checkTrackStarted()
+    {
+        if (!isTrackStarted)
+        {
+            throw new IllegalStateException("No track started");   //NOI18N
+        }
+    }
+
+    private void writeDeltaTime(long tick)
+    {
+        writeVarInt(tick - currentTick);
+        currentTick = tick;
+    }
+
+    private void writeStatus(int status)
+    {
+        if (status != runningStatus)
+        {
+            runningStatus = status;
+            buffer.put((byte) status);
+        }
+    }
+
+    /**
+     * Same algorithm than the JDK writer, including for the (invalid) negative values.
+     *
+     * @param value
+     */
+    private void writeVarInt(long value)
+    {
+        int shift = 63;
+        while ((shift > 0) && ((value & (MASK << shift)) == 0))
+        {
+            shift -= 7;
+        }
+        while (shift > 0)
+        {
+            buffer.put((byte) (((value & (MASK << shift)) >> shift) | 0x80));
+            shift -= 7;
+        }
+        buffer.put((byte) (value & MASK));
+    }
+
+    private void writeBytes(byte[] data, int offset, int length) throws IOException
+    {
+        while (length > 0)
+        {
+            if (!buffer.hasRemaining())
+            {
+                flush();
+            }
+            int n = Math.min(length, buffer.remaining());
+            buffer.put(data, offset, n);
+            offset += n;
+            length -= n;
+        }
+    }
+
+    private long getPosition()
+    {
+        return bufferPosition + buffer.position();
+    }
+
+    private void ensureRemaining(int n) throws IOException
+    {
+        if (buffer.remaining() < n)
+        {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException
+    {
+        buffer.flip();
+        while (buffer.hasRemaining())
+        {
+            channel.write(buffer);
+        }
+        buffer.clear();
+        bufferPosition = channel.position();
+    }
+}
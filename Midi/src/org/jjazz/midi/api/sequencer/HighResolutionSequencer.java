@@ -0,0 +1,56 @@
+/*
+ *  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ *  Copyright @2019 Jerome Lelasseux. All rights reserved.
+ *
+ *  This file is part of the JJazzLabX software.
+ *
+ *  JJazzLabX is free software: you can redistribute it and/or modify
+ *  it under the terms of the Lesser GNU General Public License (LGPLv3)
+ *  as published by the Free Software Foundation, either version 3 of the License,
+ *  or (at your option) any later version.
+ *
+ *  JJazzLabX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with JJazzLabX.  If not, see <https://www.gnu.org/licenses/>
+ *
+ *  Contributor(s):
+ */
+package org.jjazz.midi.api.sequencer;
+
+/**
+ * A Sequencer which can schedule its events with a sub-millisecond resolution.
+ * <p>
+ * In high resolution mode the play thread computes the due time of the next event and parks until that deadline, instead of
+ * polling the sequence every millisecond.
+ */
+public interface HighResolutionSequencer
+{
+
+    /**
+     * Enable or disable the high resolution scheduling mode.
+     * <p>
+     * Can be changed while sequencer is running.
+     *
+     * @param b
+     */
+    void setHighResolutionScheduling(boolean b);
+
+    /**
+     * @return True if high resolution scheduling mode is enabled.
+     */
+    boolean isHighResolutionScheduling();
+
+    /**
+     * The dispatch timing measures: delay between each event due time and its actual dispatch time, jitter, events rate, etc.
+     * <p>
+     * Measures are not recorded until SequencerMetrics.setEnabled(true) is called.
+     *
+     * @return Can't be null
+     */
+    SequencerMetrics getMetrics();
+}
@@ -30,6 +30,8 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.WeakHashMap;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.sound.midi.ControllerEventListener;
@@ -57,7 +59,7 @@ import javax.sound.midi.Transmitter;
  * Updated for JJazzLab @author Jerome Lelasseux - based on AdoptOpenJDK16 version.
  *
  */
-final class JJazzLabSequencer extends AbstractMidiDevice implements Sequencer, AutoConnectSequencer
+final class JJazzLabSequencer extends AbstractMidiDevice implements Sequencer, AutoConnectSequencer, HighResolutionSequencer
 {
 
     /**
@@ -127,6 +129,16 @@ final class JJazzLabSequencer extends AbstractMidiDevice implements Sequencer, A
      */
     private volatile boolean recording;
 
+    /**
+     * True if play thread waits for the exact due time of the next event, instead of polling every millisecond.
+     */
+    private volatile boolean highResolutionScheduling = true;
+
+    /**
+     * The dispatch timing measures.
+     */
+    private final SequencerMetrics metrics = new SequencerMetrics();
+
     /**
      * List of tracks to which we're recording.
      */
@@ -1161,6 +1173,26 @@ final class JJazzLabSequencer extends AbstractMidiDevice implements Sequencer, A
         this.autoConnectedReceiver = autoConnectedReceiver;
     }
 
+    // interface HighResolutionSequencer
+    @Override
+    public void setHighResolutionScheduling(boolean b)
+    {
+        highResolutionScheduling = b;
+        LOGGER.log(Level.INFO, "setHighResolutionScheduling() b={0}", b);
+    }
+
+    @Override
+    public boolean isHighResolutionScheduling()
+    {
+        return highResolutionScheduling;
+    }
+
+    @Override
+    public SequencerMetrics getMetrics()
+    {
+        return metrics;
+    }
+
     /**
      * An own class to distinguish the class name from the transmitter of other devices.
      */
@@ -1435,6 +1467,15 @@ final class JJazzLabSequencer extends AbstractMidiDevice implements Sequencer, A
     final class PlayThread implements Runnable
     {
 
+        /**
+         * In high resolution mode, the maximum park time: changes made by other threads (new events, position, tempo) are
+         * taken into account at least at this rate.
+         */
+        private static final long MAX_PARK_NANOS = 2000000;
+        /**
+         * In high resolution mode, busy-wait the last part of the wait time to compensate for the parkNanos() wake up delay.
+         */
+        private static final long SPIN_NANOS = 100000;
         private Thread thread;
         private final Object lock = new Object();
 
@@ -1481,8 +1522,9 @@ final class JJazzLabSequencer extends AbstractMidiDevice implements Sequencer, A
                 long tickPos = getTickPosition();
                 dataPump.setTempoMPQ(tempoCache.getTempoMPQAt(tickPos));
             }
-            dataPump.checkPointMillis = 0; // means restarted
+            dataPump.checkPointNanos = 0; // means restarted
             dataPump.clearNoteOnCache();
+            metrics.reset();
             dataPump.needReindex = true;
 
             dataPump.resetLoopCount();
@@ -1531,6 +1573,12 @@ final class JJazzLabSequencer extends AbstractMidiDevice implements Sequencer, A
             {
                 lock.notifyAll();
             }
+            // wake up the thread if it's parked
+            Thread t = thread;
+            if (t != null)
+            {
+                LockSupport.unpark(t);
+            }
         }
 
         void close()
@@ -1582,12 +1630,18 @@ final class JJazzLabSequencer extends AbstractMidiDevice implements Sequencer, A
                 {
                     EOM = dataPump.pump();
 
-                    try
+                    if (highResolutionScheduling)
                     {
-                        Thread.sleep(1);
-                    } catch (InterruptedException ie)
+                        waitUntil(dataPump.getNextEventNanos());
+                    } else
                     {
-                        // ignore
+                        try
+                        {
+                            Thread.sleep(1);
+                        } catch (InterruptedException ie)
+                        {
+                            // ignore
+                        }
                     }
                 }
 
@@ -1595,6 +1649,7 @@ final class JJazzLabSequencer extends AbstractMidiDevice implements Sequencer, A
                 if (wasRunning)
                 {
                     dataPump.notesOff(true);
+                    LOGGER.log(Level.FINE, "run() playback stopped, metrics={0}", metrics);
                 }
                 if (EOM)
                 {
@@ -1627,6 +1682,32 @@ final class JJazzLabSequencer extends AbstractMidiDevice implements Sequencer, A
                 }
             } // end of while(!EOM && !interrupted && running)
         }
+
+        /**
+         * Wait until the specified deadline, or at most MAX_PARK_NANOS.
+         * <p>
+         * Park the thread then busy-wait the last SPIN_NANOS. Return early if sequencer is stopped or interrupted.
+         *
+         * @param deadlineNanos A System.nanoTime() value
+         */
+        private void waitUntil(long deadlineNanos)
+        {
+            long now = System.nanoTime();
+            long deadline = now + Math.min(Math.max(0, deadlineNanos - now), MAX_PARK_NANOS);
+            long remaining;
+            while ((remaining = deadline - System.nanoTime()) > SPIN_NANOS)
+            {
+                LockSupport.parkNanos(remaining - SPIN_NANOS);
+                if (interrupted || !running)
+                {
+                    return;
+                }
+            }
+            while (deadline - System.nanoTime() > 0)
+            {
+                Thread.onSpinWait();
+            }
+        }
     }
 
     /**
@@ -1641,7 +1722,7 @@ final class JJazzLabSequencer extends AbstractMidiDevice implements Sequencer, A
         private long ignoreTempoEventAt; // ignore next META tempo during playback at this tick pos only
         private int resolution;
         private float divisionType;
-        private long checkPointMillis;   // microseconds at checkoint
+        private long checkPointNanos;    // System.nanoTime() at checkpoint
         private long checkPointTick;     // ticks at checkpoint
         private int[] noteOnCache;       // bit-mask of notes that are currently on
         private Track[] tracks;
@@ -1650,6 +1731,7 @@ final class JJazzLabSequencer extends AbstractMidiDevice implements Sequencer, A
         private long lastTick;
         private boolean needReindex = false;
         private int currLoopCounter = 0;
+        private long nextEventNanos;     // System.nanoTime() due time of the next event, Long.MAX_VALUE if none
 
         //private sun.misc.Perf perf = sun.misc.Perf.getPerf();
         //private long perfFreq = perf.highResFrequency();
@@ -1695,7 +1777,7 @@ final class JJazzLabSequencer extends AbstractMidiDevice implements Sequencer, A
                 ignoreTempoEventAt = -1;
             }
             // trigger re-configuration
-            checkPointMillis = 0;
+            checkPointNanos = 0;
         }
 
         long getTickPos()
@@ -1721,7 +1803,7 @@ final class JJazzLabSequencer extends AbstractMidiDevice implements Sequencer, A
                 ignoreTempoEventAt = lastTick;
                 this.currTempo = tempoMPQ;
                 // re-calculate check point
-                checkPointMillis = 0;
+                checkPointNanos = 0;
             }
         }
 
@@ -1737,7 +1819,7 @@ final class JJazzLabSequencer extends AbstractMidiDevice implements Sequencer, A
                 tempoFactor = factor;
                 inverseTempoFactor = 1.0f / factor;
                 // re-calculate check point
-                checkPointMillis = 0;
+                checkPointNanos = 0;
             }
         }
 
@@ -1769,7 +1851,7 @@ final class JJazzLabSequencer extends AbstractMidiDevice implements Sequencer, A
             divisionType = seq.getDivisionType();
             trackReadPos = new int[tracks.length];
             // trigger re-initialization
-            checkPointMillis = 0;
+            checkPointNanos = 0;
             needReindex = true;
         }
 
@@ -2095,39 +2177,93 @@ final class JJazzLabSequencer extends AbstractMidiDevice implements Sequencer, A
             }
         }
 
+        /**
+         * @return The System.nanoTime() due time of the next event (computed by the last pump() call), Long.MAX_VALUE if no more
+         * events.
+         */
+        synchronized long getNextEventNanos()
+        {
+            return nextEventNanos;
+        }
+
         // playback related methods (pumping)
-        private long getCurrentTimeMillis()
+        private long getCurrentTimeNanos()
         {
-            return System.nanoTime() / 1000000l;
+            return System.nanoTime();
             //return perf.highResCounter() * 1000 / perfFreq;
         }
 
-        private long millis2tick(long millis)
+        /**
+         * Convert a duration to ticks, rounded down.
+         */
+        private long nanos2tick(long nanos)
         {
             if (divisionType != Sequence.PPQ)
             {
-                double dTick = ((((double) millis) * tempoFactor)
+                double dTick = ((((double) nanos) * tempoFactor)
                         * ((double) divisionType)
                         * ((double) resolution))
-                        / ((double) 1000);
+                        / 1000000000d;
                 return (long) dTick;
             }
-            return MidiUtils.microsec2ticks(millis * 1000,
-                    currTempo * inverseTempoFactor,
-                    resolution);
+            return (long) ((((double) nanos) * resolution) / (1000d * currTempo * inverseTempoFactor));
         }
 
-        private long tick2millis(long tick)
+        /**
+         * Convert ticks to a duration, rounded up: nanos2tick(tick2nanos(tick)) is never lower than tick.
+         */
+        private long tick2nanos(long tick)
         {
             if (divisionType != Sequence.PPQ)
             {
-                double dMillis = ((((double) tick) * 1000)
+                double dNanos = ((((double) tick) * 1000000000d)
                         / (tempoFactor * ((double) divisionType) * ((double) resolution)));
-                return (long) dMillis;
+                return (long) Math.ceil(dNanos) + 1;
+            }
+            return (long) Math.ceil(((double) tick) * 1000d * currTempo * inverseTempoFactor / resolution) + 1;
+        }
+
+        /**
+         * Record the scheduled and actual dispatch times of an event dispatched now.
+         */
+        private void recordDispatch(long tick)
+        {
+            if (!metrics.isEnabled() || tick < checkPointTick)
+            {
+                // Metrics disabled, or event chased or dispatched right after a reposition (not relevant)
+                return;
+            }
+            metrics.record(tick, checkPointNanos + tick2nanos(tick - checkPointTick), getCurrentTimeNanos());
+        }
+
+        /**
+         * Compute nextEventNanos from the current track read positions.
+         */
+        private void updateNextEventNanos()
+        {
+            long nextTick = Long.MAX_VALUE;
+            try
+            {
+                for (int t = 0; t < tracks.length; t++)
+                {
+                    int readPos = trackReadPos[t];
+                    if (readPos < tracks[t].size())
+                    {
+                        nextTick = Math.min(nextTick, tracks[t].get(readPos).getTick());
+                    }
+                }
+            } catch (ArrayIndexOutOfBoundsException aioobe)
+            {
+                // this happens when messages are removed
+                // from the track while this method executes: pump again ASAP
+                nextTick = lastTick;
             }
-            return MidiUtils.ticks2microsec(tick,
-                    currTempo * inverseTempoFactor,
-                    resolution) / 1000;
+            if (loopEnd != -1 && lastTick < loopEnd)
+            {
+                nextTick = Math.min(nextTick, loopEnd);
+            }
+            nextEventNanos = nextTick == Long.MAX_VALUE ? Long.MAX_VALUE
+                    : checkPointNanos + tick2nanos(Math.max(0, nextTick - checkPointTick));
         }
 
         private void ReindexTrack(int trackNum, long tick)
@@ -2220,14 +2356,14 @@ final class JJazzLabSequencer extends AbstractMidiDevice implements Sequencer, A
          */
         synchronized boolean pump()
         {
-            long currMillis;
+            long currNanos;
             long targetTick = lastTick;
             MidiEvent currEvent;
             boolean changesPending = false;
             boolean doLoop = false;
             boolean EOM = false;
 
-            currMillis = getCurrentTimeMillis();
+            currNanos = getCurrentTimeNanos();
             int finishedTracks = 0;
             do
             {
@@ -2245,21 +2381,21 @@ final class JJazzLabSequencer extends AbstractMidiDevice implements Sequencer, A
                         ReindexTrack(t, targetTick);
                     }
                     needReindex = false;
-                    checkPointMillis = 0;
+                    checkPointNanos = 0;
                 }
 
-                // get target tick from current time in millis
-                if (checkPointMillis == 0)
+                // get target tick from current time in nanoseconds
+                if (checkPointNanos == 0)
                 {
                     // new check point
-                    currMillis = getCurrentTimeMillis();
-                    checkPointMillis = currMillis;
+                    currNanos = getCurrentTimeNanos();
+                    checkPointNanos = currNanos;
                     targetTick = lastTick;
                     checkPointTick = targetTick;
                 } else
                 {
-                    // calculate current tick based on current time in milliseconds
-                    targetTick = checkPointTick + millis2tick(currMillis - checkPointMillis);
+                    // calculate current tick based on current time in nanoseconds
+                    targetTick = checkPointTick + nanos2tick(currNanos - checkPointNanos);
                     if ((loopEnd != -1)
                             && ((loopCount > 0 && currLoopCounter > 0)
                             || (loopCount == LOOP_CONTINUOUSLY)))
@@ -2307,6 +2443,7 @@ final class JJazzLabSequencer extends AbstractMidiDevice implements Sequencer, A
                             if (!disabled
                                     || ((t == 0) && (MidiUtils.isMetaTempo(currEvent.getMessage()))))
                             {
+                                recordDispatch(currEvent.getTick());
                                 changesPending = dispatchMessage(t, currEvent);
                             }
                         }
@@ -2341,7 +2478,7 @@ final class JJazzLabSequencer extends AbstractMidiDevice implements Sequencer, A
                         && EOM))
                 {
 
-                    long oldCheckPointMillis = checkPointMillis;
+                    long oldCheckPointNanos = checkPointNanos;
                     long loopEndTick = loopEnd;
                     if (loopEndTick == -1)
                     {
@@ -2354,7 +2491,7 @@ final class JJazzLabSequencer extends AbstractMidiDevice implements Sequencer, A
                         currLoopCounter--;
                     }
                     setTickPos(loopStart);
-                    // now patch the checkPointMillis so that
+                    // now patch the checkPointNanos so that
                     // it points to the exact beginning of when the loop was finished
 
                     // $$fb TODO: although this is mathematically correct (i.e. the loop position
@@ -2363,7 +2500,7 @@ final class JJazzLabSequencer extends AbstractMidiDevice implements Sequencer, A
                     //            by the chasing.
 
                     // Jerome JJazzLab: see bug fix on setTickPos+chasing which improves chasing perf. => could reduce this drift?
-                    checkPointMillis = oldCheckPointMillis + tick2millis(loopEndTick - checkPointTick);
+                    checkPointNanos = oldCheckPointNanos + tick2nanos(loopEndTick - checkPointTick);
                     checkPointTick = loopStart;
                     // no need for reindexing, is done in setTickPos
                     needReindex = false;
@@ -2374,6 +2511,8 @@ final class JJazzLabSequencer extends AbstractMidiDevice implements Sequencer, A
                 }
             } while (changesPending);
 
+            updateNextEventNanos();
+
             return EOM;
         }
     } // class DataPump
@@ -0,0 +1,361 @@
+/*
+ *  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ *  Copyright @2019 Jerome Lelasseux. All rights reserved.
+ *
+ *  This file is part of the JJazzLabX software.
+ *
+ *  JJazzLabX is free software: you can redistribute it and/or modify
+ *  it under the terms of the Lesser GNU General Public License (LGPLv3)
+ *  as published by the Free Software Foundation, either version 3 of the License,
+ *  or (at your option) any later version.
+ *
+ *  JJazzLabX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with JJazzLabX.  If not, see <https://www.gnu.org/licenses/>
+ *
+ *  Contributor(s):
+ */
+package org.jjazz.midi.api.sequencer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Dispatch timing measures of a sequencer.
+ * <p>
+ * For each dispatched event the sequencer records the scheduled (due) time and the actual dispatch time. The difference is the
+ * event lateness. Measures are reset each time the sequencer is started.
+ * <p>
+ * Recording is disabled by default. When enabled, record() is called by the sequencer thread for each dispatched event, so it
+ * uses no lock and no allocation: the dispatch log is made of preallocated primitive ring buffers with a single writer. Getters
+ * can be called from any thread, but the returned values are not guaranteed to be consistent with each other while the
+ * sequencer is playing.
+ */
+public class SequencerMetrics
+{
+
+    /**
+     * Upper bounds (exclusive) in microseconds of the lateness histogram buckets. The last bucket contains all the events above
+     * the last bound.
+     */
+    public static final long[] HISTOGRAM_BOUNDS_MICROS =
+    {
+        100, 250, 500, 1000, 2000, 5000, 10000
+    };
+    /**
+     * The default late threshold in milliseconds.
+     */
+    public static final int DEFAULT_LATE_THRESHOLD_MS = 5;
+    /**
+     * Number of recent events kept in the dispatch log.
+     */
+    public static final int DISPATCH_LOG_SIZE = 1024;
+
+    private volatile boolean enabled;
+    private final long[] histogram = new long[HISTOGRAM_BOUNDS_MICROS.length + 1];
+    private final long[] logTicks = new long[DISPATCH_LOG_SIZE];
+    private final long[] logScheduledNanos = new long[DISPATCH_LOG_SIZE];
+    private final long[] logDispatchNanos = new long[DISPATCH_LOG_SIZE];
+    /**
+     * Written last by record(): readers read it first to see the other fields.
+     */
+    private volatile long nbEvents;
+    private long nbLateEvents;
+    private volatile long lateThresholdNanos = DEFAULT_LATE_THRESHOLD_MS * 1000000L;
+    private long maxLatenessNanos;
+    private double sumLatenessNanos;
+    private double sumSquaredLatenessMicros;
+    private long firstDispatchNanos;
+    private long lastDispatchNanos;
+
+    /**
+     * The scheduled and actual dispatch times of an event.
+     */
+    static public class DispatchRecord
+    {
+
+        private final long tick;
+        private final long scheduledNanos;
+        private final long dispatchNanos;
+
+        public DispatchRecord(long tick, long scheduledNanos, long dispatchNanos)
+        {
+            this.tick = tick;
+            this.scheduledNanos = scheduledNanos;
+            this.dispatchNanos = dispatchNanos;
+        }
+
+        public long getTick()
+        {
+            return tick;
+        }
+
+        /**
+         * @return A System.nanoTime() value
+         */
+        public long getScheduledNanos()
+        {
+            return scheduledNanos;
+        }
+
+        /**
+         * @return A System.nanoTime() value
+         */
+        public long getDispatchNanos()
+        {
+            return dispatchNanos;
+        }
+
+        public long getLatenessNanos()
+        {
+            return Math.max(0, dispatchNanos - scheduledNanos);
+        }
+
+        @Override
+        public String toString()
+        {
+            return "tick=" + tick + " lateness=" + (getLatenessNanos() / 1000) + "us";
+        }
+    }
+
+    /**
+     * Enable or disable the recording of the dispatched events.
+     * <p>
+     * Recorded measures are kept when disabled.
+     *
+     * @param b
+     */
+    public void setEnabled(boolean b)
+    {
+        enabled = b;
+    }
+
+    /**
+     * @return False by default.
+     */
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    /**
+     * Record the dispatch of an event.
+     * <p>
+     * Must be called only by the sequencer thread. Does nothing if not enabled.
+     *
+     * @param tick
+     * @param scheduledNanos The System.nanoTime() due time of the event
+     * @param dispatchNanos The System.nanoTime() actual dispatch time of the event
+     */
+    void record(long tick, long scheduledNanos, long dispatchNanos)
+    {
+        if (!enabled)
+        {
+            return;
+        }
+
+        long lateness = Math.max(0, dispatchNanos - scheduledNanos);
+        long n = nbEvents;
+
+        if (n == 0)
+        {
+            firstDispatchNanos = dispatchNanos;
+        }
+        lastDispatchNanos = dispatchNanos;
+        maxLatenessNanos = Math.max(maxLatenessNanos, lateness);
+        sumLatenessNanos += lateness;
+        double latenessMicros = lateness / 1000d;
+        sumSquaredLatenessMicros += latenessMicros * latenessMicros;
+        if (lateness > lateThresholdNanos)
+        {
+            nbLateEvents++;
+        }
+
+        long latenessMicrosLong = lateness / 1000;
+        int bucket = 0;
+        while (bucket < HISTOGRAM_BOUNDS_MICROS.length && latenessMicrosLong >= HISTOGRAM_BOUNDS_MICROS[bucket])
+        {
+            bucket++;
+        }
+        histogram[bucket]++;
+
+        int logIndex = (int) (n % DISPATCH_LOG_SIZE);
+        logTicks[logIndex] = tick;
+        logScheduledNanos[logIndex] = scheduledNanos;
+        logDispatchNanos[logIndex] = dispatchNanos;
+
+        nbEvents = n + 1;        // Publish
+    }
+
+    /**
+     * Reset all measures.
+     * <p>
+     * Must not be called while events are recorded, e.g. call it before the sequencer is started. The late threshold and the
+     * enabled state are not changed.
+     */
+    public void reset()
+    {
+        for (int i = 0; i < histogram.length; i++)
+        {
+            histogram[i] = 0;
+        }
+        nbLateEvents = 0;
+        maxLatenessNanos = 0;
+        sumLatenessNanos = 0;
+        sumSquaredLatenessMicros = 0;
+        firstDispatchNanos = 0;
+        lastDispatchNanos = 0;
+        nbEvents = 0;
+    }
+
+    /**
+     * Set the lateness above which an event is counted as late.
+     * <p>
+     * Events already recorded are not recounted.
+     *
+     * @param ms Must be &gt;= 0
+     * @see #getNbLateEvents()
+     */
+    public void setLateThresholdMs(int ms)
+    {
+        checkArgument(ms >= 0, "ms=%s", ms);
+        lateThresholdNanos = ms * 1000000L;
+    }
+
+    public int getLateThresholdMs()
+    {
+        return (int) (lateThresholdNanos / 1000000L);
+    }
+
+    /**
+     * @return The number of events dispatched since last reset.
+     */
+    public long getNbEvents()
+    {
+        return nbEvents;
+    }
+
+    /**
+     * @return The number of events whose lateness was above the late threshold.
+     * @see #setLateThresholdMs(int)
+     */
+    public long getNbLateEvents()
+    {
+        return nbLateEvents;
+    }
+
+    /**
+     * @return In microseconds
+     */
+    public long getMaxLatenessMicros()
+    {
+        return maxLatenessNanos / 1000;
+    }
+
+    /**
+     * @return In microseconds
+     */
+    public long getAverageLatenessMicros()
+    {
+        long n = nbEvents;
+        return n == 0 ? 0 : Math.round(sumLatenessNanos / n / 1000);
+    }
+
+    /**
+     * The jitter, i.e. the standard deviation of the lateness.
+     *
+     * @return In microseconds
+     */
+    public long getJitterMicros()
+    {
+        long n = nbEvents;
+        if (n == 0)
+        {
+            return 0;
+        }
+        double avg = sumLatenessNanos / n / 1000;
+        double variance = sumSquaredLatenessMicros / n - avg * avg;
+        return Math.round(Math.sqrt(Math.max(0, variance)));
+    }
+
+    /**
+     * The average number of dispatched events per second between the first and the last dispatched event.
+     *
+     * @return
+     */
+    public float getEventsPerSecond()
+    {
+        long n = nbEvents;
+        long duration = lastDispatchNanos - firstDispatchNanos;
+        return duration <= 0 ? 0 : n * 1000000000f / duration;
+    }
+
+    /**
+     * The lateness histogram.
+     *
+     * @return A copy of the histogram: value at index i is the number of events whose lateness is below
+     * HISTOGRAM_BOUNDS_MICROS[i] (and above the previous bound). The last value is for events above the last bound.
+     * @see #HISTOGRAM_BOUNDS_MICROS
+     */
+    public long[] getLatenessHistogram()
+    {
+        return histogram.clone();
+    }
+
+    /**
+     * The most recent dispatched events.
+     *
+     * @return At most DISPATCH_LOG_SIZE records, ordered by dispatch time.
+     */
+    public List<DispatchRecord> getRecentDispatches()
+    {
+        long n = nbEvents;
+        int size = (int) Math.min(n, DISPATCH_LOG_SIZE);
+        List<DispatchRecord> res = new ArrayList<>(size);
+        for (long i = n - size; i < n; i++)
+        {
+            int logIndex = (int) (i % DISPATCH_LOG_SIZE);
+            res.add(new DispatchRecord(logTicks[logIndex], logScheduledNanos[logIndex], logDispatchNanos[logIndex]));
+        }
+        return res;
+    }
+
+    /**
+     * A multi-line human readable report of the measures.
+     *
+     * @return
+     */
+    public String toReport()
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("events=%d events/s=%.1f late(>%dms)=%d%n", getNbEvents(), getEventsPerSecond(), getLateThresholdMs(),
+                nbLateEvents));
+        sb.append(String.format("lateness: max=%dus average=%dus jitter=%dus%n", getMaxLatenessMicros(), getAverageLatenessMicros(),
+                getJitterMicros()));
+        long lowBound = 0;
+        for (int i = 0; i < histogram.length; i++)
+        {
+            String range = i < HISTOGRAM_BOUNDS_MICROS.length
+                    ? String.format("[%d-%dus[", lowBound, HISTOGRAM_BOUNDS_MICROS[i])
+                    : String.format("[%dus-", lowBound);
+            sb.append(String.format("  %-16s %d%n", range, histogram[i]));
+            if (i < HISTOGRAM_BOUNDS_MICROS.length)
+            {
+                lowBound = HISTOGRAM_BOUNDS_MICROS[i];
+            }
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "SequencerMetrics[events=" + getNbEvents() + ", maxLateness=" + getMaxLatenessMicros() + "us]";
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ *  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ * 
+ *  Copyright @2019 Jerome Lelasseux. All rights reserved.
+ *
+ *  This file is part of the JJazzLabX software.
+ *   
+ *  JJazzLabX is free software: you can redistribute it and/or modify
+ *  it under the terms of the Lesser GNU General Public License (LGPLv3) 
+ *  as published by the Free Software Foundation, either version 3 of the License, 
+ *  or (at your option) any later version.
+ *
+ *  JJazzLabX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the 
+ *  GNU Lesser General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with JJazzLabX.  If not, see <https://www.gnu.org/licenses/>
+ * 
+ *  Contributor(s): 
+ */
+package org.jjazz.midi.api;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.SysexMessage;
+import javax.sound.midi.Track;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Check that StreamingMidiFileWriter output is identical to MidiSystem.write().
+ */
+public class StreamingMidiFileWriterTest
+{
+
+    private static final long SEED = 1357924680L;
+    private Random random;
+    private File expectedFile;
+    private File file;
+
+    public StreamingMidiFileWriterTest()
+    {
+    }
+
+    @Before
+    public void setUp() throws IOException
+    {
+        random = new Random(SEED);
+        expectedFile = File.createTempFile("StreamingMidiFileWriterTest", ".mid");
+        file = File.createTempFile("StreamingMidiFileWriterTest", ".mid");
+    }
+
+    @After
+    public void tearDown()
+    {
+        expectedFile.delete();
+        file.delete();
+    }
+
+    @Test
+    public void testRandomSequences() throws Exception
+    {
+        System.out.println("=== testRandomSequences()");
+        for (int test = 0; test < 300; test++)
+        {
+            int nbTracks = 1 + random.nextInt(6);
+            Sequence seq = getRandomSequence(nbTracks, random.nextInt(300));
+            int fileType = nbTracks == 1 && random.nextBoolean() ? 0 : 1;
+            checkSameBytes("test=" + test, seq, fileType);
+        }
+    }
+
+    @Test
+    public void testLargeTracks() throws Exception
+    {
+        System.out.println("=== testLargeTracks()");
+        // Bigger than the buffer, so that the track length is patched after a flush
+        int nbEvents = StreamingMidiFileWriter.BUFFER_SIZE / 2;
+        checkSameBytes("", getRandomSequence(3, nbEvents), 1);
+    }
+
+    @Test
+    public void testEmptyTracks() throws Exception
+    {
+        System.out.println("=== testEmptyTracks()");
+        checkSameBytes("", getRandomSequence(4, 0), 1);
+    }
+
+    // =======================================================================================================
+    // Private methods
+    // =======================================================================================================
+    /**
+     * Write seq with MidiSystem.write() and with StreamingMidiFileWriter, and compare the files.
+     * <p>
+     * 2-data bytes channel messages are randomly written with writeShortMessage() or writeEvent().
+     */
+    private void checkSameBytes(String msg, Sequence seq, int fileType) throws IOException
+    {
+        MidiSystem.write(seq, fileType, expectedFile);
+
+        Track[] tracks = seq.getTracks();
+        try (var writer = StreamingMidiFileWriter.open(file, fileType, tracks.length, seq.getResolution()))
+        {
+            for (Track track : tracks)
+            {
+                if (random.nextInt(4) == 0)
+                {
+                    writer.writeTrack(track);
+                    continue;
+                }
+                writer.startTrack();
+                int last = track.size() - 1;
+                for (int i = 0; i < last; i++)
+                {
+                    MidiEvent me = track.get(i);
+                    MidiMessage mm = me.getMessage();
+                    if (mm instanceof ShortMessage && mm.getLength() == 3 && mm.getStatus() < 0xF0 && random.nextBoolean())
+                    {
+                        ShortMessage sm = (ShortMessage) mm;
+                        writer.writeShortMessage(me.getTick(), sm.getStatus(), sm.getData1(), sm.getData2());
+                    } else
+                    {
+                        writer.writeEvent(me);
+                    }
+                }
+                writer.endTrack(track.get(last).getTick());
+            }
+        }
+
+        byte[] expected = Files.readAllBytes(expectedFile.toPath());
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        assertArrayEquals(msg, expected, bytes);
+    }
+
+    private Sequence getRandomSequence(int nbTracks, int nbEventsPerTrack) throws InvalidMidiDataException
+    {
+        Sequence seq = new Sequence(Sequence.PPQ, random.nextBoolean() ? MidiConst.PPQ_RESOLUTION : 96);
+        for (int t = 0; t < nbTracks; t++)
+        {
+            Track track = seq.createTrack();
+            long tick = 0;
+            for (int i = 0; i < nbEventsPerTrack; i++)
+            {
+                // Mostly small deltas with some big ones to test the variable length encoding
+                switch (random.nextInt(10))
+                {
+                    case 0:
+                        tick += random.nextInt(1 << 22);
+                        break;
+                    case 1:
+                    case 2:
+                        break;
+                    default:
+                        tick += random.nextInt(200);
+                }
+                track.add(new MidiEvent(getRandomMessage(), tick));
+            }
+            if (random.nextBoolean())
+            {
+                // Move the EndOfTrack after the last event
+                MidiUtilities.setEndOfTrackPosition(track, tick + random.nextInt(1000));
+            }
+        }
+        return seq;
+    }
+
+    private MidiMessage getRandomMessage() throws InvalidMidiDataException
+    {
+        MidiMessage res;
+        int channel = random.nextInt(3);        // Few channels so that running status is often used
+        int r = random.nextInt(100);
+        if (r < 50)
+        {
+            int cmd = random.nextBoolean() ? ShortMessage.NOTE_ON : ShortMessage.NOTE_OFF;
+            res = new ShortMessage(cmd, channel, random.nextInt(128), random.nextInt(128));
+        } else if (r < 60)
+        {
+            res = new ShortMessage(ShortMessage.CONTROL_CHANGE, channel, random.nextInt(128), random.nextInt(128));
+        } else if (r < 65)
+        {
+            res = new ShortMessage(ShortMessage.PITCH_BEND, channel, random.nextInt(128), random.nextInt(128));
+        } else if (r < 68)
+        {
+            res = new ShortMessage(ShortMessage.POLY_PRESSURE, channel, random.nextInt(128), random.nextInt(128));
+        } else if (r < 75)
+        {
+            res = new ShortMessage(ShortMessage.PROGRAM_CHANGE, channel, random.nextInt(128), 0);
+        } else if (r < 78)
+        {
+            res = new ShortMessage(ShortMessage.CHANNEL_PRESSURE, channel, random.nextInt(128), 0);
+        } else if (r < 85)
+        {
+            int type = random.nextBoolean() ? MidiConst.META_TEMPO : MidiConst.META_TEXT;
+            byte[] data = new byte[random.nextInt(random.nextInt(10) == 0 ? 300 : 10)];
+            random.nextBytes(data);
+            res = new MetaMessage(type, data, data.length);
+        } else if (r < 90)
+        {
+            byte[] data = new byte[1 + random.nextInt(random.nextInt(10) == 0 ? 400 : 10)];
+            random.nextBytes(data);
+            data[0] = (byte) (random.nextBoolean() ? SysexMessage.SYSTEM_EXCLUSIVE : SysexMessage.SPECIAL_SYSTEM_EXCLUSIVE);
+            res = new SysexMessage(data, data.length);
+        } else if (r < 95)
+        {
+            // Ignored by both writers
+            res = new ShortMessage(random.nextBoolean() ? ShortMessage.TIMING_CLOCK : ShortMessage.TUNE_REQUEST);
+        } else
+        {
+            res = new ShortMessage(ShortMessage.NOTE_ON, 9, random.nextInt(128), random.nextInt(128));
+        }
+        return res;
+    }
+}
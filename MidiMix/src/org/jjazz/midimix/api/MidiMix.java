@@ -22,26 +22,18 @@
  */
 package org.jjazz.midimix.api;
 
-import com.thoughtworks.xstream.XStream;
 import com.thoughtworks.xstream.XStreamException;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.beans.PropertyVetoException;
 import java.beans.VetoableChangeListener;
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.InvalidObjectException;
 import java.io.ObjectInputStream;
 import java.io.ObjectStreamException;
-import java.io.OutputStreamWriter;
-import java.io.Reader;
 import java.io.Serializable;
-import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -83,6 +75,7 @@ import org.jjazz.undomanager.api.JJazzUndoManagerFinder;
 import org.jjazz.undomanager.api.SimpleEdit;
 import org.jjazz.util.api.ResUtil;
 import org.jjazz.util.api.Utilities;
+import org.jjazz.util.api.XStreamCodec;
 import org.openide.DialogDisplayer;
 import org.openide.NotifyDescriptor;
 
@@ -162,6 +155,10 @@ public class MidiMix implements SgsChangeListener, PropertyChangeListener, Vetoa
     private transient Song song;
     private transient boolean needSave = false;
     private final SwingPropertyChangeSupport pcs = new SwingPropertyChangeSupport(this);
+    /**
+     * Shared by all load and save operations.
+     */
+    private static final XStreamCodec XSTREAM_CODEC = new XStreamCodec(xstream -> xstream.alias("MidiMix", MidiMix.class));
     private static final Logger LOGGER = Logger.getLogger(MidiMix.class.getSimpleName());
 
     /**
@@ -882,10 +879,7 @@ public class MidiMix implements SgsChangeListener, PropertyChangeListener, Vetoa
 
         try (FileOutputStream fos = new FileOutputStream(f))
         {
-            XStream xstream = new XStream();
-            xstream.alias("MidiMix", MidiMix.class);
-            Writer w = new BufferedWriter(new OutputStreamWriter(fos, "UTF-8"));        // Needed to support special/accented chars
-            xstream.toXML(this, w);
+            XSTREAM_CODEC.toXML(this, fos);
             if (!isCopy)
             {
                 pcs.firePropertyChange(PROP_MODIFIED_OR_SAVED, true, false);
@@ -1007,19 +1001,9 @@ public class MidiMix implements SgsChangeListener, PropertyChangeListener, Vetoa
         }
         MidiMix mm = null;
 
-        try (var fis = new FileInputStream(f))
-        {
-            XStream xstream = Utilities.getSecuredXStreamInstance();
-            // From 3.0 all public packages are renamed with api or spi somewhere in the path
-            // Need package aliasing required to be able to load old sng/mix files            
-            xstream.aliasPackage("org.jjazz.harmony.api", "org.jjazz.harmony.api");     // Make sure new package name is not replaced by next alias
-            xstream.aliasPackage("org.jjazz.harmony", "org.jjazz.harmony.api");
-            xstream.aliasPackage("org.jjazz.midi.api", "org.jjazz.midi.api");           // Make sure new package name is not replaced by next alias
-            xstream.aliasPackage("org.jjazz.midi", "org.jjazz.midi.api");
-            xstream.aliasPackage("org.jjazz.midimix.api", "org.jjazz.midimix.api");     // Make sure new package name is not replaced by next alias
-            xstream.aliasPackage("org.jjazz.midimix", "org.jjazz.midimix.api");
-            Reader r = new BufferedReader(new InputStreamReader(fis, "UTF-8"));        // Needed to support special/accented chars
-            mm = (MidiMix) xstream.fromXML(r);
+        try
+        {
+            mm = (MidiMix) XSTREAM_CODEC.fromXML(f);
             mm.setFile(f);
         } catch (XStreamException e)
         {
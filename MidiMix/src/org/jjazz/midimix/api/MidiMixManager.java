@@ -53,6 +53,8 @@ public class MidiMixManager implements PropertyChangeListener
 
     /**
      * Need WeakReferences: we don't want to maintain a strong reference if song is no more used.
+     * <p>
+     * Songs can be loaded from different threads (e.g. batch Midi rendering): access is synchronized on this.
      */
     private WeakHashMap<Song, MidiMix> mapSongMix = new WeakHashMap<>();
 
@@ -90,7 +92,7 @@ public class MidiMixManager implements PropertyChangeListener
     {
         LOGGER.log(Level.FINE, "findMix() -- s={0}", s);   //NOI18N
         // Try to get existing MidiMix in memory
-        MidiMix mm = mapSongMix.get(s);
+        MidiMix mm = getRegisteredMix(s);
         if (mm == null)
         {
             // No MidiMix associated with the song, need to load or create it
@@ -266,7 +268,7 @@ public class MidiMixManager implements PropertyChangeListener
         if (e.getSource() instanceof Song)
         {
             Song song = (Song) e.getSource();
-            assert mapSongMix.get(song) != null : "song=" + song + " mapSongMix=" + mapSongMix;   //NOI18N
+            assert getRegisteredMix(song) != null : "song=" + song;   //NOI18N
             if (e.getPropertyName().equals(Song.PROP_CLOSED))
             {
                 unregisterSong(song);
@@ -277,7 +279,12 @@ public class MidiMixManager implements PropertyChangeListener
     // ==================================================================
     // Private functions
     // ==================================================================
-    private void registerSong(MidiMix mm, Song sg)
+    private synchronized MidiMix getRegisteredMix(Song sg)
+    {
+        return mapSongMix.get(sg);
+    }
+
+    private synchronized void registerSong(MidiMix mm, Song sg)
     {
         if (mapSongMix.get(sg) == null)
         {
@@ -287,7 +294,7 @@ public class MidiMixManager implements PropertyChangeListener
         mapSongMix.put(sg, mm);
     }
 
-    private void unregisterSong(Song song)
+    private synchronized void unregisterSong(Song song)
     {
         song.removePropertyChangeListener(this);
         mapSongMix.remove(song);
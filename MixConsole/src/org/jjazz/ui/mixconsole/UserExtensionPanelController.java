@@ -170,12 +170,8 @@ public class UserExtensionPanelController
         midiFile.deleteOnExit();
 
 
-        // Build the sequence
-        SongSequenceBuilder.SongSequence songSequence = new SongSequenceBuilder(sgContext).buildExportableSequence(true, true); // throws MusicGenerationException
-
-
-        // Write the midi file     
-        MidiSystem.write(songSequence.sequence, 1, midiFile);   // throws IOException
+        // Build the sequence and write the midi file
+        new SongSequenceBuilder(sgContext).writeExportableMidiFile(midiFile, true, true); // throws MusicGenerationException, IOException
 
         return midiFile;
     }
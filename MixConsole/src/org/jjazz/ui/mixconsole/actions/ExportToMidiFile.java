@@ -224,9 +224,40 @@ public class ExportToMidiFile extends AbstractAction
         }
 
 
-        // Build the sequence
         SongContext sgContext = new SongContext(sg, midiMix);
         SongSequenceBuilder seqBuilder = new SongSequenceBuilder(sgContext);
+        var ps = PlaybackSettings.getInstance();
+
+
+        // If the sequence does not need to be modified, stream it directly to the file
+        if (!ps.isPlaybackClickEnabled() && !ps.isClickPrecountEnabled() && !MusicController.getInstance().isDebugPlayedSequence())
+        {
+            LOGGER.info("generateAndWriteMidiFile() writing Midi file: " + midiFile.getAbsolutePath());   //NOI18N
+            try
+            {
+                seqBuilder.writeExportableMidiFile(midiFile, false, false);
+                StatusDisplayer.getDefault().setStatusText(ResUtil.getString(ExportToMidiFile.class, "CTL_MidiSequenceWritten", midiFile.getAbsolutePath()));
+            } catch (MusicGenerationException ex)
+            {
+                LOGGER.warning("generateAndWriteMidiFile() ex=" + ex.getMessage());   //NOI18N
+                if (ex.getLocalizedMessage() != null)
+                {
+                    NotifyDescriptor d = new NotifyDescriptor.Message(ex.getLocalizedMessage(), NotifyDescriptor.ERROR_MESSAGE);
+                    DialogDisplayer.getDefault().notify(d);
+                }
+                return false;
+            } catch (IOException ex)
+            {
+                LOGGER.log(Level.WARNING, ex.getMessage(), ex);   //NOI18N
+                NotifyDescriptor d = new NotifyDescriptor.Message(ex.getLocalizedMessage(), NotifyDescriptor.ERROR_MESSAGE);
+                DialogDisplayer.getDefault().notify(d);
+                return false;
+            }
+            return true;
+        }
+
+
+        // Build the sequence
         SongSequenceBuilder.SongSequence songSequence = null;
         try
         {
@@ -248,7 +279,6 @@ public class ExportToMidiFile extends AbstractAction
 
 
         // Add click & precount tracks if required
-        var ps = PlaybackSettings.getInstance();
         if (ps.isPlaybackClickEnabled())
         {
             ps.addClickTrack(sequence, sgContext);
@@ -0,0 +1,185 @@
+/*
+ *  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ *  Copyright @2019 Jerome Lelasseux. All rights reserved.
+ *
+ *  This file is part of the JJazzLabX software.
+ *
+ *  JJazzLabX is free software: you can redistribute it and/or modify
+ *  it under the terms of the Lesser GNU General Public License (LGPLv3)
+ *  as published by the Free Software Foundation, either version 3 of the License,
+ *  or (at your option) any later version.
+ *
+ *  JJazzLabX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with JJazzLabX.  If not, see <https://www.gnu.org/licenses/>
+ *
+ *  Contributor(s):
+ */
+package org.jjazz.musiccontrol.api;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import java.util.function.Consumer;
+import javax.swing.Timer;
+
+/**
+ * A NoteListener which coalesces the note ON/OFF events and delivers at most one NoteStates snapshot per display frame.
+ * <p>
+ * Useful for visualizers (e.g. keyboards) which otherwise repaint for each note event: the snapshot consumer is called on the EDT
+ * at most frameRate times per second, whatever the number of note events.
+ * <p>
+ * A key which is pressed then released during the same frame is shown as pressed in the next snapshot, and released in the
+ * following one.
+ * <p>
+ * Usage: <code>MusicController.getInstance().addNoteListener(new CoalescingNoteListener(states -> ...))</code>
+ */
+public class CoalescingNoteListener implements NoteListener
+{
+
+    public static final int DEFAULT_FRAME_RATE = 60;
+    private final long[] pressedBits = new long[32];
+    /**
+     * The keys pressed since last snapshot.
+     */
+    private final long[] struckBits = new long[32];
+    private final byte[] velocities = new byte[16 * 128];
+    private boolean isDirty;
+    /**
+     * True from timer start until deliver() is called. Timer.isRunning() can't be used: it is false when the timer action is
+     * waiting on the EDT.
+     */
+    private boolean isScheduled;
+    private long lastDeliveryMs;
+    private NoteStates lastStates = NoteStates.EMPTY;
+    private final int frameMs;
+    private final Timer timer;
+    private final Consumer<NoteStates> consumer;
+
+    /**
+     * Create a listener with DEFAULT_FRAME_RATE.
+     *
+     * @param consumer Called on the EDT
+     */
+    public CoalescingNoteListener(Consumer<NoteStates> consumer)
+    {
+        this(consumer, DEFAULT_FRAME_RATE);
+    }
+
+    /**
+     *
+     * @param consumer Called on the EDT
+     * @param frameRate Max number of snapshots delivered per second. Must be in the [1;1000] range.
+     */
+    public CoalescingNoteListener(Consumer<NoteStates> consumer, int frameRate)
+    {
+        checkNotNull(consumer);
+        checkArgument(frameRate >= 1 && frameRate <= 1000, "frameRate=%s", frameRate);
+        this.consumer = consumer;
+        this.frameMs = 1000 / frameRate;
+        timer = new Timer(frameMs, evt -> deliver());
+        timer.setRepeats(false);
+    }
+
+    /**
+     * The last snapshot delivered to the consumer.
+     *
+     * @return
+     */
+    public synchronized NoteStates getLastStates()
+    {
+        return lastStates;
+    }
+
+    /**
+     * Release all keys.
+     * <p>
+     * Consumer will receive an empty snapshot.
+     */
+    public synchronized void reset()
+    {
+        for (int i = 0; i < pressedBits.length; i++)
+        {
+            pressedBits[i] = 0;
+            struckBits[i] = 0;
+        }
+        changed();
+    }
+
+    // ==================================================================================
+    // NoteListener interface
+    // ==================================================================================
+    @Override
+    public synchronized void noteOn(long tick, int channel, int pitch, int velocity)
+    {
+        int index = 2 * channel + (pitch >> 6);
+        long mask = 1L << (pitch & 63);
+        pressedBits[index] |= mask;
+        struckBits[index] |= mask;
+        velocities[channel * 128 + pitch] = (byte) velocity;
+        changed();
+    }
+
+    @Override
+    public synchronized void noteOff(long tick, int channel, int pitch)
+    {
+        pressedBits[2 * channel + (pitch >> 6)] &= ~(1L << (pitch & 63));
+        changed();
+    }
+
+    // ==================================================================================
+    // Private methods
+    // ==================================================================================
+    /**
+     * Schedule a delivery at the next frame, unless already scheduled.
+     */
+    private void changed()
+    {
+        isDirty = true;
+        if (!isScheduled)
+        {
+            isScheduled = true;
+            long delay = frameMs - (System.currentTimeMillis() - lastDeliveryMs);
+            timer.setInitialDelay((int) Math.max(0, Math.min(delay, frameMs)));
+            timer.start();
+        }
+    }
+
+    /**
+     * Called on the EDT.
+     */
+    private void deliver()
+    {
+        NoteStates states;
+        synchronized (this)
+        {
+            isScheduled = false;
+            if (!isDirty)
+            {
+                return;
+            }
+            long[] bits = new long[pressedBits.length];
+            boolean releasePending = false;
+            for (int i = 0; i < bits.length; i++)
+            {
+                bits[i] = pressedBits[i] | struckBits[i];
+                releasePending |= (struckBits[i] & ~pressedBits[i]) != 0;
+                struckBits[i] = 0;
+            }
+            states = new NoteStates(bits, velocities.clone());
+            lastStates = states;
+            lastDeliveryMs = System.currentTimeMillis();
+            isDirty = false;
+            if (releasePending)
+            {
+                // Some keys were pressed and released during this frame, release them in the next frame
+                changed();
+            }
+        }
+        consumer.accept(states);
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ *  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ *  Copyright @2019 Jerome Lelasseux. All rights reserved.
+ *
+ *  This file is part of the JJazzLabX software.
+ *
+ *  JJazzLabX is free software: you can redistribute it and/or modify
+ *  it under the terms of the Lesser GNU General Public License (LGPLv3)
+ *  as published by the Free Software Foundation, either version 3 of the License,
+ *  or (at your option) any later version.
+ *
+ *  JJazzLabX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with JJazzLabX.  If not, see <https://www.gnu.org/licenses/>
+ *
+ *  Contributor(s):
+ */
+package org.jjazz.musiccontrol.api;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+import javax.swing.SwingUtilities;
+
+/**
+ * Run delayed events on the EDT, used to compensate the output synth audio latency.
+ * <p>
+ * Events are stored in a time-ordered queue drained by a single dispatcher thread. All the events which are due within the same
+ * frame (FRAME_MS) are run on the EDT by a single invokeLater() call, in their scheduling order. So an event can be run up to
+ * FRAME_MS before its due time, which is not perceptible on screen.
+ * <p>
+ * This class is thread-safe.
+ */
+class LatencyEventScheduler
+{
+
+    public static final int FRAME_MS = 16;
+    private static final long FRAME_NANOS = TimeUnit.MILLISECONDS.toNanos(FRAME_MS);
+    private PriorityQueue<ScheduledEvent> queue = new PriorityQueue<>();
+    /**
+     * Incremented by clear(): batches already posted on the EDT for a previous generation are not run.
+     */
+    private volatile long generation;
+    private long sequenceNumber;
+    private Thread thread;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition queueChanged = lock.newCondition();
+    private static final Logger LOGGER = Logger.getLogger(LatencyEventScheduler.class.getSimpleName());
+
+    /**
+     * Schedule an event to be run on the EDT after the specified delay.
+     *
+     * @param r
+     * @param delayMs Must be &gt;= 0
+     */
+    public void schedule(Runnable r, int delayMs)
+    {
+        checkNotNull(r);
+        checkArgument(delayMs >= 0, "delayMs=%s", delayMs);
+        long dueNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMs);
+
+        lock.lock();
+        try
+        {
+            if (thread == null)
+            {
+                startThread();
+            }
+            var event = new ScheduledEvent(r, dueNanos, sequenceNumber++);
+            queue.add(event);
+            if (queue.peek() == event)
+            {
+                // Dispatcher might need to wake up earlier
+                queueChanged.signal();
+            }
+        } finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Discard all the pending events, including the events already posted on the EDT but not run yet.
+     */
+    public void clear()
+    {
+        lock.lock();
+        try
+        {
+            queue = new PriorityQueue<>();
+            generation++;
+            queueChanged.signal();
+        } finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The number of events waiting to be posted on the EDT.
+     */
+    public int getNbPendingEvents()
+    {
+        lock.lock();
+        try
+        {
+            return queue.size();
+        } finally
+        {
+            lock.unlock();
+        }
+    }
+
+    // ====================================================================================
+    // Private methods
+    // ====================================================================================
+    /**
+     * Start the dispatch thread.
+     * <p>
+     * Must be called with the lock held.
+     */
+    private void startThread()
+    {
+        thread = new Thread(() -> dispatchLoop(), "LatencyEventScheduler");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MAX_PRIORITY);
+        thread.start();
+    }
+
+    private void dispatchLoop()
+    {
+        try
+        {
+            while (true)
+            {
+                List<Runnable> batch = new ArrayList<>();
+                long batchGeneration;
+
+                lock.lock();
+                try
+                {
+                    // Wait for the first event to be due
+                    while (true)
+                    {
+                        ScheduledEvent head = queue.peek();
+                        if (head == null)
+                        {
+                            queueChanged.await();
+                            continue;
+                        }
+                        long waitNanos = head.dueNanos - System.nanoTime();
+                        if (waitNanos <= 0)
+                        {
+                            break;
+                        }
+                        queueChanged.awaitNanos(waitNanos);
+                    }
+
+                    // Get all the events due within the frame
+                    long frameEndNanos = System.nanoTime() + FRAME_NANOS;
+                    while (!queue.isEmpty() && queue.peek().dueNanos - frameEndNanos <= 0)
+                    {
+                        batch.add(queue.poll().runnable);
+                    }
+                    batchGeneration = generation;
+                } finally
+                {
+                    lock.unlock();
+                }
+
+                SwingUtilities.invokeLater(() ->
+                {
+                    for (Runnable r : batch)
+                    {
+                        if (batchGeneration != generation)
+                        {
+                            // clear() was called
+                            break;
+                        }
+                        r.run();
+                    }
+                });
+            }
+        } catch (InterruptedException ex)
+        {
+            LOGGER.warning("dispatchLoop() interrupted");   //NOI18N
+        } finally
+        {
+            // Let schedule() start a new thread, or start it now if events are pending
+            lock.lock();
+            try
+            {
+                thread = null;
+                if (!queue.isEmpty())
+                {
+                    startThread();
+                }
+            } finally
+            {
+                lock.unlock();
+            }
+        }
+    }
+
+    // ====================================================================================
+    // Inner classes
+    // ====================================================================================
+    private static class ScheduledEvent implements Comparable<ScheduledEvent>
+    {
+
+        private final Runnable runnable;
+        private final long dueNanos;
+        private final long sequenceNumber;
+
+        private ScheduledEvent(Runnable r, long dueNanos, long sequenceNumber)
+        {
+            this.runnable = r;
+            this.dueNanos = dueNanos;
+            this.sequenceNumber = sequenceNumber;
+        }
+
+        @Override
+        public int compareTo(ScheduledEvent e)
+        {
+            // Use difference to be robust to nanoTime() overflow
+            long diff = dueNanos - e.dueNanos;
+            return diff != 0 ? (diff < 0 ? -1 : 1) : Long.compare(sequenceNumber, e.sequenceNumber);
+        }
+    }
+}
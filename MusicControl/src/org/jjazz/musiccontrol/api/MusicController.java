@@ -26,10 +26,7 @@ import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.beans.PropertyChangeSupport;
 import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.sound.midi.ControllerEventListener;
@@ -44,7 +41,6 @@ import javax.sound.midi.Sequencer;
 import javax.sound.midi.ShortMessage;
 import javax.sound.midi.Transmitter;
 import javax.swing.SwingUtilities;
-import javax.swing.Timer;
 import org.jjazz.leadsheet.chordleadsheet.api.item.CLI_ChordSymbol;
 import org.jjazz.leadsheet.chordleadsheet.api.item.Position;
 import org.jjazz.midi.api.MidiConst;
@@ -132,11 +128,11 @@ public class MusicController implements PropertyChangeListener, MetaEventListene
     private float songPartTempoFactor = 1;
     private int audioLatency;
     /**
-     * Keep track of active timers used to compensate the audio latency.
+     * Run the delayed events used to compensate the audio latency.
      * <p>
-     * Needed to force stop them when sequencer is stopped/paused by user.
+     * Pending events are cleared when sequencer is stopped/paused by user.
      */
-    private Set<Timer> audioLatencyTimers = new HashSet<>();
+    private final LatencyEventScheduler latencyEventScheduler = new LatencyEventScheduler();
     /**
      * Our MidiReceiver to be able to fire events to NoteListeners and PlaybackListener (midiActivity).
      */
@@ -1035,7 +1031,7 @@ public class MusicController implements PropertyChangeListener, MetaEventListene
     /**
      * Fire an event on the EDT after a time delay to take into account the current output synth latency.
      * <p>
-     * Active timers are available in audioLatencyTimers.
+     * Delayed events are managed by latencyEventScheduler.
      *
      * @param r
      */
@@ -1046,23 +1042,7 @@ public class MusicController implements PropertyChangeListener, MetaEventListene
             SwingUtilities.invokeLater(r);
         } else
         {
-            Timer t = new Timer(audioLatency, evt ->
-            {
-                r.run();            // Will be run on the EDT
-            });
-            t.addActionListener(evt ->
-            {
-                synchronized (audioLatencyTimers)
-                {
-                    audioLatencyTimers.remove(t);
-                }
-            });
-            synchronized (audioLatencyTimers)
-            {
-                audioLatencyTimers.add(t);
-            }
-            t.setRepeats(false);
-            t.start();
+            latencyEventScheduler.schedule(r, audioLatency);
         }
     }
 
@@ -1071,11 +1051,7 @@ public class MusicController implements PropertyChangeListener, MetaEventListene
      */
     private void clearPendingEvents()
     {
-        for (Iterator<Timer> it = audioLatencyTimers.iterator(); it.hasNext();)
-        {
-            it.next().stop();
-            it.remove();
-        }
+        latencyEventScheduler.clear();
     }
 
     private SongContext getSongContext(PlaybackSession session)
@@ -27,6 +27,11 @@ package org.jjazz.musiccontrol.api;
  * <p>
  * MusicController will fire the events taking into account the user-defined output synth latency. Events are fired by the
  * MusicController on the Event Dispatching Thread, event handling must be time-efficient.
+ * <p>
+ * Visualizers which only need the pressed keys should use a CoalescingNoteListener, which delivers at most one NoteStates
+ * snapshot per display frame.
+ *
+ * @see CoalescingNoteListener
  */
 public interface NoteListener
 {
@@ -0,0 +1,154 @@
+/*
+ *  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ *  Copyright @2019 Jerome Lelasseux. All rights reserved.
+ *
+ *  This file is part of the JJazzLabX software.
+ *
+ *  JJazzLabX is free software: you can redistribute it and/or modify
+ *  it under the terms of the Lesser GNU General Public License (LGPLv3)
+ *  as published by the Free Software Foundation, either version 3 of the License,
+ *  or (at your option) any later version.
+ *
+ *  JJazzLabX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with JJazzLabX.  If not, see <https://www.gnu.org/licenses/>
+ *
+ *  Contributor(s):
+ */
+package org.jjazz.musiccontrol.api;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An immutable snapshot of the pressed keys of the 16 Midi channels.
+ * <p>
+ * The pressed keys of a channel are stored in a 128-bit bitmap (one bit per pitch).
+ *
+ * @see CoalescingNoteListener
+ */
+public class NoteStates
+{
+
+    /**
+     * No pressed key.
+     */
+    public static final NoteStates EMPTY = new NoteStates(new long[32], new byte[16 * 128]);
+    /**
+     * 2 longs per channel: pitches 0-63 then pitches 64-127.
+     */
+    private final long[] keyBits;
+    private final byte[] velocities;
+
+    /**
+     * @param keyBits Not copied
+     * @param velocities Not copied
+     */
+    NoteStates(long[] keyBits, byte[] velocities)
+    {
+        this.keyBits = keyBits;
+        this.velocities = velocities;
+    }
+
+    public boolean isPressed(int channel, int pitch)
+    {
+        checkArgs(channel, pitch);
+        return (keyBits[2 * channel + (pitch >> 6)] & (1L << (pitch & 63))) != 0;
+    }
+
+    /**
+     * @param channel
+     * @param pitch
+     * @return The velocity of the last note ON, 0 if key is not pressed.
+     */
+    public int getVelocity(int channel, int pitch)
+    {
+        return isPressed(channel, pitch) ? velocities[channel * 128 + pitch] : 0;
+    }
+
+    /**
+     * @param channel
+     * @return True if no key is pressed on channel.
+     */
+    public boolean isEmpty(int channel)
+    {
+        checkArgs(channel, 0);
+        return keyBits[2 * channel] == 0 && keyBits[2 * channel + 1] == 0;
+    }
+
+    public int getNbPressedKeys(int channel)
+    {
+        checkArgs(channel, 0);
+        return Long.bitCount(keyBits[2 * channel]) + Long.bitCount(keyBits[2 * channel + 1]);
+    }
+
+    /**
+     * @param channel
+     * @return The pressed pitches in ascending order.
+     */
+    public List<Integer> getPressedPitches(int channel)
+    {
+        checkArgs(channel, 0);
+        return getPitches(keyBits[2 * channel], keyBits[2 * channel + 1]);
+    }
+
+    /**
+     * The pitches whose pressed state is different in the specified snapshot.
+     *
+     * @param previous
+     * @param channel
+     * @return The changed pitches in ascending order. Use isPressed() to know the new state.
+     */
+    public List<Integer> getChangedPitches(NoteStates previous, int channel)
+    {
+        checkNotNull(previous);
+        checkArgs(channel, 0);
+        return getPitches(keyBits[2 * channel] ^ previous.keyBits[2 * channel],
+                keyBits[2 * channel + 1] ^ previous.keyBits[2 * channel + 1]);
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder("NoteStates[");
+        for (int channel = 0; channel < 16; channel++)
+        {
+            if (!isEmpty(channel))
+            {
+                sb.append(channel).append("=").append(getPressedPitches(channel)).append(" ");
+            }
+        }
+        return sb.append("]").toString();
+    }
+
+    // ====================================================================================
+    // Private methods
+    // ====================================================================================
+    private List<Integer> getPitches(long bitsLow, long bitsHigh)
+    {
+        List<Integer> res = new ArrayList<>(Long.bitCount(bitsLow) + Long.bitCount(bitsHigh));
+        while (bitsLow != 0)
+        {
+            res.add(Long.numberOfTrailingZeros(bitsLow));
+            bitsLow &= bitsLow - 1;
+        }
+        while (bitsHigh != 0)
+        {
+            res.add(64 + Long.numberOfTrailingZeros(bitsHigh));
+            bitsHigh &= bitsHigh - 1;
+        }
+        return res;
+    }
+
+    private void checkArgs(int channel, int pitch)
+    {
+        checkArgument(channel >= 0 && channel < 16 && pitch >= 0 && pitch < 128, "channel=%s pitch=%s", channel, pitch);
+    }
+}
@@ -164,6 +164,22 @@ public class BaseSongSession implements PropertyChangeListener, PlaybackSession,
      */
     @Override
     public void generate(boolean silent) throws MusicGenerationException
+    {
+        generate(silent, null);
+    }
+
+    /**
+     * Same as generate(silent) but the music is generated from workContext.
+     * <p>
+     * Music generation can take time for a long song. This lets a caller get a copy of the SongContext on the EDT, then generate
+     * the sequence on another thread while the song can still be modified on the EDT.
+     *
+     * @param silent
+     * @param workContext If null use getSongContext(), possibly transposed (see getWorkContextCopy()).
+     * @throws MusicGenerationException
+     * @see #getWorkContextCopy()
+     */
+    public void generate(boolean silent, SongContext workContext) throws MusicGenerationException
     {
         if (!state.equals(State.NEW))
         {
@@ -171,11 +187,14 @@ public class BaseSongSession implements PropertyChangeListener, PlaybackSession,
         }
 
 
-        SongContext workContext = songContext;
-        int t = PlaybackSettings.getInstance().getPlaybackKeyTransposition();
-        if (isPlaybackTranspositionEnabled() && t != 0)
+        if (workContext == null)
         {
-            workContext = getContextCopy(songContext, t);
+            workContext = songContext;
+            int t = PlaybackSettings.getInstance().getPlaybackKeyTransposition();
+            if (isPlaybackTranspositionEnabled() && t != 0)
+            {
+                workContext = getContextCopy(songContext, t);
+            }
         }
 
 
@@ -575,6 +594,18 @@ public class BaseSongSession implements PropertyChangeListener, PlaybackSession,
         MidiUtilities.rerouteShortMessages(seq, toBeRerouted, MidiConst.CHANNEL_DRUMS);
     }
 
+    /**
+     * Get a copy of the SongContext ready for music generation, with the playback transposition applied if enabled.
+     *
+     * @return A context with a new song but same MidiMix and bar range.
+     * @see #generate(boolean, SongContext)
+     */
+    public SongContext getWorkContextCopy()
+    {
+        int t = isPlaybackTranspositionEnabled() ? PlaybackSettings.getInstance().getPlaybackKeyTransposition() : 0;
+        return getContextCopy(songContext, t);
+    }
+
     /**
      * Get a context copy with a new song but same MidiMix and bar range.
      * <p>
@@ -26,9 +26,13 @@ import java.awt.event.ActionListener;
 import java.beans.PropertyChangeEvent;
 import java.beans.VetoableChangeListener;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -40,6 +44,7 @@ import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
+import javax.swing.SwingUtilities;
 import org.jjazz.leadsheet.chordleadsheet.api.ChordLeadSheet;
 import org.jjazz.leadsheet.chordleadsheet.api.ClsChangeListener;
 import org.jjazz.leadsheet.chordleadsheet.api.Section;
@@ -61,9 +66,12 @@ import org.jjazz.musiccontrol.api.ControlTrack;
 import org.jjazz.musiccontrol.api.PlaybackSettings;
 import org.jjazz.musiccontrol.api.playbacksession.UpdatableSongSession.Update;
 import org.jjazz.phrase.api.Phrase;
+import org.jjazz.phrase.api.PhraseSnapshot;
 import org.jjazz.rhythm.api.MusicGenerationException;
+import org.jjazz.rhythm.api.Rhythm;
 import org.jjazz.rhythm.api.RhythmVoice;
 import org.jjazz.rhythmmusicgeneration.api.SongSequenceBuilder;
+import org.jjazz.rhythmmusicgeneration.spi.MusicGenerator;
 import org.jjazz.rhythm.api.UserErrorGenerationException;
 import org.jjazz.song.api.Song;
 import org.jjazz.songcontext.api.SongContext;
@@ -77,6 +85,8 @@ import org.jjazz.songstructure.api.event.SptRemovedEvent;
 import org.jjazz.songstructure.api.event.SptRenamedEvent;
 import org.jjazz.songstructure.api.event.SptReplacedEvent;
 import org.jjazz.songstructure.api.event.SptResizedEvent;
+import org.jjazz.util.api.FloatRange;
+import org.jjazz.util.api.IntRange;
 import org.jjazz.util.api.Utilities;
 import org.openide.DialogDisplayer;
 import org.openide.NotifyDescriptor;
@@ -94,6 +104,12 @@ import org.openide.util.*;
  * <p>
  * If change can't be handled as an on-the-fly update, session is marked dirty. Song structural changes make the session dirty and
  * prevent any future update. Updates generation are blocked if PlaybackSettings.isAutoUpdateEnabled() is OFF.
+ * <p>
+ * When incremental updates are enabled (the default), the session keeps track of the song parts impacted by chord symbol and
+ * rhythm parameter changes: only the impacted bars are regenerated and spliced into the phrases of the previous update. Other
+ * changes (MidiMix, playback transposition, user phrase) trigger a regeneration of the whole context.
+ * <p>
+ * An optional PreRenderedPhrasesProvider can provide the phrases of an update without music generation.
  *
  * @todo RP Tempo factor => need update of track0 SongSequenceBuilder buildSequence
  */
@@ -104,14 +120,46 @@ public class DynamicSongSession extends BaseSongSession implements UpdatableSong
      * Property change event fired when updates become disabled (it's enabled by default)
      */
     public static final String PROP_UPDATES_ENABLED = "PropUpdatesEnabled";
+
+    /**
+     * Provide the phrases of an update without music generation, e.g. from phrases pre-rendered in the background.
+     */
+    public interface PreRenderedPhrasesProvider
+    {
+
+        /**
+         * Get the phrases for the specified context.
+         * <p>
+         * Called from the update generation thread.
+         *
+         * @param workContext The immutable (possibly transposed) context copy for which an update is requested
+         * @return The phrases that SongSequenceBuilder.buildMapRvPhrase(true) would return for workContext, or null if not
+         * available. The returned map is not modified.
+         */
+        Map<RhythmVoice, PhraseSnapshot> getPhrases(SongContext workContext);
+    }
+
     public static final int DEFAULT_PRE_UPDATE_BUFFER_TIME_MS = 300;
     public static final int DEFAULT_POST_UPDATE_SLEEP_TIME_MS = 700;
+    /**
+     * If the dirty bars represent more than this ratio of the context bars, regenerate the whole context.
+     */
+    private static final float MAX_INCREMENTAL_UPDATE_BAR_RATIO = 0.5f;
     private int preUpdateBufferTimeMs = DEFAULT_PRE_UPDATE_BUFFER_TIME_MS;
     private int postUpdateSleepTimeMs = DEFAULT_POST_UPDATE_SLEEP_TIME_MS;
+    private boolean isIncrementalUpdateEnabled = true;
+    /**
+     * The phrases of the last generated music, used as the base for incremental updates. Null means no base available.
+     * <p>
+     * Accessed only by the generation thread once session is generated. Snapshots are immutable so they can be shared with the
+     * updates.
+     */
+    private volatile Map<RhythmVoice, PhraseSnapshot> lastMapRvSnapshots;
     private Update update;
     private ClsSgsChange currentClsChange;
     private ClsSgsChange currentSgsChange;
     private Consumer<UserErrorGenerationException> userErrorExceptionHandler;
+    private volatile PreRenderedPhrasesProvider preRenderedPhrasesProvider;
     private boolean isUpdatable = true;
     private boolean isControlTrackEnabled = true;
     private final boolean isUpdateControlEnabled;
@@ -216,14 +264,39 @@ public class DynamicSongSession extends BaseSongSession implements UpdatableSong
         return newSession;
     }
     
+    /**
+     * Generate the sequence then start listening to the song changes.
+     * <p>
+     * If not called on the EDT (see BaseSongSession.generate(boolean, SongContext)), the song listeners are registered later on
+     * the EDT: song changes made meanwhile are not taken into account.
+     *
+     * @param silent
+     * @param workContext
+     * @throws MusicGenerationException
+     */
     @Override
-    public void generate(boolean silent) throws MusicGenerationException
+    public void generate(boolean silent, SongContext workContext) throws MusicGenerationException
     {
-        super.generate(silent);
+        super.generate(silent, workContext);
+        
+        lastMapRvSnapshots = UpdatableSongSession.toSnapshotMap(getRvPhraseMap());
         
-        getSongContext().getSong().addVetoableChangeListener(this);
-        getSongContext().getSong().getChordLeadSheet().addClsChangeListener(this);
-        getSongContext().getSong().getSongStructure().addSgsChangeListener(this);
+        Runnable r = () ->
+        {
+            if (getState().equals(State.GENERATED))
+            {
+                getSongContext().getSong().addVetoableChangeListener(this);
+                getSongContext().getSong().getChordLeadSheet().addClsChangeListener(this);
+                getSongContext().getSong().getSongStructure().addSgsChangeListener(this);
+            }
+        };
+        if (SwingUtilities.isEventDispatchThread())
+        {
+            r.run();
+        } else
+        {
+            SwingUtilities.invokeLater(r);
+        }
     }
     
     @Override
@@ -295,6 +368,29 @@ public class DynamicSongSession extends BaseSongSession implements UpdatableSong
     }
 
 
+    /**
+     * True if updates only regenerate the bars impacted by the changes when possible.
+     *
+     * @return True by default
+     */
+    public boolean isIncrementalUpdateEnabled()
+    {
+        return isIncrementalUpdateEnabled;
+    }
+
+    /**
+     * Enable or disable incremental updates.
+     * <p>
+     * If disabled, each update regenerates the whole context.
+     *
+     * @param b
+     * @see #isIncrementalUpdateEnabled()
+     */
+    public void setIncrementalUpdateEnabled(boolean b)
+    {
+        isIncrementalUpdateEnabled = b;
+    }
+
     /**
      * The handler for exception during music generation due to user error.
      * <p>
@@ -307,6 +403,23 @@ public class DynamicSongSession extends BaseSongSession implements UpdatableSong
         userErrorExceptionHandler = handler;
     }
 
+    public PreRenderedPhrasesProvider getPreRenderedPhrasesProvider()
+    {
+        return preRenderedPhrasesProvider;
+    }
+
+    /**
+     * Set the provider checked before generating the music of an update.
+     * <p>
+     * If the provider returns null, the update music is generated as usual.
+     *
+     * @param provider Can be null
+     */
+    public void setPreRenderedPhrasesProvider(PreRenderedPhrasesProvider provider)
+    {
+        preRenderedPhrasesProvider = provider;
+    }
+
     // ==========================================================================================================
     // PropertyChangeListener interface
     // ==========================================================================================================
@@ -413,7 +526,7 @@ public class DynamicSongSession extends BaseSongSession implements UpdatableSong
                     setDirty();
                 } else if (doUpdate)
                 {
-                    generateUpdate();
+                    generateUpdate(null);
                 }
             }
         }
@@ -486,7 +599,7 @@ public class DynamicSongSession extends BaseSongSession implements UpdatableSong
                 });
                 if (currentClsChange.doUpdate)
                 {
-                    generateUpdate();
+                    generateUpdate(currentClsChange.dirtySptBarRanges);
                 }
                 currentClsChange = null;
             }
@@ -505,6 +618,7 @@ public class DynamicSongSession extends BaseSongSession implements UpdatableSong
             disableUpdates = contextItems.stream().anyMatch(cli -> !(cli instanceof CLI_ChordSymbol));
             assert currentClsChange != null : "event=" + event;
             currentClsChange.doUpdate = contextItems.stream().allMatch(cli -> cli instanceof CLI_ChordSymbol);
+            contextItems.forEach(cli -> addDirtyClsBar(currentClsChange, cli.getPosition().getBar()));
             
         } else if (event instanceof ItemBarShiftedEvent)
         {
@@ -529,6 +643,7 @@ public class DynamicSongSession extends BaseSongSession implements UpdatableSong
                 {
                     assert currentClsChange != null : "event=" + event;
                     currentClsChange.doUpdate = true;
+                    addDirtyClsBar(currentClsChange, item.getPosition().getBar());
                 }
             }
             
@@ -539,6 +654,8 @@ public class DynamicSongSession extends BaseSongSession implements UpdatableSong
             {
                 assert currentClsChange != null : "event=" + event;
                 currentClsChange.doUpdate = true;
+                addDirtyClsBar(currentClsChange, e.getOldPosition().getBar());
+                addDirtyClsBar(currentClsChange, e.getNewPosition().getBar());
             }
             
         } else if (event instanceof SectionMovedEvent)
@@ -610,7 +727,7 @@ public class DynamicSongSession extends BaseSongSession implements UpdatableSong
                 });
                 if (currentSgsChange.doUpdate)
                 {
-                    generateUpdate();
+                    generateUpdate(currentSgsChange.dirtySptBarRanges);
                 }
                 currentSgsChange = null;
             }
@@ -644,6 +761,10 @@ public class DynamicSongSession extends BaseSongSession implements UpdatableSong
             // Update if updated RP is for a context SongPart
             assert currentSgsChange != null : "event=" + event;
             currentSgsChange.doUpdate = contextSongParts.contains(event.getSongPart());
+            if (currentSgsChange.doUpdate)
+            {
+                currentSgsChange.dirtySptBarRanges.add(getSongContext().getSptBarRange(event.getSongPart()));
+            }
         }
         
         LOGGER.log(Level.FINE, "songStructureChanged()  => disableUpdates={0}", disableUpdates);
@@ -668,7 +789,36 @@ public class DynamicSongSession extends BaseSongSession implements UpdatableSong
     // Private methods
     // ==========================================================================================================
 
-    private void generateUpdate()
+    /**
+     * Make the snapshots of mapRvSnapshots reuse the equal chunks of the corresponding snapshots in lastMap.
+     * <p>
+     * Unchanged parts of a fully regenerated phrase are then shared with the previous phrase.
+     *
+     * @param mapRvSnapshots Updated in place
+     * @param lastMap        Can be null
+     */
+    static private void shareChunks(Map<RhythmVoice, PhraseSnapshot> mapRvSnapshots, Map<RhythmVoice, PhraseSnapshot> lastMap)
+    {
+        if (lastMap == null)
+        {
+            return;
+        }
+        for (var rv : mapRvSnapshots.keySet())
+        {
+            PhraseSnapshot last = lastMap.get(rv);
+            if (last != null)
+            {
+                mapRvSnapshots.put(rv, mapRvSnapshots.get(rv).withSharedChunks(last));
+            }
+        }
+    }
+
+    /**
+     * Request an update.
+     *
+     * @param dirtySptBarRanges The context song part bar ranges impacted by the change. If null the whole context is impacted.
+     */
+    private void generateUpdate(Set<IntRange> dirtySptBarRanges)
     {
         LOGGER.log(Level.FINE, "generateUpdate() --  nanoTime()={0}", System.nanoTime());
         if (!getState().equals(State.GENERATED))
@@ -703,7 +853,7 @@ public class DynamicSongSession extends BaseSongSession implements UpdatableSong
         // Notify our update handler thread
         try
         {
-            updateRequestsHandler.getQueue().add(workContext);
+            updateRequestsHandler.getQueue().add(new UpdateRequest(workContext, dirtySptBarRanges));
         } catch (Exception e)
         {
             // Should never be here
@@ -728,6 +878,181 @@ public class DynamicSongSession extends BaseSongSession implements UpdatableSong
         return sgContext.getSongParts().stream().anyMatch(spt -> spt.getParentSection() == section);
     }
     
+    /**
+     * Mark as dirty the bar ranges of the context song parts impacted by a change on the specified ChordLeadSheet bar.
+     * <p>
+     * If clsBarIndex is the first bar of its section, the previous song part is also impacted since its last notes might
+     * anticipate the chord symbols of the section.
+     *
+     * @param change
+     * @param clsBarIndex
+     */
+    private void addDirtyClsBar(ClsSgsChange change, int clsBarIndex)
+    {
+        addDirtyClsBar(getSongContext(), change.dirtySptBarRanges, clsBarIndex);
+    }
+
+    /**
+     * Add to dirtySptBarRanges the bar ranges of the sgContext song parts impacted by a change on the specified ChordLeadSheet bar.
+     *
+     * @param sgContext
+     * @param dirtySptBarRanges
+     * @param clsBarIndex
+     * @see #addDirtyClsBar(ClsSgsChange, int)
+     */
+    static void addDirtyClsBar(SongContext sgContext, Set<IntRange> dirtySptBarRanges, int clsBarIndex)
+    {
+        CLI_Section section = sgContext.getSong().getChordLeadSheet().getSection(clsBarIndex);
+        boolean isSectionStart = section.getPosition().getBar() == clsBarIndex;
+        List<SongPart> spts = sgContext.getSongParts();
+        for (int i = 0; i < spts.size(); i++)
+        {
+            SongPart spt = spts.get(i);
+            if (spt.getParentSection() == section)
+            {
+                dirtySptBarRanges.add(sgContext.getSptBarRange(spt));
+                if (isSectionStart && i > 0)
+                {
+                    dirtySptBarRanges.add(sgContext.getSptBarRange(spts.get(i - 1)));
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the RhythmVoice phrases of sgContext.
+     * <p>
+     * Use the pre-rendered phrases if available, otherwise regenerate only the dirty bars if possible, otherwise regenerate the
+     * whole context. The chunks which did not change are shared with lastMap.
+     *
+     * @param sgContext
+     * @param dirtySptBarRanges The context song part bar ranges impacted by the change. If null the whole context is impacted.
+     * @param lastMap           The phrases of the context before the change. Can be null.
+     * @param provider          Can be null
+     * @return
+     * @throws MusicGenerationException
+     */
+    static Map<RhythmVoice, PhraseSnapshot> buildMapRvSnapshot(SongContext sgContext, Set<IntRange> dirtySptBarRanges,
+            Map<RhythmVoice, PhraseSnapshot> lastMap, PreRenderedPhrasesProvider provider) throws MusicGenerationException
+    {
+        Map<RhythmVoice, PhraseSnapshot> res;
+        var preRendered = provider == null ? null : provider.getPhrases(sgContext);
+        if (preRendered != null)
+        {
+            LOGGER.fine("buildMapRvSnapshot() using pre-rendered phrases");
+            res = new HashMap<>(preRendered);
+            shareChunks(res, lastMap);
+        } else
+        {
+            res = buildIncrementalMapRvSnapshot(sgContext, dirtySptBarRanges, lastMap);
+        }
+        if (res == null)
+        {
+            SongSequenceBuilder sgBuilder = new SongSequenceBuilder(sgContext);
+            res = UpdatableSongSession.toSnapshotMap(sgBuilder.buildMapRvPhrase(true));
+            shareChunks(res, lastMap);
+        }
+        return res;
+    }
+
+    /**
+     * Get the RhythmVoice phrases of sgContext by regenerating only the dirty bars.
+     * <p>
+     * Regenerate the phrases for each contiguous range of dirty bars, and splice them into lastMap: the unchanged parts of the
+     * phrases are shared, not copied. This is possible only if the music generated for a SongPart does not depend on the adjacent
+     * SongParts, so all the rhythms of the dirty bars must be MusicGenerators whose isSongPartCacheable() returns true.
+     *
+     * @param sgContext
+     * @param dirtySptBarRanges The context song part bar ranges impacted by the change. If null the whole context is impacted.
+     * @param lastMap           The phrases of the context before the change. Can be null.
+     * @return Null if an incremental update is not possible
+     * @throws MusicGenerationException
+     */
+    static Map<RhythmVoice, PhraseSnapshot> buildIncrementalMapRvSnapshot(SongContext sgContext, Set<IntRange> dirtySptBarRanges,
+            Map<RhythmVoice, PhraseSnapshot> lastMap) throws MusicGenerationException
+    {
+        if (lastMap == null || dirtySptBarRanges == null)
+        {
+            return null;
+        }
+
+
+        // Merge the dirty bar ranges into contiguous ranges
+        List<IntRange> dirtyRanges = new ArrayList<>(dirtySptBarRanges);
+        dirtyRanges.removeIf(r -> r.isEmpty());
+        dirtyRanges.sort(Comparator.comparingInt(r -> r.from));
+        List<IntRange> mergedRanges = new ArrayList<>();
+        int nbDirtyBars = 0;
+        for (IntRange r : dirtyRanges)
+        {
+            IntRange last = mergedRanges.isEmpty() ? null : mergedRanges.get(mergedRanges.size() - 1);
+            if (last != null && (last.intersects(r) || last.isAdjacent(r)))
+            {
+                mergedRanges.set(mergedRanges.size() - 1, last.getUnionRange(r));
+            } else
+            {
+                mergedRanges.add(r);
+            }
+        }
+        for (IntRange r : mergedRanges)
+        {
+            nbDirtyBars += r.size();
+        }
+        if (nbDirtyBars > MAX_INCREMENTAL_UPDATE_BAR_RATIO * sgContext.getBarRange().size())
+        {
+            // Not worth it
+            return null;
+        }
+
+
+        // The music of a dirty range must not depend on the adjacent bars
+        List<SongContext> dirtyContexts = new ArrayList<>();
+        for (IntRange r : mergedRanges)
+        {
+            SongContext dirtyContext = new SongContext(sgContext, r);
+            for (Rhythm rhythm : dirtyContext.getUniqueRhythms())
+            {
+                if (!(rhythm instanceof MusicGenerator) || !((MusicGenerator) rhythm).isSongPartCacheable())
+                {
+                    LOGGER.log(Level.FINE, "buildIncrementalMapRvSnapshot() rhythm={0} is not song part cacheable, regenerating all", rhythm);
+                    return null;
+                }
+            }
+            dirtyContexts.add(dirtyContext);
+        }
+
+
+        // Start from the last phrases
+        Map<RhythmVoice, PhraseSnapshot> res = new HashMap<>(lastMap);
+
+
+        // Regenerate each dirty range and splice the result
+        float contextStartPos = sgContext.getBeatRange().from;
+        for (SongContext dirtyContext : dirtyContexts)
+        {
+            var dirtyMapRvPhrases = new SongSequenceBuilder(dirtyContext).buildMapRvPhrase(true);   // throws MusicGenerationException
+            FloatRange dirtyBeatRange = dirtyContext.getBeatRange().getTransformed(-contextStartPos);
+
+            for (var rv : dirtyMapRvPhrases.keySet())
+            {
+                PhraseSnapshot ps = res.get(rv);
+                if (ps == null)
+                {
+                    // Should not happen since song structure can't change, but be safe
+                    LOGGER.log(Level.FINE, "buildIncrementalMapRvSnapshot() no previous phrase for rv={0}, regenerating all", rv);
+                    return null;
+                }
+                Phrase pDirty = dirtyMapRvPhrases.get(rv);
+                pDirty.shiftEvents(dirtyBeatRange.from);
+                res.put(rv, ps.getSpliced(dirtyBeatRange, pDirty));
+            }
+        }
+
+        LOGGER.log(Level.FINE, "buildIncrementalMapRvSnapshot() regenerated bars={0}", mergedRanges);
+
+        return res;
+    }
+
     private void disableUpdates()
     {
         if (isUpdatable())
@@ -793,12 +1118,12 @@ public class DynamicSongSession extends BaseSongSession implements UpdatableSong
     private class UpdateRequestsHandler implements Runnable
     {
         
-        private final Queue<SongContext> queue = new ConcurrentLinkedQueue<>();
+        private final Queue<UpdateRequest> queue = new ConcurrentLinkedQueue<>();
         private ExecutorService executorService;
         private ScheduledExecutorService generationExecutorService;
         private Future<?> generationFuture;
         private UpdateGenerationTask generationTask;
-        private SongContext pendingSongContext;
+        private UpdateRequest pendingRequest;
         private final int preUpdateBufferTimeMs;
         private final int postUpdateSleepTimeMs;
         private volatile boolean running;
@@ -816,7 +1141,7 @@ public class DynamicSongSession extends BaseSongSession implements UpdatableSong
             this.postUpdateSleepTimeMs = postUpdateSleepTimeMs;
         }
         
-        public Queue<SongContext> getQueue()
+        public Queue<UpdateRequest> getQueue()
         {
             return queue;
         }
@@ -852,7 +1177,7 @@ public class DynamicSongSession extends BaseSongSession implements UpdatableSong
         {
             while (running)
             {
-                SongContext incoming = queue.poll();           // Does not block if empty
+                UpdateRequest incoming = queue.poll();           // Does not block if empty
 
                 if (incoming != null)
                 {
@@ -862,16 +1187,22 @@ public class DynamicSongSession extends BaseSongSession implements UpdatableSong
                     });
                     // LOGGER.info("UpdateRequestsHandler.run() handling cls=" + toDebugString(incoming.getSong().getChordLeadSheet()));
 
-                    // Handle new context, save as pending if handling failed
-                    pendingSongContext = handleContext(incoming) ? null : incoming;
+                    // The incoming request replaces the pending one, but must not lose its dirty bars
+                    if (pendingRequest != null)
+                    {
+                        incoming = incoming.getMerged(pendingRequest);
+                    }
+
+                    // Handle new request, save as pending if handling failed
+                    pendingRequest = handleRequest(incoming) ? null : incoming;
                     
-                } else if (pendingSongContext != null)
+                } else if (pendingRequest != null)
                 {
-                    // Handle the last pending context, reset it if handling was successful
-                    if (handleContext(pendingSongContext))
+                    // Handle the last pending request, reset it if handling was successful
+                    if (handleRequest(pendingRequest))
                     {
-                        LOGGER.log(Level.FINE, "UpdateRequestsHandler.run() handled pendingSongContext={0}", pendingSongContext);
-                        pendingSongContext = null;
+                        LOGGER.log(Level.FINE, "UpdateRequestsHandler.run() handled pendingRequest={0}", pendingRequest);
+                        pendingRequest = null;
                     }
                 }
 
@@ -890,34 +1221,34 @@ public class DynamicSongSession extends BaseSongSession implements UpdatableSong
         /**
          * Try to start a new task or update existing task if possible.
          * <p>
-         * If not possible, sgContext becomes the pendingContext.
+         * If not possible, request becomes the pendingRequest.
          *
-         * @param sgContext
-         * @return True if task could be started or updated with sgContext, false otherwise
+         * @param request
+         * @return True if task could be started or updated with request, false otherwise
          */
-        private boolean handleContext(SongContext sgContext)
+        private boolean handleRequest(UpdateRequest request)
         {
             boolean b;
             if (generationFuture == null)
             {
                 // No generation task created yet, start one
-                LOGGER.fine("handleContext() start generation FIRST TIME");
-                startGenerationTask(sgContext);
+                LOGGER.fine("handleRequest() start generation FIRST TIME");
+                startGenerationTask(request);
                 b = true;
                 
             } else if (generationFuture.isDone())
             {
                 // There is a generation task but it is complete, restart one
-                LOGGER.fine("handleContext() start generation");
-                startGenerationTask(sgContext);
+                LOGGER.fine("handleRequest() start generation");
+                startGenerationTask(request);
                 b = true;
                 
             } else
             {
                 // There is a generation task but not started yet (wait preUpdateBufferTimeMs), try to update it
-                if (generationTask.changeContext(sgContext))
+                if (generationTask.changeRequest(request))
                 {
-                    LOGGER.fine("handleContext() changed context of current generation task");
+                    LOGGER.fine("handleRequest() changed request of current generation task");
                     // OK, task was waiting, we're done
                     b = true;
                     
@@ -935,13 +1266,13 @@ public class DynamicSongSession extends BaseSongSession implements UpdatableSong
         /**
          * Start a generation task after a fixed delay.
          *
-         * @param sgContext
+         * @param request
          */
-        private void startGenerationTask(SongContext sgContext)
+        private void startGenerationTask(UpdateRequest request)
         {
             try
             {
-                generationTask = new UpdateGenerationTask(sgContext, postUpdateSleepTimeMs);
+                generationTask = new UpdateGenerationTask(request, postUpdateSleepTimeMs);
                 generationFuture = generationExecutorService.schedule(generationTask, preUpdateBufferTimeMs, TimeUnit.MILLISECONDS);
             } catch (RejectedExecutionException ex)
             {
@@ -960,36 +1291,37 @@ public class DynamicSongSession extends BaseSongSession implements UpdatableSong
     {
         
         private boolean started = false;
-        private SongContext songContext;
+        private UpdateRequest request;
         private final int postUpdateSleepTime;
 
         /**
-         * Create an UpdateGenerator task for the given SongContext.
+         * Create an UpdateGenerator task for the given UpdateRequest.
          * <p>
          *
-         * @param sgContext This must be an immutable instance (e.g. song must not be modified in parallel)
+         * @param request The request SongContext must be an immutable instance (e.g. song must not be modified in parallel)
          * @param postUpdateSleepTime This delay avoids to have too many sequencer changes in a short period of time, which can
          * cause audio issues with notes muted/unmuted too many times.
          */
-        UpdateGenerationTask(SongContext sgContext, int postUpdateSleepTime)
+        UpdateGenerationTask(UpdateRequest request, int postUpdateSleepTime)
         {
-            this.songContext = sgContext;
+            this.request = request;
             this.postUpdateSleepTime = postUpdateSleepTime;
         }
 
         /**
-         * Change the context for which to generate the update
+         * Change the request for which to generate the update.
          * <p>
-         * Once the task has started (run() was called) the context can't be changed anymore.
+         * Once the task has started (run() was called) the request can't be changed anymore. The dirty bars of the current request
+         * are merged into the new request.
          *
-         * @param sgContext This must be an immutable instance (e.g. song must not be modified in parallel)
-         * @return True if context could be changed (task is not started yet)
+         * @param newRequest The request SongContext must be an immutable instance (e.g. song must not be modified in parallel)
+         * @return True if request could be changed (task is not started yet)
          */
-        synchronized boolean changeContext(SongContext sgContext)
+        synchronized boolean changeRequest(UpdateRequest newRequest)
         {
             if (!started)
             {
-                this.songContext = sgContext;
+                this.request = newRequest.getMerged(request);
                 return true;
             }
             return false;
@@ -1010,13 +1342,17 @@ public class DynamicSongSession extends BaseSongSession implements UpdatableSong
 
 
             // Recompute the RhythmVoice phrases
-            Map<RhythmVoice, Phrase> mapRvPhrases;
-            SongSequenceBuilder sgBuilder = new SongSequenceBuilder(songContext);
+            SongContext songContext = request.songContext;
+            Map<RhythmVoice, PhraseSnapshot> mapRvSnapshots;
             try
             {
-                mapRvPhrases = sgBuilder.buildMapRvPhrase(true);
+                var dirtySptBarRanges = isIncrementalUpdateEnabled ? request.dirtySptBarRanges : null;
+                mapRvSnapshots = buildMapRvSnapshot(songContext, dirtySptBarRanges, lastMapRvSnapshots, preRenderedPhrasesProvider);
             } catch (UserErrorGenerationException ex)
             {
+                // The dirty bars of this request are lost, next update will need a full regeneration
+                lastMapRvSnapshots = null;
+
                 // Pass user error to handler if one is registered
                 LOGGER.warning(ex.getMessage());
                 if (userErrorExceptionHandler != null)
@@ -1030,14 +1366,17 @@ public class DynamicSongSession extends BaseSongSession implements UpdatableSong
             } catch (MusicGenerationException ex)
             {
                 // This is not normal (e.g. rhythm generation failure), notify user
+                lastMapRvSnapshots = null;
                 NotifyDescriptor d = new NotifyDescriptor.Message(ex.getMessage(), NotifyDescriptor.ERROR_MESSAGE);
                 DialogDisplayer.getDefault().notify(d);
                 return;
             } catch (Exception e)           // To make sure we catch other programming exceptions, sometimes not seen because in thread
             {
+                lastMapRvSnapshots = null;
                 e.printStackTrace();
                 return;
             }
+            lastMapRvSnapshots = mapRvSnapshots;
 
 
             // Create a new control track
@@ -1049,7 +1388,7 @@ public class DynamicSongSession extends BaseSongSession implements UpdatableSong
 
 
             // Create the update
-            update = new Update(mapRvPhrases, cTrack);
+            update = new Update(mapRvSnapshots, cTrack);
 
 
             // Notify listeners, normally an UpdatableSongSession
@@ -1078,6 +1417,7 @@ public class DynamicSongSession extends BaseSongSession implements UpdatableSong
         
         boolean doUpdate;
         String actionId;
+        final Set<IntRange> dirtySptBarRanges = new HashSet<>();
         
         private ClsSgsChange(String actionId)
         {
@@ -1087,7 +1427,54 @@ public class DynamicSongSession extends BaseSongSession implements UpdatableSong
         @Override
         public String toString()
         {
-            return "<actionId=" + actionId + ", doUpdate=" + doUpdate + ">";
+            return "<actionId=" + actionId + ", doUpdate=" + doUpdate + ", dirtySptBarRanges=" + dirtySptBarRanges + ">";
+        }
+    }
+
+    /**
+     * An update request: a SongContext copy and the bar ranges impacted by the changes.
+     */
+    static private class UpdateRequest
+    {
+
+        final SongContext songContext;
+        /**
+         * Null means the whole context is dirty.
+         */
+        final Set<IntRange> dirtySptBarRanges;
+
+        /**
+         *
+         * @param sgContext
+         * @param dirtySptBarRanges If null the whole context is dirty
+         */
+        UpdateRequest(SongContext sgContext, Set<IntRange> dirtySptBarRanges)
+        {
+            this.songContext = sgContext;
+            this.dirtySptBarRanges = dirtySptBarRanges == null ? null : new HashSet<>(dirtySptBarRanges);
+        }
+
+        /**
+         * Get a request with this object's context and the dirty bars of both this object and an older request.
+         *
+         * @param olderRequest
+         * @return
+         */
+        UpdateRequest getMerged(UpdateRequest olderRequest)
+        {
+            Set<IntRange> ranges = null;
+            if (dirtySptBarRanges != null && olderRequest.dirtySptBarRanges != null)
+            {
+                ranges = new HashSet<>(dirtySptBarRanges);
+                ranges.addAll(olderRequest.dirtySptBarRanges);
+            }
+            return new UpdateRequest(songContext, ranges);
+        }
+
+        @Override
+        public String toString()
+        {
+            return "<songContext=" + songContext + ", dirtySptBarRanges=" + dirtySptBarRanges + ">";
         }
     }
 
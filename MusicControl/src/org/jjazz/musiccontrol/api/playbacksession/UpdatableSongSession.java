@@ -27,6 +27,7 @@ import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -44,11 +45,14 @@ import org.jjazz.midi.api.MidiConst;
 import org.jjazz.midi.api.MidiUtilities;
 import org.jjazz.musiccontrol.api.ControlTrack;
 import org.jjazz.musiccontrol.api.PlaybackSettings;
+import org.jjazz.phrase.api.NoteEvent;
 import org.jjazz.phrase.api.Phrase;
+import org.jjazz.phrase.api.PhraseSnapshot;
 import org.jjazz.rhythm.api.MusicGenerationException;
 import org.jjazz.rhythm.api.RhythmVoice;
 import org.jjazz.songcontext.api.SongContext;
 import org.jjazz.util.api.IntRange;
+import org.jjazz.util.api.LongRange;
 
 /**
  * A PlaybackSession which is a wrapper for a BaseSongSession to enable on-the-fly updates of the playing sequence using
@@ -57,27 +61,38 @@ import org.jjazz.util.api.IntRange;
  * Authorized udpates are notes+control track changes which do not change the Sequence size. The class uses buffer tracks and
  * mute/unmute tracks to enable on-the-fly sequence changes.
  * <p>
+ * Phrases are compared chunk by chunk (see {@link PhraseSnapshot}): once a buffer track has been written by this session, only
+ * the MidiEvents of the changed chunks are replaced.
+ * <p>
  * If the BaseSongSession is an instance of UpdateProvider, listen to update availability and automatically apply the update.
  */
 public class UpdatableSongSession implements PropertyChangeListener, PlaybackSession, ControlTrackProvider, SongContextProvider, EndOfPlaybackActionProvider
 {
 
+    /**
+     * Fired by updateSequence() after the PROP_MUTED_TRACKS change event.
+     * <p>
+     * newValue is a Map&lt;Integer, List&lt;LongRange&gt;&gt;: for each updated original track id, the ordered tick ranges
+     * (precount bars included) whose MidiEvents have changed.
+     */
+    public static final String PROP_UPDATED_TICK_RANGES = "PropUpdatedTickRanges";
+
     /**
      * A song update produced by an UpdateProvider and processed by an UpdatableSongSession.
      */
     static public class Update
     {
 
-        private Map<RhythmVoice, Phrase> mapRvPhrases;
+        private Map<RhythmVoice, PhraseSnapshot> mapRvSnapshots;
         private ControlTrack controlTrack;
 
-        public Update(Map<RhythmVoice, Phrase> mapRvPhrases, ControlTrack controlTrack)
+        public Update(Map<RhythmVoice, PhraseSnapshot> mapRvSnapshots, ControlTrack controlTrack)
         {
-            if (mapRvPhrases == null && controlTrack == null)
+            if (mapRvSnapshots == null && controlTrack == null)
             {
-                throw new IllegalArgumentException("mapRvPhrases=" + mapRvPhrases + " controlTrack=" + controlTrack);
+                throw new IllegalArgumentException("mapRvSnapshots=" + mapRvSnapshots + " controlTrack=" + controlTrack);
             }
-            this.mapRvPhrases = mapRvPhrases;
+            this.mapRvSnapshots = mapRvSnapshots;
             this.controlTrack = controlTrack;
         }
 
@@ -88,9 +103,20 @@ public class UpdatableSongSession implements PropertyChangeListener, PlaybackSes
          *
          * @return
          */
+        public Map<RhythmVoice, PhraseSnapshot> getMapRvSnapshots()
+        {
+            return mapRvSnapshots;
+        }
+
+        /**
+         * Same as getMapRvSnapshots() but with new Phrase instances.
+         *
+         * @return Can be null (no update) if controlTrack is not null.
+         * @see #getMapRvSnapshots()
+         */
         public Map<RhythmVoice, Phrase> getMapRvPhrases()
         {
-            return mapRvPhrases;
+            return mapRvSnapshots == null ? null : toPhraseMap(mapRvSnapshots);
         }
 
         /**
@@ -108,7 +134,7 @@ public class UpdatableSongSession implements PropertyChangeListener, PlaybackSes
         @Override
         public String toString()
         {
-            return "<mapRvPhrases.keySet=" + getMapRvPhrases().keySet() + ", controlTrack=" + getControlTrack() + ">";
+            return "<mapRvSnapshots.keySet=" + (mapRvSnapshots == null ? null : mapRvSnapshots.keySet()) + ", controlTrack=" + getControlTrack() + ">";
         }
     }
 
@@ -133,12 +159,16 @@ public class UpdatableSongSession implements PropertyChangeListener, PlaybackSes
 
     private long originalTrackTickSize;
     private int nbPlayingTracks;
-    private Map<RhythmVoice, Phrase> currentMapRvPhrase;
+    private Map<RhythmVoice, PhraseSnapshot> currentMapRvSnapshot;
     private ControlTrack currentControlTrack;
     private TrackSet trackSet;         // Exclude track 0 
     private final BaseSongSession baseSongSession;
     private Sequence sequence;
     private final HashMap<Integer, Boolean> mapTrackIdMuted = new HashMap<>();
+    /**
+     * The content of the tracks written by updateTrack(), key=sequence track id (active or buffer).
+     */
+    private final Map<Integer, TrackContent> mapTrackIdContent = new HashMap<>();
     private static final List<UpdatableSongSession> sessions = new ArrayList<>();
 
     private final SwingPropertyChangeSupport pcs = new SwingPropertyChangeSupport(this);
@@ -224,6 +254,21 @@ public class UpdatableSongSession implements PropertyChangeListener, PlaybackSes
         prepareData();
     }
 
+    /**
+     * Same as generate(silent) but the base session music is generated from workContext.
+     *
+     * @param silent
+     * @param workContext
+     * @throws MusicGenerationException
+     * @see BaseSongSession#generate(boolean, SongContext)
+     */
+    public void generate(boolean silent, SongContext workContext) throws MusicGenerationException
+    {
+        baseSongSession.generate(silent, workContext);
+
+        prepareData();
+    }
+
 
     /**
      * Get the sequence which contains the original song tracks plus additional empty tracks to allow "double buffering
@@ -267,6 +312,9 @@ public class UpdatableSongSession implements PropertyChangeListener, PlaybackSes
      * Update RhythmVoice tracks for which there is an actual change. Changes are first applied to muted "buffer tracks", then we
      * switch the mute status between the buffer and the playing tracks. The transition might be noticeable if notes were still
      * ringing when tracks mute state is switched.
+     * <p>
+     * Only the MidiEvents of the changed phrase chunks are replaced in a buffer track, except the first time the buffer track is
+     * used. The changed tick ranges are notified with a PROP_UPDATED_TICK_RANGES change event.
      *
      * @param update
      * @throws IllegalArgumentException If a MidiEvent tick position is beyond getOriginalSequenceSize(), or if session is not in
@@ -296,8 +344,8 @@ public class UpdatableSongSession implements PropertyChangeListener, PlaybackSes
 
 
         // We might have potentially modified phrases, new user phrases or deleted user phrases
-        Set<RhythmVoice> updatedRvs = update.getMapRvPhrases().keySet();
-        Set<RhythmVoice> currentRvs = currentMapRvPhrase.keySet();
+        Set<RhythmVoice> updatedRvs = update.getMapRvSnapshots().keySet();
+        Set<RhythmVoice> currentRvs = currentMapRvSnapshot.keySet();
         var modifiedPhraseRvs = new HashSet<>(updatedRvs);
         modifiedPhraseRvs.retainAll(currentRvs);
         var newUserPhraseRvs = new HashSet<>(updatedRvs);
@@ -313,31 +361,37 @@ public class UpdatableSongSession implements PropertyChangeListener, PlaybackSes
         }
 
 
+        // Changed tick ranges per original track id
+        Map<Integer, List<LongRange>> mapTrackIdTickRanges = new HashMap<>();
+
+
         // Update sequence for each modified phrase 
         for (RhythmVoice rv : modifiedPhraseRvs)
         {
-            var updatedPhrase = update.getMapRvPhrases().get(rv);
-            var currentPhrase = currentMapRvPhrase.get(rv);
+            var updatedSnapshot = update.getMapRvSnapshots().get(rv);
+            var currentSnapshot = currentMapRvSnapshot.get(rv);
             LOGGER.log(Level.FINE, "   rv={0}", rv);
-            LOGGER.log(Level.FINE, "     currentPhrase={0}", currentPhrase);
-            LOGGER.log(Level.FINE, "     updatedPhrase={0}", updatedPhrase);
+            LOGGER.log(Level.FINE, "     currentSnapshot={0}", currentSnapshot);
+            LOGGER.log(Level.FINE, "     updatedSnapshot={0}", updatedSnapshot);
 
 
-            if (currentPhrase.equals(updatedPhrase))
+            if (currentSnapshot.equals(updatedSnapshot))
             {
                 // No change do nothing
                 continue;
             } else
             {
-                // Replace the current events
+                // Replace the current events, share the unchanged chunks so that next comparison is fast
                 LOGGER.log(Level.FINE, "updateSequence()     changes detected for rv={0}, updating", rv);
-                currentMapRvPhrase.put(rv, updatedPhrase);
+                updatedSnapshot = updatedSnapshot.withSharedChunks(currentSnapshot);
+                currentMapRvSnapshot.put(rv, updatedSnapshot);
             }
 
 
             // Update the track
             int trackId = getOriginalRvTrackIdMap().get(rv);
-            updateTrack(trackId, updatedPhrase.toMidiEvents(), precountShift);
+            mapTrackIdTickRanges.put(trackId, getChangedTickRanges(currentSnapshot, updatedSnapshot, precountShift));
+            updateTrack(trackId, updatedSnapshot, precountShift);
 
         }
 
@@ -346,10 +400,11 @@ public class UpdatableSongSession implements PropertyChangeListener, PlaybackSes
         for (RhythmVoice urv : removedUserPhraseRvs)
         {
             LOGGER.log(Level.FINE, "    Clearing user phrase for urv={0}", urv.getName());
-            Phrase emptyPhrase = new Phrase(getSongContext().getMidiMix().getChannel(urv));
-            currentMapRvPhrase.put(urv, emptyPhrase);
+            PhraseSnapshot emptySnapshot = PhraseSnapshot.of(new Phrase(getSongContext().getMidiMix().getChannel(urv)));
+            PhraseSnapshot currentSnapshot = currentMapRvSnapshot.put(urv, emptySnapshot);
             int trackId = getOriginalRvTrackIdMap().get(urv);
-            updateTrack(trackId, emptyPhrase.toMidiEvents(), precountShift);
+            mapTrackIdTickRanges.put(trackId, getChangedTickRanges(currentSnapshot, emptySnapshot, precountShift));
+            updateTrack(trackId, emptySnapshot, precountShift);
         }
 
 
@@ -358,6 +413,7 @@ public class UpdatableSongSession implements PropertyChangeListener, PlaybackSes
         {
             currentControlTrack = update.getControlTrack();
             int trackId = update.getControlTrack().getTrackId();
+            mapTrackIdTickRanges.put(trackId, Arrays.asList(new LongRange(0, originalTrackTickSize)));
             updateTrack(trackId, currentControlTrack.getMidiEvents(), precountShift);
 
         }
@@ -368,6 +424,7 @@ public class UpdatableSongSession implements PropertyChangeListener, PlaybackSes
 
         // Notify our listeners that tracks mute status has changed
         pcs.firePropertyChange(PlaybackSession.PROP_MUTED_TRACKS, null, mapTrackIdMuted);
+        pcs.firePropertyChange(PROP_UPDATED_TICK_RANGES, null, mapTrackIdTickRanges);
     }
 
     /**
@@ -397,11 +454,48 @@ public class UpdatableSongSession implements PropertyChangeListener, PlaybackSes
     /**
      * Get the current Phrase for each RhythmVoice track.
      *
-     * @return
+     * @return New Phrase instances
+     * @see #getCurrentRvSnapshotMap()
      */
     public Map<RhythmVoice, Phrase> getCurrentRvPhraseMap()
     {
-        return currentMapRvPhrase;
+        return toPhraseMap(currentMapRvSnapshot);
+    }
+
+    /**
+     * Get the current PhraseSnapshot for each RhythmVoice track.
+     *
+     * @return An unmodifiable map
+     */
+    public Map<RhythmVoice, PhraseSnapshot> getCurrentRvSnapshotMap()
+    {
+        return Collections.unmodifiableMap(currentMapRvSnapshot);
+    }
+
+    /**
+     * Convert a RhythmVoice Phrase map into a RhythmVoice PhraseSnapshot map.
+     *
+     * @param mapRvPhrase
+     * @return
+     */
+    static public Map<RhythmVoice, PhraseSnapshot> toSnapshotMap(Map<RhythmVoice, Phrase> mapRvPhrase)
+    {
+        Map<RhythmVoice, PhraseSnapshot> res = new HashMap<>();
+        mapRvPhrase.forEach((rv, p) -> res.put(rv, PhraseSnapshot.of(p)));
+        return res;
+    }
+
+    /**
+     * Convert a RhythmVoice PhraseSnapshot map into a RhythmVoice Phrase map.
+     *
+     * @param mapRvSnapshot
+     * @return
+     */
+    static public Map<RhythmVoice, Phrase> toPhraseMap(Map<RhythmVoice, PhraseSnapshot> mapRvSnapshot)
+    {
+        Map<RhythmVoice, Phrase> res = new HashMap<>();
+        mapRvSnapshot.forEach((rv, ps) -> res.put(rv, ps.toPhrase()));
+        return res;
     }
 
     @Override
@@ -617,8 +711,9 @@ public class UpdatableSongSession implements PropertyChangeListener, PlaybackSes
         sequence = baseSongSession.getSequence();
         originalTrackTickSize = sequence.getTickLength();       // Possibly include precount leading bars
         nbPlayingTracks = sequence.getTracks().length;
-        currentMapRvPhrase = baseSongSession.getRvPhraseMap();
+        currentMapRvSnapshot = toSnapshotMap(baseSongSession.getRvPhraseMap());
         currentControlTrack = baseSongSession.getControlTrack();
+        mapTrackIdContent.clear();
 
         // Create the trackset to manage double-buffering at track level
         var originalMapIdMuted = baseSongSession.getTracksMuteStatus(); // Track 0 is not included, but may contain click/precount/control tracks
@@ -641,7 +736,7 @@ public class UpdatableSongSession implements PropertyChangeListener, PlaybackSes
 
 
     /**
-     * Update one track.
+     * Update one track with all the specified events.
      *
      * @param trackId
      * @param newEvents     IMPORTANT events positions will be modified!
@@ -651,10 +746,62 @@ public class UpdatableSongSession implements PropertyChangeListener, PlaybackSes
     private void updateTrack(int trackId, List<MidiEvent> newEvents, long precountShift) throws IllegalArgumentException
     {
         Track bufferTrack = trackSet.getBufferTrack(trackId);
+        mapTrackIdContent.remove(trackSet.getBufferTrackId(trackId));
         MidiUtilities.clearTrack(bufferTrack);
+        addEvents(bufferTrack, newEvents, precountShift);
+        swapTracks(trackId);
+    }
+
+    /**
+     * Update one track with the notes of the specified snapshot.
+     * <p>
+     * If the buffer track content is known, only the events of the changed chunks are replaced.
+     *
+     * @param trackId
+     * @param snapshot
+     * @param precountShift
+     * @throws IllegalArgumentException
+     */
+    private void updateTrack(int trackId, PhraseSnapshot snapshot, long precountShift) throws IllegalArgumentException
+    {
+        Track bufferTrack = trackSet.getBufferTrack(trackId);
+        int bufferTrackId = trackSet.getBufferTrackId(trackId);
+        TrackContent content = mapTrackIdContent.get(bufferTrackId);
 
 
-        for (MidiEvent me : newEvents)
+        if (content == null || content.precountShift != precountShift || content.snapshot.getChunkSize() != snapshot.getChunkSize())
+        {
+            // Unknown content, rewrite everything
+            MidiUtilities.clearTrack(bufferTrack);
+            content = new TrackContent(snapshot, precountShift);
+            for (int i = 0; i < snapshot.getNbChunks(); i++)
+            {
+                List<MidiEvent> events = snapshot.toMidiEvents(i);
+                addEvents(bufferTrack, events, precountShift);
+                content.chunkEvents.add(events);
+            }
+            LOGGER.log(Level.FINE, "updateTrack() trackId={0} full rewrite", trackId);
+
+        } else
+        {
+            content = content.getUpdated(bufferTrack, snapshot);
+        }
+
+        mapTrackIdContent.put(bufferTrackId, content);
+        swapTracks(trackId);
+    }
+
+    /**
+     * Add events to a track.
+     *
+     * @param track
+     * @param events        IMPORTANT events positions will be modified!
+     * @param precountShift
+     * @throws IllegalArgumentException
+     */
+    private void addEvents(Track track, List<MidiEvent> events, long precountShift) throws IllegalArgumentException
+    {
+        for (MidiEvent me : events)
         {
             // Adjust position if precount bars are used
             me.setTick(me.getTick() + precountShift);
@@ -663,12 +810,19 @@ public class UpdatableSongSession implements PropertyChangeListener, PlaybackSes
             {
                 throw new IllegalArgumentException("me=" + MidiUtilities.toString(me.getMessage(), me.getTick()) + " originalTrackTickSize=" + originalTrackTickSize);
             }
-            bufferTrack.add(me);
+            track.add(me);
         }
+    }
 
-
+    /**
+     * Make the updated buffer track the active track.
+     *
+     * @param trackId
+     */
+    private void swapTracks(int trackId)
+    {
         // Make sure size is not changed
-        MidiUtilities.setEndOfTrackPosition(bufferTrack, originalTrackTickSize);
+        MidiUtilities.setEndOfTrackPosition(trackSet.getBufferTrack(trackId), originalTrackTickSize);
 
 
         // Update the track mute state : apply mute status of the active track to the buffer track, then mute the active track
@@ -682,6 +836,51 @@ public class UpdatableSongSession implements PropertyChangeListener, PlaybackSes
     }
 
 
+    /**
+     * Compute the tick ranges impacted by the changes between 2 snapshots.
+     *
+     * @param oldSnapshot
+     * @param newSnapshot
+     * @param precountShift
+     * @return The ordered and merged tick ranges
+     */
+    private List<LongRange> getChangedTickRanges(PhraseSnapshot oldSnapshot, PhraseSnapshot newSnapshot, long precountShift)
+    {
+        List<LongRange> res = new ArrayList<>();
+        if (oldSnapshot.getChunkSize() != newSnapshot.getChunkSize())
+        {
+            res.add(new LongRange(0, originalTrackTickSize));
+            return res;
+        }
+
+        for (int chunk : newSnapshot.getChangedChunks(oldSnapshot))
+        {
+            long from = Long.MAX_VALUE;
+            long to = Long.MIN_VALUE;
+            for (var ps : Arrays.asList(oldSnapshot, newSnapshot))
+            {
+                for (NoteEvent ne : ps.getChunkNotes(chunk))
+                {
+                    float pos = ne.getPositionInBeats();
+                    from = Math.min(from, Math.round(pos * MidiConst.PPQ_RESOLUTION) + precountShift);
+                    to = Math.max(to, Math.round((pos + ne.getDurationInBeats()) * MidiConst.PPQ_RESOLUTION) + precountShift);
+                }
+            }
+
+            // Chunks are ordered by note start position: from is increasing
+            int last = res.size() - 1;
+            if (last >= 0 && from <= res.get(last).to)
+            {
+                res.set(last, new LongRange(res.get(last).from, Math.max(to, res.get(last).to)));
+            } else
+            {
+                res.add(new LongRange(from, to));
+            }
+        }
+
+        return res;
+    }
+
     /**
      * Find an identical existing session in state NEW or GENERATED and not dirty.
      *
@@ -706,6 +905,92 @@ public class UpdatableSongSession implements PropertyChangeListener, PlaybackSes
     // ==========================================================================================================
     // Inner classes
     // ==========================================================================================================    
+    /**
+     * The MidiEvents written in a track for each chunk of a PhraseSnapshot.
+     * <p>
+     * Package visibility for unit tests.
+     */
+    static class TrackContent
+    {
+
+        private final PhraseSnapshot snapshot;
+        private final long precountShift;
+        /**
+         * The events of each chunk, as added in the track.
+         */
+        final List<List<MidiEvent>> chunkEvents = new ArrayList<>();
+
+        public TrackContent(PhraseSnapshot snapshot, long precountShift)
+        {
+            this.snapshot = snapshot;
+            this.precountShift = precountShift;
+        }
+
+        /**
+         * Replace in track the events of the changed chunks between our snapshot and newSnapshot.
+         * <p>
+         * An unchanged chunk is also rewritten if its first note ON is not after a rewritten note OFF: Track.add() puts an event
+         * after the existing events at the same tick, so that a NOTE_OFF must never be added after a NOTE_ON of the same tick.
+         * This way the track remains identical to a full rewrite.
+         *
+         * @param track       Must contain the events of this TrackContent
+         * @param newSnapshot Must have the same chunk size
+         * @return The new TrackContent
+         */
+        public TrackContent getUpdated(Track track, PhraseSnapshot newSnapshot)
+        {
+            var res = new TrackContent(newSnapshot, precountShift);
+            int nbChunks = Math.max(snapshot.getNbChunks(), newSnapshot.getNbChunks());
+            boolean[] changed = new boolean[nbChunks];
+            newSnapshot.getChangedChunks(snapshot).forEach(i -> changed[i] = true);
+
+
+            // Remove the old events of the rewritten chunks and compute the new ones
+            List<MidiEvent> addedEvents = new ArrayList<>();
+            long maxAddedTick = -1;
+            int nbRewritten = 0;
+            for (int i = 0; i < nbChunks; i++)
+            {
+                List<MidiEvent> oldEvents = i < chunkEvents.size() ? chunkEvents.get(i) : Collections.emptyList();
+                boolean rewrite = changed[i] || (!oldEvents.isEmpty() && oldEvents.get(0).getTick() <= maxAddedTick);
+                if (!rewrite)
+                {
+                    res.chunkEvents.add(oldEvents);
+                    continue;
+                }
+
+                oldEvents.forEach(me -> track.remove(me));
+                List<MidiEvent> newEvents = newSnapshot.toMidiEvents(i);
+                for (MidiEvent me : newEvents)
+                {
+                    me.setTick(me.getTick() + precountShift);
+                    maxAddedTick = Math.max(maxAddedTick, me.getTick());
+                }
+                addedEvents.addAll(newEvents);
+                res.chunkEvents.add(newEvents);
+                nbRewritten++;
+            }
+
+
+            // Add in chunk order, like a full rewrite
+            addedEvents.forEach(me -> track.add(me));
+
+
+            // Remove trailing empty chunks
+            while (res.chunkEvents.size() > newSnapshot.getNbChunks())
+            {
+                res.chunkEvents.remove(res.chunkEvents.size() - 1);
+            }
+
+            LOGGER.log(Level.FINE, "TrackContent.getUpdated() nbChunks={0} nbRewritten={1} nbAddedEvents={2}", new Object[]
+            {
+                nbChunks, nbRewritten, addedEvents.size()
+            });
+
+            return res;
+        }
+    }
+
     /**
      * Manage a set of tracks of a sequence: N active tracks and N buffer tracks.
      */
@@ -265,7 +265,8 @@ public class UpdaterThread<T> implements Runnable
 
 
             // Perform the update 
-            UpdatableSongSession.Update update = new UpdatableSongSession.Update(tmpSession.getRvPhraseMap(), null);
+            var mapRvSnapshots = UpdatableSongSession.toSnapshotMap(tmpSession.getRvPhraseMap());
+            UpdatableSongSession.Update update = new UpdatableSongSession.Update(mapRvSnapshots, null);
             updatableSession.updateSequence(update);
 
 
@@ -0,0 +1,159 @@
+/*
+ *  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ * 
+ *  Copyright @2019 Jerome Lelasseux. All rights reserved.
+ *
+ *  This file is part of the JJazzLabX software.
+ *   
+ *  JJazzLabX is free software: you can redistribute it and/or modify
+ *  it under the terms of the Lesser GNU General Public License (LGPLv3) 
+ *  as published by the Free Software Foundation, either version 3 of the License, 
+ *  or (at your option) any later version.
+ *
+ *  JJazzLabX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the 
+ *  GNU Lesser General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with JJazzLabX.  If not, see <https://www.gnu.org/licenses/>
+ * 
+ *  Contributor(s): 
+ */
+package org.jjazz.musiccontrol.api;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import javax.swing.SwingUtilities;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test of the CoalescingNoteListener coalescing rules.
+ */
+public class CoalescingNoteListenerTest
+{
+
+    public CoalescingNoteListenerTest()
+    {
+    }
+
+    @Test
+    public void testPressReleaseInOneFrame() throws Exception
+    {
+        System.out.println("=== testPressReleaseInOneFrame()");
+        BlockingQueue<NoteStates> snapshots = new LinkedBlockingQueue<>();
+        CoalescingNoteListener listener = new CoalescingNoteListener(states -> snapshots.add(states), 10);
+
+
+        // On the EDT so that no snapshot can be delivered between note ON and note OFF
+        SwingUtilities.invokeAndWait(() ->
+        {
+            listener.noteOn(-1, 15, 64, 100);
+            listener.noteOn(-1, 0, 63, 50);
+            listener.noteOff(-1, 15, 64);
+        });
+
+
+        // Pressed in first snapshot
+        NoteStates states1 = snapshots.poll(2, TimeUnit.SECONDS);
+        assertNotNull(states1);
+        assertTrue(states1.isPressed(15, 64));
+        assertEquals(100, states1.getVelocity(15, 64));
+        assertTrue(states1.isPressed(0, 63));
+
+
+        // Released in the next one
+        NoteStates states2 = snapshots.poll(2, TimeUnit.SECONDS);
+        assertNotNull(states2);
+        assertFalse(states2.isPressed(15, 64));
+        assertTrue(states2.isPressed(0, 63));
+        assertEquals(List.of(64), states2.getChangedPitches(states1, 15));
+        assertSame(states2, listener.getLastStates());
+
+
+        // Nothing more
+        assertNull(snapshots.poll(500, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testAtMostOneDeliveryPerFrame() throws Exception
+    {
+        System.out.println("=== testAtMostOneDeliveryPerFrame()");
+        final int frameRate = 20;
+        final long frameMs = 1000 / frameRate;
+        List<Long> deliveryTimes = new ArrayList<>();
+        List<NoteStates> snapshots = new ArrayList<>();
+        List<Boolean> onEdt = new ArrayList<>();
+        CoalescingNoteListener listener = new CoalescingNoteListener(states ->
+        {
+            onEdt.add(SwingUtilities.isEventDispatchThread());
+            deliveryTimes.add(System.nanoTime());
+            snapshots.add(states);
+        }, frameRate);
+
+
+        // Many note events during several frames
+        Random random = new Random(55667788L);
+        boolean[][] pressed = new boolean[16][128];
+        long startTime = System.nanoTime();
+        long durationMs = 600;
+        while (System.nanoTime() - startTime < durationMs * 1000000)
+        {
+            int channel = random.nextInt(16);
+            int pitch = random.nextInt(128);
+            if (pressed[channel][pitch])
+            {
+                listener.noteOff(-1, channel, pitch);
+            } else
+            {
+                listener.noteOn(-1, channel, pitch, 1 + random.nextInt(127));
+            }
+            pressed[channel][pitch] = !pressed[channel][pitch];
+            Thread.sleep(0, 200000);
+        }
+        Thread.sleep(5 * frameMs);
+
+
+        SwingUtilities.invokeAndWait(() ->
+        {
+            assertTrue(snapshots.size() >= 2);
+            assertFalse(onEdt.contains(false));
+            assertTrue("nbDeliveries=" + snapshots.size(), snapshots.size() <= durationMs / frameMs + 4);
+            for (int i = 1; i < deliveryTimes.size(); i++)
+            {
+                long deltaMs = (deliveryTimes.get(i) - deliveryTimes.get(i - 1)) / 1000000;
+                assertTrue("i=" + i + " deltaMs=" + deltaMs, deltaMs >= frameMs - 5);
+            }
+
+
+            // Last snapshot is the final state
+            NoteStates last = snapshots.get(snapshots.size() - 1);
+            assertSame(last, listener.getLastStates());
+            for (int channel = 0; channel < 16; channel++)
+            {
+                for (int pitch = 0; pitch < 128; pitch++)
+                {
+                    assertEquals("channel=" + channel + " pitch=" + pitch, pressed[channel][pitch], last.isPressed(channel, pitch));
+                }
+            }
+        });
+
+
+        // Reset releases all keys
+        listener.reset();
+        Thread.sleep(3 * frameMs);
+        SwingUtilities.invokeAndWait(() ->
+        {
+            NoteStates last = snapshots.get(snapshots.size() - 1);
+            for (int channel = 0; channel < 16; channel++)
+            {
+                assertTrue(last.isEmpty(channel));
+            }
+        });
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ *  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ * 
+ *  Copyright @2019 Jerome Lelasseux. All rights reserved.
+ *
+ *  This file is part of the JJazzLabX software.
+ *   
+ *  JJazzLabX is free software: you can redistribute it and/or modify
+ *  it under the terms of the Lesser GNU General Public License (LGPLv3) 
+ *  as published by the Free Software Foundation, either version 3 of the License, 
+ *  or (at your option) any later version.
+ *
+ *  JJazzLabX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the 
+ *  GNU Lesser General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with JJazzLabX.  If not, see <https://www.gnu.org/licenses/>
+ * 
+ *  Contributor(s): 
+ */
+package org.jjazz.musiccontrol.api;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test of LatencyEventScheduler.
+ */
+public class LatencyEventSchedulerTest
+{
+
+    public LatencyEventSchedulerTest()
+    {
+    }
+
+    @Test
+    public void testScheduleAfterInterrupt() throws InterruptedException
+    {
+        System.out.println("=== testScheduleAfterInterrupt()");
+        LatencyEventScheduler scheduler = new LatencyEventScheduler();
+
+        CountDownLatch latch1 = new CountDownLatch(1);
+        scheduler.schedule(() -> latch1.countDown(), 10);
+        assertTrue(latch1.await(5, TimeUnit.SECONDS));
+
+
+        // Interrupt the dispatch thread
+        Thread t = getDispatchThread();
+        assertNotNull(t);
+        t.interrupt();
+        t.join(5000);
+        assertFalse(t.isAlive());
+
+
+        // Events must still be dispatched
+        CountDownLatch latch2 = new CountDownLatch(1);
+        scheduler.schedule(() -> latch2.countDown(), 10);
+        assertTrue(latch2.await(5, TimeUnit.SECONDS));
+        assertEquals(0, scheduler.getNbPendingEvents());
+    }
+
+    private Thread getDispatchThread()
+    {
+        return Thread.getAllStackTraces().keySet().stream()
+                .filter(t -> t.getName().equals("LatencyEventScheduler") && t.isAlive())
+                .findAny()
+                .orElse(null);
+    }
+}
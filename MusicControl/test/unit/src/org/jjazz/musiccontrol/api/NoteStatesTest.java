@@ -0,0 +1,222 @@
+/*
+ *  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ * 
+ *  Copyright @2019 Jerome Lelasseux. All rights reserved.
+ *
+ *  This file is part of the JJazzLabX software.
+ *   
+ *  JJazzLabX is free software: you can redistribute it and/or modify
+ *  it under the terms of the Lesser GNU General Public License (LGPLv3) 
+ *  as published by the Free Software Foundation, either version 3 of the License, 
+ *  or (at your option) any later version.
+ *
+ *  JJazzLabX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the 
+ *  GNU Lesser General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with JJazzLabX.  If not, see <https://www.gnu.org/licenses/>
+ * 
+ *  Contributor(s): 
+ */
+package org.jjazz.musiccontrol.api;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test of NoteStates.
+ */
+public class NoteStatesTest
+{
+
+    private Random random;
+
+    public NoteStatesTest()
+    {
+    }
+
+    @Before
+    public void setUp()
+    {
+        random = new Random(11223344L);
+    }
+
+    @Test
+    public void testIsPressed()
+    {
+        System.out.println("=== testIsPressed()");
+        for (int test = 0; test < 50; test++)
+        {
+            boolean[][] pressed = getRandomPressed(test % 5 == 0 ? 0.5f : 0.05f);
+            int[][] velocities = getRandomVelocities();
+            NoteStates states = createNoteStates(pressed, velocities);
+            for (int channel = 0; channel < 16; channel++)
+            {
+                List<Integer> pitches = new ArrayList<>();
+                for (int pitch = 0; pitch < 128; pitch++)
+                {
+                    assertEquals("channel=" + channel + " pitch=" + pitch, pressed[channel][pitch], states.isPressed(channel, pitch));
+                    assertEquals(pressed[channel][pitch] ? velocities[channel][pitch] : 0, states.getVelocity(channel, pitch));
+                    if (pressed[channel][pitch])
+                    {
+                        pitches.add(pitch);
+                    }
+                }
+                assertEquals(pitches, states.getPressedPitches(channel));
+                assertEquals(pitches.size(), states.getNbPressedKeys(channel));
+                assertEquals(pitches.isEmpty(), states.isEmpty(channel));
+            }
+        }
+    }
+
+    @Test
+    public void testLimits()
+    {
+        System.out.println("=== testLimits()");
+        boolean[][] pressed = new boolean[16][128];
+        for (int pitch : new int[]
+        {
+            0, 63, 64, 127
+        })
+        {
+            pressed[15][pitch] = true;
+        }
+        NoteStates states = createNoteStates(pressed, getRandomVelocities());
+        assertEquals(Arrays.asList(0, 63, 64, 127), states.getPressedPitches(15));
+        assertTrue(states.isPressed(15, 63));
+        assertTrue(states.isPressed(15, 64));
+        assertFalse(states.isPressed(15, 62));
+        assertFalse(states.isPressed(15, 65));
+        assertFalse(states.isPressed(14, 63));
+        assertTrue(states.isEmpty(14));
+        assertTrue(NoteStates.EMPTY.isEmpty(15));
+        assertEquals(0, NoteStates.EMPTY.getNbPressedKeys(0));
+
+
+        for (int[] args : new int[][]
+        {
+            {
+                -1, 60
+            },
+            {
+                16, 60
+            },
+            {
+                0, -1
+            },
+            {
+                0, 128
+            }
+        })
+        {
+            try
+            {
+                states.isPressed(args[0], args[1]);
+                fail("channel=" + args[0] + " pitch=" + args[1]);
+            } catch (IllegalArgumentException ex)
+            {
+                // OK
+            }
+        }
+    }
+
+    @Test
+    public void testGetChangedPitches()
+    {
+        System.out.println("=== testGetChangedPitches()");
+
+        // Across the 63/64 word boundary on channel 15
+        boolean[][] pressed1 = new boolean[16][128];
+        pressed1[15][63] = true;
+        pressed1[15][100] = true;
+        pressed1[14][64] = true;
+        boolean[][] pressed2 = new boolean[16][128];
+        pressed2[15][64] = true;
+        pressed2[15][100] = true;
+        pressed2[14][64] = true;
+        NoteStates states1 = createNoteStates(pressed1, getRandomVelocities());
+        NoteStates states2 = createNoteStates(pressed2, getRandomVelocities());
+        assertEquals(Arrays.asList(63, 64), states2.getChangedPitches(states1, 15));
+        assertEquals(Arrays.asList(63, 64), states1.getChangedPitches(states2, 15));
+        assertFalse(states2.isPressed(15, 63));
+        assertTrue(states2.isPressed(15, 64));
+        assertTrue(states2.getChangedPitches(states1, 14).isEmpty());
+        assertEquals(Arrays.asList(64, 100), states2.getChangedPitches(NoteStates.EMPTY, 15));
+
+
+        // Random
+        for (int test = 0; test < 50; test++)
+        {
+            boolean[][] p1 = getRandomPressed(0.1f);
+            boolean[][] p2 = getRandomPressed(0.1f);
+            NoteStates s1 = createNoteStates(p1, getRandomVelocities());
+            NoteStates s2 = createNoteStates(p2, getRandomVelocities());
+            for (int channel = 0; channel < 16; channel++)
+            {
+                List<Integer> changed = new ArrayList<>();
+                for (int pitch = 0; pitch < 128; pitch++)
+                {
+                    if (p1[channel][pitch] != p2[channel][pitch])
+                    {
+                        changed.add(pitch);
+                    }
+                }
+                assertEquals("test=" + test + " channel=" + channel, changed, s2.getChangedPitches(s1, channel));
+            }
+        }
+    }
+
+    // =======================================================================================================
+    // Private methods
+    // =======================================================================================================
+    private NoteStates createNoteStates(boolean[][] pressed, int[][] velocities)
+    {
+        long[] keyBits = new long[32];
+        byte[] vels = new byte[16 * 128];
+        for (int channel = 0; channel < 16; channel++)
+        {
+            for (int pitch = 0; pitch < 128; pitch++)
+            {
+                if (pressed[channel][pitch])
+                {
+                    keyBits[2 * channel + pitch / 64] |= 1L << (pitch % 64);
+                }
+                vels[channel * 128 + pitch] = (byte) velocities[channel][pitch];
+            }
+        }
+        return new NoteStates(keyBits, vels);
+    }
+
+    private boolean[][] getRandomPressed(float probability)
+    {
+        boolean[][] res = new boolean[16][128];
+        for (int channel = 0; channel < 16; channel++)
+        {
+            for (int pitch = 0; pitch < 128; pitch++)
+            {
+                res[channel][pitch] = random.nextFloat() < probability;
+            }
+        }
+        return res;
+    }
+
+    private int[][] getRandomVelocities()
+    {
+        int[][] res = new int[16][128];
+        for (int channel = 0; channel < 16; channel++)
+        {
+            for (int pitch = 0; pitch < 128; pitch++)
+            {
+                res[channel][pitch] = 1 + random.nextInt(127);
+            }
+        }
+        return res;
+    }
+}
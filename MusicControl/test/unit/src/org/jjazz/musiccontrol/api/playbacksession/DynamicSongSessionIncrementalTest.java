@@ -0,0 +1,438 @@
+/*
+ *  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ * 
+ *  Copyright @2019 Jerome Lelasseux. All rights reserved.
+ *
+ *  This file is part of the JJazzLabX software.
+ *   
+ *  JJazzLabX is free software: you can redistribute it and/or modify
+ *  it under the terms of the Lesser GNU General Public License (LGPLv3) 
+ *  as published by the Free Software Foundation, either version 3 of the License, 
+ *  or (at your option) any later version.
+ *
+ *  JJazzLabX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the 
+ *  GNU Lesser General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with JJazzLabX.  If not, see <https://www.gnu.org/licenses/>
+ * 
+ *  Contributor(s): 
+ */
+package org.jjazz.musiccontrol.api.playbacksession;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import org.jjazz.harmony.api.TimeSignature;
+import org.jjazz.leadsheet.chordleadsheet.api.ChordLeadSheet;
+import org.jjazz.leadsheet.chordleadsheet.api.ChordLeadSheetFactory;
+import org.jjazz.leadsheet.chordleadsheet.api.item.CLI_ChordSymbol;
+import org.jjazz.leadsheet.chordleadsheet.api.item.CLI_Factory;
+import org.jjazz.leadsheet.chordleadsheet.api.item.CLI_Section;
+import org.jjazz.leadsheet.chordleadsheet.api.item.ExtChordSymbol;
+import org.jjazz.leadsheet.chordleadsheet.api.item.Position;
+import org.jjazz.midi.api.InstrumentMix;
+import org.jjazz.midi.api.InstrumentSettings;
+import org.jjazz.midimix.api.MidiMix;
+import org.jjazz.phrase.api.Phrase;
+import org.jjazz.phrase.api.PhraseSnapshot;
+import org.jjazz.rhythm.api.MusicGenerationException;
+import org.jjazz.rhythm.api.Rhythm;
+import org.jjazz.rhythm.api.RhythmVoice;
+import org.jjazz.rhythm.api.rhythmparameters.RP_STD_Variation;
+import org.jjazz.rhythm.database.api.RhythmDatabase;
+import org.jjazz.rhythm.stubs.api.DummyRhythm;
+import org.jjazz.rhythmmusicgeneration.api.DummyGenerator;
+import org.jjazz.rhythmmusicgeneration.api.SongPartPhraseCache;
+import org.jjazz.rhythmmusicgeneration.api.SongSequenceBuilder;
+import org.jjazz.rhythmmusicgeneration.spi.MusicGenerator;
+import org.jjazz.song.api.Song;
+import org.jjazz.song.api.SongFactory;
+import org.jjazz.songcontext.api.SongContext;
+import org.jjazz.songstructure.api.SongPart;
+import org.jjazz.songstructure.api.SongStructure;
+import org.jjazz.util.api.FloatRange;
+import org.jjazz.util.api.IntRange;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Check that DynamicSongSession updates give the same phrases than a full regeneration.
+ */
+public class DynamicSongSessionIncrementalTest
+{
+
+    private static final String[] CHORDS =
+    {
+        "C", "Dm7", "E7b9", "F#m7b5", "Gsus", "Ab7#11", "Bbmaj7", "C/E", "A7", "Ebm6"
+    };
+    private static final String STUB_RHYTHM_ID = "RhythmStubID-4/4";
+    private static final int SECTION_SIZE = 4;
+    private static final int NB_SECTIONS = 6;
+    private static boolean saveCacheEnabled;
+    private Random random;
+    private Song song;
+    private MidiMix midiMix;
+
+    public DynamicSongSessionIncrementalTest()
+    {
+    }
+
+    @BeforeClass
+    public static void setUpClass()
+    {
+        RhythmDatabase.getUnitTestDefault();
+
+        // Make sure the full regenerations really call the generator
+        saveCacheEnabled = SongPartPhraseCache.getInstance().isEnabled();
+        SongPartPhraseCache.getInstance().setEnabled(false);
+    }
+
+    @AfterClass
+    public static void tearDownClass()
+    {
+        SongPartPhraseCache.getInstance().setEnabled(saveCacheEnabled);
+    }
+
+    @Before
+    public void setUp() throws Exception
+    {
+        random = new Random(24680L);
+        song = createSong();
+        midiMix = createMidiMix(song);
+    }
+
+    @After
+    public void tearDown()
+    {
+        song.close(false);
+    }
+
+    @Test
+    public void testChordSymbolAndRpEdits() throws Exception
+    {
+        System.out.println("=== testChordSymbolAndRpEdits()");
+        ChordLeadSheet cls = song.getChordLeadSheet();
+        SongStructure sgs = song.getSongStructure();
+        SongContext sgContext = new SongContext(song, midiMix);
+        var lastMap = buildFullMapRvSnapshot(sgContext);
+        int nbSectionStartEdits = 0;
+
+        for (int i = 0; i < 60; i++)
+        {
+            Set<IntRange> dirtySptBarRanges = new HashSet<>();
+            String edit;
+            switch (random.nextInt(3))
+            {
+                case 0:
+                {
+                    // Add a chord symbol anywhere
+                    int bar = random.nextInt(cls.getSizeInBars());
+                    Position pos = new Position(bar, random.nextInt(4));
+                    edit = "set chord at " + pos;
+                    setRandomChordSymbol(cls, pos);
+                    DynamicSongSession.addDirtyClsBar(sgContext, dirtySptBarRanges, bar);
+                    break;
+                }
+                case 1:
+                {
+                    // Change a chord symbol on a section start bar: the previous song part is also impacted
+                    int bar = random.nextInt(NB_SECTIONS) * SECTION_SIZE;
+                    Position pos = new Position(bar, random.nextInt(4));
+                    edit = "set chord on section start bar at " + pos;
+                    setRandomChordSymbol(cls, pos);
+                    DynamicSongSession.addDirtyClsBar(sgContext, dirtySptBarRanges, bar);
+                    if (bar > 0)
+                    {
+                        nbSectionStartEdits++;
+                        SongPart prevSpt = sgs.getSongPart(bar - 1);
+                        assertTrue(dirtySptBarRanges.contains(sgContext.getSptBarRange(prevSpt)));
+                    }
+                    break;
+                }
+                default:
+                {
+                    // Change a rhythm parameter value
+                    SongPart spt = sgs.getSongParts().get(random.nextInt(sgs.getSongParts().size()));
+                    RP_STD_Variation rp = RP_STD_Variation.getVariationRp(spt.getRhythm());
+                    List<String> values = rp.getPossibleValues();
+                    String value = values.get(random.nextInt(values.size()));
+                    edit = "set " + rp.getId() + "=" + value + " for " + spt.getName();
+                    sgs.setRhythmParameterValue(spt, rp, value);
+                    dirtySptBarRanges.add(sgContext.getSptBarRange(spt));
+                    break;
+                }
+            }
+
+
+            var mapRvSnapshots = DynamicSongSession.buildIncrementalMapRvSnapshot(sgContext, dirtySptBarRanges, lastMap);
+            assertNotNull(edit, mapRvSnapshots);
+            assertSameSnapshots(edit, buildFullMapRvSnapshot(sgContext), mapRvSnapshots);
+            lastMap = mapRvSnapshots;
+        }
+
+        assertTrue(nbSectionStartEdits > 0);
+    }
+
+    @Test
+    public void testNotSongPartCacheable() throws Exception
+    {
+        System.out.println("=== testNotSongPartCacheable()");
+        SongStructure sgs = song.getSongStructure();
+
+
+        // Use a non cacheable rhythm for the 2nd song part
+        SongPart spt1 = sgs.getSongParts().get(1);
+        Rhythm r = new NotCacheableRhythm("NotCacheableRhythm", TimeSignature.FOUR_FOUR);
+        SongPart newSpt1 = sgs.createSongPart(r, spt1.getName(), spt1.getStartBarIndex(), spt1.getNbBars(), spt1.getParentSection(), false);
+        midiMix.setSong(null);
+        sgs.replaceSongParts(List.of(spt1), List.of(newSpt1));
+        midiMix = createMidiMix(song);
+        SongContext sgContext = new SongContext(song, midiMix);
+        var lastMap = buildFullMapRvSnapshot(sgContext);
+
+
+        // Song parts of the not cacheable rhythm can't be regenerated alone
+        ChordLeadSheet cls = song.getChordLeadSheet();
+        Set<IntRange> dirtySptBarRanges = new HashSet<>();
+        int bar = newSpt1.getStartBarIndex() + 1;
+        setRandomChordSymbol(cls, new Position(bar, 2));
+        DynamicSongSession.addDirtyClsBar(sgContext, dirtySptBarRanges, bar);
+        assertNull(DynamicSongSession.buildIncrementalMapRvSnapshot(sgContext, dirtySptBarRanges, lastMap));
+
+
+        // Also when it's the previous song part of a changed section start bar
+        dirtySptBarRanges.clear();
+        bar = newSpt1.getStartBarIndex() + newSpt1.getNbBars();
+        setRandomChordSymbol(cls, new Position(bar, 0));
+        DynamicSongSession.addDirtyClsBar(sgContext, dirtySptBarRanges, bar);
+        assertNull(DynamicSongSession.buildIncrementalMapRvSnapshot(sgContext, dirtySptBarRanges, lastMap));
+
+
+        // Other song parts are still incrementally updated
+        lastMap = buildFullMapRvSnapshot(sgContext);
+        dirtySptBarRanges.clear();
+        bar = 3 * SECTION_SIZE + 1;
+        setRandomChordSymbol(cls, new Position(bar, 1));
+        DynamicSongSession.addDirtyClsBar(sgContext, dirtySptBarRanges, bar);
+        var mapRvSnapshots = DynamicSongSession.buildIncrementalMapRvSnapshot(sgContext, dirtySptBarRanges, lastMap);
+        assertNotNull(mapRvSnapshots);
+        assertSameSnapshots("bar=" + bar, buildFullMapRvSnapshot(sgContext), mapRvSnapshots);
+    }
+
+    @Test
+    public void testPreRenderedPhrases() throws Exception
+    {
+        System.out.println("=== testPreRenderedPhrases()");
+        ChordLeadSheet cls = song.getChordLeadSheet();
+        SongContext sgContext = new SongContext(song, midiMix);
+        var lastMap = buildFullMapRvSnapshot(sgContext);
+        int bar = 2 * SECTION_SIZE + 2;
+        setRandomChordSymbol(cls, new Position(bar, 3));
+        Set<IntRange> dirtySptBarRanges = new HashSet<>();
+        DynamicSongSession.addDirtyClsBar(sgContext, dirtySptBarRanges, bar);
+        assertEquals(1, dirtySptBarRanges.size());
+        FloatRange dirtyBeatRange = song.getSongStructure().getBeatRange(dirtySptBarRanges.iterator().next());
+        var fullMap = buildFullMapRvSnapshot(sgContext);
+
+
+        // Pre-rendered phrases are used as is, unchanged chunks are shared
+        List<SongContext> requestedContexts = new ArrayList<>();
+        DynamicSongSession.PreRenderedPhrasesProvider provider = context ->
+        {
+            requestedContexts.add(context);
+            return fullMap;
+        };
+        var mapRvSnapshots = DynamicSongSession.buildMapRvSnapshot(sgContext, dirtySptBarRanges, lastMap, provider);
+        assertEquals(List.of(sgContext), requestedContexts);
+        assertSameSnapshots("pre-rendered", fullMap, mapRvSnapshots);
+        assertUnchangedChunksShared(lastMap, mapRvSnapshots, null);
+
+
+        // No pre-rendered phrases: incremental update
+        requestedContexts.clear();
+        provider = context ->
+        {
+            requestedContexts.add(context);
+            return null;
+        };
+        mapRvSnapshots = DynamicSongSession.buildMapRvSnapshot(sgContext, dirtySptBarRanges, lastMap, provider);
+        assertEquals(List.of(sgContext), requestedContexts);
+        assertSameSnapshots("incremental", fullMap, mapRvSnapshots);
+        assertUnchangedChunksShared(lastMap, mapRvSnapshots, dirtyBeatRange);
+
+
+        // No pre-rendered phrases and whole context dirty: full regeneration
+        mapRvSnapshots = DynamicSongSession.buildMapRvSnapshot(sgContext, null, lastMap, null);
+        assertSameSnapshots("full", fullMap, mapRvSnapshots);
+        assertUnchangedChunksShared(lastMap, mapRvSnapshots, null);
+    }
+
+    // =================================================================================================
+    // Private methods
+    // =================================================================================================
+    /**
+     * A song with NB_SECTIONS sections of SECTION_SIZE bars, followed by a repetition of the first section.
+     */
+    private Song createSong() throws Exception
+    {
+        ChordLeadSheet cls = ChordLeadSheetFactory.getDefault().createEmptyLeadSheet("A", TimeSignature.FOUR_FOUR, NB_SECTIONS * SECTION_SIZE,
+                true);
+        for (int i = 1; i < NB_SECTIONS; i++)
+        {
+            CLI_Section section = CLI_Factory.getDefault().createSection(cls, String.valueOf((char) ('A' + i)), TimeSignature.FOUR_FOUR,
+                    i * SECTION_SIZE);
+            cls.addSection(section);
+        }
+        for (int bar = 0; bar < cls.getSizeInBars(); bar++)
+        {
+            for (int beat = 0; beat < 4; beat += 2)
+            {
+                boolean isSectionStart = bar % SECTION_SIZE == 0 && beat == 0;       // A section must start with a chord symbol
+                if ((isSectionStart && bar > 0) || (!isSectionStart && random.nextBoolean()))
+                {
+                    cls.addItem(CLI_Factory.getDefault().createChordSymbol(cls, getRandomChordSymbol(), new Position(bar, beat)));
+                }
+            }
+        }
+
+        Song res = SongFactory.getInstance().createSong("DynamicSongSessionIncrementalTest", cls);
+        SongStructure sgs = res.getSongStructure();
+
+
+        // Use the stub rhythm which is a song part cacheable MusicGenerator
+        Rhythm r = RhythmDatabase.getUnitTestDefault().getRhythmInstance(STUB_RHYTHM_ID);
+        assertTrue(((MusicGenerator) r).isSongPartCacheable());
+        List<SongPart> oldSpts = sgs.getSongParts();
+        List<SongPart> newSpts = new ArrayList<>();
+        for (SongPart spt : oldSpts)
+        {
+            newSpts.add(sgs.createSongPart(r, spt.getName(), spt.getStartBarIndex(), spt.getNbBars(), spt.getParentSection(), false));
+        }
+        sgs.replaceSongParts(oldSpts, newSpts);
+
+
+        // Repeat the first section
+        SongPart spt0 = sgs.getSongParts().get(0);
+        SongPart spt = sgs.createSongPart(spt0.getRhythm(), spt0.getName(), sgs.getSizeInBars(), spt0.getNbBars(), spt0.getParentSection(), true);
+        sgs.addSongParts(List.of(spt));
+        assertEquals(NB_SECTIONS + 1, sgs.getSongParts().size());
+
+        return res;
+    }
+
+    private MidiMix createMidiMix(Song sg)
+    {
+        MidiMix res = new MidiMix(sg);
+        for (RhythmVoice rv : sg.getSongStructure().getUniqueRhythmVoices(true))
+        {
+            res.setInstrumentMix(rv.getPreferredChannel(), rv, new InstrumentMix(rv.getPreferredInstrument(), new InstrumentSettings()));
+        }
+        return res;
+    }
+
+    private Map<RhythmVoice, PhraseSnapshot> buildFullMapRvSnapshot(SongContext sgContext) throws MusicGenerationException
+    {
+        return UpdatableSongSession.toSnapshotMap(new SongSequenceBuilder(sgContext).buildMapRvPhrase(true));
+    }
+
+    private void assertSameSnapshots(String msg, Map<RhythmVoice, PhraseSnapshot> expected, Map<RhythmVoice, PhraseSnapshot> actual)
+    {
+        assertEquals(msg, expected.keySet(), actual.keySet());
+        for (var rv : expected.keySet())
+        {
+            PhraseSnapshot psExpected = expected.get(rv);
+            assertFalse(msg + " rv=" + rv.getName(), psExpected.isEmpty());
+            assertEquals(msg + " rv=" + rv.getName(), psExpected, actual.get(rv));
+        }
+    }
+
+    /**
+     * Check that the chunks equal to the chunks of lastMap are shared.
+     *
+     * @param lastMap
+     * @param mapRvSnapshots
+     * @param regeneratedRange If not null the chunks which intersect this beat range are not checked
+     */
+    private void assertUnchangedChunksShared(Map<RhythmVoice, PhraseSnapshot> lastMap, Map<RhythmVoice, PhraseSnapshot> mapRvSnapshots,
+            FloatRange regeneratedRange)
+    {
+        for (var rv : mapRvSnapshots.keySet())
+        {
+            PhraseSnapshot last = lastMap.get(rv);
+            PhraseSnapshot ps = mapRvSnapshots.get(rv);
+            int nbShared = 0;
+            for (int i = 0; i < Math.min(last.getNbChunks(), ps.getNbChunks()); i++)
+            {
+                boolean isRegenerated = regeneratedRange != null && regeneratedRange.intersects(ps.getChunkBeatRange(i));
+                if (!isRegenerated && ps.getChunkNotes(i).equals(last.getChunkNotes(i)))
+                {
+                    assertTrue("rv=" + rv.getName() + " i=" + i, ps.isChunkShared(i, last));
+                    nbShared++;
+                }
+            }
+            assertTrue("rv=" + rv.getName(), nbShared > 0);
+        }
+    }
+
+    /**
+     * Change the chord symbol at pos, or add one if there is none.
+     */
+    private void setRandomChordSymbol(ChordLeadSheet cls, Position pos)
+    {
+        int bar = pos.getBar();
+        var cliCs = cls.getItems(bar, bar, CLI_ChordSymbol.class).stream()
+                .filter(cli -> cli.getPosition().equals(pos))
+                .findAny()
+                .orElse(null);
+        if (cliCs == null)
+        {
+            cls.addItem(CLI_Factory.getDefault().createChordSymbol(cls, getRandomChordSymbol(), pos));
+        } else
+        {
+            cls.changeItem(cliCs, getRandomChordSymbol());
+        }
+    }
+
+    private ExtChordSymbol getRandomChordSymbol()
+    {
+        try
+        {
+            return new ExtChordSymbol(CHORDS[random.nextInt(CHORDS.length)]);
+        } catch (ParseException ex)
+        {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    // =================================================================================================
+    // Private classes
+    // =================================================================================================
+    /**
+     * A rhythm whose music for a SongPart might depend on the adjacent SongParts.
+     */
+    private static class NotCacheableRhythm extends DummyRhythm implements MusicGenerator
+    {
+
+        public NotCacheableRhythm(String name, TimeSignature ts)
+        {
+            super(name, ts);
+        }
+
+        @Override
+        public Map<RhythmVoice, Phrase> generateMusic(SongContext context) throws MusicGenerationException
+        {
+            return new DummyGenerator(this).generateMusic(context);
+        }
+    }
+}
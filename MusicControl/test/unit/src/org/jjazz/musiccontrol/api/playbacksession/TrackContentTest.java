@@ -0,0 +1,247 @@
+/*
+ *  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ * 
+ *  Copyright @2019 Jerome Lelasseux. All rights reserved.
+ *
+ *  This file is part of the JJazzLabX software.
+ *   
+ *  JJazzLabX is free software: you can redistribute it and/or modify
+ *  it under the terms of the Lesser GNU General Public License (LGPLv3) 
+ *  as published by the Free Software Foundation, either version 3 of the License, 
+ *  or (at your option) any later version.
+ *
+ *  JJazzLabX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the 
+ *  GNU Lesser General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with JJazzLabX.  If not, see <https://www.gnu.org/licenses/>
+ * 
+ *  Contributor(s): 
+ */
+package org.jjazz.musiccontrol.api.playbacksession;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.Track;
+import org.jjazz.midi.api.MidiConst;
+import org.jjazz.musiccontrol.api.playbacksession.UpdatableSongSession.TrackContent;
+import org.jjazz.phrase.api.NoteEvent;
+import org.jjazz.phrase.api.Phrase;
+import org.jjazz.phrase.api.PhraseSnapshot;
+import org.jjazz.util.api.FloatRange;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Check that the incremental update of a track by TrackContent.getUpdated() is equivalent to a full track rewrite.
+ */
+public class TrackContentTest
+{
+
+    private static final long SEED = 741852963L;
+    private static final int NB_BARS = 16;
+    private static final int NB_EDITS = 300;
+    private Random random;
+
+    public TrackContentTest()
+    {
+    }
+
+    @Before
+    public void setUp()
+    {
+        random = new Random(SEED);
+    }
+
+    @Test
+    public void testRandomEdits() throws InvalidMidiDataException
+    {
+        System.out.println("=== testRandomEdits()");
+        for (long precountShift : new long[]
+        {
+            0, 4 * MidiConst.PPQ_RESOLUTION
+        })
+        {
+            Sequence seq = new Sequence(Sequence.PPQ, MidiConst.PPQ_RESOLUTION);
+            Track track = seq.createTrack();
+            PhraseSnapshot snapshot = PhraseSnapshot.of(getRandomPhrase(100));
+            TrackContent content = write(track, snapshot, precountShift);
+
+            for (int edit = 0; edit < NB_EDITS; edit++)
+            {
+                PhraseSnapshot newSnapshot = getRandomEdit(snapshot);
+                content = content.getUpdated(track, newSnapshot);
+
+                Track expected = new Sequence(Sequence.PPQ, MidiConst.PPQ_RESOLUTION).createTrack();
+                write(expected, newSnapshot, precountShift);
+                assertSameEvents("precountShift=" + precountShift + " edit=" + edit, expected, track);
+
+                snapshot = newSnapshot;
+            }
+        }
+    }
+
+    @Test
+    public void testNoteOffAndNoteOnSameTick() throws InvalidMidiDataException
+    {
+        System.out.println("=== testNoteOffAndNoteOnSameTick()");
+        Phrase p = new Phrase(0);
+        p.addOrdered(new NoteEvent(60, 4f, 100, 0f));
+        p.addOrdered(new NoteEvent(62, 1f, 100, 4f));       // Chunk 1 note ON at the tick of chunk 0 note OFF
+        p.addOrdered(new NoteEvent(64, 1f, 100, 8f));
+        PhraseSnapshot snapshot = PhraseSnapshot.of(p);
+
+        Track track = new Sequence(Sequence.PPQ, MidiConst.PPQ_RESOLUTION).createTrack();
+        TrackContent content = write(track, snapshot, 0);
+
+
+        // Only chunk 0 changes
+        Phrase p2 = new Phrase(0);
+        p2.addOrdered(new NoteEvent(61, 4f, 90, 0f));
+        PhraseSnapshot newSnapshot = snapshot.getSpliced(new FloatRange(0f, 4f), p2);
+        assertEquals(Arrays.asList(0), newSnapshot.getChangedChunks(snapshot));
+        content.getUpdated(track, newSnapshot);
+
+        Track expected = new Sequence(Sequence.PPQ, MidiConst.PPQ_RESOLUTION).createTrack();
+        write(expected, newSnapshot, 0);
+        assertSameEvents("", expected, track);
+    }
+
+    // =======================================================================================================
+    // Private methods
+    // =======================================================================================================
+    /**
+     * Full rewrite, as done by UpdatableSongSession.updateTrack() for an unknown track content.
+     */
+    private TrackContent write(Track track, PhraseSnapshot snapshot, long precountShift)
+    {
+        TrackContent res = new TrackContent(snapshot, precountShift);
+        for (int i = 0; i < snapshot.getNbChunks(); i++)
+        {
+            List<MidiEvent> events = snapshot.toMidiEvents(i);
+            for (MidiEvent me : events)
+            {
+                me.setTick(me.getTick() + precountShift);
+                track.add(me);
+            }
+            res.chunkEvents.add(events);
+        }
+        return res;
+    }
+
+    private void assertSameEvents(String msg, Track expected, Track track)
+    {
+        List<MidiEvent> expectedEvents = getEvents(expected);
+        List<MidiEvent> events = getEvents(track);
+        assertEquals(msg + " size", expectedEvents.size(), events.size());
+        for (int i = 0; i < events.size(); i++)
+        {
+            MidiEvent me1 = expectedEvents.get(i);
+            MidiEvent me2 = events.get(i);
+            String s = msg + " i=" + i;
+            assertEquals(s + " tick", me1.getTick(), me2.getTick());
+            assertArrayEquals(s + " message", me1.getMessage().getMessage(), me2.getMessage().getMessage());
+        }
+    }
+
+    /**
+     * The track events without the END_OF_TRACK event.
+     */
+    private List<MidiEvent> getEvents(Track track)
+    {
+        List<MidiEvent> res = new ArrayList<>();
+        for (int i = 0; i < track.size(); i++)
+        {
+            MidiEvent me = track.get(i);
+            if (!(me.getMessage() instanceof MetaMessage) || ((MetaMessage) me.getMessage()).getType() != MidiConst.META_END_OF_TRACK)
+            {
+                res.add(me);
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Apply a random edit, like the ones resulting from a user change or a regenerated song part.
+     */
+    private PhraseSnapshot getRandomEdit(PhraseSnapshot snapshot)
+    {
+        PhraseSnapshot res;
+        Phrase p = snapshot.toPhrase();
+        switch (random.nextInt(5))
+        {
+            case 0:
+                // Replace a range with new notes, e.g. a regenerated song part
+                float from = 4 * random.nextInt(NB_BARS);
+                FloatRange range = new FloatRange(from, from + 4 * (1 + random.nextInt(3)));
+                Phrase p2 = getRandomPhrase(random.nextInt(20));
+                p2.processEvents(ne -> true, ne -> new NoteEvent(ne, ne.getDurationInBeats(),
+                        range.from + ne.getPositionInBeats() % range.size()));
+                Phrase p3 = new Phrase(p2.getChannel());
+                p2.stream().sorted().forEach(ne -> p3.addOrdered(ne));
+                res = snapshot.getSpliced(range, p3);
+                break;
+            case 1:
+                // Remove a few notes
+                for (int i = random.nextInt(4); i >= 0 && !p.isEmpty(); i--)
+                {
+                    p.remove(random.nextInt(p.size()));
+                }
+                res = PhraseSnapshot.of(p).withSharedChunks(snapshot);
+                break;
+            case 2:
+                // Add a few notes
+                Phrase pAdd = getRandomPhrase(1 + random.nextInt(4));
+                pAdd.forEach(ne -> p.addOrdered(ne));
+                res = PhraseSnapshot.of(p).withSharedChunks(snapshot);
+                break;
+            case 3:
+                // Change the velocity or duration of a note, possibly making a note OFF on the tick of the next note ON
+                if (!p.isEmpty())
+                {
+                    int index = random.nextInt(p.size());
+                    NoteEvent ne = p.get(index);
+                    NoteEvent newNe = random.nextBoolean() ? new NoteEvent(ne, ne.getPitch(), ne.getDurationInBeats(), 20 + random.nextInt(100))
+                            : new NoteEvent(ne, ne.getPitch(), getRandomDuration(), ne.getVelocity());
+                    p.set(index, newNe);
+                }
+                res = PhraseSnapshot.of(p).withSharedChunks(snapshot);
+                break;
+            default:
+                // Full regeneration without chunk sharing
+                res = PhraseSnapshot.of(random.nextInt(4) == 0 ? getRandomPhrase(random.nextInt(120)) : p);
+                break;
+        }
+        return res;
+    }
+
+    /**
+     * A phrase with quantized positions and durations, so that note OFF and note ON often share a tick, also across chunks.
+     */
+    private Phrase getRandomPhrase(int nbNotes)
+    {
+        Phrase p = new Phrase(0);
+        for (int i = 0; i < nbNotes; i++)
+        {
+            int pitch = 40 + random.nextInt(12);          // Small pitch range to get notes with the same pitch
+            int vel = 50 + random.nextInt(50);
+            float pos = random.nextInt(NB_BARS * 4 * 2) / 2f;
+            p.addOrdered(new NoteEvent(pitch, getRandomDuration(), vel, pos));
+        }
+        return p;
+    }
+
+    private float getRandomDuration()
+    {
+        return 0.5f * (1 + random.nextInt(12));
+    }
+}
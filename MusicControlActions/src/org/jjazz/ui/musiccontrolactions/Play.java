@@ -34,12 +34,12 @@ import javax.sound.midi.MidiUnavailableException;
 import javax.swing.Action;
 import javax.swing.ImageIcon;
 import org.jjazz.activesong.api.ActiveSongManager;
+import org.jjazz.activesong.api.PlaybackSessionPreGenerator;
 import org.jjazz.analytics.api.Analytics;
 import org.jjazz.midimix.api.MidiMix;
 import org.jjazz.midimix.api.MidiMixManager;
 import org.jjazz.musiccontrol.api.MusicController;
 import org.jjazz.musiccontrol.api.PlaybackSettings;
-import org.jjazz.musiccontrol.api.playbacksession.DynamicSongSession;
 import org.jjazz.musiccontrol.api.playbacksession.PlaybackSession;
 import org.jjazz.musiccontrol.api.playbacksession.UpdatableSongSession;
 import org.jjazz.songcontext.api.SongContext;
@@ -96,6 +96,9 @@ public class Play extends BooleanStateAction implements PropertyChangeListener,
         // Listen to the Midi active song changes
         ActiveSongManager.getInstance().addPropertyListener(this);
 
+        // Start the background generation of the active song session
+        PlaybackSessionPreGenerator.getInstance();
+
         // Listen to the current Song changes
         lookupResult = Utilities.actionsGlobalContext().lookupResult(Song.class);
         lookupResult.addLookupListener(this);
@@ -163,14 +166,13 @@ public class Play extends BooleanStateAction implements PropertyChangeListener,
                         PlaybackSettings.getInstance().firePlaybackStartVetoableChange(context);  // can raise PropertyVetoException
 
 
-                        // Prepare the session
-                        DynamicSongSession dynSession = DynamicSongSession.getSession(context);
-                        session = UpdatableSongSession.getSession(dynSession);
+                        // Prepare the session, possibly already generated in the background
+                        session = PlaybackSessionPreGenerator.getInstance().getSession(context);
                         if (session.getState().equals(PlaybackSession.State.NEW))
                         {
                             session.generate(false);        // can raise MusicGenerationException
-                            mc.setPlaybackSession(session); // can raise MusicGenerationException
                         }
+                        mc.setPlaybackSession(session); // can raise MusicGenerationException. Does nothing if session already set.
 
                         // Start sequencer
                         mc.play(0);
@@ -32,13 +32,13 @@ import javax.sound.midi.MidiUnavailableException;
 import javax.swing.AbstractAction;
 import javax.swing.Action;
 import org.jjazz.activesong.api.ActiveSongManager;
+import org.jjazz.activesong.api.PlaybackSessionPreGenerator;
 import org.jjazz.leadsheet.chordleadsheet.api.ChordLeadSheet;
 import org.jjazz.leadsheet.chordleadsheet.api.item.CLI_Section;
 import org.jjazz.midimix.api.MidiMix;
 import org.jjazz.midimix.api.MidiMixManager;
 import org.jjazz.musiccontrol.api.MusicController;
 import org.jjazz.musiccontrol.api.PlaybackSettings;
-import org.jjazz.musiccontrol.api.playbacksession.DynamicSongSession;
 import org.jjazz.musiccontrol.api.playbacksession.PlaybackSession;
 import org.jjazz.musiccontrol.api.playbacksession.UpdatableSongSession;
 import org.jjazz.songcontext.api.SongContext;
@@ -186,12 +186,12 @@ public class PlayFromHere extends AbstractAction
             // Check that all listeners are OK to start playback     
             PlaybackSettings.getInstance().firePlaybackStartVetoableChange(context);  // can raise PropertyVetoException
 
-            session = UpdatableSongSession.getSession(DynamicSongSession.getSession(context));
+            session = PlaybackSessionPreGenerator.getInstance().getSession(context);
             if (session.getState().equals(PlaybackSession.State.NEW))
             {
                 session.generate(false);        // can raise MusicGenerationException
-                mc.setPlaybackSession(session); // can raise MusicGenerationException
             }
+            mc.setPlaybackSession(session); // can raise MusicGenerationException. Does nothing if session already set.
             mc.play(playFromBar);
         } catch (MusicGenerationException | PropertyVetoException | MidiUnavailableException ex)
         {
@@ -32,6 +32,7 @@ import java.beans.PropertyChangeListener;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Vector;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.swing.BorderFactory;
@@ -39,7 +40,6 @@ import javax.swing.DefaultComboBoxModel;
 import javax.swing.InputMap;
 import javax.swing.JComponent;
 import javax.swing.KeyStroke;
-import javax.swing.SwingUtilities;
 import javax.swing.Timer;
 import javax.swing.border.Border;
 import org.jjazz.analytics.api.Analytics;
@@ -47,8 +47,9 @@ import org.jjazz.leadsheet.chordleadsheet.api.item.CLI_ChordSymbol;
 import org.jjazz.leadsheet.chordleadsheet.api.item.Item;
 import org.jjazz.midi.api.Instrument;
 import org.jjazz.midimix.api.MidiMix;
+import org.jjazz.musiccontrol.api.CoalescingNoteListener;
 import org.jjazz.musiccontrol.api.MusicController;
-import org.jjazz.musiccontrol.api.NoteListener;
+import org.jjazz.musiccontrol.api.NoteStates;
 import org.jjazz.musiccontrol.api.PlaybackListenerAdapter;
 import org.jjazz.rhythm.api.RhythmVoice;
 import org.jjazz.song.api.Song;
@@ -82,6 +83,10 @@ public class NotesViewerPanel extends javax.swing.JPanel implements PropertyChan
     private CLI_ChordSymbol selectedChordSymbol;
     private MidiMix midiMixPlaybackMode, midiMixSelectionMode;
     private final NotesViewerListener noteListener;
+    /**
+     * Dense playback would otherwise repaint the viewer for each note event.
+     */
+    private final CoalescingNoteListener coalescingNoteListener;
     private final Font chordSymbolFont;
     private final HashMap<NotesViewer, FlatButton> mapViewerButton = new HashMap<>();
     private final CL_ContextActionSupport cap;
@@ -115,6 +120,7 @@ public class NotesViewerPanel extends javax.swing.JPanel implements PropertyChan
 
         // Initialize the viewers
         noteListener = new NotesViewerListener();
+        coalescingNoteListener = new CoalescingNoteListener(noteListener);
         setActiveNotesViewer(initNotesViewers());
         modeChanged();
 
@@ -162,7 +168,7 @@ public class NotesViewerPanel extends javax.swing.JPanel implements PropertyChan
         mc.addPropertyChangeListener(this);
 
         // Get the incoming notes to update the keyboard
-        mc.addNoteListener(noteListener);
+        mc.addNoteListener(coalescingNoteListener);
     }
 
     public void closing()
@@ -173,7 +179,7 @@ public class NotesViewerPanel extends javax.swing.JPanel implements PropertyChan
         }
 
         MusicController mc = MusicController.getInstance();
-        mc.removeNoteListener(noteListener);
+        mc.removeNoteListener(coalescingNoteListener);
         mc.removePropertyChangeListener(this);
         mc.removePlaybackListener(playbackAdapter);
 
@@ -678,13 +684,17 @@ public class NotesViewerPanel extends javax.swing.JPanel implements PropertyChan
     // =================================================================================
     // Private classes
     // =================================================================================
-    private static class NotesViewerListener implements NoteListener
+    /**
+     * Update the viewer from the note states snapshots, at most once per frame.
+     */
+    private static class NotesViewerListener implements Consumer<NoteStates>
     {
 
         public static final long MIN_DURATION_MS = 100;
         private boolean enabled;
         private int receiveChannel;
         private NotesViewer viewerComponent;
+        private NoteStates lastStates = NoteStates.EMPTY;
 
         // Store the last Note On position in milliseconds for each note and each channel. Use -1 if initialized.
         private final long noteOnPosMs[][] = new long[16][128];
@@ -697,51 +707,29 @@ public class NotesViewerPanel extends javax.swing.JPanel implements PropertyChan
             enabled = true;
         }
 
+        /**
+         * Called on the EDT.
+         *
+         * @param states
+         */
         @Override
-        public synchronized void noteOn(long tick, int channel, int pitch, int velocity)
-        {
-            if (!enabled || receiveChannel != channel)
-            {
-                return;
-            }
-            noteOnPosMs[channel][pitch] = System.currentTimeMillis();
-            getViewerComponent().realTimeNoteOn(pitch, velocity);
-        }
-
-        @Override
-        public synchronized void noteOff(long tick, int channel, int pitch)
+        public synchronized void accept(NoteStates states)
         {
-            if (!enabled || receiveChannel != channel)
+            NoteStates previous = lastStates;
+            lastStates = states;
+            if (!enabled)
             {
                 return;
             }
-            long durationMs;
-            long noteOnPos = noteOnPosMs[channel][pitch];
-            if (noteOnPos >= 0 && (durationMs = System.currentTimeMillis() - noteOnPos) < MIN_DURATION_MS)
+            for (int pitch : states.getChangedPitches(previous, receiveChannel))
             {
-                // Onset time is too short to be visible, make it longer
-                Timer t = timersCache[channel][pitch];
-                if (t == null)
+                if (states.isPressed(receiveChannel, pitch))
                 {
-                    // This is the first time this note goes off
-                    t = new Timer((int) (MIN_DURATION_MS - durationMs), evt ->
-                    {
-                        getViewerComponent().realTimeNoteOff(pitch);
-                    });
-                    timersCache[channel][pitch] = t;        // Save the timer for reuse               
-                    t.setRepeats(false);
-                    t.start();
+                    noteOn(pitch, states.getVelocity(receiveChannel, pitch));
                 } else
                 {
-                    // This is not the first time this note goes OFF
-                    t.stop(); // Needed if 2 very short consecutive notes
-                    t.setInitialDelay((int) (MIN_DURATION_MS - durationMs));
-                    t.start();
+                    noteOff(pitch);
                 }
-            } else
-            {
-                // Normal case, directly release the key
-                SwingUtilities.invokeLater(() -> getViewerComponent().realTimeNoteOff(pitch));
             }
         }
 
@@ -802,6 +790,45 @@ public class NotesViewerPanel extends javax.swing.JPanel implements PropertyChan
 
         }
 
+        private void noteOn(int pitch, int velocity)
+        {
+            noteOnPosMs[receiveChannel][pitch] = System.currentTimeMillis();
+            getViewerComponent().realTimeNoteOn(pitch, velocity);
+        }
+
+        private void noteOff(int pitch)
+        {
+            int channel = receiveChannel;
+            long durationMs;
+            long noteOnPos = noteOnPosMs[channel][pitch];
+            if (noteOnPos >= 0 && (durationMs = System.currentTimeMillis() - noteOnPos) < MIN_DURATION_MS)
+            {
+                // Onset time is too short to be visible, make it longer
+                Timer t = timersCache[channel][pitch];
+                if (t == null)
+                {
+                    // This is the first time this note goes off
+                    t = new Timer((int) (MIN_DURATION_MS - durationMs), evt ->
+                    {
+                        getViewerComponent().realTimeNoteOff(pitch);
+                    });
+                    timersCache[channel][pitch] = t;        // Save the timer for reuse               
+                    t.setRepeats(false);
+                    t.start();
+                } else
+                {
+                    // This is not the first time this note goes OFF
+                    t.stop(); // Needed if 2 very short consecutive notes
+                    t.setInitialDelay((int) (MIN_DURATION_MS - durationMs));
+                    t.start();
+                }
+            } else
+            {
+                // Normal case, directly release the key
+                getViewerComponent().realTimeNoteOff(pitch);
+            }
+        }
+
         private final void reset()
         {
             for (int i = 0; i < 16; i++)
@@ -24,9 +24,10 @@ package org.jjazz.phrase.api;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.logging.Logger;
@@ -45,7 +46,10 @@ import org.openide.util.Exceptions;
  * <p>
  * To accomodate real time playing, notes starting just before a cell are included in that cell, see PRE_CELL_BEAT_WINDOW.
  * <p>
- * The refresh() method must be called whenever the phrase is modified outside this Grid object.
+ * The cell index is updated incrementally by the Grid edit methods. The refresh() method must be called whenever the phrase is
+ * modified outside this Grid object.
+ * <p>
+ * When many cells are edited, use startBatchEdit()/commitBatchEdit() to apply all the phrase changes in one pass.
  */
 public class Grid implements Cloneable
 {
@@ -62,7 +66,15 @@ public class Grid implements Cloneable
     private int cellsPerBeat;
     private float cellDuration;
     private Predicate<NoteEvent> predicate;
-    private HashMap<Integer, List<NoteEvent>> mapCellNotes = new HashMap<>();
+    /**
+     * The notes of each cell, in phrase order. Null if cell is empty.
+     */
+    private List<NoteEvent>[] cellNotes;
+    /**
+     * Notes removed/added during a batch edit, not yet applied to the phrase. Null if no batch edit.
+     */
+    private Set<NoteEvent> batchRemovedNotes;
+    private Set<NoteEvent> batchAddedNotes;
     protected static final Logger LOGGER = Logger.getLogger(Grid.class.getSimpleName());
 
     private Grid()
@@ -115,10 +127,22 @@ public class Grid implements Cloneable
         {
             Exceptions.printStackTrace(ex);
         }
-        // Everything OK with a shallow clone copy, except the mapCellNotes 
-        @SuppressWarnings("unchecked")
-        HashMap<Integer, List<NoteEvent>> tmp = (HashMap<Integer, List<NoteEvent>>) mapCellNotes.clone();
-        newGrid.mapCellNotes = tmp;
+        // Everything OK with a shallow clone copy, except the cell notes and the batch edit data
+        newGrid.cellNotes = cellNotes.clone();
+        for (int i = 0; i < cellNotes.length; i++)
+        {
+            if (cellNotes[i] != null)
+            {
+                newGrid.cellNotes[i] = new ArrayList<>(cellNotes[i]);
+            }
+        }
+        if (isBatchEdit())
+        {
+            newGrid.batchRemovedNotes = newIdentitySet();
+            newGrid.batchRemovedNotes.addAll(batchRemovedNotes);
+            newGrid.batchAddedNotes = newIdentitySet();
+            newGrid.batchAddedNotes.addAll(batchAddedNotes);
+        }
         return newGrid;
     }
 
@@ -136,13 +160,13 @@ public class Grid implements Cloneable
     {
         int cellMax = -1;
         int maxSize = 0;
-        for (int index : mapCellNotes.keySet())
+        for (int i = 0; i < cellNotes.length; i++)
         {
-            List<NoteEvent> nes = mapCellNotes.get(index);
+            List<NoteEvent> nes = cellNotes[i];
             if (nes != null && nes.size() > maxSize)
             {
                 maxSize = nes.size();
-                cellMax = index;
+                cellMax = i;
             }
         }
         return cellMax;
@@ -275,8 +299,14 @@ public class Grid implements Cloneable
      */
     public List<Integer> getNonEmptyCells()
     {
-        ArrayList<Integer> res = new ArrayList<>(mapCellNotes.keySet());
-        Collections.sort(res);
+        ArrayList<Integer> res = new ArrayList<>();
+        for (int i = 0; i < cellNotes.length; i++)
+        {
+            if (cellNotes[i] != null)
+            {
+                res.add(i);
+            }
+        }
         return res;
     }
 
@@ -288,8 +318,7 @@ public class Grid implements Cloneable
      */
     public boolean isEmpty(int cell)
     {
-        List<NoteEvent> nes = mapCellNotes.get(cell);
-        return nes == null ? true : nes.isEmpty();
+        return cellNotes[cell] == null;
     }
 
     /**
@@ -326,22 +355,18 @@ public class Grid implements Cloneable
 
             if (usedPitches.contains(ne.getPitch()))
             {
-                phrase.remove(ne);
+                doRemoveNote(ne);
 
             } else if ((longerOk && rg.to < cellOff) || (shorterOk && rg.to > cellOff))
             {
                 float newDur = ne.getDurationInBeats() + (cellOff - rg.to) * cellDuration;
                 newDur = Math.max(cellDuration, newDur);
                 NoteEvent newNe = new NoteEvent(ne, newDur);       // This clone also the clientProperties
-                phrase.set(phrase.indexOf(ne), newNe);
+                doReplaceNote(ne, newNe);
                 usedPitches.add(newNe.getPitch());
 
             }
         }
-        if (!usedPitches.isEmpty())
-        {
-            refresh();
-        }
     }
 
     /**
@@ -367,11 +392,7 @@ public class Grid implements Cloneable
         {
             int newVelocity = MidiUtilities.limit(f.apply(ne.getVelocity()));
             NoteEvent tNe = new NoteEvent(ne, ne.getPitch(), ne.getDurationInBeats(), newVelocity);       // This clone also the clientProperties
-            phrase.set(phrase.indexOf(ne), tNe);
-        }
-        if (!nes.isEmpty())
-        {
-            refresh();
+            doReplaceNote(ne, tNe);
         }
     }
 
@@ -406,7 +427,7 @@ public class Grid implements Cloneable
         List<NoteEvent> res = new ArrayList<>();
         for (int i = range.from; i <= range.to; i++)
         {
-            List<NoteEvent> nes = mapCellNotes.get(i);
+            List<NoteEvent> nes = cellNotes[i];
             if (nes != null)
             {
                 res.addAll(nes);
@@ -429,7 +450,7 @@ public class Grid implements Cloneable
         }
         NoteEvent res = null;
 
-        List<NoteEvent> nes = mapCellNotes.get(cell);
+        List<NoteEvent> nes = cellNotes[cell];
         if (nes != null)
         {
             res = nes.get(0);
@@ -456,8 +477,7 @@ public class Grid implements Cloneable
         int res = -1;
         for (int i = range.from; i <= range.to; i++)
         {
-            List<NoteEvent> nes = mapCellNotes.get(i);
-            if (nes != null)
+            if (cellNotes[i] != null)
             {
                 res = i;
                 break;
@@ -480,7 +500,7 @@ public class Grid implements Cloneable
         }
         NoteEvent res = null;
 
-        List<NoteEvent> nes = mapCellNotes.get(cell);
+        List<NoteEvent> nes = cellNotes[cell];
         if (nes != null)
         {
             res = nes.get(nes.size() - 1);
@@ -507,8 +527,7 @@ public class Grid implements Cloneable
         int res = -1;
         for (int i = range.to; i >= range.from; i--)
         {
-            List<NoteEvent> nes = mapCellNotes.get(i);
-            if (nes != null)
+            if (cellNotes[i] != null)
             {
                 res = i;
                 break;
@@ -545,15 +564,41 @@ public class Grid implements Cloneable
             throw new IllegalArgumentException("range=" + range);   //NOI18N
         }
         List<NoteEvent> nes = getCellNotes(range);
-        phrase.removeAll(nes);
-        refresh();
+        if (nes.isEmpty())
+        {
+            return nes;
+        }
+
+        if (isBatchEdit())
+        {
+            nes.forEach(ne -> removeFromPhrase(ne));
+        } else
+        {
+            // Removed notes are in a contiguous part of the phrase, process only this part
+            Set<NoteEvent> removed = newIdentitySet();
+            removed.addAll(nes);
+            int fromIndex = indexOfNote(nes.get(0));
+            int toIndex = indexOfNote(nes.get(nes.size() - 1));
+            if (fromIndex != -1 && toIndex >= fromIndex)
+            {
+                phrase.subList(fromIndex, toIndex + 1).removeIf(ne -> removed.contains(ne));
+            } else
+            {
+                // Should not happen
+                nes.forEach(ne -> removeFromPhrase(ne));
+            }
+        }
+        for (int i = range.from; i <= range.to; i++)
+        {
+            cellNotes[i] = null;
+        }
         return nes;
     }
 
     /**
      * Add a new NoteEvent from the parameters.
      * <p>
-     * Convenience method that add the note to the grid's phrase and calls refresh().
+     * Convenience method that add the note to the grid's phrase and updates the grid.
      *
      * @param cell
      * @param n Pitch, duration and velocity are reused to create the NoteEvent.
@@ -569,8 +614,7 @@ public class Grid implements Cloneable
         }
         float posInBeats = getStartPos(cell) + relPosInCell;
         NoteEvent ne = new NoteEvent(n.getPitch(), n.getDurationInBeats(), n.getVelocity(), posInBeats);
-        phrase.addOrdered(ne);
-        refresh();
+        doAddNote(ne);
         return ne;
     }
 
@@ -584,13 +628,11 @@ public class Grid implements Cloneable
      */
     public void replaceNote(NoteEvent oldNote, NoteEvent newNote)
     {
-        int index = phrase.indexOf(oldNote);
-        if (oldNote.getPositionInBeats() != newNote.getPositionInBeats() || index == -1)
+        if (oldNote.getPositionInBeats() != newNote.getPositionInBeats() || !containsNote(oldNote))
         {
             throw new IllegalArgumentException("oldNote=" + oldNote + " newNote=" + newNote);   //NOI18N
         }
-        phrase.set(index, newNote);
-        refresh();
+        doReplaceNote(oldNote, newNote);
     }
 
 
@@ -629,10 +671,9 @@ public class Grid implements Cloneable
                     durationInBeats = ne.getPositionInBeats() + ne.getDurationInBeats() - newPosInBeats;
                 }
                 NoteEvent movedNe = new NoteEvent(ne, durationInBeats, newPosInBeats);
-                phrase.remove(ne);
-                phrase.addOrdered(movedNe);
+                doRemoveNote(ne);
+                doAddNote(movedNe);
             }
-            refresh();
         }
         return nes.size();
     }
@@ -666,9 +707,8 @@ public class Grid implements Cloneable
                 durationInBeats = ne.getPositionInBeats() + ne.getDurationInBeats() - newPosInBeats;
             }
             NoteEvent movedNe = new NoteEvent(ne, durationInBeats, newPosInBeats);
-            phrase.remove(ne);
-            phrase.addOrdered(movedNe);
-            refresh();
+            doRemoveNote(ne);
+            doAddNote(movedNe);
         }
         return ne != null;
     }
@@ -686,15 +726,19 @@ public class Grid implements Cloneable
         {
             throw new IllegalArgumentException("cell=" + cell);   //NOI18N
         }
+        if (isBatchEdit())
+        {
+            // We need the up to date phrase
+            applyBatchChanges();
+        }
         float pos = getStartPos(cell) - preCellBeatWindow;
         List<NoteEvent> nes = phrase.getCrossingNotes(pos, true);
         for (NoteEvent ne : nes)
         {
             float newDuration = pos - ne.getPositionInBeats();
             NoteEvent newNe = new NoteEvent(ne, newDuration);
-            phrase.set(phrase.indexOf(ne), newNe);
+            doReplaceNote(ne, newNe);
         }
-        refresh();
         return nes.size();
     }
 
@@ -711,7 +755,12 @@ public class Grid implements Cloneable
     }
 
     /**
-     * @return the phrase
+     * The phrase of this grid.
+     * <p>
+     * During a batch edit the returned phrase does not contain the pending changes.
+     *
+     * @return
+     * @see #startBatchEdit()
      */
     public Phrase getPhrase()
     {
@@ -748,52 +797,93 @@ public class Grid implements Cloneable
     }
 
     /**
-     * Update the internal data structure: should be called whenever Phrase is modified externally.
+     * Start a batch edit.
+     * <p>
+     * Until commitBatchEdit() is called, the grid methods work normally but the note additions and removals are not applied to
+     * the phrase: they are merged into the phrase in a single pass by commitBatchEdit(). This avoids shifting the phrase notes for
+     * each edit when many cells are modified.
      * <p>
-     * Manage the fact that a note can be included in a cell if its start position is just before the cell.
+     * The phrase must not be modified outside of this grid during a batch edit.
+     *
+     * @throws IllegalStateException If a batch edit is already started
+     * @see #commitBatchEdit()
+     */
+    public void startBatchEdit()
+    {
+        if (isBatchEdit())
+        {
+            throw new IllegalStateException("Batch edit already started");   //NOI18N
+        }
+        batchRemovedNotes = newIdentitySet();
+        batchAddedNotes = newIdentitySet();
+    }
+
+    /**
+     * Apply the pending changes to the phrase and end the batch edit.
+     *
+     * @throws IllegalStateException If no batch edit was started
+     * @see #startBatchEdit()
+     */
+    public void commitBatchEdit()
+    {
+        if (!isBatchEdit())
+        {
+            throw new IllegalStateException("No batch edit started");   //NOI18N
+        }
+        applyBatchChanges();
+        batchRemovedNotes = null;
+        batchAddedNotes = null;
+    }
+
+    /**
+     * @return True if a batch edit is started.
+     * @see #startBatchEdit()
+     */
+    public boolean isBatchEdit()
+    {
+        return batchRemovedNotes != null;
+    }
+
+    /**
+     * Rebuild the cell index from the phrase: should be called whenever Phrase is modified externally.
+     * <p>
+     * Manage the fact that a note can be included in a cell if its start position is just before the cell. If a batch edit is
+     * started, the pending changes are first applied to the phrase.
      *
      * @see getPreCellBeatWindow()
      */
     public final void refresh()
     {
-        mapCellNotes.clear();
-        for (NoteEvent ne : phrase)
+        if (isBatchEdit())
         {
+            applyBatchChanges();
+        }
+
+        @SuppressWarnings("unchecked")
+        List<NoteEvent>[] newCellNotes = (List<NoteEvent>[]) new List<?>[cellRange.size()];
+        cellNotes = newCellNotes;
+        int index = phrase.indexOfFirstNoteFrom(adjustedBeatRange.from);
+        for (int i = index; i < phrase.size(); i++)
+        {
+            NoteEvent ne = phrase.get(i);
             float posInBeats = ne.getPositionInBeats();
-            if (adjustedBeatRange.contains(posInBeats, true))
-            {
-                if (!predicate.test(ne))
-                {
-                    continue;
-                }
-                float relPosInBeats = posInBeats - originalBeatRange.from;
-                int cellIndex;
-                if (relPosInBeats < 0)
-                {
-                    // Special case: the note is just before startPos (but still in the preCellBeatWindow)
-                    cellIndex = 0;
-                } else
-                {
-                    // Normal case
-                    cellIndex = (int) Math.floor(relPosInBeats / cellDuration);
-                    if (((cellIndex + 1) * cellDuration - relPosInBeats) <= preCellBeatWindow)
-                    {
-                        // We're in the preCellBeatWindow of next cell
-                        cellIndex++;
-                    }
-                }
-                List<NoteEvent> nes = mapCellNotes.get(cellIndex);
-                if (nes == null)
-                {
-                    nes = new ArrayList<>();
-                    mapCellNotes.put(cellIndex, nes);
-                }
-                nes.add(ne);
-            } else if (posInBeats >= adjustedBeatRange.to)
+            if (posInBeats >= adjustedBeatRange.to)
             {
                 // Stopped if we past the last note
                 break;
             }
+            if (!predicate.test(ne))
+            {
+                continue;
+            }
+            int cell = computeCell(posInBeats);
+            List<NoteEvent> nes = cellNotes[cell];
+            if (nes == null)
+            {
+                nes = new ArrayList<>();
+                cellNotes[cell] = nes;
+            }
+            nes.add(ne);
         }
     }
 
@@ -818,7 +908,7 @@ public class Grid implements Cloneable
         }
         for (int i = cellFrom; i <= cellTo; i++)
         {
-            List<NoteEvent> nes = mapCellNotes.get(i);
+            List<NoteEvent> nes = cellNotes[i];
             sb.append(nes == null ? "." : nes.size());
             if ((i + 1) % cellsPerBeat == 0)
             {
@@ -853,4 +943,269 @@ public class Grid implements Cloneable
     // =================================================================================
     // Private methods
     // ================================================================================= 
+    /**
+     * Compute the cell of a note position, taking into account the pre-cell beat window.
+     *
+     * @param posInBeats
+     * @return -1 if posInBeats is outside of the adjusted beat range.
+     */
+    private int computeCell(float posInBeats)
+    {
+        if (!adjustedBeatRange.contains(posInBeats, true))
+        {
+            return -1;
+        }
+        float relPosInBeats = posInBeats - originalBeatRange.from;
+        int cell;
+        if (relPosInBeats < 0)
+        {
+            // Special case: the note is just before startPos (but still in the preCellBeatWindow)
+            cell = 0;
+        } else
+        {
+            // Normal case
+            cell = (int) Math.floor(relPosInBeats / cellDuration);
+            if (((cell + 1) * cellDuration - relPosInBeats) <= preCellBeatWindow)
+            {
+                // We're in the preCellBeatWindow of next cell
+                cell++;
+            }
+        }
+        return cell;
+    }
+
+    /**
+     * Add a note to the phrase and to the cell index.
+     *
+     * @param ne
+     */
+    private void doAddNote(NoteEvent ne)
+    {
+        if (isBatchEdit())
+        {
+            if (!batchRemovedNotes.remove(ne))
+            {
+                batchAddedNotes.add(ne);
+            }
+        } else
+        {
+            phrase.addOrdered(ne);
+        }
+        addToIndex(ne);
+    }
+
+    /**
+     * Remove a note from the phrase and from the cell index.
+     *
+     * @param ne
+     */
+    private void doRemoveNote(NoteEvent ne)
+    {
+        removeFromPhrase(ne);
+        removeFromIndex(ne);
+    }
+
+    /**
+     * Replace a note by another one at the same position, in the phrase and in the cell index.
+     *
+     * @param oldNe
+     * @param newNe
+     */
+    private void doReplaceNote(NoteEvent oldNe, NoteEvent newNe)
+    {
+        assert oldNe.getPositionInBeats() == newNe.getPositionInBeats() : "oldNe=" + oldNe + " newNe=" + newNe;   //NOI18N
+        if (isBatchEdit() && batchAddedNotes.remove(oldNe))
+        {
+            batchAddedNotes.add(newNe);
+        } else
+        {
+            int index = indexOfNote(oldNe);
+            if (index != -1)
+            {
+                phrase.set(index, newNe);
+            }
+        }
+
+        int cell = computeCell(oldNe.getPositionInBeats());
+        List<NoteEvent> nes = cell == -1 ? null : cellNotes[cell];
+        int i = nes == null ? -1 : indexOf(nes, oldNe);
+        if (i == -1)
+        {
+            addToIndex(newNe);
+        } else if (predicate.test(newNe))
+        {
+            nes.set(i, newNe);
+        } else
+        {
+            removeFromIndex(oldNe);
+        }
+    }
+
+    private void removeFromPhrase(NoteEvent ne)
+    {
+        if (isBatchEdit())
+        {
+            if (!batchAddedNotes.remove(ne))
+            {
+                batchRemovedNotes.add(ne);
+            }
+        } else
+        {
+            int index = indexOfNote(ne);
+            if (index != -1)
+            {
+                phrase.remove(index);
+            }
+        }
+    }
+
+    /**
+     * Add a note to its cell, if it's in the grid and accepted by the predicate.
+     *
+     * @param ne
+     */
+    private void addToIndex(NoteEvent ne)
+    {
+        int cell = computeCell(ne.getPositionInBeats());
+        if (cell == -1 || !predicate.test(ne))
+        {
+            return;
+        }
+        List<NoteEvent> nes = cellNotes[cell];
+        if (nes == null)
+        {
+            nes = new ArrayList<>();
+            cellNotes[cell] = nes;
+        }
+
+        // Keep the phrase order
+        int i = nes.size();
+        while (i > 0 && nes.get(i - 1).compareTo(ne) > 0)
+        {
+            i--;
+        }
+        nes.add(i, ne);
+    }
+
+    private void removeFromIndex(NoteEvent ne)
+    {
+        int cell = computeCell(ne.getPositionInBeats());
+        List<NoteEvent> nes = cell == -1 ? null : cellNotes[cell];
+        if (nes == null)
+        {
+            return;
+        }
+        int i = indexOf(nes, ne);
+        if (i != -1)
+        {
+            nes.remove(i);
+            if (nes.isEmpty())
+            {
+                cellNotes[cell] = null;
+            }
+        }
+    }
+
+    /**
+     * True if ne is in the phrase, taking into account the pending batch edit changes.
+     *
+     * @param ne
+     * @return
+     */
+    private boolean containsNote(NoteEvent ne)
+    {
+        if (isBatchEdit())
+        {
+            if (batchAddedNotes.contains(ne))
+            {
+                return true;
+            } else if (batchRemovedNotes.contains(ne))
+            {
+                return false;
+            }
+        }
+        return indexOfNote(ne) != -1;
+    }
+
+    /**
+     * Get the phrase index of the specified note.
+     * <p>
+     * Use a binary search on the note position, first look for the same NoteEvent instance then for an equal NoteEvent.
+     *
+     * @param ne
+     * @return -1 if not found
+     */
+    private int indexOfNote(NoteEvent ne)
+    {
+        float pos = ne.getPositionInBeats();
+        int from = phrase.indexOfFirstNoteFrom(pos);
+        int to = phrase.indexOfFirstNoteAfter(pos);
+        int res = indexOf(phrase.subList(from, to), ne);
+        return res == -1 ? -1 : from + res;
+    }
+
+    /**
+     * Apply the pending batch edit changes to the phrase.
+     * <p>
+     * The batch edit remains started.
+     */
+    private void applyBatchChanges()
+    {
+        if (batchRemovedNotes.isEmpty() && batchAddedNotes.isEmpty())
+        {
+            return;
+        }
+
+        if (!batchRemovedNotes.isEmpty())
+        {
+            phrase.removeIf(ne -> batchRemovedNotes.contains(ne));
+        }
+
+        if (!batchAddedNotes.isEmpty())
+        {
+            // Merge the 2 ordered lists
+            List<NoteEvent> added = new ArrayList<>(batchAddedNotes);
+            Collections.sort(added);
+            List<NoteEvent> merged = new ArrayList<>(phrase.size() + added.size());
+            int i = 0;
+            for (NoteEvent ne : phrase)
+            {
+                while (i < added.size() && added.get(i).compareTo(ne) < 0)
+                {
+                    merged.add(added.get(i++));
+                }
+                merged.add(ne);
+            }
+            merged.addAll(added.subList(i, added.size()));
+            phrase.clear();
+            merged.forEach(ne -> phrase.addLast(ne));
+        }
+
+        batchRemovedNotes.clear();
+        batchAddedNotes.clear();
+    }
+
+    /**
+     * Get the index of ne in the list: first look for the same instance, then for an equal NoteEvent.
+     *
+     * @param nes
+     * @param ne
+     * @return -1 if not found
+     */
+    static private int indexOf(List<NoteEvent> nes, NoteEvent ne)
+    {
+        for (int i = 0; i < nes.size(); i++)
+        {
+            if (nes.get(i) == ne)
+            {
+                return i;
+            }
+        }
+        return nes.indexOf(ne);
+    }
+
+    static private Set<NoteEvent> newIdentitySet()
+    {
+        return Collections.newSetFromMap(new IdentityHashMap<>());
+    }
 }
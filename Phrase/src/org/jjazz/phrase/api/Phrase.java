@@ -24,6 +24,9 @@ package org.jjazz.phrase.api;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.InvalidObjectException;
 import java.io.ObjectInputStream;
 import java.io.ObjectStreamException;
@@ -37,10 +40,12 @@ import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
 import java.util.StringJoiner;
 import java.util.function.Function;
 import java.util.function.Predicate;
@@ -55,6 +60,7 @@ import org.jjazz.harmony.api.ScaleManager;
 import org.jjazz.harmony.api.TimeSignature;
 import org.jjazz.midi.api.MidiConst;
 import org.jjazz.midi.api.MidiUtilities;
+import org.jjazz.midi.api.StreamingMidiFileWriter;
 import org.jjazz.util.api.FloatRange;
 import org.jjazz.util.api.LongRange;
 
@@ -64,9 +70,11 @@ import org.jjazz.util.api.LongRange;
  * Use addOrdered() to add a NoteEvent: this will ensure NoteEvents are kept ordered. Use of other add()/addAll() methods should
  * be used for optimization only when you are sure it will not break the NoteEvents order.
  * <p>
- * LinkedList implementation to speed up item insertion/remove rather than random access.
+ * ArrayList implementation: NoteEvents being sorted by position, the array is used as a position index (see
+ * indexOfFirstNoteFrom()), so that position-based queries like getNotes(), getCrossingNotes(), getSlice() or silence() only
+ * process the relevant part of the phrase. Appending a NoteEvent at the end (the usual case for music generation) is O(1).
  */
-public class Phrase extends LinkedList<NoteEvent> implements Serializable
+public class Phrase extends ArrayList<NoteEvent> implements Serializable
 {
 
     /**
@@ -207,6 +215,13 @@ public class Phrase extends LinkedList<NoteEvent> implements Serializable
      */
     public void addOrdered(NoteEvent mne)
     {
+        if (isEmpty() || get(size() - 1).compareTo(mne) < 0)
+        {
+            // Most common case, no need to search
+            add(mne);
+            return;
+        }
+
         int res = Collections.binarySearch(this, mne);
 
         int index;
@@ -225,6 +240,116 @@ public class Phrase extends LinkedList<NoteEvent> implements Serializable
         add(index, mne);
     }
 
+    /**
+     * Insert a NoteEvent at the beginning of the phrase.
+     * <p>
+     * Caller must make sure it does not break the NoteEvents order.
+     *
+     * @param ne
+     */
+    public void addFirst(NoteEvent ne)
+    {
+        add(0, ne);
+    }
+
+    /**
+     * Append a NoteEvent at the end of the phrase.
+     * <p>
+     * Caller must make sure it does not break the NoteEvents order.
+     *
+     * @param ne
+     */
+    public void addLast(NoteEvent ne)
+    {
+        add(ne);
+    }
+
+    /**
+     * Get the first NoteEvent.
+     *
+     * @return
+     * @throws NoSuchElementException If phrase is empty
+     */
+    public NoteEvent getFirst()
+    {
+        if (isEmpty())
+        {
+            throw new NoSuchElementException();
+        }
+        return get(0);
+    }
+
+    /**
+     * Get the last NoteEvent.
+     *
+     * @return
+     * @throws NoSuchElementException If phrase is empty
+     */
+    public NoteEvent getLast()
+    {
+        if (isEmpty())
+        {
+            throw new NoSuchElementException();
+        }
+        return get(size() - 1);
+    }
+
+    /**
+     * Remove the first NoteEvent.
+     *
+     * @return The removed NoteEvent
+     * @throws NoSuchElementException If phrase is empty
+     */
+    public NoteEvent removeFirst()
+    {
+        if (isEmpty())
+        {
+            throw new NoSuchElementException();
+        }
+        return remove(0);
+    }
+
+    /**
+     * Remove the last NoteEvent.
+     *
+     * @return The removed NoteEvent
+     * @throws NoSuchElementException If phrase is empty
+     */
+    public NoteEvent removeLast()
+    {
+        if (isEmpty())
+        {
+            throw new NoSuchElementException();
+        }
+        return remove(size() - 1);
+    }
+
+    /**
+     * Get the index of the first NoteEvent whose position is &gt;= posInBeats.
+     * <p>
+     * Uses a binary search on the NoteEvents positions.
+     *
+     * @param posInBeats
+     * @return size() if there is no such NoteEvent.
+     */
+    public int indexOfFirstNoteFrom(float posInBeats)
+    {
+        return searchPosition(posInBeats, false);
+    }
+
+    /**
+     * Get the index of the first NoteEvent whose position is &gt; posInBeats.
+     * <p>
+     * Uses a binary search on the NoteEvents positions.
+     *
+     * @param posInBeats
+     * @return size() if there is no such NoteEvent.
+     */
+    public int indexOfFirstNoteAfter(float posInBeats)
+    {
+        return searchPosition(posInBeats, true);
+    }
+
     /**
      * A deep clone: returned phrase contains clones of the original NoteEvents.
      *
@@ -453,7 +578,7 @@ public class Phrase extends LinkedList<NoteEvent> implements Serializable
      */
     public void silenceAfter(float posInBeats)
     {
-        // Use an iterator to avoid using get(i) which is O(n) for a linkedlist
+        // Iterate backwards: removed notes are always the last ones (phrase is ordered), so each removal is O(1)
         ListIterator<NoteEvent> it = listIterator(size());
         while (it.hasPrevious())
         {
@@ -506,17 +631,20 @@ public class Phrase extends LinkedList<NoteEvent> implements Serializable
         Phrase res = new Phrase(channel);
 
 
+        // Notes starting at or after range.to are never part of the slice
+        int toIndex = indexOfFirstNoteFrom(range.to);
+
+
         // Preprocess to accomodate for live playing / non-quantized notes
-        List<NoteEvent> beatWindowProcessedNotes = new ArrayList<>();
+        Set<NoteEvent> beatWindowProcessedNotes = new HashSet<>();
         if (beatWindow > 0)
         {
             FloatRange frLeft = range.from - beatWindow > 0 ? new FloatRange(range.from - beatWindow, range.from) : null;
             FloatRange frRight = new FloatRange(range.to - beatWindow, range.to);
 
-            ListIterator<NoteEvent> it = listIterator();
-            while (it.hasNext())
+            for (int i = indexOfFirstNoteFrom(range.from - beatWindow); i < toIndex; i++)
             {
-                var ne = it.next();
+                var ne = get(i);
                 var neBr = ne.getBeatRange();
                 if (frLeft != null && frLeft.contains(neBr.from, true))
                 {
@@ -545,10 +673,9 @@ public class Phrase extends LinkedList<NoteEvent> implements Serializable
 
 
         // 
-        ListIterator<NoteEvent> it = listIterator();
-        while (it.hasNext())
+        for (int i = 0; i < toIndex; i++)
         {
-            NoteEvent ne = it.next();
+            NoteEvent ne = get(i);
 
 
             if (beatWindowProcessedNotes.contains(ne))
@@ -664,64 +791,75 @@ public class Phrase extends LinkedList<NoteEvent> implements Serializable
         }
 
 
-        ListIterator<NoteEvent> it = listIterator();
-        while (it.hasNext())
+        // Notes starting in [range.from;range.to[ are contiguous
+        int fromIndex = indexOfFirstNoteFrom(range.from);
+        int toIndex = indexOfFirstNoteFrom(range.to);
+
+
+        // Notes starting before range.from
+        List<Integer> leftRemovedIndexes = new ArrayList<>();
+        for (int i = 0; i < fromIndex; i++)
         {
-            NoteEvent ne = it.next();
+            NoteEvent ne = get(i);
             float nePosFrom = ne.getPositionInBeats();
             float nePosTo = nePosFrom + ne.getDurationInBeats();
 
-            if (nePosFrom < range.from)
+            if (nePosTo <= range.from)
             {
-                if (nePosTo <= range.from)
-                {
-                    // Leave note unchanged
+                // Leave note unchanged
 
-                } else if (cutLeft)
+            } else if (cutLeft)
+            {
+                // Replace the note by a shorter one, except if it's in the frLeft beat window
+                if (!frLeft.contains(nePosFrom, true))
                 {
-                    // Replace the note by a shorter one, except if it's in the frLeft beat window
-                    if (!frLeft.contains(nePosFrom, true))
-                    {
 
-                        // Replace
-                        float newDur = range.from - nePosFrom;
-                        NoteEvent newNe = new NoteEvent(ne, newDur, nePosFrom);
-                        it.set(newNe);
+                    // Replace
+                    float newDur = range.from - nePosFrom;
+                    NoteEvent newNe = new NoteEvent(ne, newDur, nePosFrom);
+                    set(i, newNe);
 
 
-                        // Special case if note was extending beyond range.to and keepRight is true, add a note after range
-                        if (keepRight && nePosTo > range.to)
-                        {
-                            newDur = nePosTo - range.to;
-                            newNe = new NoteEvent(ne, newDur, range.to);
-                            toBeAdded.add(newNe);
-                        }
-                    } else
+                    // Special case if note was extending beyond range.to and keepRight is true, add a note after range
+                    if (keepRight && nePosTo > range.to)
                     {
-                        // It's in the left beat window, directly remove the note
-                        it.remove();
+                        newDur = nePosTo - range.to;
+                        newNe = new NoteEvent(ne, newDur, range.to);
+                        toBeAdded.add(newNe);
                     }
-
-                }
-            } else if (nePosFrom < range.to)
-            {
-                // Remove the note
-                it.remove();
-
-                // Re-add a note after range if required
-                if (nePosTo > range.to && (keepRight || frRight.contains(nePosFrom, true)))
+                } else
                 {
-                    float newDur = nePosTo - range.to;
-                    NoteEvent newNe = new NoteEvent(ne, newDur, range.to);
-                    toBeAdded.add(newNe);
+                    // It's in the left beat window, remove the note
+                    leftRemovedIndexes.add(i);
                 }
-            } else
+            }
+        }
+
+
+        // Notes starting in the range
+        for (int i = fromIndex; i < toIndex; i++)
+        {
+            NoteEvent ne = get(i);
+            float nePosFrom = ne.getPositionInBeats();
+            float nePosTo = nePosFrom + ne.getDurationInBeats();
+
+            // Re-add a note after range if required
+            if (nePosTo > range.to && (keepRight || frRight.contains(nePosFrom, true)))
             {
-                // nePosFrom is after range.to
-                // Nothing
+                float newDur = nePosTo - range.to;
+                NoteEvent newNe = new NoteEvent(ne, newDur, range.to);
+                toBeAdded.add(newNe);
             }
         }
 
+
+        // Remove the notes in one shot, then the left beat window notes (starting from the end so that indexes remain valid)
+        subList(fromIndex, toIndex).clear();
+        for (int i = leftRemovedIndexes.size() - 1; i >= 0; i--)
+        {
+            remove((int) leftRemovedIndexes.get(i));
+        }
+
         // Add the new NoteEvents after range
         for (NoteEvent ne : toBeAdded)
         {
@@ -740,16 +878,18 @@ public class Phrase extends LinkedList<NoteEvent> implements Serializable
     public List<NoteEvent> getNotes(Predicate<NoteEvent> tester, FloatRange range, boolean excludeUpperBound)
     {
         var res = new ArrayList<NoteEvent>();
-        for (NoteEvent ne : this)
+        if (range.isEmpty())
+        {
+            return res;
+        }
+        int toIndex = excludeUpperBound ? indexOfFirstNoteFrom(range.to) : indexOfFirstNoteAfter(range.to);
+        for (int i = indexOfFirstNoteFrom(range.from); i < toIndex; i++)
         {
-            if (tester.test(ne) && range.contains(ne.getPositionInBeats(), excludeUpperBound))
+            NoteEvent ne = get(i);
+            if (tester.test(ne))
             {
                 res.add(ne);
             }
-            if (ne.getPositionInBeats() > range.to)
-            {
-                break;
-            }
         }
         return res;
     }
@@ -765,15 +905,11 @@ public class Phrase extends LinkedList<NoteEvent> implements Serializable
     public List<NoteEvent> getCrossingNotes(float posInBeats, boolean strict)
     {
         ArrayList<NoteEvent> res = new ArrayList<>();
-        var it = listIterator();
-        while (it.hasNext())
+        int toIndex = strict ? indexOfFirstNoteFrom(posInBeats) : indexOfFirstNoteAfter(posInBeats);
+        for (int i = 0; i < toIndex; i++)
         {
-            NoteEvent ne = it.next();
+            NoteEvent ne = get(i);
             float pos = ne.getPositionInBeats();
-            if ((strict && pos >= posInBeats) || (!strict && pos > posInBeats))
-            {
-                break;
-            }
             if ((strict && pos + ne.getDurationInBeats() > posInBeats) || (!strict && pos + ne.getDurationInBeats() >= posInBeats))
             {
                 res.add(ne);
@@ -794,6 +930,75 @@ public class Phrase extends LinkedList<NoteEvent> implements Serializable
         toMidiEvents().forEach(me -> track.add(me));
     }
 
+    /**
+     * Write the phrase notes in the current track of a Midi file writer, without creating MidiEvents.
+     * <p>
+     * Events are written in the same order than in a Track filled with fillTrack() then with additionalEvents: ordered by tick,
+     * and for a given tick in the insertion order. Tick resolution used is MidiConst.PPQ_RESOLUTION.
+     *
+     * @param writer           A writer with a started track
+     * @param additionalEvents Events added to the track after the notes, ordered by tick. Can be empty.
+     * @throws IOException
+     */
+    public void writeMidiEvents(StreamingMidiFileWriter writer, List<MidiEvent> additionalEvents) throws IOException
+    {
+        checkNotNull(writer);
+        checkNotNull(additionalEvents);
+
+        if (!isOrderedByTick())
+        {
+            List<MidiEvent> events = toMidiEvents();
+            events.addAll(additionalEvents);
+            events.sort(Comparator.comparingLong(MidiEvent::getTick));      // Stable sort, like Track.add()
+            for (MidiEvent me : events)
+            {
+                writer.writeEvent(me);
+            }
+            return;
+        }
+
+
+        // Merge the notes ON, the pending notes OFF (tick, note index, pitch) and the additional events.
+        // For a given tick, a pending note OFF always comes before the next note ON since it was added before in the Track
+        PriorityQueue<long[]> noteOffs = new PriorityQueue<>((a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+        int statusOn = ShortMessage.NOTE_ON | channel;
+        int statusOff = ShortMessage.NOTE_OFF | channel;
+        int noteIndex = 0;
+        int additionalIndex = 0;
+        int size = size();
+        while (true)
+        {
+            NoteEvent ne = noteIndex < size ? get(noteIndex) : null;
+            long[] noteOff = noteOffs.peek();
+            MidiEvent additionalEvent = additionalIndex < additionalEvents.size() ? additionalEvents.get(additionalIndex) : null;
+            long tickOn = ne == null ? Long.MAX_VALUE : Math.round(ne.getPositionInBeats() * MidiConst.PPQ_RESOLUTION);
+            boolean isNoteOff = noteOff != null && noteOff[0] <= tickOn;
+            long tickNote = isNoteOff ? noteOff[0] : tickOn;
+
+            if (ne == null && noteOff == null && additionalEvent == null)
+            {
+                break;
+            } else if (additionalEvent != null && additionalEvent.getTick() < tickNote)
+            {
+                writer.writeEvent(additionalEvent);
+                additionalIndex++;
+            } else if (isNoteOff)
+            {
+                noteOffs.poll();
+                writer.writeShortMessage(noteOff[0], statusOff, (int) noteOff[2], 0);
+            } else
+            {
+                writer.writeShortMessage(tickOn, statusOn, ne.getPitch(), ne.getVelocity());
+                long tickOff = Math.round((ne.getPositionInBeats() + ne.getDurationInBeats()) * MidiConst.PPQ_RESOLUTION);
+                noteOffs.add(new long[]
+                {
+                    tickOff, noteIndex, ne.getPitch()
+                });
+                noteIndex++;
+            }
+        }
+    }
+
     /**
      * Get all the phrase notes as MidiEvents.
      * <p>
@@ -1071,6 +1276,65 @@ public class Phrase extends LinkedList<NoteEvent> implements Serializable
         return p;
     }
 
+    /**
+     * Save the specified Phrase in a compact binary form.
+     * <p>
+     * Same data as saveAsString(): channel then pitch, velocity, duration and position of each NoteEvent. Client properties are
+     * not saved.
+     *
+     * @param p
+     * @param out
+     * @throws IOException
+     * @see loadAsBinary(DataInput)
+     */
+    static public void saveAsBinary(Phrase p, DataOutput out) throws IOException
+    {
+        out.writeByte(p.getChannel());
+        out.writeInt(p.size());
+        for (NoteEvent ne : p)
+        {
+            out.writeByte(ne.getPitch());
+            out.writeByte(ne.getVelocity());
+            out.writeFloat(ne.getDurationInBeats());
+            out.writeFloat(ne.getPositionInBeats());
+        }
+    }
+
+    /**
+     * Create a Phrase from data written by saveAsBinary().
+     *
+     * @param in
+     * @return
+     * @throws IOException If data is invalid
+     * @see saveAsBinary(Phrase, DataOutput)
+     */
+    static public Phrase loadAsBinary(DataInput in) throws IOException
+    {
+        Phrase p;
+        try
+        {
+            p = new Phrase(in.readByte());
+            int size = in.readInt();
+            if (size < 0)
+            {
+                throw new IOException("Phrase.loadAsBinary() Invalid size=" + size);
+            }
+            p.ensureCapacity(size);
+            for (int i = 0; i < size; i++)
+            {
+                int pitch = in.readByte();
+                int velocity = in.readByte();
+                float duration = in.readFloat();
+                float pos = in.readFloat();
+                p.addOrdered(new NoteEvent(pitch, duration, velocity, pos));     // Saved ordered, so it's always an append
+            }
+        } catch (IllegalArgumentException ex)
+        {
+            throw new IOException("Phrase.loadAsBinary() Invalid data: " + ex.getMessage(), ex);
+        }
+        return p;
+    }
+
 
     /**
      * Build a Phrase with 12 notes C-D-E-F-G-A-B-C that fit into nbBeats.
@@ -1221,6 +1485,56 @@ public class Phrase extends LinkedList<NoteEvent> implements Serializable
     }
 
 
+    // --------------------------------------------------------------------- 
+    // Private methods
+    // --------------------------------------------------------------------- 
+
+    /**
+     * Check that the note ON ticks are ordered: it might not be the case if add() was misused.
+     *
+     * @return
+     */
+    private boolean isOrderedByTick()
+    {
+        long prevTick = Long.MIN_VALUE;
+        for (NoteEvent ne : this)
+        {
+            long tick = Math.round(ne.getPositionInBeats() * MidiConst.PPQ_RESOLUTION);
+            if (tick < prevTick)
+            {
+                return false;
+            }
+            prevTick = tick;
+        }
+        return true;
+    }
+
+    /**
+     * Binary search on the NoteEvents position.
+     *
+     * @param posInBeats
+     * @param strict     If true search the first note whose position is &gt; posInBeats, otherwise &gt;= posInBeats.
+     * @return The index of the first matching note, or size() if no match.
+     */
+    private int searchPosition(float posInBeats, boolean strict)
+    {
+        int low = 0;
+        int high = size();
+        while (low < high)
+        {
+            int mid = (low + high) >>> 1;
+            float pos = get(mid).getPositionInBeats();
+            if (pos < posInBeats || (strict && pos == posInBeats))
+            {
+                low = mid + 1;
+            } else
+            {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
     // --------------------------------------------------------------------- 
     // Serialization
     // --------------------------------------------------------------------- */
@@ -0,0 +1,580 @@
+/*
+ *  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ *  Copyright @2019 Jerome Lelasseux. All rights reserved.
+ *
+ *  This file is part of the JJazzLabX software.
+ *
+ *  JJazzLabX is free software: you can redistribute it and/or modify
+ *  it under the terms of the Lesser GNU General Public License (LGPLv3)
+ *  as published by the Free Software Foundation, either version 3 of the License,
+ *  or (at your option) any later version.
+ *
+ *  JJazzLabX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with JJazzLabX.  If not, see <https://www.gnu.org/licenses/>
+ *
+ *  Contributor(s):
+ */
+package org.jjazz.phrase.api;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import javax.sound.midi.MidiEvent;
+import org.jjazz.util.api.FloatRange;
+
+/**
+ * An immutable snapshot of a Phrase.
+ * <p>
+ * Notes are stored in fixed-size chunks (by default 4 beats, i.e. one 4/4 bar): chunk i contains the notes starting in
+ * [i*chunkSize;(i+1)*chunkSize[. Chunks are immutable and shared between snapshots derived from each other, so that a snapshot
+ * can be passed around without copying, and a modified snapshot only allocates the modified chunks.
+ * <p>
+ * Equality test between 2 snapshots sharing chunks is fast: shared chunks are compared by identity.
+ * <p>
+ * NoteEvents are immutable except for their client properties, which must not be modified once a NoteEvent is in a snapshot.
+ */
+public class PhraseSnapshot implements Iterable<NoteEvent>
+{
+
+    /**
+     * The default chunk size in beats.
+     */
+    public static final float DEFAULT_CHUNK_SIZE = 4f;
+    private static final Chunk EMPTY_CHUNK = new Chunk(new NoteEvent[0]);
+    private final int channel;
+    private final float chunkSize;
+    /**
+     * No trailing empty chunk.
+     */
+    private final Chunk[] chunks;
+    private final int size;
+    private int hashCode;
+
+    private PhraseSnapshot(int channel, float chunkSize, Chunk[] chunks)
+    {
+        this.channel = channel;
+        this.chunkSize = chunkSize;
+        this.chunks = chunks;
+        int n = 0;
+        for (Chunk c : chunks)
+        {
+            n += c.notes.length;
+        }
+        this.size = n;
+    }
+
+    /**
+     * Create a snapshot of p with the default chunk size.
+     *
+     * @param p
+     * @return
+     */
+    static public PhraseSnapshot of(Phrase p)
+    {
+        return of(p, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Create a snapshot of p.
+     * <p>
+     * The NoteEvents are not cloned.
+     *
+     * @param p
+     * @param chunkSizeInBeats Must be &gt; 0. Use the bar size in beats so that a chunk is a bar.
+     * @return
+     */
+    static public PhraseSnapshot of(Phrase p, float chunkSizeInBeats)
+    {
+        checkNotNull(p);
+        checkArgument(chunkSizeInBeats > 0, "chunkSizeInBeats=%s", chunkSizeInBeats);
+        return new PhraseSnapshot(p.getChannel(), chunkSizeInBeats, buildChunks(p, chunkSizeInBeats));
+    }
+
+    public int getChannel()
+    {
+        return channel;
+    }
+
+    /**
+     * @return The chunk size in beats.
+     */
+    public float getChunkSize()
+    {
+        return chunkSize;
+    }
+
+    /**
+     * The number of chunks, up to the chunk of the last note.
+     *
+     * @return 0 if snapshot is empty.
+     */
+    public int getNbChunks()
+    {
+        return chunks.length;
+    }
+
+    /**
+     * The notes of the specified chunk.
+     *
+     * @param chunk If &gt;= getNbChunks() return an empty list.
+     * @return An unmodifiable list ordered by position.
+     */
+    public List<NoteEvent> getChunkNotes(int chunk)
+    {
+        checkArgument(chunk >= 0, "chunk=%s", chunk);
+        return chunk < chunks.length ? Collections.unmodifiableList(Arrays.asList(chunks[chunk].notes)) : Collections.emptyList();
+    }
+
+    /**
+     * The beat range of the notes start positions of the specified chunk.
+     *
+     * @param chunk
+     * @return
+     */
+    public FloatRange getChunkBeatRange(int chunk)
+    {
+        checkArgument(chunk >= 0, "chunk=%s", chunk);
+        return new FloatRange(chunk * chunkSize, (chunk + 1) * chunkSize);
+    }
+
+    /**
+     * Check if the specified chunk is shared with another snapshot.
+     * <p>
+     * Note that 2 chunks can be equal without being shared.
+     *
+     * @param chunk
+     * @param other
+     * @return True if both snapshots use the same chunk instance (all empty chunks are shared).
+     */
+    public boolean isChunkShared(int chunk, PhraseSnapshot other)
+    {
+        checkArgument(chunk >= 0, "chunk=%s", chunk);
+        return getChunk(chunk) == other.getChunk(chunk);
+    }
+
+    /**
+     * Get the chunks which differ from the chunks of another snapshot.
+     * <p>
+     * Shared chunks are not compared. If channels differ all the non-empty chunks are considered changed.
+     *
+     * @param other Must have the same chunk size
+     * @return The ordered indexes of the chunks which are not equal. Can be empty.
+     */
+    public List<Integer> getChangedChunks(PhraseSnapshot other)
+    {
+        checkNotNull(other);
+        checkArgument(other.chunkSize == chunkSize, "other.chunkSize=%s chunkSize=%s", other.chunkSize, chunkSize);
+        List<Integer> res = new ArrayList<>();
+        if (other == this)
+        {
+            return res;
+        }
+        boolean sameChannel = channel == other.channel;
+        int n = Math.max(chunks.length, other.chunks.length);
+        for (int i = 0; i < n; i++)
+        {
+            Chunk c = getChunk(i);
+            Chunk oc = other.getChunk(i);
+            boolean changed = sameChannel ? (c != oc && !c.equals(oc)) : (c != EMPTY_CHUNK || oc != EMPTY_CHUNK);
+            if (changed)
+            {
+                res.add(i);
+            }
+        }
+        return res;
+    }
+
+    /**
+     * @return The number of notes.
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    /**
+     * Get an equal snapshot which reuses the chunks of other when they are equal.
+     * <p>
+     * Use this method when a snapshot is built from scratch (e.g. from a regenerated phrase) but is likely to share most of its
+     * notes with a previous snapshot: subsequent equality tests and chunk comparisons will be fast.
+     *
+     * @param other Can be null. Must have the same chunk size.
+     * @return This snapshot if no chunk could be shared.
+     */
+    public PhraseSnapshot withSharedChunks(PhraseSnapshot other)
+    {
+        if (other == null || other == this)
+        {
+            return this;
+        }
+        checkArgument(other.chunkSize == chunkSize, "other.chunkSize=%s chunkSize=%s", other.chunkSize, chunkSize);
+
+        Chunk[] newChunks = null;
+        int n = Math.min(chunks.length, other.chunks.length);
+        for (int i = 0; i < n; i++)
+        {
+            Chunk c = chunks[i];
+            Chunk oc = other.chunks[i];
+            if (c != oc && c.equals(oc))
+            {
+                if (newChunks == null)
+                {
+                    newChunks = chunks.clone();
+                }
+                newChunks[i] = oc;
+            }
+        }
+        return newChunks == null ? this : new PhraseSnapshot(channel, chunkSize, newChunks);
+    }
+
+    /**
+     * Get a new snapshot where the notes in the specified range are replaced by the notes of p.
+     * <p>
+     * The result is equivalent to a Phrase where silence(range, true, false, 0) is called, then the notes of p are added. Only
+     * the chunks impacted by these changes are rebuilt, the other ones are shared with this snapshot.
+     *
+     * @param range
+     * @param p     The notes are not cloned. Can be outside of range.
+     * @return
+     * @see Phrase#silence(org.jjazz.util.api.FloatRange, boolean, boolean, float)
+     */
+    public PhraseSnapshot getSpliced(FloatRange range, Phrase p)
+    {
+        checkNotNull(range);
+        checkNotNull(p);
+
+        int nbChunks = chunks.length;
+        if (!p.isEmpty())
+        {
+            nbChunks = Math.max(nbChunks, getChunkIndex(p.getLast().getPositionInBeats()) + 1);
+        }
+        Chunk[] newChunks = Arrays.copyOf(chunks, nbChunks);
+        for (int i = chunks.length; i < nbChunks; i++)
+        {
+            newChunks[i] = EMPTY_CHUNK;
+        }
+
+
+        // Rebuild the impacted chunks: chunks which contain notes starting or ending in the range, and chunks where p notes go
+        boolean[] impacted = new boolean[nbChunks];
+        if (!range.isEmpty())
+        {
+            for (int i = 0; i < chunks.length && i * chunkSize < range.to; i++)
+            {
+                impacted[i] = chunks[i].maxEndPos > range.from;
+            }
+        }
+        for (NoteEvent ne : p)
+        {
+            impacted[getChunkIndex(ne.getPositionInBeats())] = true;
+        }
+
+        for (int i = 0; i < nbChunks; i++)
+        {
+            if (!impacted[i])
+            {
+                continue;
+            }
+            List<NoteEvent> nes = new ArrayList<>();
+            boolean changed = false;
+            for (NoteEvent ne : newChunks[i].notes)
+            {
+                float posFrom = ne.getPositionInBeats();
+                float posTo = posFrom + ne.getDurationInBeats();
+                if (range.contains(posFrom, true))
+                {
+                    // Removed
+                    changed = true;
+                } else if (posFrom < range.from && posTo > range.from)
+                {
+                    // Note crossing range.from: shorten it
+                    nes.add(new NoteEvent(ne, range.from - posFrom, posFrom));
+                    changed = true;
+                } else
+                {
+                    nes.add(ne);
+                }
+            }
+
+            // Add the p notes of this chunk (p is ordered)
+            int pIndex = p.indexOfFirstNoteFrom(i * chunkSize);
+            int pToIndex = p.indexOfFirstNoteFrom((i + 1) * chunkSize);
+            if (pIndex < pToIndex)
+            {
+                nes.addAll(p.subList(pIndex, pToIndex));
+                Collections.sort(nes);
+                changed = true;
+            }
+
+            if (changed)
+            {
+                // Keep the chunk shared if no note was actually touched
+                newChunks[i] = nes.isEmpty() ? EMPTY_CHUNK : new Chunk(nes.toArray(new NoteEvent[nes.size()]));
+            }
+        }
+
+        return new PhraseSnapshot(channel, chunkSize, trim(newChunks));
+    }
+
+    /**
+     * Get a new Phrase with the notes of this snapshot.
+     * <p>
+     * The NoteEvents are not cloned.
+     *
+     * @return
+     */
+    public Phrase toPhrase()
+    {
+        Phrase res = new Phrase(channel);
+        res.ensureCapacity(size);
+        for (Chunk c : chunks)
+        {
+            for (NoteEvent ne : c.notes)
+            {
+                res.addLast(ne);
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Get all the notes as MidiEvents.
+     *
+     * @return
+     * @see Phrase#toMidiEvents()
+     */
+    public List<MidiEvent> toMidiEvents()
+    {
+        List<MidiEvent> res = new ArrayList<>(2 * size);
+        for (NoteEvent ne : this)
+        {
+            res.addAll(ne.toMidiEvents(channel));
+        }
+        return res;
+    }
+
+    /**
+     * Get the notes of the specified chunk as MidiEvents.
+     *
+     * @param chunk If &gt;= getNbChunks() return an empty list.
+     * @return
+     * @see #toMidiEvents()
+     */
+    public List<MidiEvent> toMidiEvents(int chunk)
+    {
+        checkArgument(chunk >= 0, "chunk=%s", chunk);
+        Chunk c = getChunk(chunk);
+        List<MidiEvent> res = new ArrayList<>(2 * c.notes.length);
+        for (NoteEvent ne : c.notes)
+        {
+            res.addAll(ne.toMidiEvents(channel));
+        }
+        return res;
+    }
+
+    /**
+     * Iterate over the notes ordered by position.
+     *
+     * @return
+     */
+    @Override
+    public Iterator<NoteEvent> iterator()
+    {
+        return new Iterator<>()
+        {
+            private int chunk = 0;
+            private int index = 0;
+
+            @Override
+            public boolean hasNext()
+            {
+                while (chunk < chunks.length && index >= chunks[chunk].notes.length)
+                {
+                    chunk++;
+                    index = 0;
+                }
+                return chunk < chunks.length;
+            }
+
+            @Override
+            public NoteEvent next()
+            {
+                if (!hasNext())
+                {
+                    throw new NoSuchElementException();
+                }
+                return chunks[chunk].notes[index++];
+            }
+        };
+    }
+
+    /**
+     * Same channel, same chunk size and equal notes.
+     * <p>
+     * Shared chunks are not compared.
+     *
+     * @param o
+     * @return
+     */
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o)
+        {
+            return true;
+        }
+        if (!(o instanceof PhraseSnapshot))
+        {
+            return false;
+        }
+        PhraseSnapshot ps = (PhraseSnapshot) o;
+        if (channel != ps.channel || chunkSize != ps.chunkSize || size != ps.size || chunks.length != ps.chunks.length)
+        {
+            return false;
+        }
+        for (int i = 0; i < chunks.length; i++)
+        {
+            if (chunks[i] != ps.chunks[i] && !chunks[i].equals(ps.chunks[i]))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        int h = hashCode;
+        if (h == 0)
+        {
+            h = 7;
+            h = 37 * h + channel;
+            h = 37 * h + Float.floatToIntBits(chunkSize);
+            for (Chunk c : chunks)
+            {
+                h = 37 * h + c.hashCode();
+            }
+            hashCode = h;
+        }
+        return h;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "PhraseSnapshot[ch=" + channel + "] size=" + size + " nbChunks=" + chunks.length;
+    }
+
+    // =================================================================================
+    // Private methods
+    // =================================================================================
+    private int getChunkIndex(float posInBeats)
+    {
+        return (int) (posInBeats / chunkSize);
+    }
+
+    private Chunk getChunk(int chunk)
+    {
+        return chunk < chunks.length ? chunks[chunk] : EMPTY_CHUNK;
+    }
+
+    static private Chunk[] buildChunks(Phrase p, float chunkSize)
+    {
+        if (p.isEmpty())
+        {
+            return new Chunk[0];
+        }
+        int nbChunks = (int) (p.getLast().getPositionInBeats() / chunkSize) + 1;
+        Chunk[] res = new Chunk[nbChunks];
+        int index = 0;
+        for (int i = 0; i < nbChunks; i++)
+        {
+            int toIndex = p.indexOfFirstNoteFrom((i + 1) * chunkSize);
+            res[i] = index == toIndex ? EMPTY_CHUNK : new Chunk(p.subList(index, toIndex).toArray(new NoteEvent[toIndex - index]));
+            index = toIndex;
+        }
+        return res;
+    }
+
+    static private Chunk[] trim(Chunk[] chunks)
+    {
+        int n = chunks.length;
+        while (n > 0 && chunks[n - 1] == EMPTY_CHUNK)
+        {
+            n--;
+        }
+        return n == chunks.length ? chunks : Arrays.copyOf(chunks, n);
+    }
+
+    // =================================================================================
+    // Private classes
+    // =================================================================================
+    /**
+     * An immutable array of notes ordered by position.
+     */
+    static private class Chunk
+    {
+
+        private final NoteEvent[] notes;
+        /**
+         * The max note off position.
+         */
+        private final float maxEndPos;
+        private int hashCode;
+
+        Chunk(NoteEvent[] notes)
+        {
+            this.notes = notes;
+            float max = 0;
+            for (NoteEvent ne : notes)
+            {
+                max = Math.max(max, ne.getPositionInBeats() + ne.getDurationInBeats());
+            }
+            this.maxEndPos = max;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o)
+            {
+                return true;
+            }
+            if (!(o instanceof Chunk))
+            {
+                return false;
+            }
+            Chunk c = (Chunk) o;
+            return hashCode() == c.hashCode() && Arrays.equals(notes, c.notes);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            int h = hashCode;
+            if (h == 0)
+            {
+                h = Arrays.hashCode(notes);
+                hashCode = h;
+            }
+            return h;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ *  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ *  Copyright @2019 Jerome Lelasseux. All rights reserved.
+ *
+ *  This file is part of the JJazzLabX software.
+ *
+ *  JJazzLabX is free software: you can redistribute it and/or modify
+ *  it under the terms of the Lesser GNU General Public License (LGPLv3)
+ *  as published by the Free Software Foundation, either version 3 of the License,
+ *  or (at your option) any later version.
+ *
+ *  JJazzLabX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with JJazzLabX.  If not, see <https://www.gnu.org/licenses/>
+ *
+ *  Contributor(s):
+ */
+package org.jjazz.phrase.api;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.jjazz.harmony.api.Note;
+import org.jjazz.midi.api.MidiConst;
+import org.jjazz.util.api.FloatRange;
+import org.jjazz.util.api.IntRange;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Cell by cell edits of a 64-bar 1/16 drums grid: incremental cell index, batch edit, and full refresh() after each edit (the
+ * previous Grid behavior).
+ * <p>
+ * Resulting grids and phrases are also checked for equality.
+ */
+public class GridBenchmarkTest
+{
+
+    private static final int NB_BARS = 64;
+    private static final int NB_CELLS_PER_BEAT = 4;
+    private static final int NB_RUNS = 5;
+    private static Phrase drums;
+
+    public GridBenchmarkTest()
+    {
+    }
+
+    @BeforeClass
+    public static void setUpClass()
+    {
+        Random rnd = new Random(1234);
+
+        // Drums: 16th hi-hat with some "live" notes slightly before the beat, + kick on 1 and 3 + snare on 2 and 4
+        drums = new Phrase(MidiConst.CHANNEL_DRUMS);
+        for (int bar = 0; bar < NB_BARS; bar++)
+        {
+            for (int i = 0; i < 16; i++)
+            {
+                float pos = bar * 4 + i * 0.25f;
+                if (pos > 0 && rnd.nextInt(4) == 0)
+                {
+                    pos -= 0.05f;
+                }
+                drums.addOrdered(new NoteEvent(MidiConst.CLOSED_HI_HAT, 0.2f, 60 + rnd.nextInt(40), pos));
+                if (i % 4 == 0)
+                {
+                    int pitch = (i % 8 == 0) ? MidiConst.ACOUSTIC_BASS_DRUM : MidiConst.ACOUSTIC_SNARE;
+                    drums.addOrdered(new NoteEvent(pitch, 0.2f, 100, bar * 4 + i * 0.25f));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testCellEdits()
+    {
+        System.out.println("testCellEdits() -- nbNotes=" + drums.size());
+        FloatRange beatRange = new FloatRange(0, NB_BARS * 4);
+        long tIncremental = 0, tBatch = 0, tRefresh = 0;
+
+        for (int run = 0; run < NB_RUNS; run++)
+        {
+            long t = System.nanoTime();
+            Grid g1 = new Grid(drums.clone(), beatRange, NB_CELLS_PER_BEAT, null);
+            edit(g1, false);
+            long t1 = System.nanoTime() - t;
+
+            t = System.nanoTime();
+            Grid g2 = new Grid(drums.clone(), beatRange, NB_CELLS_PER_BEAT, null);
+            g2.startBatchEdit();
+            edit(g2, false);
+            g2.commitBatchEdit();
+            long t2 = System.nanoTime() - t;
+
+            t = System.nanoTime();
+            Grid g3 = new Grid(drums.clone(), beatRange, NB_CELLS_PER_BEAT, null);
+            edit(g3, true);
+            long t3 = System.nanoTime() - t;
+
+            assertEquals(g3.toString(), g1.toString());
+            assertEquals(g3.toString(), g2.toString());
+            assertEquals(g3.getPhrase(), g1.getPhrase());
+            assertEquals(sorted(g3.getPhrase()), sorted(g2.getPhrase()));
+            assertEquals(g3.toString(), new Grid(g2.getPhrase(), beatRange, NB_CELLS_PER_BEAT, null).toString());
+
+            System.out.println(String.format("  incremental=%8.2fms  batch=%8.2fms  refresh=%8.2fms", t1 / 1000000f, t2 / 1000000f,
+                    t3 / 1000000f));
+            tIncremental += t1;
+            tBatch += t2;
+            tRefresh += t3;
+        }
+
+        System.out.println(String.format("  TOTAL: incremental=%.1fms  batch=%.1fms  refresh=%.1fms", tIncremental / 1000000f,
+                tBatch / 1000000f, tRefresh / 1000000f));
+    }
+
+    // =================================================================================================
+    // Private methods
+    // =================================================================================================
+    /**
+     * Typical drums transform: process each cell, change velocity, remove/add/move some notes.
+     *
+     * @param g
+     * @param refresh If true call refresh() after each edit, like the previous Grid implementation.
+     */
+    private void edit(Grid g, boolean refresh)
+    {
+        int lastCell = g.getCellRange().to;
+        for (int cell = 0; cell <= lastCell; cell++)
+        {
+            g.changeVelocity(new IntRange(cell, cell), v -> v - 5);
+            refresh(g, refresh);
+            switch (cell % 8)
+            {
+                case 1:
+                case 5:
+                    g.removeNotes(cell);
+                    refresh(g, refresh);
+                    break;
+                case 2:
+                    g.addNote(cell, new Note(MidiConst.OPEN_HI_HAT, 0.1f, 80), 0);
+                    refresh(g, refresh);
+                    break;
+                case 3:
+                    if (cell < lastCell)
+                    {
+                        g.moveNotes(cell, cell + 1, false);
+                        refresh(g, refresh);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private void refresh(Grid g, boolean b)
+    {
+        if (b)
+        {
+            g.refresh();
+        }
+    }
+
+    private List<NoteEvent> sorted(Phrase p)
+    {
+        List<NoteEvent> res = new ArrayList<>(p);
+        Collections.sort(res);
+        return res;
+    }
+}
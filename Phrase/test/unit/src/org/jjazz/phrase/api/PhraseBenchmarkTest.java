@@ -0,0 +1,275 @@
+/*
+ *  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ *  Copyright @2019 Jerome Lelasseux. All rights reserved.
+ *
+ *  This file is part of the JJazzLabX software.
+ *
+ *  JJazzLabX is free software: you can redistribute it and/or modify
+ *  it under the terms of the Lesser GNU General Public License (LGPLv3)
+ *  as published by the Free Software Foundation, either version 3 of the License,
+ *  or (at your option) any later version.
+ *
+ *  JJazzLabX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with JJazzLabX.  If not, see <https://www.gnu.org/licenses/>
+ *
+ *  Contributor(s):
+ */
+package org.jjazz.phrase.api;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import org.jjazz.midi.api.MidiConst;
+import org.jjazz.util.api.FloatRange;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Compare the array-based Phrase with the previous LinkedList-based implementation on 300-bar drums and bass phrases.
+ * <p>
+ * The LinkedList reference reproduces the previous Phrase algorithms (binary search over a linked list, scans from the head).
+ * Results of both implementations are also checked for equality.
+ */
+public class PhraseBenchmarkTest
+{
+
+    private static final int NB_BARS = 300;
+    private static final int NB_RUNS = 5;
+    private static List<NoteEvent> drumNotes;
+    private static List<NoteEvent> bassNotes;
+
+    public PhraseBenchmarkTest()
+    {
+    }
+
+    @BeforeClass
+    public static void setUpClass()
+    {
+        Random rnd = new Random(1234);
+
+        // Drums: 16th hi-hat + kick on 1 and 3 + snare on 2 and 4
+        drumNotes = new ArrayList<>();
+        for (int bar = 0; bar < NB_BARS; bar++)
+        {
+            for (int i = 0; i < 16; i++)
+            {
+                float pos = bar * 4 + i * 0.25f;
+                drumNotes.add(new NoteEvent(MidiConst.CLOSED_HI_HAT, 0.2f, 60 + rnd.nextInt(40), pos));
+                if (i % 4 == 0)
+                {
+                    int pitch = (i % 8 == 0) ? MidiConst.ACOUSTIC_BASS_DRUM : MidiConst.ACOUSTIC_SNARE;
+                    drumNotes.add(new NoteEvent(pitch, 0.2f, 100, pos));
+                }
+            }
+        }
+
+        // Walking bass: 4 quarter notes per bar, slightly overlapping
+        bassNotes = new ArrayList<>();
+        for (int bar = 0; bar < NB_BARS; bar++)
+        {
+            for (int beat = 0; beat < 4; beat++)
+            {
+                bassNotes.add(new NoteEvent(36 + rnd.nextInt(12), 1.05f, 80, bar * 4 + beat));
+            }
+        }
+
+        // Generators don't always add notes in order
+        Collections.shuffle(drumNotes, rnd);
+        Collections.shuffle(bassNotes, rnd);
+    }
+
+    @Test
+    public void testDrums()
+    {
+        System.out.println("testDrums() -- nbNotes=" + drumNotes.size());
+        benchmark(drumNotes, MidiConst.CHANNEL_DRUMS);
+    }
+
+    @Test
+    public void testBass()
+    {
+        System.out.println("testBass() -- nbNotes=" + bassNotes.size());
+        benchmark(bassNotes, 0);
+    }
+
+    // =================================================================================================
+    // Private methods
+    // =================================================================================================
+
+    private void benchmark(List<NoteEvent> notes, int channel)
+    {
+        long tPhrase = 0, tRef = 0;
+        for (int run = 0; run < NB_RUNS; run++)
+        {
+            // addOrdered()
+            long t = System.nanoTime();
+            Phrase p = new Phrase(channel);
+            notes.forEach(ne -> p.addOrdered(ne));
+            long tp = System.nanoTime() - t;
+
+            t = System.nanoTime();
+            LinkedList<NoteEvent> ref = new LinkedList<>();
+            notes.forEach(ne -> refAddOrdered(ref, ne));
+            long tr = System.nanoTime() - t;
+            assertEquals(ref, p);
+            log("addOrdered", tp, tr);
+            tPhrase += tp;
+            tRef += tr;
+
+
+            // getNotes() per beat
+            t = System.nanoTime();
+            List<List<NoteEvent>> resp = new ArrayList<>();
+            for (int beat = 0; beat < NB_BARS * 4; beat++)
+            {
+                resp.add(p.getNotes(ne -> true, new FloatRange(beat, beat + 1), true));
+            }
+            tp = System.nanoTime() - t;
+
+            t = System.nanoTime();
+            List<List<NoteEvent>> resr = new ArrayList<>();
+            for (int beat = 0; beat < NB_BARS * 4; beat++)
+            {
+                resr.add(refGetNotes(ref, new FloatRange(beat, beat + 1), true));
+            }
+            tr = System.nanoTime() - t;
+            assertEquals(resr, resp);
+            log("getNotes", tp, tr);
+            tPhrase += tp;
+            tRef += tr;
+
+
+            // getCrossingNotes() per beat
+            t = System.nanoTime();
+            resp.clear();
+            for (int beat = 0; beat < NB_BARS * 4; beat++)
+            {
+                resp.add(p.getCrossingNotes(beat + 0.1f, true));
+            }
+            tp = System.nanoTime() - t;
+
+            t = System.nanoTime();
+            resr.clear();
+            for (int beat = 0; beat < NB_BARS * 4; beat++)
+            {
+                resr.add(refGetCrossingNotes(ref, beat + 0.1f, true));
+            }
+            tr = System.nanoTime() - t;
+            assertEquals(resr, resp);
+            log("getCrossingNotes", tp, tr);
+            tPhrase += tp;
+            tRef += tr;
+
+
+            // silence() 1 beat every 2 bars
+            t = System.nanoTime();
+            for (int bar = 0; bar < NB_BARS; bar += 2)
+            {
+                p.silence(new FloatRange(bar * 4 + 1, bar * 4 + 2), true, false, 0);
+            }
+            tp = System.nanoTime() - t;
+
+            t = System.nanoTime();
+            for (int bar = 0; bar < NB_BARS; bar += 2)
+            {
+                refSilence(ref, new FloatRange(bar * 4 + 1, bar * 4 + 2));
+            }
+            tr = System.nanoTime() - t;
+            assertEquals(ref, p);
+            log("silence", tp, tr);
+            tPhrase += tp;
+            tRef += tr;
+        }
+
+        System.out.println(String.format("  TOTAL: Phrase=%.1fms  LinkedList=%.1fms", tPhrase / 1000000f, tRef / 1000000f));
+    }
+
+    private void log(String op, long tPhrase, long tRef)
+    {
+        System.out.println(String.format("  %-18s Phrase=%8.2fms  LinkedList=%8.2fms", op, tPhrase / 1000000f, tRef / 1000000f));
+    }
+
+    /**
+     * The previous Phrase.addOrdered() implementation.
+     */
+    private void refAddOrdered(LinkedList<NoteEvent> list, NoteEvent ne)
+    {
+        int res = Collections.binarySearch(list, ne);
+        int index = res >= 0 ? res : -(res + 1);
+        list.add(index, ne);
+    }
+
+    /**
+     * The previous Phrase.getNotes() implementation.
+     */
+    private List<NoteEvent> refGetNotes(LinkedList<NoteEvent> list, FloatRange range, boolean excludeUpperBound)
+    {
+        var res = new ArrayList<NoteEvent>();
+        for (NoteEvent ne : list)
+        {
+            if (range.contains(ne.getPositionInBeats(), excludeUpperBound))
+            {
+                res.add(ne);
+            }
+            if (ne.getPositionInBeats() > range.to)
+            {
+                break;
+            }
+        }
+        return res;
+    }
+
+    /**
+     * The previous Phrase.getCrossingNotes() implementation.
+     */
+    private List<NoteEvent> refGetCrossingNotes(LinkedList<NoteEvent> list, float posInBeats, boolean strict)
+    {
+        ArrayList<NoteEvent> res = new ArrayList<>();
+        for (NoteEvent ne : list)
+        {
+            float pos = ne.getPositionInBeats();
+            if ((strict && pos >= posInBeats) || (!strict && pos > posInBeats))
+            {
+                break;
+            }
+            if ((strict && pos + ne.getDurationInBeats() > posInBeats) || (!strict && pos + ne.getDurationInBeats() >= posInBeats))
+            {
+                res.add(ne);
+            }
+        }
+        return res;
+    }
+
+    /**
+     * The previous Phrase.silence() implementation with cutLeft=true, keepRight=false, beatWindow=0.
+     */
+    private void refSilence(LinkedList<NoteEvent> list, FloatRange range)
+    {
+        var it = list.listIterator();
+        while (it.hasNext())
+        {
+            NoteEvent ne = it.next();
+            float nePosFrom = ne.getPositionInBeats();
+            float nePosTo = nePosFrom + ne.getDurationInBeats();
+            if (nePosFrom < range.from)
+            {
+                if (nePosTo > range.from)
+                {
+                    it.set(new NoteEvent(ne, range.from - nePosFrom, nePosFrom));
+                }
+            } else if (nePosFrom < range.to)
+            {
+                it.remove();
+            }
+        }
+    }
+}
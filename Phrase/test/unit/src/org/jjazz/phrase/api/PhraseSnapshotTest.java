@@ -0,0 +1,330 @@
+/*
+ *  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ * 
+ *  Copyright @2019 Jerome Lelasseux. All rights reserved.
+ *
+ *  This file is part of the JJazzLabX software.
+ *   
+ *  JJazzLabX is free software: you can redistribute it and/or modify
+ *  it under the terms of the Lesser GNU General Public License (LGPLv3) 
+ *  as published by the Free Software Foundation, either version 3 of the License, 
+ *  or (at your option) any later version.
+ *
+ *  JJazzLabX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the 
+ *  GNU Lesser General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with JJazzLabX.  If not, see <https://www.gnu.org/licenses/>
+ * 
+ *  Contributor(s): 
+ */
+package org.jjazz.phrase.api;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import org.jjazz.util.api.FloatRange;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test of PhraseSnapshot.
+ */
+public class PhraseSnapshotTest
+{
+
+    private static final long SEED = 20190917L;
+    private Random random;
+
+    public PhraseSnapshotTest()
+    {
+    }
+
+    @Before
+    public void setUp()
+    {
+        random = new Random(SEED);
+    }
+
+    @Test
+    public void testOfAndToPhrase()
+    {
+        System.out.println("=== testOfAndToPhrase()");
+        Phrase p = new Phrase(3);
+        p.addOrdered(new NoteEvent(60, 1f, 100, 0f));
+        p.addOrdered(new NoteEvent(62, 0.5f, 100, 3.5f));
+        p.addOrdered(new NoteEvent(64, 6f, 100, 4f));       // Crosses chunk boundaries, belongs to chunk 1
+        p.addOrdered(new NoteEvent(65, 1f, 100, 13f));
+
+
+        PhraseSnapshot snapshot = PhraseSnapshot.of(p);
+        assertEquals(3, snapshot.getChannel());
+        assertEquals(PhraseSnapshot.DEFAULT_CHUNK_SIZE, snapshot.getChunkSize(), 0);
+        assertEquals(4, snapshot.size());
+        assertEquals(4, snapshot.getNbChunks());
+        assertEquals(Arrays.asList(p.get(0), p.get(1)), snapshot.getChunkNotes(0));
+        assertEquals(Arrays.asList(p.get(2)), snapshot.getChunkNotes(1));
+        assertTrue(snapshot.getChunkNotes(2).isEmpty());
+        assertEquals(Arrays.asList(p.get(3)), snapshot.getChunkNotes(3));
+        assertTrue(snapshot.getChunkNotes(10).isEmpty());
+        assertEquals(4f, snapshot.getChunkBeatRange(1).from, 0);
+        assertEquals(8f, snapshot.getChunkBeatRange(1).to, 0);
+
+
+        // Empty chunks are shared
+        assertTrue(snapshot.isChunkShared(2, PhraseSnapshot.of(new Phrase(3))));
+
+
+        // Iteration order and conversion back
+        List<NoteEvent> nes = new ArrayList<>();
+        snapshot.forEach(ne -> nes.add(ne));
+        assertEquals(new ArrayList<>(p), nes);
+        Phrase p2 = snapshot.toPhrase();
+        assertEquals(3, p2.getChannel());
+        assertEquals(new ArrayList<>(p), new ArrayList<>(p2));
+        assertEquals(p.toMidiEvents().size(), snapshot.toMidiEvents().size());
+        assertEquals(2 * 2, snapshot.toMidiEvents(0).size());
+    }
+
+    @Test
+    public void testEmpty()
+    {
+        System.out.println("=== testEmpty()");
+        PhraseSnapshot snapshot = PhraseSnapshot.of(new Phrase(0));
+        assertTrue(snapshot.isEmpty());
+        assertEquals(0, snapshot.size());
+        assertEquals(0, snapshot.getNbChunks());
+        assertFalse(snapshot.iterator().hasNext());
+        assertTrue(snapshot.toPhrase().isEmpty());
+        assertTrue(snapshot.toMidiEvents().isEmpty());
+        assertEquals(snapshot, PhraseSnapshot.of(new Phrase(0)));
+        assertNotEquals(snapshot, PhraseSnapshot.of(new Phrase(1)));
+    }
+
+    @Test
+    public void testTrailingEmptyChunksTrimmed()
+    {
+        System.out.println("=== testTrailingEmptyChunksTrimmed()");
+        Phrase p = new Phrase(0);
+        p.addOrdered(new NoteEvent(60, 1f, 100, 1f));
+        p.addOrdered(new NoteEvent(60, 1f, 100, 9f));
+        PhraseSnapshot snapshot = PhraseSnapshot.of(p);
+        assertEquals(3, snapshot.getNbChunks());
+
+        // Remove the last note: the trailing chunks disappear
+        PhraseSnapshot spliced = snapshot.getSpliced(new FloatRange(8f, 12f), new Phrase(0));
+        assertEquals(1, spliced.getNbChunks());
+        assertEquals(1, spliced.size());
+    }
+
+    @Test
+    public void testImmutable()
+    {
+        System.out.println("=== testImmutable()");
+        Phrase p = getRandomPhrase(0, 8, 40);
+        List<NoteEvent> saved = new ArrayList<>(p);
+        PhraseSnapshot snapshot = PhraseSnapshot.of(p);
+
+
+        // Changing the source phrase does not change the snapshot
+        p.clear();
+        p.addOrdered(new NoteEvent(70, 1f, 100, 2f));
+        assertEquals(saved, new ArrayList<>(snapshot.toPhrase()));
+
+
+        // Chunks can't be modified
+        try
+        {
+            snapshot.getChunkNotes(0).clear();
+            fail("getChunkNotes() should be unmodifiable");
+        } catch (UnsupportedOperationException ex)
+        {
+            // OK
+        }
+        Iterator<NoteEvent> it = snapshot.iterator();
+        it.next();
+        try
+        {
+            it.remove();
+            fail("iterator() should not support remove()");
+        } catch (UnsupportedOperationException ex)
+        {
+            // OK
+        }
+        assertEquals(saved.size(), snapshot.size());
+    }
+
+    @Test
+    public void testEqualsAndHashCode()
+    {
+        System.out.println("=== testEqualsAndHashCode()");
+        Phrase p = getRandomPhrase(2, 8, 50);
+        PhraseSnapshot s1 = PhraseSnapshot.of(p);
+        PhraseSnapshot s2 = PhraseSnapshot.of(p.clone());
+        assertEquals(s1, s2);
+        assertEquals(s1.hashCode(), s2.hashCode());
+
+
+        // Different chunk size
+        assertNotEquals(s1, PhraseSnapshot.of(p, 3f));
+
+
+        // Different channel
+        Phrase p3 = new Phrase(5);
+        p3.addAll(p);
+        assertNotEquals(s1, PhraseSnapshot.of(p3));
+
+
+        // One note changed
+        Phrase p4 = p.clone();
+        NoteEvent ne = p4.get(p4.size() / 2);
+        p4.set(p4.size() / 2, new NoteEvent(ne, ne.getPitch() + 1));
+        assertNotEquals(s1, PhraseSnapshot.of(p4));
+    }
+
+    @Test
+    public void testGetChangedChunks()
+    {
+        System.out.println("=== testGetChangedChunks()");
+        Phrase p = new Phrase(0);
+        for (int i = 0; i < 8; i++)
+        {
+            p.addOrdered(new NoteEvent(60 + i, 1f, 100, i * 4f + 1));
+        }
+        PhraseSnapshot s1 = PhraseSnapshot.of(p);
+        assertTrue(s1.getChangedChunks(PhraseSnapshot.of(p.clone())).isEmpty());
+
+
+        // Change chunk 2 and 5, add a note in chunk 9
+        Phrase p2 = p.clone();
+        p2.set(2, new NoteEvent(p2.get(2), 50));
+        p2.set(5, new NoteEvent(p2.get(5), p2.get(5).getPitch(), 1f, 20));
+        p2.addOrdered(new NoteEvent(70, 1f, 100, 37f));
+        PhraseSnapshot s2 = PhraseSnapshot.of(p2);
+        assertEquals(Arrays.asList(2, 5, 9), s1.getChangedChunks(s2));
+        assertEquals(Arrays.asList(2, 5, 9), s2.getChangedChunks(s1));
+
+
+        // Different channel: all non-empty chunks changed
+        Phrase p3 = new Phrase(1);
+        p3.addAll(p);
+        assertEquals(8, s1.getChangedChunks(PhraseSnapshot.of(p3)).size());
+    }
+
+    @Test
+    public void testWithSharedChunks()
+    {
+        System.out.println("=== testWithSharedChunks()");
+        Phrase p = getRandomPhrase(0, 16, 100);
+        PhraseSnapshot s1 = PhraseSnapshot.of(p);
+
+
+        // Rebuilt from scratch with chunk 3 modified
+        Phrase p2 = p.clone();
+        p2.addOrdered(new NoteEvent(90, 0.5f, 100, 13.25f));
+        PhraseSnapshot s2 = PhraseSnapshot.of(p2);
+        for (int i = 0; i < s2.getNbChunks(); i++)
+        {
+            assertTrue(s2.getChunkNotes(i).isEmpty() || !s2.isChunkShared(i, s1));
+        }
+
+
+        PhraseSnapshot s2Shared = s2.withSharedChunks(s1);
+        assertEquals(s2, s2Shared);
+        assertEquals(s2.hashCode(), s2Shared.hashCode());
+        assertEquals(new ArrayList<>(p2), new ArrayList<>(s2Shared.toPhrase()));
+        for (int i = 0; i < s2Shared.getNbChunks(); i++)
+        {
+            assertEquals("i=" + i, i != 3, s2Shared.isChunkShared(i, s1));
+        }
+        assertEquals(Arrays.asList(3), s2Shared.getChangedChunks(s1));
+
+
+        // Nothing to share
+        assertSame(s2, s2.withSharedChunks(null));
+        Phrase p3 = new Phrase(0);
+        p3.addOrdered(new NoteEvent(30, 1f, 100, 0f));
+        assertSame(s2, s2.withSharedChunks(PhraseSnapshot.of(p3)));
+
+
+        // Chunks don't depend on the channel, but the snapshots remain different
+        Phrase p4 = new Phrase(7);
+        p4.addAll(p);
+        PhraseSnapshot s4 = PhraseSnapshot.of(p4).withSharedChunks(s1);
+        assertTrue(s4.isChunkShared(0, s1));
+        assertNotEquals(s1, s4);
+        assertEquals(7, s4.getChannel());
+    }
+
+    @Test
+    public void testGetSplicedRandom()
+    {
+        System.out.println("=== testGetSplicedRandom()");
+        for (int test = 0; test < 500; test++)
+        {
+            Phrase p = getRandomPhrase(0, 8, random.nextInt(60));
+            PhraseSnapshot snapshot = PhraseSnapshot.of(p);
+
+            float from = random.nextInt(8 * 4 * 4) / 4f;
+            float to = Math.min(from + (1 + random.nextInt(4 * 4 * 4)) / 4f, 40f);
+            FloatRange range = new FloatRange(from, to);
+            Phrase inserted = getRandomPhrase(0, 10, random.nextInt(10));
+
+
+            // Expected result
+            Phrase expected = p.clone();
+            expected.silence(range, true, false, 0);
+            inserted.forEach(ne -> expected.addOrdered(ne));
+
+
+            PhraseSnapshot spliced = snapshot.getSpliced(range, inserted);
+            String msg = "test=" + test + " range=" + range + " p=" + p + " inserted=" + inserted;
+            assertEquals(msg, PhraseSnapshot.of(expected), spliced);
+            assertEquals(msg, expected.size(), spliced.size());
+
+
+            // The chunks not impacted are shared with the original snapshot
+            for (int i = 0; i < snapshot.getNbChunks(); i++)
+            {
+                FloatRange chunkRange = snapshot.getChunkBeatRange(i);
+                boolean touched = inserted.stream().anyMatch(ne -> chunkRange.contains(ne.getPositionInBeats(), true))
+                        || snapshot.getChunkNotes(i).stream().anyMatch(ne -> ne.getPositionInBeats() < range.to
+                        && ne.getPositionInBeats() + ne.getDurationInBeats() > range.from);
+                if (!touched && i < spliced.getNbChunks())
+                {
+                    assertTrue(msg + " i=" + i, spliced.isChunkShared(i, snapshot));
+                }
+            }
+
+
+            // Original snapshot is unchanged
+            assertEquals(msg, PhraseSnapshot.of(p), snapshot);
+        }
+    }
+
+    // =======================================================================================================
+    // Private methods
+    // =======================================================================================================
+    /**
+     * Same as Phrase.getRandomPhrase() but reproducible, with quantized positions so that notes often start at chunk
+     * boundaries or range bounds.
+     */
+    private Phrase getRandomPhrase(int channel, int nbBars, int nbNotes)
+    {
+        Phrase p = new Phrase(channel);
+        for (int i = 0; i < nbNotes; i++)
+        {
+            int pitch = 40 + random.nextInt(20);
+            int vel = 50 + random.nextInt(20);
+            float pos = random.nextInt(nbBars * 4 * 4) / 4f;
+            float dur = 0.25f * (1 + random.nextInt(24));
+            p.addOrdered(new NoteEvent(pitch, dur, vel, pos));
+        }
+        return p;
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ *  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ * 
+ *  Copyright @2019 Jerome Lelasseux. All rights reserved.
+ *
+ *  This file is part of the JJazzLabX software.
+ *   
+ *  JJazzLabX is free software: you can redistribute it and/or modify
+ *  it under the terms of the Lesser GNU General Public License (LGPLv3) 
+ *  as published by the Free Software Foundation, either version 3 of the License, 
+ *  or (at your option) any later version.
+ *
+ *  JJazzLabX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the 
+ *  GNU Lesser General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with JJazzLabX.  If not, see <https://www.gnu.org/licenses/>
+ * 
+ *  Contributor(s): 
+ */
+package org.jjazz.phrase.api;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+import org.jjazz.midi.api.MidiConst;
+import org.jjazz.midi.api.MidiUtilities;
+import org.jjazz.midi.api.StreamingMidiFileWriter;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test of Phrase.
+ */
+public class PhraseTest
+{
+
+    private static final long SEED = 8642097531L;
+    private Random random;
+
+    public PhraseTest()
+    {
+    }
+
+    @Before
+    public void setUp()
+    {
+        random = new Random(SEED);
+    }
+
+    /**
+     * Test of saveAsBinary() and loadAsBinary().
+     */
+    @Test
+    public void testSaveLoadAsBinary() throws Exception
+    {
+        System.out.println("=== testSaveLoadAsBinary()");
+        for (int test = 0; test < 200; test++)
+        {
+            Phrase p = getRandomPhrase(random.nextInt(16), random.nextInt(test < 10 ? 3 : 300));
+            Phrase p2 = loadAsBinary(saveAsBinary(p));
+            assertSamePhrase("test=" + test, p, p2);
+
+
+            // Same result as the string format (which does not support empty phrases)
+            if (!p.isEmpty())
+            {
+                assertSamePhrase("test=" + test, Phrase.loadAsString(Phrase.saveAsString(p)), p2);
+            }
+        }
+    }
+
+    @Test
+    public void testSaveLoadAsBinaryLimits() throws Exception
+    {
+        System.out.println("=== testSaveLoadAsBinaryLimits()");
+        Phrase p = new Phrase(15);
+        p.addOrdered(new NoteEvent(0, 0.001f, 1, 0f));
+        p.addOrdered(new NoteEvent(127, 1000.123f, 127, 1.0000001f));
+        p.addOrdered(new NoteEvent(64, 0.25f, 64, 99999.5f));
+        assertSamePhrase("", p, loadAsBinary(saveAsBinary(p)));
+    }
+
+    @Test
+    public void testSeveralPhrasesInStream() throws Exception
+    {
+        System.out.println("=== testSeveralPhrasesInStream()");
+        Phrase p1 = getRandomPhrase(0, 50);
+        Phrase p2 = getRandomPhrase(9, 0);
+        Phrase p3 = getRandomPhrase(3, 20);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bos))
+        {
+            Phrase.saveAsBinary(p1, out);
+            Phrase.saveAsBinary(p2, out);
+            Phrase.saveAsBinary(p3, out);
+            out.writeInt(12345);
+        }
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bos.toByteArray())))
+        {
+            assertSamePhrase("p1", p1, Phrase.loadAsBinary(in));
+            assertSamePhrase("p2", p2, Phrase.loadAsBinary(in));
+            assertSamePhrase("p3", p3, Phrase.loadAsBinary(in));
+            assertEquals(12345, in.readInt());
+        }
+    }
+
+    @Test
+    public void testLoadAsBinaryInvalidData() throws Exception
+    {
+        System.out.println("=== testLoadAsBinaryInvalidData()");
+        byte[] bytes = saveAsBinary(getRandomPhrase(2, 10));
+
+
+        // Truncated data
+        for (int length : new int[]
+        {
+            0, 1, 4, bytes.length / 2, bytes.length - 1
+        })
+        {
+            try
+            {
+                loadAsBinary(Arrays.copyOf(bytes, length));
+                fail("length=" + length);
+            } catch (IOException ex)
+            {
+                // OK
+            }
+        }
+
+
+        // Negative size
+        byte[] badSize = bytes.clone();
+        badSize[1] = (byte) 0xFF;
+        try
+        {
+            loadAsBinary(badSize);
+            fail("Negative size");
+        } catch (IOException ex)
+        {
+            // OK
+        }
+
+
+        // Invalid channel or pitch
+        byte[] badChannel = bytes.clone();
+        badChannel[0] = 16;
+        byte[] badPitch = bytes.clone();
+        badPitch[5] = (byte) 0x80;
+        for (byte[] b : new byte[][]
+        {
+            badChannel, badPitch
+        })
+        {
+            try
+            {
+                loadAsBinary(b);
+                fail("Invalid value");
+            } catch (IOException ex)
+            {
+                // OK
+            }
+        }
+    }
+
+    /**
+     * Test that writeMidiEvents() writes the same bytes than fillTrack() + MidiSystem.write().
+     */
+    @Test
+    public void testWriteMidiEvents() throws Exception
+    {
+        System.out.println("=== testWriteMidiEvents()");
+        File expectedFile = File.createTempFile("PhraseTest", ".mid");
+        File file = File.createTempFile("PhraseTest", ".mid");
+        try
+        {
+            for (int test = 0; test < 300; test++)
+            {
+                // Positions and durations on a coarse grid so that many notes ON/OFF share the same tick
+                int nbNotes = random.nextInt(test < 10 ? 3 : 200);
+                Phrase p = new Phrase(random.nextInt(16));
+                List<NoteEvent> notes = new ArrayList<>();
+                for (int i = 0; i < nbNotes; i++)
+                {
+                    float pos = random.nextInt(64) / 4f;
+                    float dur = random.nextInt(10) == 0 ? 0.001f : (1 + random.nextInt(8)) / 4f;
+                    notes.add(new NoteEvent(random.nextInt(128), dur, 1 + random.nextInt(127), pos));
+                }
+                if (test % 3 == 0)
+                {
+                    // Unordered phrase
+                    Collections.shuffle(notes, random);
+                    notes.forEach(ne -> p.addLast(ne));
+                } else
+                {
+                    notes.forEach(ne -> p.addOrdered(ne));
+                }
+
+
+                // Additional events, often on the notes ticks
+                List<MidiEvent> additionalEvents = new ArrayList<>();
+                int nbEvents = random.nextInt(10);
+                for (int i = 0; i < nbEvents; i++)
+                {
+                    long tick;
+                    if (!notes.isEmpty() && random.nextBoolean())
+                    {
+                        NoteEvent ne = notes.get(random.nextInt(notes.size()));
+                        float pos = ne.getPositionInBeats() + (random.nextBoolean() ? ne.getDurationInBeats() : 0);
+                        tick = Math.round(pos * MidiConst.PPQ_RESOLUTION);
+                    } else
+                    {
+                        tick = random.nextInt(20 * MidiConst.PPQ_RESOLUTION);
+                    }
+                    ShortMessage sm = new ShortMessage(ShortMessage.CONTROL_CHANGE, p.getChannel(), random.nextInt(128), random.nextInt(128));
+                    additionalEvents.add(new MidiEvent(sm, tick));
+                }
+                additionalEvents.sort(Comparator.comparingLong(MidiEvent::getTick));
+                boolean trackName = random.nextBoolean();
+
+
+                // Expected
+                Sequence seq = new Sequence(Sequence.PPQ, MidiConst.PPQ_RESOLUTION);
+                Track track = seq.createTrack();
+                if (trackName)
+                {
+                    track.add(new MidiEvent(MidiUtilities.getTrackNameMetaMessage("track" + test), 0));
+                }
+                p.fillTrack(track);
+                additionalEvents.forEach(me -> track.add(me));
+                MidiSystem.write(seq, 1, expectedFile);
+
+
+                try (var writer = StreamingMidiFileWriter.open(file, 1, 1, MidiConst.PPQ_RESOLUTION))
+                {
+                    writer.startTrack();
+                    if (trackName)
+                    {
+                        writer.writeEvent(0, MidiUtilities.getTrackNameMetaMessage("track" + test));
+                    }
+                    p.writeMidiEvents(writer, additionalEvents);
+                    writer.endTrack(track.ticks());
+                }
+
+
+                assertArrayEquals("test=" + test + " p=" + p + " additionalEvents=" + additionalEvents.size(),
+                        Files.readAllBytes(expectedFile.toPath()), Files.readAllBytes(file.toPath()));
+            }
+        } finally
+        {
+            expectedFile.delete();
+            file.delete();
+        }
+    }
+
+    // =======================================================================================================
+    // Private methods
+    // =======================================================================================================
+    private byte[] saveAsBinary(Phrase p) throws IOException
+    {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bos))
+        {
+            Phrase.saveAsBinary(p, out);
+        }
+        return bos.toByteArray();
+    }
+
+    private Phrase loadAsBinary(byte[] bytes) throws IOException
+    {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes)))
+        {
+            return Phrase.loadAsBinary(in);
+        }
+    }
+
+    private void assertSamePhrase(String msg, Phrase expected, Phrase p)
+    {
+        assertEquals(msg + " channel", expected.getChannel(), p.getChannel());
+        assertEquals(msg, new ArrayList<>(expected), new ArrayList<>(p));
+    }
+
+    private Phrase getRandomPhrase(int channel, int nbNotes)
+    {
+        Phrase p = new Phrase(channel);
+        for (int i = 0; i < nbNotes; i++)
+        {
+            int pitch = random.nextInt(128);
+            int vel = 1 + random.nextInt(127);
+            float pos = random.nextFloat() * 400;
+            float dur = 0.01f + random.nextFloat() * 8;
+            p.addOrdered(new NoteEvent(pitch, dur, vel, pos));
+        }
+        return p;
+    }
+}
@@ -90,6 +90,9 @@ public interface RhythmProvider
      * <p>
      * Caller must use loadResources() on the returned rhythm before using it to generate music (possibly lenghty operation, eg if
      * new file reading required).
+     * <p>
+     * The framework may call this method concurrently from several threads (on different files), e.g. when scanning the user
+     * rhythm directory.
      *
      * @param f
      * @return
@@ -27,15 +27,19 @@ import org.jjazz.ui.utilities.api.PleaseWaitDialog;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.nio.file.Path;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Predicate;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -78,8 +82,11 @@ import org.openide.windows.WindowManager;
  * - create RhythmInfo instances from the Rhythm instances and save the file-based RhythmInfos to a cache file.<p>
  * Then upon normal start:<br>
  * - retrieve all available builtin rhythm instances by polling RhythmProviders, create the corresponding RhythmInfos.<br>
- * - load additional file-based RhythmInfos from the cache file<br>
+ * - load additional file-based RhythmInfos from the cache file (their detailed data is read from the memory-mapped cache file only
+ * when needed)<br>
  * - create Rhythm instances only when required.<p>
+ * When a rescan is requested and the cache file is present, only the rhythm files added or modified since the cache file was built
+ * are read, deleted files are removed.<p>
  * <p>
  * Default rhythms are stored as Preferences.
  */
@@ -88,12 +95,27 @@ public class RhythmDatabaseImpl implements RhythmDatabase, PropertyChangeListene
 
     private static final String PREF_DEFAULT_RHYTHM = "DefaultRhythm";
     private static final String PREF_NEED_RESCAN = "NeedRescan";
+    /**
+     * Max. number of threads used to read rhythm files.
+     */
+    private static final int MAX_SCAN_THREADS = 8;
     private static RhythmDatabaseImpl INSTANCE;
 
     /**
-     * Main data structure
+     * Main data structure.
+     * <p>
+     * Songs can be loaded and generated concurrently (e.g. batch Midi rendering): public methods which access the rhythm maps
+     * after initialization are synchronized.
      */
     private final HashMap<RhythmProvider, List<RhythmInfo>> mapRpRhythms = new HashMap<>();
+    /**
+     * All the RhythmInfos of mapRpRhythms, for fast duplicate checks.
+     */
+    private final HashSet<RhythmInfo> rhythmInfoSet = new HashSet<>();
+    /**
+     * The fingerprints of the rhythm files taken by the last scan, before the files were read. Key=file absolute path.
+     */
+    private final HashMap<String, RhythmDbCache.FileFingerprint> mapPathFingerprints = new HashMap<>();
     /**
      * Save the created Rhythm instances.
      */
@@ -214,7 +236,7 @@ public class RhythmDatabaseImpl implements RhythmDatabase, PropertyChangeListene
     }
 
     @Override
-    public Rhythm getRhythmInstance(RhythmInfo ri) throws UnavailableRhythmException
+    public synchronized Rhythm getRhythmInstance(RhythmInfo ri) throws UnavailableRhythmException
     {
         if (ri == null)
         {
@@ -256,7 +278,7 @@ public class RhythmDatabaseImpl implements RhythmDatabase, PropertyChangeListene
     }
 
     @Override
-    public RhythmInfo getRhythm(String rhythmId)
+    public synchronized RhythmInfo getRhythm(String rhythmId)
     {
         for (RhythmProvider rp : mapRpRhythms.keySet())
         {
@@ -272,7 +294,7 @@ public class RhythmDatabaseImpl implements RhythmDatabase, PropertyChangeListene
     }
 
     @Override
-    public List<RhythmInfo> getRhythms(Predicate<RhythmInfo> tester)
+    public synchronized List<RhythmInfo> getRhythms(Predicate<RhythmInfo> tester)
     {
         if (tester == null)
         {
@@ -325,7 +347,7 @@ public class RhythmDatabaseImpl implements RhythmDatabase, PropertyChangeListene
     }
 
     @Override
-    public Rhythm getRhythmInstance(String rId) throws UnavailableRhythmException
+    public synchronized Rhythm getRhythmInstance(String rId) throws UnavailableRhythmException
     {
         Rhythm r = null;
                 
@@ -372,7 +394,7 @@ public class RhythmDatabaseImpl implements RhythmDatabase, PropertyChangeListene
     }
 
     @Override
-    public AdaptedRhythm getAdaptedRhythmInstance(Rhythm r, TimeSignature ts)
+    public synchronized AdaptedRhythm getAdaptedRhythmInstance(Rhythm r, TimeSignature ts)
     {
         if (r == null || ts == null || r.getTimeSignature().equals(ts))
         {
@@ -405,7 +427,7 @@ public class RhythmDatabaseImpl implements RhythmDatabase, PropertyChangeListene
     }
 
     @Override
-    public List<RhythmInfo> getRhythms(RhythmProvider rp)
+    public synchronized List<RhythmInfo> getRhythms(RhythmProvider rp)
     {
         if (rp == null)
         {
@@ -557,7 +579,7 @@ public class RhythmDatabaseImpl implements RhythmDatabase, PropertyChangeListene
     }
 
     @Override
-    public int addExtraRhythms(List<RpRhythmPair> pairs)
+    public synchronized int addExtraRhythms(List<RpRhythmPair> pairs)
     {
         if (pairs == null)
         {
@@ -585,7 +607,7 @@ public class RhythmDatabaseImpl implements RhythmDatabase, PropertyChangeListene
     }
 
     @Override
-    public int size()
+    public synchronized int size()
     {
         int size = 0;
         for (RhythmProvider rp : mapRpRhythms.keySet())
@@ -641,13 +663,42 @@ public class RhythmDatabaseImpl implements RhythmDatabase, PropertyChangeListene
         String msg2 = ResUtil.getString(getClass(), "CTL_SavingRhythmDbCacheFile");
 
         // Perform a scan or use the cache file
-        if (needRescan || !cacheFilePresent)
+        if (!cacheFilePresent)
         {
             // Full scan
 
             // Get all rhythm instances from RhythmProviders
+            ph.progress(ResUtil.getString(getClass(), "CTL_ScanningAllBuiltinRhythms"));
+            addNewRhythmsFromRhythmProviders(false, true, false);
+            ph.progress(msg1);
+            scanFileRhythms(null, rDir, ph);
+
+            // Build and save cache file
+            ph.progress(msg2);
+            writeCache();
+
+        } else if (needRescan)
+        {
+            // Incremental scan: use the cache file to read only the new or modified rhythm files
+
+            // Scan only for builtin Rhythms
+            ph.progress(ResUtil.getString(getClass(), "CTL_ScanningAllBuiltinRhythms"));
+            addNewRhythmsFromRhythmProviders(false, true, false);
+
+            RhythmDbCache cache = null;
+            try
+            {
+                ph.progress(ResUtil.getString(getClass(), "CTL_ReadingRhythmDbCacheFile"));
+                cache = readCacheFile(false);     // Not memory-mapped since file will be overwritten by writeCache()
+            } catch (IOException ex)
+            {
+                // No need to notify user, we're rescanning anyway
+                LOGGER.warning("initDatabase() Can't load cache file, performing a full scan. ex=" + ex.getMessage());   //NOI18N
+            }
+
             ph.progress(msg1);
-            addNewRhythmsFromRhythmProviders(false, false, true);
+            boolean useCache = cache != null && cache.isIncrementalRescanPossible(rDir);
+            scanFileRhythms(useCache ? cache : null, rDir, ph);
 
             // Build and save cache file
             ph.progress(msg2);
@@ -665,7 +716,7 @@ public class RhythmDatabaseImpl implements RhythmDatabase, PropertyChangeListene
             try
             {
                 ph.progress(ResUtil.getString(getClass(), "CTL_ReadingRhythmDbCacheFile"));
-                readCache();
+                readCache(true);
 
             } catch (IOException ex)
             {
@@ -678,7 +729,7 @@ public class RhythmDatabaseImpl implements RhythmDatabase, PropertyChangeListene
                 // And start full scan!
                 // Get all rhythm instances from RhythmProviders, don't need built-in since we already have them
                 ph.progress(msg1);
-                addNewRhythmsFromRhythmProviders(true, false, true);
+                scanFileRhythms(null, rDir, ph);
 
                 // Rescan
                 ph.progress(msg2);
@@ -727,17 +778,7 @@ public class RhythmDatabaseImpl implements RhythmDatabase, PropertyChangeListene
 
 
             // Notify user of possible errors
-            if (builtinErrRpt.primaryErrorMessage != null)
-            {
-                SwingUtilities.invokeLater(new Runnable()
-                {
-                    @Override
-                    public void run()
-                    {
-                        new MultipleErrorsReportDialog(WindowManager.getDefault().getMainWindow(), ResUtil.getString(getClass(), "CTL_BuiltinRhythmErrors"), builtinErrRpt).setVisible(true);
-                    }
-                });
-            }
+            notifyErrors(ResUtil.getString(getClass(), "CTL_BuiltinRhythmErrors"), builtinErrRpt);
 
 
             // Add file rhythms
@@ -756,24 +797,184 @@ public class RhythmDatabaseImpl implements RhythmDatabase, PropertyChangeListene
 
 
             // Notify user of possible errors            
-            if (fileErrRpt.primaryErrorMessage != null)
+            notifyErrors(ResUtil.getString(getClass(), "CTL_FileBasedRhythmErrors"), fileErrRpt);
+
+        }
+
+        LOGGER.info("addNewRhythmsFromRhythmProviders() excludeBuiltinRhythms=" + excludeBuiltinRhythms //NOI18N
+                + " excludeFileRhythms=" + excludeFileRhythms + " forceFileRescan=" + forceFileRescan + ". Added " + n + " rhythms");
+
+        return n;
+    }
+
+    /**
+     * Scan the file-based rhythms, using the cache data if available.
+     * <p>
+     * For RhythmProviders which support rhythm files, rhythm files are listed in rDir and its subdirectories (see
+     * RhythmProvider.getFileRhythms()). If cache is non null, cached RhythmInfos are reused for unchanged files, and cached
+     * RhythmInfos of deleted files are discarded. The other files are read using RhythmProvider.readFast() on a pool of worker
+     * threads.<br>
+     * RhythmProviders which do not support rhythm files are asked directly for their file rhythms.
+     *
+     * @param cache If null all rhythm files are read
+     * @param rDir The user rhythm directory
+     * @param ph Updated with the scan progress
+     * @return The number of new rhythms added
+     */
+    private int scanFileRhythms(RhythmDbCache cache, File rDir, ProgressHandle ph)
+    {
+        int nbReused = 0;
+        int nbRead = 0;
+        int nbDeleted = 0;
+        long startTime = System.currentTimeMillis();
+        mapPathFingerprints.clear();
+
+
+        // Collect the files to be read
+        HashMap<RhythmProvider, List<File>> mapRpFiles = new HashMap<>();
+        var rps = getRhythmProviders();
+        for (RhythmProvider rp : rps)
+        {
+            String[] exts = rp.getSupportedFileExtensions();
+            if (exts.length == 0)
             {
-                SwingUtilities.invokeLater(new Runnable()
+                final MultipleErrorsReport fileErrRpt = new MultipleErrorsReport();
+                for (Rhythm r : rp.getFileRhythms(true, fileErrRpt))
                 {
-                    @Override
-                    public void run()
+                    if (addRhythm(rp, r))
                     {
-                        new MultipleErrorsReportDialog(WindowManager.getDefault().getMainWindow(), ResUtil.getString(getClass(), "CTL_FileBasedRhythmErrors"), fileErrRpt).setVisible(true);
+                        nbRead++;
                     }
-                });
+                }
+                notifyErrors(ResUtil.getString(getClass(), "CTL_FileBasedRhythmErrors"), fileErrRpt);
+                continue;
+            }
+
+            // Index cached rhythms by file
+            HashMap<String, List<RhythmInfo>> mapPathRhythms = new HashMap<>();
+            if (cache != null)
+            {
+                for (RhythmInfo ri : cache.getData().getOrDefault(rp.getInfo().getUniqueId(), new ArrayList<>()))
+                {
+                    mapPathRhythms.computeIfAbsent(ri.getFile().getAbsolutePath(), path -> new ArrayList<>()).add(ri);
+                }
+            }
+
+            // Reuse cached data or plan a read for each rhythm file
+            Set<String> extSet = new HashSet<>(Arrays.asList(exts));
+            List<Path> paths = new ArrayList<>(Utilities.listFiles(rDir,
+                    (dir, name) -> extSet.contains(Utilities.getExtension(name).toLowerCase()),
+                    RhythmProvider.PREFIX_IGNORED_SUBDIR,
+                    RhythmProvider.SUBDIR_MAX_DEPTH));
+            paths.sort(null);       // Keep a consistent database order
+            List<File> files = new ArrayList<>();
+            for (Path path : paths)
+            {
+                File f = path.toFile();
+                List<RhythmInfo> cachedRhythms = mapPathRhythms.remove(f.getAbsolutePath());
+                if (cachedRhythms != null && cache.isUpToDate(f))
+                {
+                    mapPathFingerprints.put(f.getAbsolutePath(), cache.getFingerprint(f));
+                    cachedRhythms.forEach(ri -> addRhythmInfo(rp, ri));
+                    nbReused += cachedRhythms.size();
+                } else
+                {
+                    files.add(f);
+                }
             }
+            mapRpFiles.put(rp, files);
 
+            // Remaining cached files were deleted
+            nbDeleted += mapPathRhythms.size();
         }
 
-        LOGGER.info("addNewRhythmsFromRhythmProviders() excludeBuiltinRhythms=" + excludeBuiltinRhythms //NOI18N
-                + " excludeFileRhythms=" + excludeFileRhythms + " forceFileRescan=" + forceFileRescan + ". Added " + n + " rhythms");
 
-        return n;
+        // Read the files in parallel
+        int nbFiles = mapRpFiles.values().stream().mapToInt(l -> l.size()).sum();
+        int nbThreads = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), MAX_SCAN_THREADS));
+        ExecutorService pool = Executors.newFixedThreadPool(nbThreads);
+        HashMap<RhythmProvider, List<Future<Rhythm>>> mapRpFutures = new HashMap<>();
+        for (RhythmProvider rp : mapRpFiles.keySet())
+        {
+            var futures = new ArrayList<Future<Rhythm>>();
+            for (File f : mapRpFiles.get(rp))
+            {
+                // Take the fingerprint before reading, so that a file modified during the scan is reread on next rescan
+                mapPathFingerprints.put(f.getAbsolutePath(), new RhythmDbCache.FileFingerprint(f));
+                futures.add(pool.submit(() -> rp.readFast(f)));
+            }
+            mapRpFutures.put(rp, futures);
+        }
+
+
+        // Collect the results, in file order
+        String msg = ResUtil.getString(getClass(), "CTL_ScanningAllRhythmsInDir", rDir.getAbsolutePath());
+        ph.switchToDeterminate(Math.max(1, nbFiles));
+        int progress = 0;
+        for (RhythmProvider rp : rps)
+        {
+            var futures = mapRpFutures.get(rp);
+            if (futures == null)
+            {
+                continue;
+            }
+            var files = mapRpFiles.get(rp);
+            final MultipleErrorsReport fileErrRpt = new MultipleErrorsReport();
+            for (int i = 0; i < futures.size(); i++)
+            {
+                File f = files.get(i);
+                try
+                {
+                    Rhythm r = futures.get(i).get();
+                    if (addRhythm(rp, r))
+                    {
+                        nbRead++;
+                    }
+                } catch (ExecutionException ex)
+                {
+                    Throwable cause = ex.getCause();
+                    LOGGER.warning("scanFileRhythms() Can't read file=" + f.getAbsolutePath() + ". ex=" + cause);   //NOI18N
+                    fileErrRpt.individualErrorMessages.add(f.getName() + ": " + cause.getLocalizedMessage());
+                } catch (InterruptedException ex)
+                {
+                    LOGGER.warning("scanFileRhythms() Interrupted while reading file=" + f.getAbsolutePath());   //NOI18N
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                ph.progress(msg, ++progress);
+            }
+
+            if (!fileErrRpt.individualErrorMessages.isEmpty())
+            {
+                fileErrRpt.primaryErrorMessage = ResUtil.getString(getClass(), "ERR_RhythmFilesNotRead", fileErrRpt.individualErrorMessages.size());
+                fileErrRpt.secondaryErrorMessage = rp.getInfo().getName();
+            }
+
+            // Notify user of possible errors
+            notifyErrors(ResUtil.getString(getClass(), "CTL_FileBasedRhythmErrors"), fileErrRpt);
+        }
+        Utilities.shutdownAndAwaitTermination(pool, 1000, 100);
+        ph.switchToIndeterminate();
+
+
+        LOGGER.info("scanFileRhythms() nbThreads=" + nbThreads + " nbReused=" + nbReused + " nbRead=" + nbRead + " nbDeleted=" + nbDeleted //NOI18N
+                + " time=" + (System.currentTimeMillis() - startTime) + "ms");
+
+        return nbReused + nbRead;
+    }
+
+    /**
+     * Show the errors to the user, if any.
+     *
+     * @param title
+     * @param errRpt
+     */
+    private void notifyErrors(String title, MultipleErrorsReport errRpt)
+    {
+        if (errRpt.primaryErrorMessage != null)
+        {
+            SwingUtilities.invokeLater(() -> new MultipleErrorsReportDialog(WindowManager.getDefault().getMainWindow(), title, errRpt).setVisible(true));
+        }
     }
 
     /**
@@ -782,16 +983,16 @@ public class RhythmDatabaseImpl implements RhythmDatabase, PropertyChangeListene
     private void writeCache()
     {
         // Buid the cache
-        RhythmDbCache cacheFile = new RhythmDbCache(mapRpRhythms);
+        RhythmDbCache cacheFile = new RhythmDbCache(mapRpRhythms, FileDirectoryManager.getInstance().getUserRhythmDirectory(),
+                mapPathFingerprints);
 
         // cacheFile.dump();
         // Save to file
         Runnable run = () ->
         {
-            File f = RhythmDbCache.getFile();
-            try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(f)))
+            try
             {
-                oos.writeObject(cacheFile);
+                cacheFile.writeToFile(RhythmDbCache.getFile());
                 prefs.putBoolean(PREF_NEED_RESCAN, false);
                 LOGGER.info("writeCache.run() cache file created, size=" + cacheFile.getSize());   //NOI18N
             } catch (IOException ex)
@@ -806,27 +1007,28 @@ public class RhythmDatabaseImpl implements RhythmDatabase, PropertyChangeListene
 
     }
 
+    /**
+     * Read the cache file.
+     *
+     * @param memoryMapped If true cache file is memory-mapped. Use false if the cache file might be overwritten while the returned
+     * object is used (a memory-mapped file can't be overwritten on Windows).
+     * @return
+     * @throws IOException
+     */
+    private RhythmDbCache readCacheFile(boolean memoryMapped) throws IOException
+    {
+        return RhythmDbCache.readFromFile(RhythmDbCache.getFile(), memoryMapped);
+    }
+
     /**
      * Read the cache file and update the database accordingly.
      *
-     * @param cache
-     * @return The number of added RhythmInfo instances
+     * @param memoryMapped
      */
-    private void readCache() throws IOException
+    private void readCache(boolean memoryMapped) throws IOException
     {
         // Read the file
-        File f = RhythmDbCache.getFile();
-        RhythmDbCache cache = null;
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(f)))
-        {
-            cache = (RhythmDbCache) ois.readObject();
-
-        } catch (ClassNotFoundException ex)
-        {
-            throw new IOException(ex);
-        }
-
-        assert cache != null;   //NOI18N
+        RhythmDbCache cache = readCacheFile(memoryMapped);
 
         // Process it
         var cacheData = cache.getData();
@@ -855,6 +1057,7 @@ public class RhythmDatabaseImpl implements RhythmDatabase, PropertyChangeListene
                 mapRpRhythms.put(rp, rpRhythms);
             }
             rpRhythms.addAll(rhythms);
+            rhythmInfoSet.addAll(rhythms);
         }
 
         // cache.dump();
@@ -883,7 +1086,7 @@ public class RhythmDatabaseImpl implements RhythmDatabase, PropertyChangeListene
             rhythms = new ArrayList<>();
             mapRpRhythms.put(rp, rhythms);
         }
-        if (!rhythms.contains(ri))
+        if (rhythmInfoSet.add(ri))
         {
             rhythms.add(ri);
             mapInfoInstance.put(ri, r);
@@ -894,6 +1097,26 @@ public class RhythmDatabaseImpl implements RhythmDatabase, PropertyChangeListene
         }
     }
 
+    /**
+     * Add to the database one RhythmInfo from RhythmProvider rp, without its Rhythm instance.
+     * <p>
+     * Do nothing if RhythmInfo already exists in the database for this rp.
+     *
+     * @param rp
+     * @param ri
+     * @return True if RhythmInfo was added.
+     */
+    private boolean addRhythmInfo(RhythmProvider rp, RhythmInfo ri)
+    {
+        List<RhythmInfo> rhythms = mapRpRhythms.computeIfAbsent(rp, k -> new ArrayList<>());
+        if (rhythmInfoSet.add(ri))
+        {
+            rhythms.add(ri);
+            return true;
+        }
+        return false;
+    }
+
     private String getPrefString(TimeSignature ts)
     {
         return PREF_DEFAULT_RHYTHM + "__" + ts.name();
@@ -22,27 +22,94 @@
  */
 package org.jjazz.rhythm.database;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
-import java.io.Serializable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.jjazz.filedirectorymanager.api.FileDirectoryManager;
+import org.jjazz.harmony.api.TimeSignature;
+import org.jjazz.midi.api.DrumKit;
+import org.jjazz.midi.api.Instrument;
+import org.jjazz.midi.api.keymap.KeyMapGM;
+import org.jjazz.midi.api.synths.GM1Bank;
+import org.jjazz.midi.api.synths.StdSynth;
+import org.jjazz.midi.spi.KeyMapProvider;
+import org.jjazz.rhythm.api.Beat;
+import org.jjazz.rhythm.api.Feel;
+import org.jjazz.rhythm.api.Genre;
+import org.jjazz.rhythm.api.Intensity;
+import org.jjazz.rhythm.api.RhythmFeatures;
+import org.jjazz.rhythm.api.RhythmVoice;
+import org.jjazz.rhythm.api.TempoRange;
 import org.jjazz.rhythm.database.api.RhythmInfo;
+import org.jjazz.rhythm.database.api.RhythmParameterInfo;
+import org.jjazz.rhythm.database.api.RhythmVoiceInfo;
 import org.jjazz.rhythm.spi.RhythmProvider;
 
 /**
- * Contains the serializable cached data of the RhythmDatabase.
+ * Contains the cached data of the RhythmDatabase.
  * <p>
+ * Also stores a fingerprint (size, last modification time) of each rhythm file, so that a rescan only needs to read the added or
+ * modified files.
+ * <p>
+ * Cache is saved in a versioned binary file:<br>
+ * - header: magic number, format version, number of strings, number of records, rhythm directory<br>
+ * - string table: each string used by the records (provider ids, authors, tags, genres, ...) is stored only once<br>
+ * - record index: for each RhythmInfo the offset of its record, its main data (provider id, unique id, name, file, time signature)
+ * and its file fingerprint<br>
+ * - records: the other RhythmInfo data.
+ * <p>
+ * When reading the file only the header, the string table and the record index are decoded. The RhythmInfo instances returned by
+ * getData() read their record from the (possibly memory-mapped) file buffer only when this data is needed.
  */
-public class RhythmDbCache implements Serializable
+public class RhythmDbCache
 {
 
-    private static final long serialVersionUID = 2922229276100L;
-    private static final String DB_CACHE_FILE = "RhythmDbCache.dat";
+    private static final String DB_CACHE_FILE = "RhythmDbCache.bin";
+    /**
+     * The Java-serialized cache file used before the binary format.
+     */
+    private static final String OLD_DB_CACHE_FILE = "RhythmDbCache.dat";
+    private static final int MAGIC = 0x4A4A5243;       // "JJRC"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 5 * 4;
+    private static final int INDEX_ENTRY_SIZE = 6 * 4 + 2 * 8;
+    private static final int NULL_STRING = -1;
 
-    private HashMap<String, List<RhythmInfo>> data = new HashMap<>();
+    private final HashMap<String, List<RhythmInfo>> data = new HashMap<>();
+    /**
+     * Key=file absolute path.
+     */
+    private final HashMap<String, FileFingerprint> fingerprints = new HashMap<>();
+    /**
+     * The absolute path of the user rhythm directory when cache was built.
+     */
+    private final String rhythmDirPath;
+    /**
+     * The file buffer, null if cache was not read from a file.
+     */
+    private ByteBuffer buffer;
+    /**
+     * The string table, null if cache was not read from a file.
+     */
+    private String[] strings;
     private static final Logger LOGGER = Logger.getLogger(RhythmDbCache.class.getSimpleName());
 
     /**
@@ -51,9 +118,14 @@ public class RhythmDbCache implements Serializable
      * Cache will contain only file-based RhythmInfo instances and no AdaptedRhythms.
      *
      * @param map
+     * @param rhythmDir The user rhythm directory used to build map
+     * @param fileFingerprints Key=file absolute path. The fingerprints of the rhythm files taken before they were read. A file
+     * without fingerprint is considered as modified on next rescan.
      */
-    public RhythmDbCache(HashMap<RhythmProvider, List<RhythmInfo>> map)
+    public RhythmDbCache(HashMap<RhythmProvider, List<RhythmInfo>> map, File rhythmDir, Map<String, FileFingerprint> fileFingerprints)
     {
+        rhythmDirPath = rhythmDir.getAbsolutePath();
+
         // Copy data : just change RhythmProvider by its id
         for (RhythmProvider rp : map.keySet())
         {
@@ -65,9 +137,229 @@ public class RhythmDbCache implements Serializable
             {
                 data.put(rp.getInfo().getUniqueId(), rhythms);
             }
+            for (RhythmInfo ri : rhythms)
+            {
+                String path = ri.getFile().getAbsolutePath();
+                fingerprints.put(path, fileFingerprints.getOrDefault(path, FileFingerprint.UNKNOWN));
+            }
         }
     }
 
+    /**
+     * Read the header, the string table and the record index of a cache file.
+     *
+     * @param buffer The cache file content
+     * @throws IOException If invalid data
+     */
+    private RhythmDbCache(ByteBuffer buffer) throws IOException
+    {
+        this.buffer = buffer;
+        try
+        {
+            // Header
+            if (buffer.getInt() != MAGIC)
+            {
+                throw new IOException("Invalid rhythm database cache file format");
+            }
+            int version = buffer.getInt();
+            if (version != VERSION)
+            {
+                throw new IOException("Unsupported rhythm database cache file version=" + version);
+            }
+            int nbStrings = buffer.getInt();
+            int nbRecords = buffer.getInt();
+            int rhythmDirIndex = buffer.getInt();
+
+
+            // String table
+            strings = new String[nbStrings];
+            for (int i = 0; i < nbStrings; i++)
+            {
+                byte[] bytes = new byte[buffer.getInt()];
+                buffer.get(bytes);
+                strings[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+            rhythmDirPath = getString(rhythmDirIndex);
+
+
+            // Record index
+            for (int i = 0; i < nbRecords; i++)
+            {
+                int offset = buffer.getInt();
+                String rpId = getString(buffer.getInt());
+                String uniqueId = getString(buffer.getInt());
+                String name = getString(buffer.getInt());
+                File file = new File(getString(buffer.getInt()));
+                TimeSignature ts = TimeSignature.valueOf(getString(buffer.getInt()));
+                long size = buffer.getLong();
+                long lastModified = buffer.getLong();
+
+                RhythmInfo ri = new RhythmInfoImpl(rpId, uniqueId, file, name, ts, this, offset);
+                data.computeIfAbsent(rpId, id -> new ArrayList<>()).add(ri);
+                fingerprints.put(file.getAbsolutePath(), new FileFingerprint(size, lastModified));
+            }
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException | NullPointerException ex)
+        {
+            throw new IOException("Corrupted rhythm database cache file. ex=" + ex, ex);
+        }
+    }
+
+    /**
+     * Read a cache file.
+     * <p>
+     * Only the header, the string table and the record index are read, the other RhythmInfo data will be read when needed.
+     *
+     * @param f
+     * @param memoryMapped If true the file is memory-mapped, otherwise the file content is copied in memory. Note that on some
+     * systems a memory-mapped file can't be overwritten as long as the mapping exists.
+     * @return
+     * @throws IOException
+     */
+    static public RhythmDbCache readFromFile(File f, boolean memoryMapped) throws IOException
+    {
+        ByteBuffer buf;
+        try (FileChannel fc = FileChannel.open(f.toPath(), StandardOpenOption.READ))
+        {
+            long size = fc.size();
+            if (size > Integer.MAX_VALUE)
+            {
+                throw new IOException("Rhythm database cache file too big, size=" + size);
+            }
+            if (memoryMapped)
+            {
+                buf = fc.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            } else
+            {
+                buf = ByteBuffer.allocate((int) size);
+                while (buf.hasRemaining() && fc.read(buf) >= 0)
+                {
+                    // Nothing
+                }
+                buf.flip();
+            }
+        }
+        return new RhythmDbCache(buf);
+    }
+
+    /**
+     * Save the cache in a file.
+     * <p>
+     * Data is first written to a temporary file which then replaces f.
+     *
+     * @param f
+     * @throws IOException
+     */
+    public void writeToFile(File f) throws IOException
+    {
+        LinkedHashMap<String, Integer> stringTable = new LinkedHashMap<>();
+        int rhythmDirIndex = getStringIndex(stringTable, rhythmDirPath);
+
+
+        // Encode the records and the record index
+        ByteArrayOutputStream recordsBytes = new ByteArrayOutputStream();
+        DataOutputStream recordsOut = new DataOutputStream(recordsBytes);
+        ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+        DataOutputStream indexOut = new DataOutputStream(indexBytes);
+        int nbRecords = 0;
+        for (String rpId : data.keySet())
+        {
+            for (RhythmInfo ri : data.get(rpId))
+            {
+                String path = ri.getFile().getAbsolutePath();
+                FileFingerprint fp = fingerprints.get(path);
+                indexOut.writeInt(recordsOut.size());       // Relative offset, fixed below
+                indexOut.writeInt(getStringIndex(stringTable, rpId));
+                indexOut.writeInt(getStringIndex(stringTable, ri.getUniqueId()));
+                indexOut.writeInt(getStringIndex(stringTable, ri.getName()));
+                indexOut.writeInt(getStringIndex(stringTable, path));
+                indexOut.writeInt(getStringIndex(stringTable, ri.getTimeSignature().name()));
+                indexOut.writeLong(fp.size);
+                indexOut.writeLong(fp.lastModified);
+                writeRecord(recordsOut, stringTable, ri);
+                nbRecords++;
+            }
+        }
+
+
+        // Encode the string table
+        ByteArrayOutputStream stringsBytes = new ByteArrayOutputStream();
+        DataOutputStream stringsOut = new DataOutputStream(stringsBytes);
+        for (String s : stringTable.keySet())
+        {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            stringsOut.writeInt(bytes.length);
+            stringsOut.write(bytes);
+        }
+
+
+        // Fix the record offsets now that we know the records start position
+        int recordsStart = HEADER_SIZE + stringsOut.size() + indexOut.size();
+        ByteBuffer index = ByteBuffer.wrap(indexBytes.toByteArray());
+        for (int i = 0; i < nbRecords; i++)
+        {
+            int pos = i * INDEX_ENTRY_SIZE;
+            index.putInt(pos, index.getInt(pos) + recordsStart);
+        }
+
+
+        // Write the file
+        File tmpFile = new File(f.getParentFile(), f.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile))))
+        {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(stringTable.size());
+            out.writeInt(nbRecords);
+            out.writeInt(rhythmDirIndex);
+            stringsBytes.writeTo(out);
+            out.write(index.array());
+            recordsBytes.writeTo(out);
+        }
+        Files.move(tmpFile.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+
+        // Remove the obsolete cache file if any
+        File oldFile = new File(f.getParentFile(), OLD_DB_CACHE_FILE);
+        if (oldFile.isFile() && !oldFile.delete())
+        {
+            LOGGER.warning("writeToFile() Can't delete obsolete cache file " + oldFile.getAbsolutePath());   //NOI18N
+        }
+    }
+
+    /**
+     * Check if the cache can be used to perform an incremental rescan of the specified rhythm directory.
+     *
+     * @param rhythmDir
+     * @return False if cache was built for another directory.
+     */
+    public boolean isIncrementalRescanPossible(File rhythmDir)
+    {
+        return rhythmDir.getAbsolutePath().equals(rhythmDirPath);
+    }
+
+    /**
+     * Check if file has not changed since cache was built.
+     *
+     * @param f
+     * @return False if file is unknown, or its size or last modification time has changed.
+     */
+    public boolean isUpToDate(File f)
+    {
+        FileFingerprint fp = fingerprints.get(f.getAbsolutePath());
+        return fp != null && fp.equals(new FileFingerprint(f));
+    }
+
+    /**
+     * The fingerprint of a file when cache was built.
+     *
+     * @param f
+     * @return Null if file is unknown
+     */
+    public FileFingerprint getFingerprint(File f)
+    {
+        return fingerprints.get(f.getAbsolutePath());
+    }
+
     /**
      * The cached data.
      * <p>
@@ -114,8 +406,251 @@ public class RhythmDbCache implements Serializable
         return new File(dir, DB_CACHE_FILE);
     }
 
+    /**
+     * Read the record of a RhythmInfo created from the record index, and update it.
+     * <p>
+     * If record data is invalid, default values are used.
+     *
+     * @param ri
+     * @param offset The record offset in the file
+     */
+    synchronized void readRecord(RhythmInfoImpl ri, int offset)
+    {
+        assert buffer != null : "ri=" + ri;   //NOI18N
+        ByteBuffer buf = buffer.duplicate();
+        buf.position(offset);
+        try
+        {
+            int nbTags = buf.getInt();
+            String[] tags = new String[nbTags];
+            for (int i = 0; i < nbTags; i++)
+            {
+                tags[i] = getString(buf.getInt());
+            }
+            String description = getString(buf.getInt());
+            String version = getString(buf.getInt());
+            String author = getString(buf.getInt());
+            int preferredTempo = buf.getInt();
+
+            Feel feel = toEnum(Feel.class, getString(buf.getInt()), Feel.UNKNOWN);
+            Beat beat = toEnum(Beat.class, getString(buf.getInt()), Beat.UNKNOWN);
+            Genre genre = toEnum(Genre.class, getString(buf.getInt()), Genre.UNKNOWN);
+            Intensity intensity = toEnum(Intensity.class, getString(buf.getInt()), Intensity.UNKNOWN);
+            TempoRange tempoRange = new TempoRange(buf.getInt(), buf.getInt(), getString(buf.getInt()));
+            RhythmFeatures features = new RhythmFeatures(feel, beat, genre, tempoRange, intensity);
+
+            boolean isAdaptedRhythm = buf.get() != 0;
+
+            int nbRvs = buf.getInt();
+            List<RhythmVoiceInfo> rvs = new ArrayList<>();
+            for (int i = 0; i < nbRvs; i++)
+            {
+                String name = getString(buf.getInt());
+                Instrument ins = readInstrument(getString(buf.getInt()), getString(buf.getInt()));
+                int channel = buf.getInt();
+                String kitType = getString(buf.getInt());
+                String keyMapName = getString(buf.getInt());
+                DrumKit kit = kitType == null ? null : readDrumKit(kitType, keyMapName);
+                RhythmVoice.Type type = RhythmVoice.Type.valueOf(getString(buf.getInt()));
+                rvs.add(new RhythmVoiceInfo(name, ins, channel, kit, type));
+            }
+
+            int nbRps = buf.getInt();
+            List<RhythmParameterInfo> rps = new ArrayList<>();
+            for (int i = 0; i < nbRps; i++)
+            {
+                rps.add(new RhythmParameterInfo(getString(buf.getInt()), getString(buf.getInt()), getString(buf.getInt())));
+            }
+
+            ri.setDetails(tags, description, version, author, preferredTempo, features, isAdaptedRhythm, rvs, rps);
+
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException | NullPointerException ex)
+        {
+            LOGGER.log(Level.WARNING, "readRecord() Invalid record for ri={0}, using default values. ex={1}", new Object[]   //NOI18N
+            {
+                ri.getName(), ex
+            });
+            ri.setDetails(new String[0], "", "", "", 120, new RhythmFeatures(), false, new ArrayList<>(), new ArrayList<>());
+        }
+    }
+
     // =========================================================================
     // Private methods
     // =========================================================================   
 
+    private String getString(int index)
+    {
+        return index == NULL_STRING ? null : strings[index];
+    }
+
+    private int getStringIndex(LinkedHashMap<String, Integer> stringTable, String s)
+    {
+        if (s == null)
+        {
+            return NULL_STRING;
+        }
+        return stringTable.computeIfAbsent(s, str -> stringTable.size());
+    }
+
+    private void writeRecord(DataOutputStream out, LinkedHashMap<String, Integer> stringTable, RhythmInfo ri) throws IOException
+    {
+        String[] tags = ri.getTags();
+        tags = tags == null ? new String[0] : tags;
+        out.writeInt(tags.length);
+        for (String tag : tags)
+        {
+            out.writeInt(getStringIndex(stringTable, tag));
+        }
+        out.writeInt(getStringIndex(stringTable, ri.getDescription()));
+        out.writeInt(getStringIndex(stringTable, ri.getVersion()));
+        out.writeInt(getStringIndex(stringTable, ri.getAuthor()));
+        out.writeInt(ri.getPreferredTempo());
+
+        RhythmFeatures features = ri.getFeatures() == null ? new RhythmFeatures() : ri.getFeatures();
+        out.writeInt(getStringIndex(stringTable, features.getFeel().name()));
+        out.writeInt(getStringIndex(stringTable, features.getBeat().name()));
+        out.writeInt(getStringIndex(stringTable, features.getGenre().name()));
+        out.writeInt(getStringIndex(stringTable, features.getIntensity().name()));
+        TempoRange tr = features.getTempoRange();
+        out.writeInt(tr.getMin());
+        out.writeInt(tr.getMax());
+        out.writeInt(getStringIndex(stringTable, tr.getName()));
+
+        out.writeByte(ri.isAdaptedRhythm() ? 1 : 0);
+
+        var rvs = ri.getRhythmVoiceInfos();
+        out.writeInt(rvs.size());
+        for (RhythmVoiceInfo rvi : rvs)
+        {
+            out.writeInt(getStringIndex(stringTable, rvi.getName()));
+            Instrument ins = rvi.getPreferredInstrument();
+            boolean hasSaveString = ins != null && ins.getBank() != null && ins.getBank().getMidiSynth() != null;
+            out.writeInt(getStringIndex(stringTable, hasSaveString ? ins.saveAsString() : null));
+            out.writeInt(getStringIndex(stringTable, ins != null ? ins.getPatchName() : null));
+            out.writeInt(rvi.getPreferredChannel());
+            DrumKit kit = rvi.getDrumKit();
+            out.writeInt(getStringIndex(stringTable, kit != null ? kit.getType().name() : null));
+            out.writeInt(getStringIndex(stringTable, kit != null ? kit.getKeyMap().getName() : null));
+            out.writeInt(getStringIndex(stringTable, rvi.getType().name()));
+        }
+
+        var rps = ri.getRhythmParametersInfos();
+        out.writeInt(rps.size());
+        for (RhythmParameterInfo rpi : rps)
+        {
+            out.writeInt(getStringIndex(stringTable, rpi.getDisplayName()));
+            out.writeInt(getStringIndex(stringTable, rpi.getDescription()));
+            out.writeInt(getStringIndex(stringTable, rpi.className()));
+        }
+    }
+
+    /**
+     * Retrieve an Instrument the same way than Instrument serialization does.
+     *
+     * @param saveString Can be null
+     * @param patchName Can be null
+     * @return Null if both parameters are null
+     */
+    private Instrument readInstrument(String saveString, String patchName)
+    {
+        if (saveString == null && patchName == null)
+        {
+            return null;
+        }
+        Instrument ins = saveString == null ? null : Instrument.loadFromString(saveString);
+        if (ins == null)
+        {
+            GM1Bank gm1Bank = StdSynth.getInstance().getGM1Bank();
+            ins = patchName == null ? null : gm1Bank.guessInstrument(patchName.trim());
+            if (ins == null)
+            {
+                ins = gm1Bank.getInstrument(0);
+            }
+            LOGGER.log(Level.WARNING, "readInstrument() Can not retrieve Instrument from string={0}, using instead GM1 Instrument={1}", new Object[]   //NOI18N
+            {
+                saveString, ins.getPatchName()
+            });
+        }
+        return ins;
+    }
+
+    /**
+     * Retrieve a DrumKit the same way than DrumKit serialization does.
+     */
+    private DrumKit readDrumKit(String type, String keyMapName)
+    {
+        DrumKit.KeyMap map = keyMapName == null ? null : KeyMapProvider.Util.getKeyMap(keyMapName);
+        if (map == null)
+        {
+            map = KeyMapGM.getInstance();
+            LOGGER.warning("readDrumKit() Can't find KeyMap from name=" + keyMapName + ". Using GM keymap instead.");   //NOI18N
+        }
+        return new DrumKit(DrumKit.Type.valueOf(type), map);
+    }
+
+    private <E extends Enum<E>> E toEnum(Class<E> enumClass, String name, E defaultValue)
+    {
+        try
+        {
+            return Enum.valueOf(enumClass, name);
+        } catch (IllegalArgumentException | NullPointerException ex)
+        {
+            return defaultValue;
+        }
+    }
+
+    // =========================================================================
+    // Private classes
+    // =========================================================================   
+
+    /**
+     * The size and last modification time of a file.
+     */
+    static public class FileFingerprint
+    {
+
+        /**
+         * A fingerprint which does not match any file.
+         */
+        static final FileFingerprint UNKNOWN = new FileFingerprint(-1, -1);
+        private final long size;
+        private final long lastModified;
+
+        /**
+         * Read the fingerprint of the file.
+         *
+         * @param f If f does not exist size and lastModified are 0.
+         */
+        public FileFingerprint(File f)
+        {
+            this(f.length(), f.lastModified());
+        }
+
+        FileFingerprint(long size, long lastModified)
+        {
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(size, lastModified);
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (this == obj)
+            {
+                return true;
+            }
+            if (obj == null || getClass() != obj.getClass())
+            {
+                return false;
+            }
+            final FileFingerprint other = (FileFingerprint) obj;
+            return size == other.size && lastModified == other.lastModified;
+        }
+    }
 }
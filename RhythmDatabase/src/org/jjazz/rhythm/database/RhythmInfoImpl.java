@@ -23,9 +23,10 @@
 package org.jjazz.rhythm.database;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
 import java.util.logging.Logger;
@@ -41,6 +42,12 @@ import org.jjazz.rhythm.database.api.RhythmVoiceInfo;
 import org.jjazz.rhythm.api.RhythmParameter;
 import org.jjazz.rhythm.spi.RhythmProvider;
 
+/**
+ * A RhythmInfo implementation.
+ * <p>
+ * An instance read from the RhythmDbCache only holds its main data (provider id, unique id, file, name, time signature): the
+ * other data are read from the cache when first needed.
+ */
 public class RhythmInfoImpl implements RhythmInfo, Serializable
 {
 
@@ -59,6 +66,11 @@ public class RhythmInfoImpl implements RhythmInfo, Serializable
     private boolean isAdaptedRhythm;
     private final List<RhythmVoiceInfo> cacheRvs = new ArrayList<>();
     private final List<RhythmParameterInfo> cacheRps = new ArrayList<>();
+    /**
+     * If not null, the cache from which the non-main data must be read.
+     */
+    private transient RhythmDbCache dbCache;
+    private transient int dbCacheOffset;
     private static final Logger LOGGER = Logger.getLogger(RhythmInfoImpl.class.getSimpleName());
 
     private RhythmInfoImpl()
@@ -100,6 +112,54 @@ public class RhythmInfoImpl implements RhythmInfo, Serializable
         }
     }
 
+    /**
+     * Constructs a RhythmInfo with only its main data, the other data will be read from the cache when needed.
+     *
+     * @param rhythmProviderId
+     * @param rhythmUniqueId
+     * @param file
+     * @param name
+     * @param ts
+     * @param dbCache
+     * @param dbCacheOffset The offset of the record in the cache
+     * @see RhythmDbCache#readRecord(org.jjazz.rhythm.database.RhythmInfoImpl, int)
+     */
+    RhythmInfoImpl(String rhythmProviderId, String rhythmUniqueId, File file, String name, TimeSignature ts, RhythmDbCache dbCache, int dbCacheOffset)
+    {
+        if (rhythmProviderId == null || rhythmUniqueId == null || file == null || name == null || ts == null || dbCache == null)
+        {
+            throw new IllegalArgumentException("rhythmProviderId=" + rhythmProviderId + " rhythmUniqueId=" + rhythmUniqueId + " file=" + file + " name=" + name + " ts=" + ts + " dbCache=" + dbCache);   //NOI18N
+        }
+        this.rhythmProviderId = rhythmProviderId;
+        this.rhythmUniqueId = rhythmUniqueId;
+        this.file = file;
+        this.name = name;
+        this.timeSignature = ts;
+        this.dbCache = dbCache;
+        this.dbCacheOffset = dbCacheOffset;
+    }
+
+    /**
+     * Set the non-main data.
+     * <p>
+     * Used by RhythmDbCache.
+     */
+    void setDetails(String[] tags, String description, String version, String author, int preferredTempo, RhythmFeatures features,
+            boolean isAdaptedRhythm, List<RhythmVoiceInfo> rvs, List<RhythmParameterInfo> rps)
+    {
+        this.tags = tags;
+        this.description = description;
+        this.version = version;
+        this.author = author;
+        this.preferredTempo = preferredTempo;
+        this.rhythmFeatures = features;
+        this.isAdaptedRhythm = isAdaptedRhythm;
+        cacheRvs.clear();
+        cacheRvs.addAll(rvs);
+        cacheRps.clear();
+        cacheRps.addAll(rps);
+    }
+
     /**
      * Check that this RhythmInfo object matches data from specified rhythm.
      * <p>
@@ -146,18 +206,21 @@ public class RhythmInfoImpl implements RhythmInfo, Serializable
     @Override
     public List<RhythmVoiceInfo> getRhythmVoiceInfos()
     {
+        loadDetails();
         return new ArrayList<>(cacheRvs);
     }
 
     @Override
     public List<RhythmParameterInfo> getRhythmParametersInfos()
     {
+        loadDetails();
         return new ArrayList<>(cacheRps);
     }
 
     @Override
     public RhythmFeatures getFeatures()
     {
+        loadDetails();
         return rhythmFeatures;
     }
 
@@ -182,12 +245,14 @@ public class RhythmInfoImpl implements RhythmInfo, Serializable
     @Override
     public String getDescription()
     {
+        loadDetails();
         return description;
     }
 
     @Override
     public int getPreferredTempo()
     {
+        loadDetails();
         return preferredTempo;
     }
 
@@ -206,18 +271,21 @@ public class RhythmInfoImpl implements RhythmInfo, Serializable
     @Override
     public String getAuthor()
     {
+        loadDetails();
         return author;
     }
 
     @Override
     public String getVersion()
     {
+        loadDetails();
         return version;
     }
 
     @Override
     public String[] getTags()
     {
+        loadDetails();
         return tags;
     }
 
@@ -225,6 +293,7 @@ public class RhythmInfoImpl implements RhythmInfo, Serializable
     @Override
     public boolean isAdaptedRhythm()
     {
+        loadDetails();
         return isAdaptedRhythm;
     }
 
@@ -235,6 +304,12 @@ public class RhythmInfoImpl implements RhythmInfo, Serializable
     }
 
 
+    /**
+     * Based only on the main data (rhythm provider id, unique id and file) which identify the rhythm, so that the other data don't
+     * need to be read from the cache.
+     *
+     * @return
+     */
     @Override
     public int hashCode()
     {
@@ -242,20 +317,16 @@ public class RhythmInfoImpl implements RhythmInfo, Serializable
         hash = 83 * hash + Objects.hashCode(this.rhythmProviderId);
         hash = 83 * hash + Objects.hashCode(this.rhythmUniqueId);
         hash = 83 * hash + Objects.hashCode(this.file);
-        hash = 83 * hash + Objects.hashCode(this.name);
-        hash = 83 * hash + Arrays.deepHashCode(this.tags);
-        hash = 83 * hash + Objects.hashCode(this.description);
-        hash = 83 * hash + Objects.hashCode(this.version);
-        hash = 83 * hash + Objects.hashCode(this.author);
-        hash = 83 * hash + Objects.hashCode(this.timeSignature);
-        hash = 83 * hash + this.preferredTempo;
-        hash = 83 * hash + Objects.hashCode(this.rhythmFeatures);
-        hash = 83 * hash + (this.isAdaptedRhythm ? 1 : 0);
-        hash = 83 * hash + Objects.hashCode(this.cacheRvs);
-        hash = 83 * hash + Objects.hashCode(this.cacheRps);
         return hash;
     }
 
+    /**
+     * Based only on the main data (rhythm provider id, unique id and file) which identify the rhythm, so that the other data don't
+     * need to be read from the cache.
+     *
+     * @param obj
+     * @return
+     */
     @Override
     public boolean equals(Object obj)
     {
@@ -272,14 +343,6 @@ public class RhythmInfoImpl implements RhythmInfo, Serializable
             return false;
         }
         final RhythmInfoImpl other = (RhythmInfoImpl) obj;
-        if (this.preferredTempo != other.preferredTempo)
-        {
-            return false;
-        }
-        if (this.isAdaptedRhythm != other.isAdaptedRhythm)
-        {
-            return false;
-        }
         if (!Objects.equals(this.rhythmProviderId, other.rhythmProviderId))
         {
             return false;
@@ -288,51 +351,28 @@ public class RhythmInfoImpl implements RhythmInfo, Serializable
         {
             return false;
         }
-        if (!Objects.equals(this.name, other.name))
-        {
-            return false;
-        }
-        if (!Objects.equals(this.description, other.description))
-        {
-            return false;
-        }
-        if (!Objects.equals(this.version, other.version))
-        {
-            return false;
-        }
-        if (!Objects.equals(this.author, other.author))
-        {
-            return false;
-        }
-        if (!Objects.equals(this.file, other.file))
-        {
-            return false;
-        }
-        if (!Arrays.deepEquals(this.tags, other.tags))
-        {
-            return false;
-        }
-        if (this.timeSignature != other.timeSignature)
-        {
-            return false;
-        }
-        if (!Objects.equals(this.rhythmFeatures, other.rhythmFeatures))
-        {
-            return false;
-        }
-        if (!Objects.equals(this.cacheRvs, other.cacheRvs))
-        {
-            return false;
-        }
-        if (!Objects.equals(this.cacheRps, other.cacheRps))
-        {
-            return false;
-        }
-        return true;
+        return Objects.equals(this.file, other.file);
     }
 
     // ===========================================================================================
     // Private methods
     // ===========================================================================================
+    /**
+     * Read the non-main data from the cache if not done yet.
+     */
+    private synchronized void loadDetails()
+    {
+        if (dbCache != null)
+        {
+            RhythmDbCache c = dbCache;
+            dbCache = null;
+            c.readRecord(this, dbCacheOffset);
+        }
+    }
 
+    private void writeObject(ObjectOutputStream out) throws IOException
+    {
+        loadDetails();
+        out.defaultWriteObject();
+    }
 }
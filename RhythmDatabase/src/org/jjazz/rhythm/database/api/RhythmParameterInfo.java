@@ -46,6 +46,13 @@ public class RhythmParameterInfo implements Serializable
         className = rp.getClass().getName();
     }
 
+    public RhythmParameterInfo(String displayName, String description, String className)
+    {
+        this.displayName = displayName;
+        this.description = description;
+        this.className = className;
+    }
+
     public String getDisplayName()
     {
         return displayName;
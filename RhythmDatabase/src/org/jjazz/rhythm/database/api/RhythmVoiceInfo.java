@@ -55,6 +55,15 @@ public class RhythmVoiceInfo implements Serializable
         type = rv.getType();
     }
 
+    public RhythmVoiceInfo(String name, Instrument instrument, int preferredChannel, DrumKit drumKit, Type type)
+    {
+        this.name = name;
+        this.instrument = instrument;
+        this.preferredChannel = preferredChannel;
+        this.drumKit = drumKit;
+        this.type = type;
+    }
+
     public String getName()
     {
         return name;
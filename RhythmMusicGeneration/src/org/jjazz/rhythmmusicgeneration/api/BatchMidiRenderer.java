@@ -0,0 +1,370 @@
+/*
+ *  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ *  Copyright @2019 Jerome Lelasseux. All rights reserved.
+ *
+ *  This file is part of the JJazzLabX software.
+ *
+ *  JJazzLabX is free software: you can redistribute it and/or modify
+ *  it under the terms of the Lesser GNU General Public License (LGPLv3)
+ *  as published by the Free Software Foundation, either version 3 of the License,
+ *  or (at your option) any later version.
+ *
+ *  JJazzLabX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with JJazzLabX.  If not, see <https://www.gnu.org/licenses/>
+ *
+ *  Contributor(s):
+ */
+package org.jjazz.rhythmmusicgeneration.api;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.jjazz.midimix.api.MidiMix;
+import org.jjazz.midimix.api.MidiMixManager;
+import org.jjazz.song.api.Song;
+import org.jjazz.song.api.SongFactory;
+import org.jjazz.songcontext.api.SongContext;
+import org.jjazz.util.api.Utilities;
+
+/**
+ * Render song files to Midi files without user interface.
+ * <p>
+ * Songs are loaded, generated and written by a bounded pool of worker threads. All songs share the rhythm instances of the
+ * default RhythmDatabase: rhythm resources are loaded once and are not released when a song is closed. The caller is
+ * responsible for making sure the RhythmDatabase is initialized before calling render().
+ * <p>
+ * One Result is produced per song file, with the load and generation times, or the error which prevented the rendering.
+ * <p>
+ * The Midi file name is the song file name with the Midi extension. When an output directory is used, the song files
+ * directory tree is reproduced in the output directory (relatively to the closest common directory of the song files), so that
+ * song files with the same name never overwrite each other.
+ */
+public class BatchMidiRenderer
+{
+
+    public static final String MIDI_EXTENSION = "mid";
+    private final int nbThreads;
+    private static final Logger LOGGER = Logger.getLogger(BatchMidiRenderer.class.getSimpleName());
+
+    /**
+     * The result of the rendering of one song file.
+     */
+    static public class Result
+    {
+
+        private final File songFile;
+        private final File midiFile;
+        private final long loadTimeMs;
+        private final long generationTimeMs;
+        private final Throwable error;
+
+        private Result(File songFile, File midiFile, long loadTimeMs, long generationTimeMs, Throwable error)
+        {
+            this.songFile = songFile;
+            this.midiFile = midiFile;
+            this.loadTimeMs = loadTimeMs;
+            this.generationTimeMs = generationTimeMs;
+            this.error = error;
+        }
+
+        public File getSongFile()
+        {
+            return songFile;
+        }
+
+        /**
+         * @return Null if song could not be loaded
+         */
+        public File getMidiFile()
+        {
+            return midiFile;
+        }
+
+        /**
+         * @return The time to load the song and its MidiMix.
+         */
+        public long getLoadTimeMs()
+        {
+            return loadTimeMs;
+        }
+
+        /**
+         * @return The time to generate the music and write the Midi file.
+         */
+        public long getGenerationTimeMs()
+        {
+            return generationTimeMs;
+        }
+
+        /**
+         * @return Null if rendering was successful
+         */
+        public Throwable getError()
+        {
+            return error;
+        }
+
+        public boolean isOk()
+        {
+            return error == null;
+        }
+
+        @Override
+        public String toString()
+        {
+            String res = songFile.getName() + ": load=" + loadTimeMs + "ms generation=" + generationTimeMs + "ms";
+            if (error != null)
+            {
+                res += " FAILED " + error.getClass().getSimpleName() + ": " + error.getMessage();
+            } else
+            {
+                res += " -> " + midiFile.getAbsolutePath();
+            }
+            return res;
+        }
+    }
+
+    /**
+     * Create a renderer using availableProcessors-1 worker threads.
+     */
+    public BatchMidiRenderer()
+    {
+        this(Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+    }
+
+    /**
+     * @param nbThreads The number of songs rendered concurrently. Must be &gt; 0.
+     */
+    public BatchMidiRenderer(int nbThreads)
+    {
+        checkArgument(nbThreads > 0, "nbThreads=%s", nbThreads);
+        this.nbThreads = nbThreads;
+    }
+
+    public int getNbThreads()
+    {
+        return nbThreads;
+    }
+
+    /**
+     * Render the specified song files to Midi files.
+     * <p>
+     * Block until all songs are rendered. A song rendering error does not stop the other renderings.
+     *
+     * @param songFiles
+     * @param outputDir The directory of the Midi files. If null the Midi file is created in the song file directory.
+     *                  Subdirectories are created if needed, see class doc.
+     * @param listener If not null, called from a worker thread each time a song is rendered.
+     * @return One Result per song file, in the songFiles order.
+     * @throws InterruptedException
+     */
+    public List<Result> render(List<File> songFiles, File outputDir, Consumer<Result> listener) throws InterruptedException
+    {
+        checkNotNull(songFiles);
+        checkArgument(outputDir == null || outputDir.isDirectory(), "outputDir=%s", outputDir);
+
+        LOGGER.log(Level.INFO, "render() -- nbSongs={0} outputDir={1} nbThreads={2}", new Object[]
+        {
+            songFiles.size(), outputDir, nbThreads
+        });
+
+        List<Result> res = new ArrayList<>();
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(nbThreads, r ->
+        {
+            Thread t = new Thread(r, "BatchMidiRenderer-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+
+        try
+        {
+            List<File> midiFiles = getMidiFiles(songFiles, outputDir);
+            List<Future<Result>> futures = new ArrayList<>();
+            for (int i = 0; i < songFiles.size(); i++)
+            {
+                File songFile = songFiles.get(i);
+                File midiFile = midiFiles.get(i);
+                futures.add(executor.submit(() ->
+                {
+                    Result r = render(songFile, midiFile);
+                    if (listener != null)
+                    {
+                        listener.accept(r);
+                    }
+                    return r;
+                }));
+            }
+
+            for (Future<Result> f : futures)
+            {
+                try
+                {
+                    res.add(f.get());
+                } catch (ExecutionException ex)
+                {
+                    // Should not happen, render(File, File) catches everything
+                    throw new IllegalStateException(ex.getCause());
+                }
+            }
+        } finally
+        {
+            executor.shutdownNow();
+        }
+
+        return res;
+    }
+
+    /**
+     * A multi-line human readable report of the specified results.
+     *
+     * @param results
+     * @return
+     */
+    static public String toReport(List<Result> results)
+    {
+        StringBuilder sb = new StringBuilder();
+        long loadTime = 0;
+        long generationTime = 0;
+        int nbFailed = 0;
+        for (Result r : results)
+        {
+            sb.append(r).append("\n");
+            loadTime += r.getLoadTimeMs();
+            generationTime += r.getGenerationTimeMs();
+            if (!r.isOk())
+            {
+                nbFailed++;
+            }
+        }
+        sb.append(String.format("songs=%d failed=%d total load=%dms total generation=%dms%n", results.size(), nbFailed, loadTime,
+                generationTime));
+        return sb.toString();
+    }
+
+    // ====================================================================================
+    // Private methods
+    // ====================================================================================
+    /**
+     * Compute a distinct Midi file for each song file.
+     *
+     * @param songFiles
+     * @param outputDir Can be null
+     * @return The Midi files in the songFiles order
+     */
+    private List<File> getMidiFiles(List<File> songFiles, File outputDir)
+    {
+        // The closest common directory of the song files
+        Path baseDir = null;
+        if (outputDir != null && !songFiles.isEmpty())
+        {
+            baseDir = getDir(songFiles.get(0));
+            for (File songFile : songFiles)
+            {
+                Path dir = getDir(songFile);
+                while (baseDir != null && !dir.startsWith(baseDir))
+                {
+                    baseDir = baseDir.getParent();
+                }
+            }
+        }
+
+
+        List<File> res = new ArrayList<>();
+        Set<File> usedFiles = new HashSet<>();
+        for (File songFile : songFiles)
+        {
+            Path dir;
+            if (outputDir == null)
+            {
+                dir = getDir(songFile);
+            } else if (baseDir == null)
+            {
+                // No common directory (e.g. different Windows drives)
+                dir = outputDir.toPath();
+            } else
+            {
+                dir = outputDir.toPath().resolve(baseDir.relativize(getDir(songFile)));
+            }
+
+            String name = Utilities.replaceExtension(songFile.getName(), "");
+            File midiFile = dir.resolve(name + "." + MIDI_EXTENSION).toFile();
+            for (int i = 2; !usedFiles.add(midiFile); i++)
+            {
+                // Same song file specified several times, or flattened directories
+                midiFile = dir.resolve(name + "-" + i + "." + MIDI_EXTENSION).toFile();
+            }
+            res.add(midiFile);
+        }
+
+        return res;
+    }
+
+    private Path getDir(File file)
+    {
+        return file.getAbsoluteFile().toPath().normalize().getParent();
+    }
+
+    private Result render(File songFile, File midiFile)
+    {
+        long t0 = System.currentTimeMillis();
+        long loadTime = 0;
+        Song song = null;
+        try
+        {
+            song = SongFactory.getInstance().createFromFile(songFile);
+            MidiMix midiMix = MidiMixManager.getInstance().findMix(song);
+            File dir = midiFile.getParentFile();
+            if (!dir.isDirectory() && !dir.mkdirs())
+            {
+                throw new IOException("Can't create directory " + dir.getAbsolutePath());   //NOI18N
+            }
+            loadTime = System.currentTimeMillis() - t0;
+
+
+            // Songs are already rendered in parallel
+            SongSequenceBuilder ssb = new SongSequenceBuilder(new SongContext(song, midiMix));
+            ssb.setParallelGeneration(false);
+            ssb.writeExportableMidiFile(midiFile, true, false);
+
+        } catch (Throwable ex)
+        {
+            // Catch everything (e.g. a buggy rhythm RuntimeException) so that other songs are rendered
+            LOGGER.log(Level.WARNING, "render() songFile={0} ex={1}", new Object[]
+            {
+                songFile.getAbsolutePath(), ex
+            });
+            long time = System.currentTimeMillis() - t0;
+            return song == null ? new Result(songFile, null, time, 0, ex) : new Result(songFile, midiFile, loadTime, time - loadTime, ex);
+        } finally
+        {
+            if (song != null)
+            {
+                // Keep the shared rhythm resources for the other songs
+                song.close(false);
+            }
+        }
+
+        return new Result(songFile, midiFile, loadTime, System.currentTimeMillis() - t0 - loadTime, null);
+    }
+}
@@ -0,0 +1,301 @@
+/*
+ *  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ * 
+ *  Copyright @2019 Jerome Lelasseux. All rights reserved.
+ *
+ *  This file is part of the JJazzLabX software.
+ *   
+ *  JJazzLabX is free software: you can redistribute it and/or modify
+ *  it under the terms of the Lesser GNU General Public License (LGPLv3) 
+ *  as published by the Free Software Foundation, either version 3 of the License, 
+ *  or (at your option) any later version.
+ *
+ *  JJazzLabX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with JJazzLabX.  If not, see <https://www.gnu.org/licenses/>
+ * 
+ *  Contributor(s): 
+ */
+package org.jjazz.rhythmmusicgeneration.api;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import java.util.Objects;
+import java.util.logging.Logger;
+import org.jjazz.leadsheet.chordleadsheet.api.item.ExtChordSymbol;
+import org.jjazz.phrase.api.NoteEvent;
+import org.jjazz.phrase.api.Phrase;
+import org.jjazz.phrase.api.PhraseSnapshot;
+
+/**
+ * A bounded cache of the results of the Phrases.fitXXXPhrase2ChordSymbol() methods.
+ * <p>
+ * The same source phrase is often fitted many times to the same destination chord symbol, e.g. in a AABA song where A sections
+ * share the same chord progression. The cache key is the source phrase instance (identity), the destination chord symbol
+ * (including its ChordRenderingInfo) and the fitting method.
+ * <p>
+ * The fitted phrases are cached and returned as shared immutable PhraseSnapshots, so that a cache hit does not allocate anything.
+ * Callers shift them into position with getShiftedPhrase(), which makes the only copy. Source phrases must not be modified once
+ * used with the cache.
+ * <p>
+ * This class is thread-safe.
+ */
+public class FittedPhraseCache
+{
+
+    public static final int DEFAULT_MAX_SIZE = 2000;
+    private static FittedPhraseCache INSTANCE;
+    private final LoadingCache<Key, PhraseSnapshot> cache;
+    private final int maxSize;
+    private static final Logger LOGGER = Logger.getLogger(FittedPhraseCache.class.getSimpleName());
+
+    /**
+     * The shared instance, with a DEFAULT_MAX_SIZE size.
+     *
+     * @return
+     */
+    static public synchronized FittedPhraseCache getInstance()
+    {
+        if (INSTANCE == null)
+        {
+            INSTANCE = new FittedPhraseCache(DEFAULT_MAX_SIZE);
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Create a cache.
+     *
+     * @param maxSize The max. number of fitted phrases kept. The least recently used phrases are discarded first.
+     */
+    public FittedPhraseCache(int maxSize)
+    {
+        checkArgument(maxSize > 0, "maxSize=%s", maxSize);
+        this.maxSize = maxSize;
+        cache = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .recordStats()
+                .build(new CacheLoader<Key, PhraseSnapshot>()
+                {
+                    @Override
+                    public PhraseSnapshot load(Key key)
+                    {
+                        return PhraseSnapshot.of(key.fit());
+                    }
+                });
+    }
+
+    public int getMaxSize()
+    {
+        return maxSize;
+    }
+
+    /**
+     * Cached version of Phrases.fitMelodyPhrase2ChordSymbol().
+     *
+     * @param pSrc
+     * @param ecsDest
+     * @param chordMode
+     * @return The shared fitted phrase
+     * @see Phrases#fitMelodyPhrase2ChordSymbol(org.jjazz.rhythmmusicgeneration.api.SourcePhrase,
+     * org.jjazz.leadsheet.chordleadsheet.api.item.ExtChordSymbol, boolean)
+     */
+    public PhraseSnapshot getMelodyPhrase(SourcePhrase pSrc, ExtChordSymbol ecsDest, boolean chordMode)
+    {
+        return get(new Key(chordMode ? FitMethod.MELODY_CHORD_MODE : FitMethod.MELODY, pSrc, ecsDest));
+    }
+
+    /**
+     * Cached version of Phrases.fitBassPhrase2ChordSymbol().
+     *
+     * @param pSrc
+     * @param ecsDest
+     * @return The shared fitted phrase
+     * @see Phrases#fitBassPhrase2ChordSymbol(org.jjazz.rhythmmusicgeneration.api.SourcePhrase,
+     * org.jjazz.leadsheet.chordleadsheet.api.item.ExtChordSymbol)
+     */
+    public PhraseSnapshot getBassPhrase(SourcePhrase pSrc, ExtChordSymbol ecsDest)
+    {
+        return get(new Key(FitMethod.BASS, pSrc, ecsDest));
+    }
+
+    /**
+     * Cached version of Phrases.fitChordPhrase2ChordSymbol().
+     *
+     * @param pSrc
+     * @param ecsDest
+     * @return The shared fitted phrase
+     * @see Phrases#fitChordPhrase2ChordSymbol(org.jjazz.rhythmmusicgeneration.api.SourcePhrase,
+     * org.jjazz.leadsheet.chordleadsheet.api.item.ExtChordSymbol)
+     */
+    public PhraseSnapshot getChordPhrase(SourcePhrase pSrc, ExtChordSymbol ecsDest)
+    {
+        return get(new Key(FitMethod.CHORD, pSrc, ecsDest));
+    }
+
+    /**
+     * Get a new phrase with the notes of a phrase shifted to the specified position.
+     *
+     * @param p
+     * @param shiftInBeats
+     * @return A new phrase which can be modified.
+     */
+    static public Phrase getShiftedPhrase(Phrase p, float shiftInBeats)
+    {
+        return getShiftedPhrase(p, p.getChannel(), p.size(), shiftInBeats);
+    }
+
+    /**
+     * Get a new phrase with the notes of a cached fitted phrase shifted to the specified position.
+     *
+     * @param p
+     * @param shiftInBeats
+     * @return A new phrase which can be modified.
+     */
+    static public Phrase getShiftedPhrase(PhraseSnapshot p, float shiftInBeats)
+    {
+        return getShiftedPhrase(p, p.getChannel(), p.size(), shiftInBeats);
+    }
+
+    /**
+     * Remove all the cached phrases.
+     * <p>
+     * Statistics are not reset.
+     */
+    public void clear()
+    {
+        cache.invalidateAll();
+    }
+
+    /**
+     * @return The number of cached phrases.
+     */
+    public long size()
+    {
+        return cache.size();
+    }
+
+    public long getHitCount()
+    {
+        return cache.stats().hitCount();
+    }
+
+    public long getMissCount()
+    {
+        return cache.stats().missCount();
+    }
+
+    /**
+     * @return A value between 0 and 1. 1 if no request made yet.
+     */
+    public double getHitRate()
+    {
+        return cache.stats().hitRate();
+    }
+
+    @Override
+    public String toString()
+    {
+        CacheStats stats = cache.stats();
+        return String.format("FittedPhraseCache[size=%d/%d hits=%d misses=%d hitRate=%.1f%% evictions=%d]", cache.size(), maxSize,
+                stats.hitCount(), stats.missCount(), stats.hitRate() * 100, stats.evictionCount());
+    }
+
+    // =================================================================================================
+    // Private methods
+    // =================================================================================================
+    private PhraseSnapshot get(Key key)
+    {
+        PhraseSnapshot res = cache.getUnchecked(key);
+        LOGGER.finest("get() key=" + key + " => " + this);   //NOI18N
+        return res;
+    }
+
+    static private Phrase getShiftedPhrase(Iterable<NoteEvent> notes, int channel, int size, float shiftInBeats)
+    {
+        Phrase res = new Phrase(channel);
+        res.ensureCapacity(size);
+        for (NoteEvent ne : notes)
+        {
+            res.add(new NoteEvent(ne, ne.getDurationInBeats(), ne.getPositionInBeats() + shiftInBeats));      // Don't need addOrdered here
+        }
+        return res;
+    }
+
+    // =================================================================================================
+    // Private classes
+    // =================================================================================================
+    private enum FitMethod
+    {
+        MELODY, MELODY_CHORD_MODE, BASS, CHORD
+    }
+
+    private static class Key
+    {
+
+        private final FitMethod method;
+        private final SourcePhrase pSrc;
+        private final ExtChordSymbol ecsDest;
+        private final int hashCode;
+
+        private Key(FitMethod method, SourcePhrase pSrc, ExtChordSymbol ecsDest)
+        {
+            checkArgument(pSrc != null && ecsDest != null, "pSrc=%s ecsDest=%s", pSrc, ecsDest);
+            this.method = method;
+            this.pSrc = pSrc;
+            this.ecsDest = ecsDest;
+            hashCode = Objects.hash(method, System.identityHashCode(pSrc), ecsDest);
+        }
+
+        private Phrase fit()
+        {
+            switch (method)
+            {
+                case MELODY:
+                    return Phrases.fitMelodyPhrase2ChordSymbol(pSrc, ecsDest, false);
+                case MELODY_CHORD_MODE:
+                    return Phrases.fitMelodyPhrase2ChordSymbol(pSrc, ecsDest, true);
+                case BASS:
+                    return Phrases.fitBassPhrase2ChordSymbol(pSrc, ecsDest);
+                case CHORD:
+                    return Phrases.fitChordPhrase2ChordSymbol(pSrc, ecsDest);
+                default:
+                    throw new IllegalStateException("method=" + method);   //NOI18N
+            }
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (this == obj)
+            {
+                return true;
+            }
+            if (obj == null || getClass() != obj.getClass())
+            {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return method == other.method && pSrc == other.pSrc && ecsDest.equals(other.ecsDest);
+        }
+
+        @Override
+        public String toString()
+        {
+            return method + "-" + ecsDest + "-pSrc@" + Integer.toHexString(System.identityHashCode(pSrc));
+        }
+    }
+}
@@ -64,6 +64,8 @@ public class Phrases
      * @param ecsDest The destination extended chord symbol.
      * @param chordMode True if source phrase is a chord phrase for which we want the melodic handling.
      * @return A new phrase with destination notes.
+     * @see FittedPhraseCache#getMelodyPhrase(org.jjazz.rhythmmusicgeneration.api.SourcePhrase,
+     * org.jjazz.leadsheet.chordleadsheet.api.item.ExtChordSymbol, boolean)
      */
     static public Phrase fitMelodyPhrase2ChordSymbol(SourcePhrase pSrc, ExtChordSymbol ecsDest, boolean chordMode)
     {
@@ -137,6 +139,8 @@ public class Phrases
      * @param pSrc The source phrase
      * @param ecsDest The destination extended chord symbol.
      * @return A new phrase with destination notes.
+     * @see FittedPhraseCache#getBassPhrase(org.jjazz.rhythmmusicgeneration.api.SourcePhrase,
+     * org.jjazz.leadsheet.chordleadsheet.api.item.ExtChordSymbol)
      */
     static public Phrase fitBassPhrase2ChordSymbol(SourcePhrase pSrc, ExtChordSymbol ecsDest)
     {
@@ -232,6 +236,8 @@ public class Phrases
      * @param ecsDest The destination extended chord symbol.
      * @return A new phrase with destination notes.
      * @todo Optimize!!
+     * @see FittedPhraseCache#getChordPhrase(org.jjazz.rhythmmusicgeneration.api.SourcePhrase,
+     * org.jjazz.leadsheet.chordleadsheet.api.item.ExtChordSymbol)
      */
     static public Phrase fitChordPhrase2ChordSymbol(SourcePhrase pSrc, ExtChordSymbol ecsDest)
     {
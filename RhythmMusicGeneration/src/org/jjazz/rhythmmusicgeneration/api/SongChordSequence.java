@@ -86,7 +86,7 @@ public class SongChordSequence extends ChordSequence
             RP_SYS_Marker rpMarker = RP_SYS_Marker.getMarkerRp(spt.getRhythm());
             String sptMarker = (rpMarker == null) ? null : spt.getRPValue(rpMarker);
 
-            for (CLI_ChordSymbol cliCs : cls.getItems(clsRange.from, clsRange.to, CLI_ChordSymbol.class))
+            for (CLI_ChordSymbol cliCs : cls.getItemsView(clsRange.from, clsRange.to, CLI_ChordSymbol.class))
             {
                 Position pos = cliCs.getPosition();
                 ExtChordSymbol ecs = cliCs.getData();
@@ -118,7 +118,7 @@ public class SongChordSequence extends ChordSequence
             SongPart spt0 = getSongParts().get(0);
             IntRange clsRange = toClsRange(spt0);
             assert clsRange.from > 0 : "clsRange=" + clsRange;   //NOI18N
-            List<? extends CLI_ChordSymbol> items = cls.getItems(0, clsRange.from - 1, CLI_ChordSymbol.class);
+            List<? extends CLI_ChordSymbol> items = cls.getItemsView(0, clsRange.from - 1, CLI_ChordSymbol.class);
             CLI_ChordSymbol prevCliCs = items.get(items.size() - 1);        // Take the last chord before the range
             CLI_ChordSymbol newCs = getInitCopy(prevCliCs);
             add(0, newCs);      // Add at first position                    
@@ -0,0 +1,320 @@
+/*
+ *  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ * 
+ *  Copyright @2019 Jerome Lelasseux. All rights reserved.
+ *
+ *  This file is part of the JJazzLabX software.
+ *   
+ *  JJazzLabX is free software: you can redistribute it and/or modify
+ *  it under the terms of the Lesser GNU General Public License (LGPLv3) 
+ *  as published by the Free Software Foundation, either version 3 of the License, 
+ *  or (at your option) any later version.
+ *
+ *  JJazzLabX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with JJazzLabX.  If not, see <https://www.gnu.org/licenses/>
+ * 
+ *  Contributor(s): 
+ */
+package org.jjazz.rhythmmusicgeneration.api;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.logging.Logger;
+import org.jjazz.harmony.api.TimeSignature;
+import org.jjazz.leadsheet.chordleadsheet.api.item.CLI_ChordSymbol;
+import org.jjazz.leadsheet.chordleadsheet.api.item.Position;
+import org.jjazz.midimix.api.MidiMix;
+import org.jjazz.phrase.api.Phrase;
+import org.jjazz.rhythm.api.Rhythm;
+import org.jjazz.rhythm.api.RhythmParameter;
+import org.jjazz.rhythm.api.RhythmVoice;
+import org.jjazz.rhythm.api.RhythmVoiceDelegate;
+import org.jjazz.songcontext.api.SongContext;
+import org.jjazz.songstructure.api.SongPart;
+import org.jjazz.util.api.IntRange;
+
+/**
+ * A bounded cache of the phrases generated for a SongPart, for the rhythms whose MusicGenerator.isSongPartCacheable() is true.
+ * <p>
+ * The cache key is the SongPart content which determines the generated music: rhythm, rhythm parameter values, chord symbols
+ * (relative to the SongPart start), time signature, song tempo and Midi channels. So the phrases of the 2nd A section of a AABA
+ * song, or of the unchanged song parts when a song is regenerated after an edit, can be reused without calling the
+ * MusicGenerator.
+ * <p>
+ * Phrases are stored relative to the SongPart start (beat 0), get() returns new phrases shifted to the SongPart position.
+ * <p>
+ * This class is thread-safe.
+ *
+ * @see org.jjazz.rhythmmusicgeneration.spi.MusicGenerator#isSongPartCacheable()
+ */
+public class SongPartPhraseCache
+{
+
+    public static final int DEFAULT_MAX_SIZE = 500;
+    private static SongPartPhraseCache INSTANCE;
+    private final Cache<Key, List<Phrase>> cache;
+    private final int maxSize;
+    private volatile boolean isEnabled = true;
+    private static final Logger LOGGER = Logger.getLogger(SongPartPhraseCache.class.getSimpleName());
+
+    /**
+     * The shared instance, with a DEFAULT_MAX_SIZE size.
+     *
+     * @return
+     */
+    static public synchronized SongPartPhraseCache getInstance()
+    {
+        if (INSTANCE == null)
+        {
+            INSTANCE = new SongPartPhraseCache(DEFAULT_MAX_SIZE);
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Create a cache.
+     *
+     * @param maxSize The max. number of song parts kept. The least recently used song parts are discarded first.
+     */
+    public SongPartPhraseCache(int maxSize)
+    {
+        checkArgument(maxSize > 0, "maxSize=%s", maxSize);
+        this.maxSize = maxSize;
+        cache = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .recordStats()
+                .build();
+    }
+
+    public int getMaxSize()
+    {
+        return maxSize;
+    }
+
+    public boolean isEnabled()
+    {
+        return isEnabled;
+    }
+
+    /**
+     * Enable or disable the cache.
+     * <p>
+     * When disabled, SongSequenceBuilder always calls the MusicGenerators. Cached phrases are removed.
+     *
+     * @param b
+     */
+    public void setEnabled(boolean b)
+    {
+        isEnabled = b;
+        if (!b)
+        {
+            clear();
+        }
+    }
+
+    /**
+     * Get the phrases previously generated for a song part with the same content.
+     *
+     * @param context
+     * @param spt A SongPart of the context
+     * @return Null if not in the cache. Otherwise new phrases, one per RhythmVoice of the spt rhythm, with notes positioned in the
+     * context beat range of spt.
+     */
+    public Map<RhythmVoice, Phrase> get(SongContext context, SongPart spt)
+    {
+        List<Phrase> phrases = cache.getIfPresent(new Key(context, spt));
+        LOGGER.finest("get() spt=" + spt + " => " + this);   //NOI18N
+        if (phrases == null)
+        {
+            return null;
+        }
+
+        Map<RhythmVoice, Phrase> res = new HashMap<>();
+        float sptStartBeat = context.getSptBeatRange(spt).from;
+        List<RhythmVoice> rvs = spt.getRhythm().getRhythmVoices();
+        for (int i = 0; i < rvs.size(); i++)
+        {
+            res.put(rvs.get(i), FittedPhraseCache.getShiftedPhrase(phrases.get(i), sptStartBeat));
+        }
+        return res;
+    }
+
+    /**
+     * Store the phrases generated for a song part.
+     *
+     * @param context
+     * @param spt A SongPart of the context
+     * @param phrases One phrase for each RhythmVoice of the spt rhythm, with notes positioned in the context beat range of spt.
+     * Phrases are copied.
+     */
+    public void put(SongContext context, SongPart spt, Map<RhythmVoice, Phrase> phrases)
+    {
+        checkNotNull(phrases);
+        float sptStartBeat = context.getSptBeatRange(spt).from;
+        List<Phrase> relPhrases = new ArrayList<>();
+        for (RhythmVoice rv : spt.getRhythm().getRhythmVoices())
+        {
+            Phrase p = phrases.get(rv);
+            checkArgument(p != null, "spt=%s rv=%s phrases=%s", spt, rv, phrases);
+            relPhrases.add(FittedPhraseCache.getShiftedPhrase(p, -sptStartBeat));
+        }
+        cache.put(new Key(context, spt), relPhrases);
+    }
+
+    /**
+     * Remove all the cached phrases.
+     * <p>
+     * Statistics are not reset.
+     */
+    public void clear()
+    {
+        cache.invalidateAll();
+    }
+
+    /**
+     * @return The number of cached song parts.
+     */
+    public long size()
+    {
+        return cache.size();
+    }
+
+    public long getHitCount()
+    {
+        return cache.stats().hitCount();
+    }
+
+    public long getMissCount()
+    {
+        return cache.stats().missCount();
+    }
+
+    /**
+     * @return A value between 0 and 1. 1 if no request made yet.
+     */
+    public double getHitRate()
+    {
+        return cache.stats().hitRate();
+    }
+
+    @Override
+    public String toString()
+    {
+        CacheStats stats = cache.stats();
+        return String.format("SongPartPhraseCache[size=%d/%d hits=%d misses=%d hitRate=%.1f%% evictions=%d]", cache.size(), maxSize,
+                stats.hitCount(), stats.missCount(), stats.hitRate() * 100, stats.evictionCount());
+    }
+
+    // =================================================================================================
+    // Private classes
+    // =================================================================================================
+    /**
+     * The SongPart content.
+     */
+    private static class Key
+    {
+
+        private final String rhythmId;
+        private final List<Object> rpValues = new ArrayList<>();
+        private final TimeSignature ts;
+        private final int tempo;
+        private final int barOffset;
+        private final int nbBars;
+        private final List<Object> chords = new ArrayList<>();
+        private final int[] channels;
+        private final int hashCode;
+
+        private Key(SongContext context, SongPart spt)
+        {
+            checkNotNull(context);
+            checkNotNull(spt);
+            Rhythm r = spt.getRhythm();
+            rhythmId = r.getUniqueId();
+            for (RhythmParameter<?> rp : r.getRhythmParameters())
+            {
+                rpValues.add(spt.getRPValue(rp));
+            }
+            ts = r.getTimeSignature();
+            tempo = context.getSong().getTempo();
+
+
+            // The part of spt in the context
+            IntRange sptRange = context.getSptBarRange(spt);
+            checkArgument(!sptRange.isEmpty(), "context=%s spt=%s", context, spt);
+            barOffset = sptRange.from - spt.getStartBarIndex();
+            nbBars = sptRange.size();
+
+
+            // Chord symbols relative to the start of the range
+            var cSeq = new SongChordSequence(context.getSong(), sptRange);
+            for (CLI_ChordSymbol cliCs : cSeq)
+            {
+                Position pos = cliCs.getPosition();
+                chords.add(new Position(pos.getBar() - sptRange.from, pos.getBeat()));
+                chords.add(cliCs.getData());
+            }
+
+
+            // Channels
+            MidiMix mm = context.getMidiMix();
+            var rvs = r.getRhythmVoices();
+            channels = new int[rvs.size()];
+            for (int i = 0; i < channels.length; i++)
+            {
+                RhythmVoice rv = rvs.get(i);
+                channels[i] = mm.getChannel(rv instanceof RhythmVoiceDelegate ? ((RhythmVoiceDelegate) rv).getSource() : rv);
+            }
+
+            hashCode = Objects.hash(rhythmId, rpValues, ts, tempo, barOffset, nbBars, chords, Arrays.hashCode(channels));
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (this == obj)
+            {
+                return true;
+            }
+            if (obj == null || getClass() != obj.getClass())
+            {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return hashCode == other.hashCode
+                    && tempo == other.tempo
+                    && barOffset == other.barOffset
+                    && nbBars == other.nbBars
+                    && ts == other.ts
+                    && rhythmId.equals(other.rhythmId)
+                    && Arrays.equals(channels, other.channels)
+                    && rpValues.equals(other.rpValues)
+                    && chords.equals(other.chords);
+        }
+
+        @Override
+        public String toString()
+        {
+            return rhythmId + "-" + ts + "-" + tempo + "-bars[" + barOffset + "+" + nbBars + "]-" + chords;
+        }
+    }
+}
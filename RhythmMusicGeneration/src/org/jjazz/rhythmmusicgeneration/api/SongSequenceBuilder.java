@@ -27,13 +27,21 @@ import org.jjazz.phrase.api.Phrase;
 import org.jjazz.phrase.api.NoteEvent;
 import org.jjazz.songcontext.api.SongContext;
 import org.jjazz.rhythm.api.MusicGenerationException;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
@@ -55,6 +63,7 @@ import org.jjazz.midi.api.InstrumentMix;
 import org.jjazz.midi.api.InstrumentSettings;
 import org.jjazz.midi.api.MidiConst;
 import org.jjazz.midi.api.MidiUtilities;
+import org.jjazz.midi.api.StreamingMidiFileWriter;
 import org.jjazz.midi.api.keymap.KeyMapGM;
 import org.jjazz.midimix.api.MidiMix;
 import org.jjazz.midimix.api.UserRhythmVoice;
@@ -102,11 +111,15 @@ public class SongSequenceBuilder
 
 
     private SongContext songContext;
+    private boolean parallelGeneration;
+    private static boolean defaultParallelGeneration = false;
+    private static ForkJoinPool generationPool;
 
     private static final Logger LOGGER = Logger.getLogger(SongSequenceBuilder.class.getSimpleName());
 
     /**
      * @param context The songContext to build the sequence. Song's SongStructure can not be empty.
+     * @see #isDefaultParallelGeneration()
      */
     public SongSequenceBuilder(SongContext context)
     {
@@ -115,9 +128,58 @@ public class SongSequenceBuilder
             throw new NullPointerException("context");   //NOI18N
         }
         this.songContext = context;
+        this.parallelGeneration = defaultParallelGeneration;
         assert !context.getSong().getSongStructure().getSongParts().isEmpty();   //NOI18N
     }
 
+    /**
+     * The parallel generation mode used by new SongSequenceBuilder instances.
+     *
+     * @return False by default.
+     * @see #setParallelGeneration(boolean)
+     */
+    static public boolean isDefaultParallelGeneration()
+    {
+        return defaultParallelGeneration;
+    }
+
+    /**
+     * Set the parallel generation mode used by new SongSequenceBuilder instances.
+     *
+     * @param b
+     * @see #setParallelGeneration(boolean)
+     */
+    static public void setDefaultParallelGeneration(boolean b)
+    {
+        defaultParallelGeneration = b;
+    }
+
+    /**
+     * Enable or disable the parallel generation mode.
+     * <p>
+     * In parallel mode, buildMapRvPhrase() asks independent rhythms to generate their music concurrently (an AdaptedRhythm is
+     * always generated in the same task than its source rhythm), then performs the per-RhythmVoice post-processing of the phrases
+     * concurrently. Tasks are run on a shared bounded ForkJoinPool and results are merged in a fixed order, so the generated
+     * phrases are the same than in sequential mode.
+     * <p>
+     * Rhythms' MusicGenerator implementations must support being called concurrently for different rhythms.
+     *
+     * @param b
+     */
+    public void setParallelGeneration(boolean b)
+    {
+        parallelGeneration = b;
+    }
+
+    /**
+     * @return
+     * @see #setParallelGeneration(boolean)
+     */
+    public boolean isParallelGeneration()
+    {
+        return parallelGeneration;
+    }
+
     /**
      * Built the Midi track name from the specified parameters.
      *
@@ -272,6 +334,133 @@ public class SongSequenceBuilder
 
 
         // ========== Track 0 settings =============
+        addExportTrack0Events(track0);
+
+
+        // ========== RhythmVoice tracks settings =============
+
+        // Remove elements from muted tracks (don't remove the muted tracks because it would impact mapRvTrack)
+        if (!ignoreMidiMixMute)
+        {
+            for (RhythmVoice rv : midiMix.getRhythmVoices())
+            {
+                if (midiMix.getInstrumentMixFromKey(rv).isMute())
+                {
+                    Track track = sequence.getTracks()[songSequence.mapRvTrackId.get(rv)];
+                    MidiUtilities.clearTrack(track);
+                }
+            }
+        }
+
+
+        // For each RhythmVoice :
+        // - reset all controllers
+        // - add instruments initialization messages for each track
+        for (RhythmVoice rv : songSequence.mapRvTrackId.keySet())
+        {
+            Track track = tracks[songSequence.mapRvTrackId.get(rv)];
+            getExportInitEvents(rv).forEach(me -> track.add(me));
+        }
+
+        return songSequence;
+    }
+
+    /**
+     * Write to a Midi file (type 1) the exportable sequence for the current SongContext.
+     * <p>
+     * The written file is identical to MidiSystem.write(buildExportableSequence(silent, ignoreMidiMixMute).sequence, 1, midiFile),
+     * but tracks are streamed to the file: no Sequence is built (except a small one for track 0), and phrase notes are directly
+     * encoded without creating MidiEvents. This significantly reduces the memory needed when exporting many songs.
+     *
+     * @param midiFile
+     * @param silent            If true do not show a progress dialog
+     * @param ignoreMidiMixMute If true, a track will sound even if it was muted in the context MidiMix
+     * @return The sequence field is null
+     * @throws MusicGenerationException
+     * @throws IOException
+     * @see #buildExportableSequence(boolean, boolean)
+     */
+    public SongSequence writeExportableMidiFile(File midiFile, boolean silent, boolean ignoreMidiMixMute) throws MusicGenerationException, IOException
+    {
+        var rvPhrases = buildMapRvPhrase(silent);     // throws MusicGenerationException
+
+
+        SongSequence res = new SongSequence();
+        res.mapRvPhrase = new HashMap<>(rvPhrases);
+        res.mapRvTrackId = new HashMap<>();
+        MidiMix midiMix = songContext.getMidiMix();
+        long endOfTrackTick = getEndOfTrackTick(songContext);
+        List<RhythmVoice> rvs = getTargetRhythmVoices(rvPhrases);
+
+
+        // Track 0 is small, build it like in buildExportableSequence()
+        Track track0;
+        try
+        {
+            track0 = new Sequence(Sequence.PPQ, MidiConst.PPQ_RESOLUTION).createTrack();
+        } catch (InvalidMidiDataException ex)
+        {
+            throw new MusicGenerationException("writeExportableMidiFile() Can't create the track 0 sequence : " + ex.getLocalizedMessage());
+        }
+        fillTrack0(track0);
+        MidiUtilities.setEndOfTrackPosition(track0, endOfTrackTick);
+        addExportTrack0Events(track0);
+
+
+        try (var writer = StreamingMidiFileWriter.open(midiFile, 1, rvs.size() + 1, MidiConst.PPQ_RESOLUTION))
+        {
+            writer.writeTrack(track0);
+
+            int trackId = 1;
+            for (RhythmVoice rv : rvs)
+            {
+                writer.startTrack();
+
+                InstrumentMix insMix = midiMix.getInstrumentMixFromKey(rv);
+                Phrase p = rvPhrases.get(rv);
+                if (!ignoreMidiMixMute && insMix != null && insMix.isMute())
+                {
+                    // Muted track: track name and notes are removed
+                    p = new Phrase(p.getChannel());
+                } else
+                {
+                    int channel = midiMix.getChannel(rv);
+                    writer.writeEvent(0, MidiUtilities.getTrackNameMetaMessage(buildTrackName(rv, channel)));
+                }
+                p.writeMidiEvents(writer, getExportInitEvents(rv));
+
+                writer.endTrack(endOfTrackTick);
+
+                res.mapRvTrackId.put(rv, trackId);
+                trackId++;
+            }
+        }
+
+        return res;
+    }
+
+
+    public SongContext getSongContext()
+    {
+        return songContext;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "MidiSequenceBuilder context=" + songContext.toString();
+    }
+
+    // =========================================================================
+    // Private methods
+    // =========================================================================
+    /**
+     * Add the export events to track 0 and remove the JJazzLab-only events.
+     *
+     * @param track0
+     */
+    private void addExportTrack0Events(Track track0)
+    {
         // Copyright
         MidiMessage mmCopyright = MidiUtilities.getCopyrightMetaMessage("JJazzLab Midi Export file");
         MidiEvent me = new MidiEvent(mmCopyright, 0);
@@ -302,7 +491,7 @@ public class SongSequenceBuilder
         for (SongPart spt : songContext.getSongParts())
         {
             CLI_Section section = spt.getParentSection();
-            for (CLI_ChordSymbol cliCs : songContext.getSong().getChordLeadSheet().getItems(section, CLI_ChordSymbol.class))
+            for (CLI_ChordSymbol cliCs : songContext.getSong().getChordLeadSheet().getItemsView(section, CLI_ChordSymbol.class))
             {
 
                 Position absPos = ss.getSptItemPosition(spt, cliCs);
@@ -375,63 +564,32 @@ public class SongSequenceBuilder
             me = new MidiEvent(sxm, 0);
             track0.add(me);
         }
+    }
 
-        // ========== RhythmVoice tracks settings =============
-
-        // Remove elements from muted tracks (don't remove the muted tracks because it would impact mapRvTrack)
-        if (!ignoreMidiMixMute)
-        {
-            for (RhythmVoice rv : midiMix.getRhythmVoices())
-            {
-                if (midiMix.getInstrumentMixFromKey(rv).isMute())
-                {
-                    Track track = sequence.getTracks()[songSequence.mapRvTrackId.get(rv)];
-                    MidiUtilities.clearTrack(track);
-                }
-            }
-        }
+    /**
+     * The initialization events added at the beginning of a RhythmVoice track by buildExportableSequence().
+     *
+     * @param rv
+     * @return Reset all controllers, then instrument, volume, pan, etc.
+     */
+    private List<MidiEvent> getExportInitEvents(RhythmVoice rv)
+    {
+        List<MidiEvent> res = new ArrayList<>();
+        int channel = songContext.getMidiMix().getChannel(rv);
 
+        // Reset all controllers
+        MidiMessage mmReset = MidiUtilities.getResetAllControllersMessage(channel);
+        res.add(new MidiEvent(mmReset, 0));
 
-        // For each RhythmVoice :
-        // - reset all controllers
-        // - add instruments initialization messages for each track
-        for (RhythmVoice rv : songSequence.mapRvTrackId.keySet())
+        // Instrument + volume + pan etc.
+        InstrumentMix insMix = songContext.getMidiMix().getInstrumentMixFromKey(rv);
+        for (MidiMessage mm : insMix.getAllMidiMessages(channel))
         {
-            Track track = tracks[songSequence.mapRvTrackId.get(rv)];
-            int channel = songContext.getMidiMix().getChannel(rv);
-
-            // Reset all controllers
-            MidiMessage mmReset = MidiUtilities.getResetAllControllersMessage(channel);
-            me = new MidiEvent(mmReset, 0);
-            track.add(me);
-
-            // Instrument + volume + pan etc.
-            InstrumentMix insMix = midiMix.getInstrumentMixFromKey(rv);
-            for (MidiMessage mm : insMix.getAllMidiMessages(channel))
-            {
-                me = new MidiEvent(mm, 0);
-                track.add(me);
-            }
+            res.add(new MidiEvent(mm, 0));
         }
-
-        return songSequence;
-    }
-
-
-    public SongContext getSongContext()
-    {
-        return songContext;
-    }
-
-    @Override
-    public String toString()
-    {
-        return "MidiSequenceBuilder context=" + songContext.toString();
+        return res;
     }
 
-    // =========================================================================
-    // Private methods
-    // =========================================================================
     private Map<RhythmVoice, Phrase> buildMapRvPhrase() throws MusicGenerationException
     {
         Map<RhythmVoice, Phrase> res = new HashMap<>();
@@ -445,13 +603,19 @@ public class SongSequenceBuilder
         checkChordsAtSamePosition(songContext);            // throws MusicGenerationException        
 
 
-        for (Rhythm r : songContext.getUniqueRhythms())
+        var uniqueRhythms = songContext.getUniqueRhythms();
+        Map<Rhythm, Map<RhythmVoice, Phrase>> mapRhythmPhrases = parallelGeneration && uniqueRhythms.size() > 1
+                ? generateRhythmPhrasesParallel(uniqueRhythms)
+                : null;
+
+
+        for (Rhythm r : uniqueRhythms)
         {
 
             // Generate the phrase
-            Map<RhythmVoice, Phrase> rMap = generateRhythmPhrases(r);                       // Possible MusicGenerationException here
+            Map<RhythmVoice, Phrase> rMap = mapRhythmPhrases != null ? mapRhythmPhrases.get(r) : generateRhythmPhrases(r);    // Possible MusicGenerationException here
 
-            if (songContext.getUniqueRhythms().size() > 1)
+            if (uniqueRhythms.size() > 1)
             {
                 checkRhythmPhrasesScope(songContext, r, rMap);                              // Possible MusicGenerationException here
             }
@@ -462,17 +626,31 @@ public class SongSequenceBuilder
         }
 
 
-        // Handle the RP_SYS_CustomPhrase changes
-        processCustomPhrases(songContext, res);
+        if (parallelGeneration)
+        {
+            // Each RhythmVoice phrase can be processed independently
+            forEachParallel(new ArrayList<>(res.keySet()), rv ->
+            {
+                Predicate<RhythmVoice> tester = rvi -> rvi.equals(rv);
+                processCustomPhrases(songContext, res, tester);
+                processDrumsTransforms(songContext, res, tester);
+                processPhraseTransforms(songContext, res, tester);
+                processMutedInstruments(songContext, res, tester);
+            });
+        } else
+        {
+            // Handle the RP_SYS_CustomPhrase changes
+            processCustomPhrases(songContext, res, rv -> true);
 
-        // Handle the RP_SYS_DrumsTransform changes
-        processDrumsTransforms(songContext, res);
+            // Handle the RP_SYS_DrumsTransform changes
+            processDrumsTransforms(songContext, res, rv -> true);
 
-        // Handle the RP_SYS_PhraseTransform changes
-        processPhraseTransforms(songContext, res);
+            // Handle the RP_SYS_PhraseTransform changes
+            processPhraseTransforms(songContext, res, rv -> true);
 
-        // Handle muted instruments via the SongPart's RP_SYS_Mute parameter
-        processMutedInstruments(songContext, res);
+            // Handle muted instruments via the SongPart's RP_SYS_Mute parameter
+            processMutedInstruments(songContext, res, rv -> true);
+        }
 
 
         // Merge the phrases from delegate RhythmVoices to the source phrase, then remove the delegate phrases        
@@ -531,7 +709,13 @@ public class SongSequenceBuilder
 
 
         // Handle instrument settings which impact the phrases: transposition, velocity shift, ...
-        processInstrumentsSettings(songContext, res);
+        if (parallelGeneration)
+        {
+            forEachParallel(new ArrayList<>(res.keySet()), rv -> processInstrumentsSettings(songContext, res, rvi -> rvi.equals(rv)));
+        } else
+        {
+            processInstrumentsSettings(songContext, res, rv -> true);
+        }
 
 
         // Process the drums rerouting
@@ -562,11 +746,8 @@ public class SongSequenceBuilder
 
 
         // First track is really useful only when exporting to Midi file type 1            
-        // Contain song name, tempo factor changes, time signatures
         Track track0 = res.sequence.createTrack();
-        MidiUtilities.addTrackNameEvent(track0, songContext.getSong().getName() + " (JJazzLab song)");
-        addTimeSignatureChanges(songContext, track0);
-        addTempoFactorChanges(songContext, track0);
+        fillTrack0(track0);
 
 
         // Other tracks : create one per RhythmVoice
@@ -574,6 +755,50 @@ public class SongSequenceBuilder
         res.mapRvTrackId = new HashMap<>();
 
 
+        // Create the tracks
+        for (RhythmVoice rv : getTargetRhythmVoices(rvPhrases))
+        {
+
+            Track track = res.sequence.createTrack();
+            int channel = songContext.getMidiMix().getChannel(rv);
+
+            String name = buildTrackName(rv, channel);
+            MidiUtilities.addTrackNameEvent(track, name);
+
+            // Fill the track
+            Phrase p = rvPhrases.get(rv);
+            p.fillTrack(track);
+
+            // Store the track with the RhythmVoice
+            res.mapRvTrackId.put(rv, trackId);
+            trackId++;
+        }
+
+        fixEndOfTracks(songContext, res.sequence);
+
+        return res;
+    }
+
+    /**
+     * Add the track 0 events: song name, time signatures, tempo factor changes.
+     *
+     * @param track0
+     */
+    private void fillTrack0(Track track0)
+    {
+        MidiUtilities.addTrackNameEvent(track0, songContext.getSong().getName() + " (JJazzLab song)");
+        addTimeSignatureChanges(songContext, track0);
+        addTempoFactorChanges(songContext, track0);
+    }
+
+    /**
+     * The RhythmVoices which get a track, in track order.
+     *
+     * @param rvPhrases
+     * @return
+     */
+    private List<RhythmVoice> getTargetRhythmVoices(Map<RhythmVoice, Phrase> rvPhrases)
+    {
         // Normally process only normal rhythms, but if context does not use a source rhythm of an adapted rhythm, we need to process it too
         var contextRhythms = songContext.getUniqueRhythms();      // Contains AdaptedRhythms
         Set<Rhythm> targetRhythms = new HashSet<>();
@@ -602,34 +827,16 @@ public class SongSequenceBuilder
                 .filter(rv -> rv instanceof UserRhythmVoice)
                 .forEach(rv -> targetRhythmVoices.add(rv));
 
-
-        // Create the tracks
-        for (RhythmVoice rv : targetRhythmVoices)
-        {
-
-            Track track = res.sequence.createTrack();
-            int channel = songContext.getMidiMix().getChannel(rv);
-
-            String name = buildTrackName(rv, channel);
-            MidiUtilities.addTrackNameEvent(track, name);
-
-            // Fill the track
-            Phrase p = rvPhrases.get(rv);
-            p.fillTrack(track);
-
-            // Store the track with the RhythmVoice
-            res.mapRvTrackId.put(rv, trackId);
-            trackId++;
-        }
-
-        fixEndOfTracks(songContext, res.sequence);
-
-        return res;
+        return targetRhythmVoices;
     }
 
 
     /**
      * Ask specified rhythm to generate music.
+     * <p>
+     * Rhythm instances are shared by songs (see RhythmDatabase) and several SongSequenceBuilders can run concurrently (e.g. batch
+     * rendering). Music generation is synchronized on the rhythm, unless MusicGenerator.isThreadSafe() is true: then only the
+     * resources loading is synchronized.
      *
      * @param r
      */
@@ -641,8 +848,26 @@ public class SongSequenceBuilder
             {
                 r.getName(), Objects.hashCode(r)
             });
-            r.loadResources();
-            return ((MusicGenerator) r).generateMusic(songContext);
+            if (((MusicGenerator) r).isThreadSafe())
+            {
+                synchronized (r)
+                {
+                    // Load only once even if called from several threads
+                    if (!r.isResourcesLoaded())
+                    {
+                        r.loadResources();
+                    }
+                }
+                return generateRhythmPhrasesLoaded(r);
+            }
+            synchronized (r)
+            {
+                if (!r.isResourcesLoaded())
+                {
+                    r.loadResources();
+                }
+                return generateRhythmPhrasesLoaded(r);
+            }
         } else
         {
             LOGGER.warning("generateRhythmPhrases() r=" + r + " is not a MusicGenerator instance");
@@ -650,6 +875,227 @@ public class SongSequenceBuilder
         }
     }
 
+    /**
+     * Generate the music once rhythm resources are loaded, using the SongPartPhraseCache if possible.
+     *
+     * @param r A MusicGenerator
+     */
+    private Map<RhythmVoice, Phrase> generateRhythmPhrasesLoaded(Rhythm r) throws MusicGenerationException
+    {
+        SongPartPhraseCache cache = SongPartPhraseCache.getInstance();
+        if (cache.isEnabled() && ((MusicGenerator) r).isSongPartCacheable())
+        {
+            return generateRhythmPhrasesCached(r, cache);
+        }
+        return ((MusicGenerator) r).generateMusic(songContext);
+    }
+
+    /**
+     * Same as generateRhythmPhrases() but reuse the phrases of the song parts found in the SongPartPhraseCache.
+     * <p>
+     * Contiguous song parts not found in the cache are generated together, then the result is split per song part and cached.
+     *
+     * @param r A MusicGenerator whose isSongPartCacheable() returns true
+     * @param cache
+     */
+    private Map<RhythmVoice, Phrase> generateRhythmPhrasesCached(Rhythm r, SongPartPhraseCache cache) throws MusicGenerationException
+    {
+        Map<RhythmVoice, Phrase> res = new HashMap<>();
+        for (RhythmVoice rv : r.getRhythmVoices())
+        {
+            res.put(rv, new Phrase(getChannel(rv)));
+        }
+
+
+        List<SongPart> missingSpts = new ArrayList<>();
+        for (SongPart spt : songContext.getSongParts())
+        {
+            if (!spt.getRhythm().equals(r))
+            {
+                continue;
+            }
+
+            Map<RhythmVoice, Phrase> mapRvPhrase = cache.get(songContext, spt);
+            if (mapRvPhrase != null)
+            {
+                mapRvPhrase.forEach((rv, p) -> res.get(rv).add(p));
+                continue;
+            }
+
+            if (!missingSpts.isEmpty()
+                    && songContext.getSptBarRange(missingSpts.get(missingSpts.size() - 1)).to + 1 != songContext.getSptBarRange(spt).from)
+            {
+                generateSongParts(r, missingSpts, cache, res);
+                missingSpts.clear();
+            }
+            missingSpts.add(spt);
+        }
+
+        if (!missingSpts.isEmpty())
+        {
+            generateSongParts(r, missingSpts, cache, res);
+        }
+
+        LOGGER.log(Level.FINE, "generateRhythmPhrasesCached() r={0} cache={1}", new Object[]
+        {
+            r.getName(), cache
+        });
+        return res;
+    }
+
+    /**
+     * Generate the music of contiguous song parts, cache the phrases of each song part and add them to mapRvPhrase.
+     *
+     * @param r
+     * @param spts Contiguous song parts using r
+     * @param cache
+     * @param mapRvPhrase
+     * @throws MusicGenerationException
+     */
+    private void generateSongParts(Rhythm r, List<SongPart> spts, SongPartPhraseCache cache, Map<RhythmVoice, Phrase> mapRvPhrase) throws MusicGenerationException
+    {
+        IntRange barRange = new IntRange(songContext.getSptBarRange(spts.get(0)).from,
+                songContext.getSptBarRange(spts.get(spts.size() - 1)).to);
+        Map<RhythmVoice, Phrase> mapRvPhraseGen = ((MusicGenerator) r).generateMusic(new SongContext(songContext, barRange));
+
+        if (!r.getRhythmVoices().containsAll(mapRvPhraseGen.keySet()))
+        {
+            // Unexpected RhythmVoices, don't cache
+            LOGGER.warning("generateSongParts() unexpected RhythmVoices for r=" + r + ": " + mapRvPhraseGen.keySet());   //NOI18N
+            mapRvPhraseGen.forEach((rv, p) -> mapRvPhrase.computeIfAbsent(rv, k -> new Phrase(p.getChannel())).add(p));
+            return;
+        }
+
+        for (SongPart spt : spts)
+        {
+            FloatRange sptBeatRange = songContext.getSptBeatRange(spt);
+            Map<RhythmVoice, Phrase> mapRvSlice = new HashMap<>();
+            for (RhythmVoice rv : r.getRhythmVoices())
+            {
+                Phrase p = mapRvPhraseGen.get(rv);
+                Phrase slice = p == null ? new Phrase(getChannel(rv)) : p.getSlice(sptBeatRange, false, 1, 0);
+                mapRvSlice.put(rv, slice);
+                mapRvPhrase.get(rv).add(slice);
+            }
+            cache.put(songContext, spt, mapRvSlice);
+        }
+    }
+
+    private int getChannel(RhythmVoice rv)
+    {
+        return songContext.getMidiMix().getChannel(rv instanceof RhythmVoiceDelegate ? ((RhythmVoiceDelegate) rv).getSource() : rv);
+    }
+
+    /**
+     * Ask the specified rhythms to generate music in parallel.
+     * <p>
+     * An AdaptedRhythm is generated in the same task than its source rhythm, since they might share resources.
+     *
+     * @param rhythms
+     * @return The phrases for each rhythm
+     * @throws MusicGenerationException
+     */
+    private Map<Rhythm, Map<RhythmVoice, Phrase>> generateRhythmPhrasesParallel(List<Rhythm> rhythms) throws MusicGenerationException
+    {
+        // Group rhythms per source rhythm, preserving the rhythms order
+        Map<Rhythm, List<Rhythm>> mapSourceRhythms = new LinkedHashMap<>();
+        for (Rhythm r : rhythms)
+        {
+            Rhythm sr = (r instanceof AdaptedRhythm) ? ((AdaptedRhythm) r).getSourceRhythm() : r;
+            mapSourceRhythms.computeIfAbsent(sr, k -> new ArrayList<>()).add(r);
+        }
+
+
+        // Start one task per group
+        List<ForkJoinTask<Map<Rhythm, Map<RhythmVoice, Phrase>>>> tasks = new ArrayList<>();
+        for (List<Rhythm> group : mapSourceRhythms.values())
+        {
+            tasks.add(getGenerationPool().submit(() ->
+            {
+                Map<Rhythm, Map<RhythmVoice, Phrase>> groupRes = new HashMap<>();
+                for (Rhythm r : group)
+                {
+                    groupRes.put(r, generateRhythmPhrases(r));                  // Possible MusicGenerationException here
+                }
+                return groupRes;
+            }));
+        }
+
+
+        // Wait for all tasks, in order
+        Map<Rhythm, Map<RhythmVoice, Phrase>> res = new HashMap<>();
+        MusicGenerationException musicException = null;
+        for (var task : tasks)
+        {
+            try
+            {
+                res.putAll(task.get());
+            } catch (InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+                throw new MusicGenerationException(ex.getLocalizedMessage());
+            } catch (ExecutionException ex)
+            {
+                Throwable cause = ex.getCause();
+                if (cause instanceof RuntimeException)
+                {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error)
+                {
+                    throw (Error) cause;
+                } else if (musicException == null && cause instanceof MusicGenerationException)
+                {
+                    // Keep the first one, in rhythms order
+                    musicException = (MusicGenerationException) cause;
+                }
+            }
+        }
+
+        if (musicException != null)
+        {
+            throw musicException;
+        }
+
+        return res;
+    }
+
+    /**
+     * Perform action on each item in parallel, and wait for completion.
+     *
+     * @param <T>
+     * @param items
+     * @param action
+     * @throws RuntimeException The first exception thrown by an action, in items order.
+     */
+    private <T> void forEachParallel(List<T> items, Consumer<T> action)
+    {
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (T item : items)
+        {
+            tasks.add(getGenerationPool().submit(() -> action.accept(item)));
+        }
+        for (var task : tasks)
+        {
+            task.join();
+        }
+    }
+
+    /**
+     * The pool shared by all SongSequenceBuilder instances for parallel generation.
+     *
+     * @return
+     */
+    static synchronized private ForkJoinPool getGenerationPool()
+    {
+        if (generationPool == null)
+        {
+            int parallelism = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+            generationPool = new ForkJoinPool(parallelism);
+            LOGGER.log(Level.INFO, "getGenerationPool() parallelism={0}", parallelism);
+        }
+        return generationPool;
+    }
+
     /**
      * Check that there is a starting chord symbol for each section used in the specified context.
      *
@@ -662,7 +1108,7 @@ public class SongSequenceBuilder
         for (CLI_Section section : getContextSections(context))
         {
             Position pos = section.getPosition();
-            List<? extends CLI_ChordSymbol> clis = cls.getItems(section, CLI_ChordSymbol.class);
+            List<? extends CLI_ChordSymbol> clis = cls.getItemsView(section, CLI_ChordSymbol.class);
             if (clis.isEmpty() || !clis.get(0).getPosition().equals(pos))
             {
                 throw new UserErrorGenerationException(ResUtil.getString(getClass(), "ERR_MissingChordSymbolAtSection", section.getData().getName(), (pos.getBar() + 1)));
@@ -683,7 +1129,7 @@ public class SongSequenceBuilder
 
         for (CLI_Section cliSection : getContextSections(context))
         {
-            List<? extends CLI_ChordSymbol> clis = cls.getItems(cliSection, CLI_ChordSymbol.class);
+            List<? extends CLI_ChordSymbol> clis = cls.getItemsView(cliSection, CLI_ChordSymbol.class);
             for (CLI_ChordSymbol cliCs : clis)
             {
                 Position pos = cliCs.getPosition();
@@ -723,8 +1169,9 @@ public class SongSequenceBuilder
      *
      * @param context
      * @param rvPhrases Keys can include RhythmVoiceDelegates
+     * @param tester    Process only the RhythmVoices which satisfy this tester
      */
-    private void processMutedInstruments(SongContext context, Map<RhythmVoice, Phrase> rvPhrases)
+    private void processMutedInstruments(SongContext context, Map<RhythmVoice, Phrase> rvPhrases, Predicate<RhythmVoice> tester)
     {
         for (SongPart spt : context.getSongParts())
         {
@@ -749,6 +1196,10 @@ public class SongSequenceBuilder
             List<RhythmVoice> mutedRvs = RP_SYS_Mute.getMutedRhythmVoices(r, muteValues);
             for (RhythmVoice rv : mutedRvs)
             {
+                if (!tester.test(rv))
+                {
+                    continue;
+                }
                 Phrase p = rvPhrases.get(rv);
                 if (p == null)
                 {
@@ -765,8 +1216,9 @@ public class SongSequenceBuilder
      *
      * @param context
      * @param rvPhrases Keys can include RhythmVoiceDelegates
+     * @param tester    Process only the RhythmVoices which satisfy this tester
      */
-    private void processCustomPhrases(SongContext context, Map<RhythmVoice, Phrase> rvPhrases)
+    private void processCustomPhrases(SongContext context, Map<RhythmVoice, Phrase> rvPhrases, Predicate<RhythmVoice> tester)
     {
         for (SongPart spt : context.getSongParts())
         {
@@ -786,6 +1238,10 @@ public class SongSequenceBuilder
             RP_SYS_CustomPhraseValue rpValue = spt.getRPValue(rpCustomPhrase);
             for (RhythmVoice rv : rpValue.getCustomizedRhythmVoices())
             {
+                if (!tester.test(rv))
+                {
+                    continue;
+                }
 
                 // Remove a slice for the current songpart            
                 Phrase p = rvPhrases.get(rv);
@@ -839,8 +1295,9 @@ public class SongSequenceBuilder
      *
      * @param context
      * @param rvPhrases Keys can include RhythmVoiceDelegates
+     * @param tester    Process only the RhythmVoices which satisfy this tester
      */
-    private void processPhraseTransforms(SongContext context, Map<RhythmVoice, Phrase> rvPhrases)
+    private void processPhraseTransforms(SongContext context, Map<RhythmVoice, Phrase> rvPhrases, Predicate<RhythmVoice> tester)
     {
         LOGGER.log(Level.FINE, "processPhraseTransforms() -- context={0}", context);
         for (SongPart spt : context.getSongParts())
@@ -863,6 +1320,10 @@ public class SongSequenceBuilder
             LOGGER.log(Level.FINE, "processPhraseTransforms() rpValue={0}", rpValue);
             for (RhythmVoice rv : rpValue.getChainRhythmVoices())
             {
+                if (!tester.test(rv))
+                {
+                    continue;
+                }
 
                 // The original phrase
                 Phrase p = rvPhrases.get(rv);
@@ -886,8 +1347,9 @@ public class SongSequenceBuilder
      *
      * @param context
      * @param rvPhrases Keys can include RhythmVoiceDelegates
+     * @param tester    Process only the RhythmVoices which satisfy this tester
      */
-    private void processDrumsTransforms(SongContext context, Map<RhythmVoice, Phrase> rvPhrases)
+    private void processDrumsTransforms(SongContext context, Map<RhythmVoice, Phrase> rvPhrases, Predicate<RhythmVoice> tester)
     {
         LOGGER.log(Level.FINE, "processDrumsTransforms() -- context={0}", context);
 
@@ -911,6 +1373,10 @@ public class SongSequenceBuilder
             // Get the RP value and transform phrases as needed
             RP_SYS_DrumsTransformValue rpValue = spt.getRPValue(rpDrumsTransform);
             RhythmVoice rvDrums = rpValue.getRhythmVoice();
+            if (!tester.test(rvDrums))
+            {
+                continue;
+            }
             LOGGER.log(Level.FINE, "processDrumsTransforms() rpValue={0} rvDrums={1}", new Object[]
             {
                 rpValue, rvDrums
@@ -937,13 +1403,18 @@ public class SongSequenceBuilder
      * Apply transposition/velocity offset to match the InstrumentSettings of each RhythmVoice.
      *
      * @param rvPhrases
+     * @param tester    Process only the RhythmVoices which satisfy this tester
      */
-    private void processInstrumentsSettings(SongContext context, Map<RhythmVoice, Phrase> rvPhrases)
+    private void processInstrumentsSettings(SongContext context, Map<RhythmVoice, Phrase> rvPhrases, Predicate<RhythmVoice> tester)
     {
         LOGGER.fine("processInstrumentsSettings() -- ");   //NOI18N
         MidiMix midiMix = context.getMidiMix();
         for (RhythmVoice rv : rvPhrases.keySet())
         {
+            if (!tester.test(rv))
+            {
+                continue;
+            }
             Phrase p = rvPhrases.get(rv);
             InstrumentMix insMix = midiMix.getInstrumentMixFromKey(rv);
             if (insMix == null)
@@ -1124,7 +1595,7 @@ public class SongSequenceBuilder
      */
     private void fixEndOfTracks(SongContext context, Sequence seq)
     {
-        long lastTick = (long) (context.getBeatRange().size() * MidiConst.PPQ_RESOLUTION) + 1;
+        long lastTick = getEndOfTrackTick(context);
         for (Track t : seq.getTracks())
         {
             // Make sure all tracks have the same EndOfTrack
@@ -1135,6 +1606,11 @@ public class SongSequenceBuilder
         }
     }
 
+    private long getEndOfTrackTick(SongContext context)
+    {
+        return (long) (context.getBeatRange().size() * MidiConst.PPQ_RESOLUTION) + 1;
+    }
+
     // ====================================================================================================
     // Private classes
     // ====================================================================================================
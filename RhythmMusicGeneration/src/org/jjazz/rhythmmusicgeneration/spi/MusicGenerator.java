@@ -59,6 +59,11 @@ public interface MusicGenerator
      * - Handling of the channel's specific velocity shift<br>
      * - Handling of the instrument's specific transposition<br>
      * - Drums rerouting<br>
+     * <p>
+     * Rhythm instances are shared by songs. Unless isThreadSafe() returns true, the framework never calls generateMusic()
+     * concurrently on the same instance (calls are synchronized on the rhythm), but different instances may generate music
+     * concurrently, e.g. when rendering several songs in batch. loadResources() is always called, and completed, before
+     * generateMusic().
      *
      * @param context The information to be used for music generation
      * @return One Phrase per rhythm voice/channel.
@@ -68,4 +73,36 @@ public interface MusicGenerator
      *
      */
     Map<RhythmVoice, Phrase> generateMusic(SongContext context) throws MusicGenerationException;
+
+    /**
+     * Indicate if the music generated for a SongPart only depends on the SongPart content.
+     * <p>
+     * The SongPart content is: rhythm, rhythm parameter values, chord symbols, time signature, song tempo and Midi channels. If
+     * true the framework may reuse the phrases previously generated for a SongPart with the same content (e.g. repeated sections,
+     * or unchanged SongParts when song is regenerated), and may call generateMusic() with a context limited to some SongParts.
+     * Notes which extend beyond the end of a SongPart are then cut at the SongPart end.
+     * <p>
+     * Return false if the generator is not deterministic (e.g. random variations), or if the music of a SongPart depends on the
+     * adjacent SongParts.
+     *
+     * @return Default implementation returns false.
+     * @see org.jjazz.rhythmmusicgeneration.api.SongPartPhraseCache
+     */
+    default boolean isSongPartCacheable()
+    {
+        return false;
+    }
+
+    /**
+     * Indicate if generateMusic() can be called concurrently on the same instance.
+     * <p>
+     * If true the framework does not serialize the generateMusic() calls, so that several songs using this rhythm can be generated
+     * in parallel (e.g. batch rendering). The context-dependent state must then not be stored in instance fields.
+     *
+     * @return Default implementation returns false.
+     */
+    default boolean isThreadSafe()
+    {
+        return false;
+    }
 }
@@ -0,0 +1,103 @@
+/*
+ *  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ * 
+ *  Copyright @2019 Jerome Lelasseux. All rights reserved.
+ *
+ *  This file is part of the JJazzLabX software.
+ *   
+ *  JJazzLabX is free software: you can redistribute it and/or modify
+ *  it under the terms of the Lesser GNU General Public License (LGPLv3) 
+ *  as published by the Free Software Foundation, either version 3 of the License, 
+ *  or (at your option) any later version.
+ *
+ *  JJazzLabX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the 
+ *  GNU Lesser General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with JJazzLabX.  If not, see <https://www.gnu.org/licenses/>
+ * 
+ *  Contributor(s): 
+ */
+package org.jjazz.rhythmmusicgeneration.api;
+
+import java.text.ParseException;
+import org.jjazz.leadsheet.chordleadsheet.api.item.ExtChordSymbol;
+import org.jjazz.phrase.api.NoteEvent;
+import org.jjazz.phrase.api.Phrase;
+import org.jjazz.phrase.api.PhraseSnapshot;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class FittedPhraseCacheTest
+{
+
+    FittedPhraseCache cache;
+    SourcePhrase pSrc;
+    ExtChordSymbol ecsDest;
+
+    public FittedPhraseCacheTest()
+    {
+    }
+
+    @Before
+    public void setUp() throws ParseException
+    {
+        cache = new FittedPhraseCache(10);
+        pSrc = new SourcePhrase(0, new ExtChordSymbol("C7M"));
+        pSrc.add(new NoteEvent(48, 1, 100, 0));
+        pSrc.add(new NoteEvent(55, 1, 100, 1));
+        pSrc.add(new NoteEvent(59, 1, 100, 2));
+        pSrc.add(new NoteEvent(64, 1, 100, 3));
+        ecsDest = new ExtChordSymbol("F7b5");
+    }
+
+    @Test
+    public void testCachedMelodyPhraseIsFitted()
+    {
+        System.out.println("testCachedMelodyPhraseIsFitted");
+        PhraseSnapshot p = cache.getMelodyPhrase(pSrc, ecsDest, false);
+        assertEquals(Phrases.fitMelodyPhrase2ChordSymbol(pSrc, ecsDest, false).toString(), p.toPhrase().toString());
+        assertSame(p, cache.getMelodyPhrase(pSrc, ecsDest, false));     // Shared instance, no copy
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void testCallerMutationDoesNotLeak()
+    {
+        System.out.println("testCallerMutationDoesNotLeak");
+        for (int i = 0; i < 3; i++)
+        {
+            PhraseSnapshot ps = i == 0 ? cache.getMelodyPhrase(pSrc, ecsDest, false)
+                    : i == 1 ? cache.getBassPhrase(pSrc, ecsDest)
+                            : cache.getChordPhrase(pSrc, ecsDest);
+            String expected = ps.toPhrase().toString();
+            int size = ps.size();
+
+
+            // Shift into position then modify the returned phrase in all possible ways
+            Phrase p = FittedPhraseCache.getShiftedPhrase(ps, 8);
+            assertEquals(size, p.size());
+            for (int j = 0; j < size; j++)
+            {
+                assertEquals(ps.toPhrase().get(j).getPositionInBeats() + 8, p.get(j).getPositionInBeats(), 0.0001f);
+            }
+            p.shiftEvents(8);
+            p.processPitch(pitch -> pitch + 1);
+            p.removeFirst();
+            p.add(new NoteEvent(60, 1, 100, 20));
+
+
+            PhraseSnapshot ps2 = i == 0 ? cache.getMelodyPhrase(pSrc, ecsDest, false)
+                    : i == 1 ? cache.getBassPhrase(pSrc, ecsDest)
+                            : cache.getChordPhrase(pSrc, ecsDest);
+            assertSame(ps, ps2);
+            assertEquals(size, ps2.size());
+            assertEquals(expected, ps2.toPhrase().toString());
+        }
+        assertEquals(3, cache.getHitCount());
+    }
+}
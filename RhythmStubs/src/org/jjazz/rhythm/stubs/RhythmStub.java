@@ -99,6 +99,28 @@ public class RhythmStub implements Rhythm, MusicGenerator
         return new DummyGenerator(this).generateMusic(context);
     }
 
+    /**
+     * DummyGenerator music only depends on the SongPart content.
+     *
+     * @return True
+     */
+    @Override
+    public boolean isSongPartCacheable()
+    {
+        return true;
+    }
+
+    /**
+     * Each generateMusic() call uses its own DummyGenerator.
+     *
+     * @return True
+     */
+    @Override
+    public boolean isThreadSafe()
+    {
+        return true;
+    }
+
     @Override
     public boolean equals(Object o)
     {
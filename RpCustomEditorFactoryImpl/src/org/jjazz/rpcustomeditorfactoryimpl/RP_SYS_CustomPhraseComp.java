@@ -570,9 +570,9 @@ public class RP_SYS_CustomPhraseComp extends RealTimeRpEditorComponent<RP_SYS_Cu
         midiFile.deleteOnExit();
 
 
-        // Build the sequence
+        // Build the sequence and write the midi file
         SongContext workContext = buildWorkContext();
-        SongSequence songSequence = new SongSequenceBuilder(workContext).buildExportableSequence(true, true); // throws MusicGenerationException
+        SongSequence songSequence = new SongSequenceBuilder(workContext).writeExportableMidiFile(midiFile, true, true); // throws MusicGenerationException, IOException
 
 
         // Update the reference mapRvPhrases because the generation of some rhythms (e.g. from the YamJJazz engine) might use random items.
@@ -580,10 +580,6 @@ public class RP_SYS_CustomPhraseComp extends RealTimeRpEditorComponent<RP_SYS_Cu
         // was modified in the editor.
         setMapRvPhrase(songSequence.mapRvPhrase);
 
-
-        // Write the midi file     
-        MidiSystem.write(songSequence.sequence, 1, midiFile);   // throws IOException
-
         return midiFile;
     }
 
@@ -31,16 +31,13 @@ import java.beans.PropertyChangeSupport;
 import java.beans.PropertyVetoException;
 import java.beans.VetoableChangeListener;
 import java.beans.VetoableChangeSupport;
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InvalidObjectException;
 import java.io.ObjectInputStream;
 import java.io.ObjectStreamException;
-import java.io.OutputStreamWriter;
 import java.io.Serializable;
-import java.io.Writer;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -49,6 +46,8 @@ import java.util.Properties;
 import java.util.Set;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
 import javax.swing.event.UndoableEditEvent;
 import javax.swing.event.UndoableEditListener;
 import javax.swing.undo.UndoableEdit;
@@ -70,6 +69,7 @@ import org.jjazz.songstructure.api.SgsChangeListener;
 import org.jjazz.undomanager.api.SimpleEdit;
 import org.jjazz.util.api.FloatRange;
 import org.jjazz.util.api.ResUtil;
+import org.jjazz.util.api.XStreamCodec;
 import org.openide.DialogDisplayer;
 import org.openide.NotifyDescriptor;
 import org.openide.util.Exceptions;
@@ -120,6 +120,10 @@ public class Song implements Serializable, ClsChangeListener, SgsChangeListener
     protected transient List<UndoableEditListener> undoListeners = new ArrayList<>();
     private final transient PropertyChangeSupport pcs = new java.beans.PropertyChangeSupport(this);
     private final transient VetoableChangeSupport vcs = new VetoableChangeSupport(this);
+    /**
+     * Shared by all load and save operations.
+     */
+    static final XStreamCodec XSTREAM_CODEC = new XStreamCodec(xstream -> xstream.alias("Song", Song.class));
     private static final Logger LOGGER = Logger.getLogger(Song.class.getSimpleName());
 
     /**
@@ -680,12 +684,11 @@ public class Song implements Serializable, ClsChangeListener, SgsChangeListener
             file = songFile;
         }
 
+        CheckedOutputStream cos;
         try (FileOutputStream fos = new FileOutputStream(songFile))
         {
-            XStream xstream = new XStream();
-            xstream.alias("Song", Song.class);
-            Writer w = new BufferedWriter(new OutputStreamWriter(fos, "UTF-8"));        // Needed to support special/accented chars
-            xstream.toXML(this, w);
+            cos = new CheckedOutputStream(fos, new CRC32());
+            XSTREAM_CODEC.toXML(this, cos);
             if (!isCopy)
             {
                 setName(Song.removeSongExtension(songFile.getName()));
@@ -707,6 +710,24 @@ public class Song implements Serializable, ClsChangeListener, SgsChangeListener
             // Translate into an IOException to be handled by the Netbeans framework 
             throw new IOException("XStream XML marshalling error", e);
         }
+
+
+        // Optional user phrases sidecar file
+        if (!mapUserPhrases.isEmpty() && SongFactory.getInstance().isUserPhrasesSidecarEnabled())
+        {
+            try
+            {
+                UserPhrasesSidecar.save(this, songFile, songFile.length(), cos.getChecksum().getValue());
+            } catch (IOException ex)
+            {
+                // Not critical, user phrases are also in the song file
+                LOGGER.warning("saveToFile() Can't save user phrases sidecar file. ex=" + ex.getMessage());   //NOI18N
+                UserPhrasesSidecar.delete(songFile);
+            }
+        } else
+        {
+            UserPhrasesSidecar.delete(songFile);
+        }
     }
 
     /**
@@ -888,6 +909,16 @@ public class Song implements Serializable, ClsChangeListener, SgsChangeListener
 
     }
 
+    /**
+     * Configure xstream so that the user phrases are not unmarshalled.
+     *
+     * @param xstream
+     */
+    static void omitUserPhrases(XStream xstream)
+    {
+        xstream.omitField(SerializationProxy.class, "spMapUserPhrases");
+    }
+
     /**
      * RhythmVoices must be stored in a simplified way in order to avoid storing rhythm stuff which depend on InstrumentBanks
      * which are themselves system dependent.
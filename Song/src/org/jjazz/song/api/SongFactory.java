@@ -22,22 +22,22 @@
  */
 package org.jjazz.song.api;
 
-import com.thoughtworks.xstream.XStream;
 import com.thoughtworks.xstream.XStreamException;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.beans.PropertyVetoException;
-import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.Reader;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.WeakHashMap;
 import java.util.logging.Logger;
+import java.util.prefs.Preferences;
+import java.util.zip.CRC32;
 import org.jjazz.analytics.api.Analytics;
 import org.jjazz.harmony.api.TimeSignature;
 import org.jjazz.leadsheet.chordleadsheet.api.ChordLeadSheet;
@@ -47,11 +47,12 @@ import org.jjazz.leadsheet.chordleadsheet.api.item.CLI_ChordSymbol;
 import org.jjazz.leadsheet.chordleadsheet.api.item.CLI_Factory;
 import org.jjazz.leadsheet.chordleadsheet.api.item.CLI_Section;
 import org.jjazz.leadsheet.chordleadsheet.api.item.Position;
+import org.jjazz.phrase.api.Phrase;
 import org.jjazz.songstructure.api.SongStructure;
 import org.jjazz.songstructure.api.SongPart;
 import org.jjazz.songstructure.api.SongStructureFactory;
-import org.jjazz.util.api.Utilities;
 import org.openide.util.Exceptions;
+import org.openide.util.NbPreferences;
 
 /**
  * Manage the creation and the registration of the songs.
@@ -69,6 +70,8 @@ public class SongFactory implements PropertyChangeListener
      */
     private static int counter = 1;
 
+    private static final String PREF_USER_PHRASES_SIDECAR = "UserPhrasesSidecar";
+    private static Preferences prefs = NbPreferences.forModule(SongFactory.class);
     private static final Logger LOGGER = Logger.getLogger(SongFactory.class.getSimpleName());
 
     static public SongFactory getInstance()
@@ -94,7 +97,7 @@ public class SongFactory implements PropertyChangeListener
      *
      * @return A list of the songs registered by this object.
      */
-    public List<Song> getRegisteredSongs()
+    public synchronized List<Song> getRegisteredSongs()
     {
         return new ArrayList<>(songs.keySet());
     }
@@ -104,7 +107,7 @@ public class SongFactory implements PropertyChangeListener
      *
      * @param sg
      */
-    public void registerSong(Song sg)
+    public synchronized void registerSong(Song sg)
     {
         if (!songs.keySet().contains(sg))
         {
@@ -118,7 +121,7 @@ public class SongFactory implements PropertyChangeListener
      *
      * @return
      */
-    public String getNewSongName()
+    public synchronized String getNewSongName()
     {
         String name = "NewSong" + counter;
         while (!isSongNameUsed(name))
@@ -148,23 +151,17 @@ public class SongFactory implements PropertyChangeListener
         Song song = null;
 
 
-        XStream xstream = Utilities.getSecuredXStreamInstance();
-        xstream.alias("Song", Song.class);
-        // From 3.0 all public packages are renamed with api or spi somewhere in the path
-        // Need package aliasing required to be able to load old sng/mix files
-        xstream.aliasPackage("org.jjazz.harmony.api", "org.jjazz.harmony.api"); // Make sure new package name is not replaced by next alias
-        xstream.aliasPackage("org.jjazz.harmony", "org.jjazz.harmony.api");
-        xstream.aliasPackage("org.jjazz.midi.api", "org.jjazz.midi.api");   // Make sure new package name is not replaced by next alias
-        xstream.aliasPackage("org.jjazz.midi", "org.jjazz.midi.api");
-        xstream.aliasPackage("org.jjazz.midimix.api", "org.jjazz.midimix.api");   // Make sure new package name is not replaced by next alias
-        xstream.aliasPackage("org.jjazz.midimix", "org.jjazz.midimix.api");
-
-
         // Read file
-        try (var fis = new FileInputStream(f))
+        try
         {
-            Reader r = new BufferedReader(new InputStreamReader(fis, "UTF-8"));        // Needed to support special/accented chars
-            song = (Song) xstream.fromXML(r);
+            if (UserPhrasesSidecar.getFile(f).exists())
+            {
+                song = createFromFileAndSidecar(f);
+            }
+            if (song == null)
+            {
+                song = (Song) Song.XSTREAM_CODEC.fromXML(f);
+            }
         } catch (XStreamException | IOException e)
         {
             throw new SongCreationException(e);
@@ -183,12 +180,29 @@ public class SongFactory implements PropertyChangeListener
         return song;
     }
 
+    /**
+     * If true, Song.saveToFile() also saves the user phrases in a binary sidecar file, which speeds up the song loading.
+     * <p>
+     * The sidecar file is read by createFromFile() whatever this setting.
+     *
+     * @param b
+     */
+    public void setUserPhrasesSidecarEnabled(boolean b)
+    {
+        prefs.putBoolean(PREF_USER_PHRASES_SIDECAR, b);
+    }
+
+    public boolean isUserPhrasesSidecarEnabled()
+    {
+        return prefs.getBoolean(PREF_USER_PHRASES_SIDECAR, false);
+    }
+
     /**
      * Remove a song from the list returned by getRegisteredSong().
      *
      * @param song
      */
-    public void unregisterSong(Song song)
+    public synchronized void unregisterSong(Song song)
     {
         songs.remove(song);
         song.removePropertyChangeListener(this);
@@ -200,7 +214,7 @@ public class SongFactory implements PropertyChangeListener
      * @param sgs
      * @return
      */
-    public Song findSong(SongStructure sgs)
+    public synchronized Song findSong(SongStructure sgs)
     {
         Song res = null;
         for (Song song : songs.keySet())
@@ -220,7 +234,7 @@ public class SongFactory implements PropertyChangeListener
      * @param cls
      * @return
      */
-    public Song findSong(ChordLeadSheet cls)
+    public synchronized Song findSong(ChordLeadSheet cls)
     {
         Song res = null;
         for (Song song : songs.keySet())
@@ -298,7 +312,7 @@ public class SongFactory implements PropertyChangeListener
         return song;
     }
 
-    public boolean isSongNameUsed(String name)
+    public synchronized boolean isSongNameUsed(String name)
     {
         boolean b = true;
         for (Song sg : getRegisteredSongs())
@@ -662,4 +676,44 @@ public class SongFactory implements PropertyChangeListener
     // =================================================================================
     // Private methods
     // =================================================================================
+
+    /**
+     * Read the song file without its user phrases, which are read from the sidecar file.
+     *
+     * @param f
+     * @return Null if the sidecar file does not match the song file.
+     * @throws IOException
+     */
+    private Song createFromFileAndSidecar(File f) throws IOException
+    {
+        byte[] bytes = Files.readAllBytes(f.toPath());
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        Map<String, Phrase> mapUserPhrases;
+        try
+        {
+            mapUserPhrases = UserPhrasesSidecar.load(f, bytes.length, crc.getValue());
+        } catch (IOException ex)
+        {
+            LOGGER.warning("createFromFileAndSidecar() Invalid user phrases sidecar file ignored. ex=" + ex.getMessage());   //NOI18N
+            return null;
+        }
+        if (mapUserPhrases == null)
+        {
+            return null;
+        }
+
+        Song song = (Song) UserPhrasesSidecar.XSTREAM_CODEC_NO_USER_PHRASES.fromXML(new ByteArrayInputStream(bytes));
+        for (String name : mapUserPhrases.keySet())
+        {
+            try
+            {
+                song.setUserPhrase(name, mapUserPhrases.get(name));
+            } catch (PropertyVetoException ex)
+            {
+                LOGGER.warning("createFromFileAndSidecar() Can't add user phrase for name=" + name + ". ex=" + ex.getMessage());   //NOI18N
+            }
+        }
+        return song;
+    }
 }
@@ -0,0 +1,494 @@
+/*
+ *  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ *  Copyright @2019 Jerome Lelasseux. All rights reserved.
+ *
+ *  This file is part of the JJazzLabX software.
+ *
+ *  JJazzLabX is free software: you can redistribute it and/or modify
+ *  it under the terms of the Lesser GNU General Public License (LGPLv3)
+ *  as published by the Free Software Foundation, either version 3 of the License,
+ *  or (at your option) any later version.
+ *
+ *  JJazzLabX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with JJazzLabX.  If not, see <https://www.gnu.org/licenses/>
+ *
+ *  Contributor(s):
+ */
+package org.jjazz.song.api;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import org.jjazz.filedirectorymanager.api.FileDirectoryManager;
+import org.jjazz.harmony.api.TimeSignature;
+
+/**
+ * A searchable index of the song files of a directory tree.
+ * <p>
+ * The SongMetadata of each song file is read with a streaming XML pass (no Song object is created, no song registration). Files
+ * are read in parallel by update(), and only the new or modified files (size or last modification time has changed) are read
+ * again. The index can be saved to a versioned binary file so that the next update() after application restart only reads the
+ * modified files.
+ * <p>
+ * Songs can be searched by tag, rhythm and tempo range. This class is thread-safe.
+ */
+public class SongLibraryIndex
+{
+
+    public static final String DEFAULT_INDEX_FILE_NAME = "SongLibraryIndex.bin";
+    private static final int MAGIC = 0x4A4A534C;       // "JJSL"
+    private static final int VERSION = 1;
+    /**
+     * Key=song file absolute path.
+     */
+    private final HashMap<String, SongMetadata> mapPathMetadata = new HashMap<>();
+    /**
+     * Key=lower case tag.
+     */
+    private final HashMap<String, List<SongMetadata>> mapTagMetadatas = new HashMap<>();
+    /**
+     * Key=lower case rhythm id or rhythm name.
+     */
+    private final HashMap<String, List<SongMetadata>> mapRhythmMetadatas = new HashMap<>();
+    private final TreeMap<Integer, List<SongMetadata>> mapTempoMetadatas = new TreeMap<>();
+    private final File indexFile;
+    private boolean isModified;
+    private static final Logger LOGGER = Logger.getLogger(SongLibraryIndex.class.getSimpleName());
+
+    /**
+     * Create an index and load the index file if it exists.
+     * <p>
+     * If the index file can't be read the index is empty.
+     *
+     * @param indexFile If null the index can't be saved. See getDefaultIndexFile().
+     */
+    public SongLibraryIndex(File indexFile)
+    {
+        this.indexFile = indexFile;
+        if (indexFile != null && indexFile.exists())
+        {
+            try
+            {
+                load();
+            } catch (IOException ex)
+            {
+                LOGGER.log(Level.WARNING, "SongLibraryIndex() Can''t read index file {0}, index is reset. ex={1}", new Object[]   //NOI18N
+                {
+                    indexFile.getAbsolutePath(), ex.getMessage()
+                });
+                mapPathMetadata.clear();
+                rebuildLookupTables();
+            }
+        }
+    }
+
+    /**
+     * The index file in the application config directory.
+     *
+     * @return Can be null
+     */
+    static public File getDefaultIndexFile()
+    {
+        File dir = FileDirectoryManager.getInstance().getAppConfigDirectory(null);
+        return dir == null ? null : new File(dir, DEFAULT_INDEX_FILE_NAME);
+    }
+
+    public File getIndexFile()
+    {
+        return indexFile;
+    }
+
+    /**
+     * Update the index with the song files of a directory tree.
+     * <p>
+     * New and modified song files are read in parallel. Index entries of the song files which don't exist anymore in dir are
+     * removed. Unreadable song files are not indexed. Unreadable subdirectories are skipped, their index entries are kept. Index
+     * file is saved if index was modified.
+     *
+     * @param dir
+     * @param nbThreads The number of song files read concurrently. Must be &gt; 0.
+     * @return The number of song files which have been read.
+     * @throws IOException If dir could not be scanned
+     * @throws InterruptedException
+     */
+    public int update(File dir, int nbThreads) throws IOException, InterruptedException
+    {
+        checkNotNull(dir);
+        checkArgument(nbThreads > 0, "nbThreads=%s", nbThreads);
+        long t0 = System.currentTimeMillis();
+
+
+        // Find the song files
+        List<File> songFiles = new ArrayList<>();
+        List<String> failedPaths = new ArrayList<>();
+        Path dirPath = dir.toPath();
+        String ext = "." + FileDirectoryManager.SONG_EXTENSION;
+        Files.walkFileTree(dirPath, new SimpleFileVisitor<Path>()
+        {
+            @Override
+            public FileVisitResult visitFile(Path p, BasicFileAttributes attrs)
+            {
+                if (p.getFileName().toString().toLowerCase().endsWith(ext) && Files.isRegularFile(p))
+                {
+                    songFiles.add(p.toFile().getAbsoluteFile());
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path p, IOException ex) throws IOException
+            {
+                if (p.equals(dirPath))
+                {
+                    throw ex;
+                }
+                // Don't abort the whole update for e.g. an unreadable subdirectory
+                LOGGER.log(Level.WARNING, "update() Can''t read {0}, skipped. ex={1}", new Object[]   //NOI18N
+                {
+                    p, ex.getMessage()
+                });
+                failedPaths.add(p.toFile().getAbsolutePath());
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+
+        // Select the files to be read
+        List<File> newFiles = new ArrayList<>();
+        synchronized (this)
+        {
+            for (File f : songFiles)
+            {
+                SongMetadata sm = mapPathMetadata.get(f.getPath());
+                if (sm == null || sm.isOutdated())
+                {
+                    newFiles.add(f);
+                }
+            }
+        }
+
+
+        // Read them in parallel
+        List<SongMetadata> newMetadatas = new ArrayList<>();
+        if (!newFiles.isEmpty())
+        {
+            AtomicInteger threadCount = new AtomicInteger();
+            ExecutorService executor = Executors.newFixedThreadPool(Math.min(nbThreads, newFiles.size()), r ->
+            {
+                Thread t = new Thread(r, "SongLibraryIndex-" + threadCount.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+            try
+            {
+                List<Future<SongMetadata>> futures = new ArrayList<>();
+                for (File f : newFiles)
+                {
+                    futures.add(executor.submit(() -> readOrNull(f)));
+                }
+                for (var future : futures)
+                {
+                    SongMetadata sm = future.get();
+                    if (sm != null)
+                    {
+                        newMetadatas.add(sm);
+                    }
+                }
+            } catch (ExecutionException ex)
+            {
+                // Should not happen, readOrNull() catches everything
+                throw new IllegalStateException(ex.getCause());
+            } finally
+            {
+                executor.shutdownNow();
+            }
+        }
+
+
+        // Update the index
+        boolean save;
+        synchronized (this)
+        {
+            String dirPrefix = dir.getAbsolutePath() + File.separator;
+            var songFilePaths = songFiles.stream().map(f -> f.getPath()).collect(Collectors.toSet());
+            boolean removed = mapPathMetadata.keySet().removeIf(path -> path.startsWith(dirPrefix)
+                    && !songFilePaths.contains(path)
+                    && failedPaths.stream().noneMatch(fp -> path.equals(fp) || path.startsWith(fp + File.separator)));
+            newFiles.forEach(f -> mapPathMetadata.remove(f.getPath()));        // For unreadable modified files
+            newMetadatas.forEach(sm -> mapPathMetadata.put(sm.getFile().getPath(), sm));
+            isModified |= removed || !newFiles.isEmpty();
+            rebuildLookupTables();
+            save = isModified && indexFile != null;
+        }
+        if (save)
+        {
+            save();
+        }
+
+
+        LOGGER.log(Level.INFO, "update() dir={0} nbSongFiles={1} nbReadFiles={2} nbErrors={3} time={4}ms", new Object[]   //NOI18N
+        {
+            dir.getAbsolutePath(), songFiles.size(), newFiles.size(), newFiles.size() - newMetadatas.size(), System.currentTimeMillis() - t0
+        });
+
+        return newFiles.size();
+    }
+
+    /**
+     * @return All the indexed songs.
+     */
+    public synchronized List<SongMetadata> getAll()
+    {
+        return new ArrayList<>(mapPathMetadata.values());
+    }
+
+    /**
+     * @param songFile
+     * @return Null if song file is not indexed
+     */
+    public synchronized SongMetadata get(File songFile)
+    {
+        return mapPathMetadata.get(songFile.getAbsolutePath());
+    }
+
+    /**
+     * The songs which use the specified tag.
+     *
+     * @param tag Case is ignored
+     * @return
+     */
+    public synchronized List<SongMetadata> findByTag(String tag)
+    {
+        return new ArrayList<>(mapTagMetadatas.getOrDefault(tag.toLowerCase(), Collections.emptyList()));
+    }
+
+    /**
+     * The songs which use the specified rhythm.
+     *
+     * @param rhythmIdOrName A rhythm unique id or a rhythm name, case is ignored.
+     * @return
+     */
+    public synchronized List<SongMetadata> findByRhythm(String rhythmIdOrName)
+    {
+        return new ArrayList<>(mapRhythmMetadatas.getOrDefault(rhythmIdOrName.toLowerCase(), Collections.emptyList()));
+    }
+
+    /**
+     * The songs whose tempo is in the specified range.
+     *
+     * @param tempoMin
+     * @param tempoMax Inclusive
+     * @return The songs ordered by tempo
+     */
+    public synchronized List<SongMetadata> findByTempo(int tempoMin, int tempoMax)
+    {
+        checkArgument(tempoMin <= tempoMax, "tempoMin=%s tempoMax=%s", tempoMin, tempoMax);
+        List<SongMetadata> res = new ArrayList<>();
+        mapTempoMetadatas.subMap(tempoMin, true, tempoMax, true).values().forEach(list -> res.addAll(list));
+        return res;
+    }
+
+    /**
+     * The songs which satisfy the specified tester.
+     *
+     * @param tester
+     * @return
+     */
+    public synchronized List<SongMetadata> find(Predicate<SongMetadata> tester)
+    {
+        return mapPathMetadata.values().stream()
+                .filter(tester)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Save the index in the index file.
+     *
+     * @throws IOException
+     */
+    public synchronized void save() throws IOException
+    {
+        if (indexFile == null)
+        {
+            throw new IllegalStateException("indexFile is null");   //NOI18N
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile))))
+        {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(mapPathMetadata.size());
+            for (SongMetadata sm : mapPathMetadata.values())
+            {
+                out.writeUTF(sm.getFile().getPath());
+                out.writeLong(sm.getFileSize());
+                out.writeLong(sm.getFileLastModified());
+                out.writeUTF(sm.getName());
+                out.writeInt(sm.getTempo());
+                writeStrings(out, sm.getTags());
+                writeStrings(out, sm.getTimeSignatures().stream().map(ts -> ts.name()).collect(Collectors.toList()));
+                writeStrings(out, sm.getRhythmIds());
+                writeStrings(out, sm.getRhythmNames());
+                writeStrings(out, sm.getSectionNames());
+                out.writeInt(sm.getSizeInBars());
+            }
+        }
+        isModified = false;
+        LOGGER.log(Level.FINE, "save() saved {0} entries to {1}", new Object[]   //NOI18N
+        {
+            mapPathMetadata.size(), indexFile.getAbsolutePath()
+        });
+    }
+
+    // =================================================================================
+    // Private methods
+    // =================================================================================
+    private void load() throws IOException
+    {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile))))
+        {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+            {
+                throw new IOException("Invalid index file format");   //NOI18N
+            }
+            int nbEntries = in.readInt();
+            for (int i = 0; i < nbEntries; i++)
+            {
+                File f = new File(in.readUTF());
+                long size = in.readLong();
+                long lastModified = in.readLong();
+                String name = in.readUTF();
+                int tempo = in.readInt();
+                List<String> tags = readStrings(in);
+                List<TimeSignature> timeSignatures = new ArrayList<>();
+                for (String s : readStrings(in))
+                {
+                    timeSignatures.add(TimeSignature.valueOf(s));
+                }
+                List<String> rhythmIds = readStrings(in);
+                List<String> rhythmNames = readStrings(in);
+                List<String> sectionNames = readStrings(in);
+                int sizeInBars = in.readInt();
+                var sm = new SongMetadata(f, size, lastModified, name, tempo, tags, timeSignatures, rhythmIds, rhythmNames,
+                        sectionNames, sizeInBars);
+                mapPathMetadata.put(f.getPath(), sm);
+            }
+        } catch (IllegalArgumentException ex)
+        {
+            throw new IOException(ex);
+        }
+        rebuildLookupTables();
+        LOGGER.log(Level.FINE, "load() loaded {0} entries from {1}", new Object[]   //NOI18N
+        {
+            mapPathMetadata.size(), indexFile.getAbsolutePath()
+        });
+    }
+
+    private void rebuildLookupTables()
+    {
+        mapTagMetadatas.clear();
+        mapRhythmMetadatas.clear();
+        mapTempoMetadatas.clear();
+        for (SongMetadata sm : mapPathMetadata.values())
+        {
+            for (String tag : sm.getTags())
+            {
+                addToTable(mapTagMetadatas, tag.toLowerCase(), sm);
+            }
+            for (String id : sm.getRhythmIds())
+            {
+                addToTable(mapRhythmMetadatas, id.toLowerCase(), sm);
+            }
+            for (String name : sm.getRhythmNames())
+            {
+                addToTable(mapRhythmMetadatas, name.toLowerCase(), sm);
+            }
+            mapTempoMetadatas.computeIfAbsent(sm.getTempo(), t -> new ArrayList<>()).add(sm);
+        }
+    }
+
+    private void addToTable(Map<String, List<SongMetadata>> table, String key, SongMetadata sm)
+    {
+        List<SongMetadata> list = table.computeIfAbsent(key, k -> new ArrayList<>());
+        if (!list.contains(sm))
+        {
+            list.add(sm);       // A rhythm id and name can be equal
+        }
+    }
+
+    /**
+     * @return Null if song file could not be read.
+     */
+    private SongMetadata readOrNull(File songFile)
+    {
+        try
+        {
+            return SongMetadataReader.read(songFile);
+        } catch (Throwable ex)
+        {
+            // Catch everything so that other files are read
+            LOGGER.log(Level.WARNING, "readOrNull() songFile={0} ex={1}", new Object[]   //NOI18N
+            {
+                songFile.getAbsolutePath(), ex.getMessage()
+            });
+            return null;
+        }
+    }
+
+    static private void writeStrings(DataOutputStream out, List<String> strings) throws IOException
+    {
+        out.writeInt(strings.size());
+        for (String s : strings)
+        {
+            out.writeUTF(s);
+        }
+    }
+
+    static private List<String> readStrings(DataInputStream in) throws IOException
+    {
+        int size = in.readInt();
+        if (size < 0)
+        {
+            throw new IOException("Invalid size=" + size);   //NOI18N
+        }
+        List<String> res = new ArrayList<>(size);
+        for (int i = 0; i < size; i++)
+        {
+            res.add(in.readUTF());
+        }
+        return res;
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ *  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ *  Copyright @2019 Jerome Lelasseux. All rights reserved.
+ *
+ *  This file is part of the JJazzLabX software.
+ *
+ *  JJazzLabX is free software: you can redistribute it and/or modify
+ *  it under the terms of the Lesser GNU General Public License (LGPLv3)
+ *  as published by the Free Software Foundation, either version 3 of the License,
+ *  or (at your option) any later version.
+ *
+ *  JJazzLabX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with JJazzLabX.  If not, see <https://www.gnu.org/licenses/>
+ *
+ *  Contributor(s):
+ */
+package org.jjazz.song.api;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import org.jjazz.harmony.api.TimeSignature;
+
+/**
+ * The searchable metadata of a song file, as stored in a SongLibraryIndex.
+ * <p>
+ * Metadata is read directly from the song file, without creating the Song object: see Song.getTags() and
+ * SongStructure.getSongParts() for the meaning of the fields. This is an immutable class.
+ */
+public class SongMetadata
+{
+
+    private final File file;
+    private final long fileSize;
+    private final long fileLastModified;
+    private final String name;
+    private final int tempo;
+    private final List<String> tags;
+    private final List<TimeSignature> timeSignatures;
+    private final List<String> rhythmIds;
+    private final List<String> rhythmNames;
+    private final List<String> sectionNames;
+    private final int sizeInBars;
+
+    /**
+     * @param file
+     * @param fileSize
+     * @param fileLastModified
+     * @param name
+     * @param tempo
+     * @param tags
+     * @param timeSignatures
+     * @param rhythmIds
+     * @param rhythmNames
+     * @param sectionNames
+     * @param sizeInBars
+     */
+    public SongMetadata(File file, long fileSize, long fileLastModified, String name, int tempo, List<String> tags,
+            List<TimeSignature> timeSignatures, List<String> rhythmIds, List<String> rhythmNames, List<String> sectionNames,
+            int sizeInBars)
+    {
+        checkNotNull(file);
+        checkNotNull(name);
+        this.file = file;
+        this.fileSize = fileSize;
+        this.fileLastModified = fileLastModified;
+        this.name = name;
+        this.tempo = tempo;
+        this.tags = Collections.unmodifiableList(tags);
+        this.timeSignatures = Collections.unmodifiableList(timeSignatures);
+        this.rhythmIds = Collections.unmodifiableList(rhythmIds);
+        this.rhythmNames = Collections.unmodifiableList(rhythmNames);
+        this.sectionNames = Collections.unmodifiableList(sectionNames);
+        this.sizeInBars = sizeInBars;
+    }
+
+    public File getFile()
+    {
+        return file;
+    }
+
+    /**
+     * @return The song file size when metadata was read.
+     */
+    public long getFileSize()
+    {
+        return fileSize;
+    }
+
+    /**
+     * @return The song file last modification time when metadata was read.
+     */
+    public long getFileLastModified()
+    {
+        return fileLastModified;
+    }
+
+    /**
+     * @return The song name, derived from the file name like in SongFactory.createFromFile().
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    public int getTempo()
+    {
+        return tempo;
+    }
+
+    /**
+     * @return The song tags, unmodifiable list.
+     */
+    public List<String> getTags()
+    {
+        return tags;
+    }
+
+    /**
+     * @return The distinct time signatures of the sections, in section order. Unmodifiable list.
+     */
+    public List<TimeSignature> getTimeSignatures()
+    {
+        return timeSignatures;
+    }
+
+    /**
+     * @return The distinct unique ids of the rhythms used by the song parts, in song part order. Unmodifiable list.
+     */
+    public List<String> getRhythmIds()
+    {
+        return rhythmIds;
+    }
+
+    /**
+     * @return The distinct names of the rhythms used by the song parts, in song part order. Unmodifiable list.
+     */
+    public List<String> getRhythmNames()
+    {
+        return rhythmNames;
+    }
+
+    /**
+     * @return The names of the chord leadsheet sections, in section order. Unmodifiable list.
+     */
+    public List<String> getSectionNames()
+    {
+        return sectionNames;
+    }
+
+    /**
+     * @return The size in bars of the song structure.
+     */
+    public int getSizeInBars()
+    {
+        return sizeInBars;
+    }
+
+    /**
+     * Check if the song file was modified since metadata was read.
+     *
+     * @return True if file size or last modification time has changed.
+     */
+    public boolean isOutdated()
+    {
+        return file.length() != fileSize || file.lastModified() != fileLastModified;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "SongMetadata[" + name + ", tempo=" + tempo + ", tags=" + tags + ", ts=" + timeSignatures + ", rhythms=" + rhythmNames
+                + ", sections=" + sectionNames + ", bars=" + sizeInBars + "]";
+    }
+}
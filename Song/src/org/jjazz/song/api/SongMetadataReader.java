@@ -0,0 +1,215 @@
+/*
+ *  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ *  Copyright @2019 Jerome Lelasseux. All rights reserved.
+ *
+ *  This file is part of the JJazzLabX software.
+ *
+ *  JJazzLabX is free software: you can redistribute it and/or modify
+ *  it under the terms of the Lesser GNU General Public License (LGPLv3)
+ *  as published by the Free Software Foundation, either version 3 of the License,
+ *  or (at your option) any later version.
+ *
+ *  JJazzLabX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with JJazzLabX.  If not, see <https://www.gnu.org/licenses/>
+ *
+ *  Contributor(s):
+ */
+package org.jjazz.song.api;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import org.jjazz.harmony.api.TimeSignature;
+
+/**
+ * Read the SongMetadata of a song file with a single streaming pass on the XML produced by XStream.
+ * <p>
+ * Only the elements of the Song, ChordLeadSheet and SongStructure serialization proxies are used: no object is created and
+ * parsing stops at the end of the song structure, so the user phrases are not read.
+ * <p>
+ * This class is thread-safe.
+ */
+class SongMetadataReader
+{
+
+    private static final XMLInputFactory XML_INPUT_FACTORY;
+
+    static
+    {
+        XML_INPUT_FACTORY = XMLInputFactory.newInstance();
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    /**
+     * Read the metadata of a song file.
+     *
+     * @param songFile
+     * @return
+     * @throws IOException If file is not a valid song file
+     */
+    static public SongMetadata read(File songFile) throws IOException
+    {
+        // Get the fingerprint before reading so that a concurrent modification makes the metadata outdated
+        long size = songFile.length();
+        long lastModified = songFile.lastModified();
+        try (InputStream is = new BufferedInputStream(new FileInputStream(songFile)))
+        {
+            XMLStreamReader reader;
+            synchronized (XML_INPUT_FACTORY)
+            {
+                reader = XML_INPUT_FACTORY.createXMLStreamReader(is, "UTF-8");
+            }
+            try
+            {
+                return read(reader, songFile, size, lastModified);
+            } finally
+            {
+                reader.close();
+            }
+        } catch (XMLStreamException | IllegalArgumentException ex)      // IllegalArgumentException will catch NumberFormatException too
+        {
+            throw new IOException("Invalid song file " + songFile.getAbsolutePath() + ": " + ex.getMessage(), ex);   //NOI18N
+        }
+    }
+
+    // =================================================================================
+    // Private methods
+    // =================================================================================
+    static private SongMetadata read(XMLStreamReader reader, File songFile, long size, long lastModified) throws XMLStreamException, IOException
+    {
+        int tempo = 0;
+        List<String> tags = new ArrayList<>();
+        List<TimeSignature> timeSignatures = new ArrayList<>();
+        List<String> rhythmIds = new ArrayList<>();
+        List<String> rhythmNames = new ArrayList<>();
+        List<String> sectionNames = new ArrayList<>();
+        int sizeInBars = 0;
+
+
+        // The current element path from the root element
+        List<String> path = new ArrayList<>();
+        String sectionName = null;
+        TimeSignature sectionTs = null;
+
+
+        while (reader.hasNext())
+        {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT)
+            {
+                String name = reader.getLocalName();
+                path.add(name);
+                int depth = path.size();
+
+                if (depth == 1)
+                {
+                    if (!name.equals("Song"))
+                    {
+                        throw new IOException("Not a song file, root element=" + name);   //NOI18N
+                    }
+                } else if (depth == 2 && name.equals("spTempo"))
+                {
+                    tempo = Integer.parseInt(getText(reader, path));
+
+                } else if (depth >= 3 && path.get(1).equals("spTags") && name.equals("string"))
+                {
+                    tags.add(getText(reader, path));
+
+                } else if (depth == 5 && path.get(1).equals("spChordLeadSheet") && path.get(3).endsWith("SectionImpl"))
+                {
+                    // A CLI_Section field
+                    switch (name)
+                    {
+                        case "spName":
+                            sectionName = getText(reader, path);
+                            break;
+                        case "spTs":
+                            String s = getText(reader, path);
+                            sectionTs = Arrays.stream(TimeSignature.values()).filter(ts -> ts.name().equals(s)).findAny().orElse(null);
+                            break;
+                        default:
+                        // Nothing
+                    }
+
+                } else if (depth == 5 && path.get(1).equals("spSongStructure") && path.get(2).equals("spSpts"))
+                {
+                    // A SongPart field
+                    switch (name)
+                    {
+                        case "spRhythmId":
+                            addIfAbsent(rhythmIds, getText(reader, path));
+                            break;
+                        case "spRhythmName":
+                            addIfAbsent(rhythmNames, getText(reader, path));
+                            break;
+                        case "spNbBars":
+                            sizeInBars += Integer.parseInt(getText(reader, path));
+                            break;
+                        default:
+                        // Nothing
+                    }
+                }
+
+            } else if (event == XMLStreamConstants.END_ELEMENT)
+            {
+                int depth = path.size();
+                String name = path.remove(depth - 1);
+                if (depth == 4 && path.get(1).equals("spChordLeadSheet") && name.endsWith("SectionImpl"))
+                {
+                    if (sectionName != null)
+                    {
+                        sectionNames.add(sectionName);
+                    }
+                    if (sectionTs != null)
+                    {
+                        addIfAbsent(timeSignatures, sectionTs);
+                    }
+                    sectionName = null;
+                    sectionTs = null;
+                } else if (depth == 2 && name.equals("spSongStructure"))
+                {
+                    // Next elements are the user phrases which can be big, not needed
+                    break;
+                }
+            }
+        }
+
+
+        return new SongMetadata(songFile, size, lastModified, Song.removeSongExtension(songFile.getName()), tempo, tags,
+                timeSignatures, rhythmIds, rhythmNames, sectionNames, sizeInBars);
+    }
+
+    /**
+     * Get the text of the current element, and update path since reader is moved to the end of the element.
+     */
+    static private String getText(XMLStreamReader reader, List<String> path) throws XMLStreamException
+    {
+        String res = reader.getElementText().trim();
+        path.remove(path.size() - 1);
+        return res;
+    }
+
+    static private <T> void addIfAbsent(List<T> list, T item)
+    {
+        if (!list.contains(item))
+        {
+            list.add(item);
+        }
+    }
+}
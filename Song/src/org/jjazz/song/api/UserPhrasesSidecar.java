@@ -0,0 +1,150 @@
+/*
+ *  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ *  Copyright @2019 Jerome Lelasseux. All rights reserved.
+ *
+ *  This file is part of the JJazzLabX software.
+ *
+ *  JJazzLabX is free software: you can redistribute it and/or modify
+ *  it under the terms of the Lesser GNU General Public License (LGPLv3)
+ *  as published by the Free Software Foundation, either version 3 of the License,
+ *  or (at your option) any later version.
+ *
+ *  JJazzLabX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with JJazzLabX.  If not, see <https://www.gnu.org/licenses/>
+ *
+ *  Contributor(s):
+ */
+package org.jjazz.song.api;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+import org.jjazz.phrase.api.Phrase;
+import org.jjazz.util.api.Utilities;
+import org.jjazz.util.api.XStreamCodec;
+
+/**
+ * The optional binary file which stores the user phrases of a song file.
+ * <p>
+ * User phrases are always saved in the song file. When the sidecar file is present and matches the song file content (same
+ * length and CRC32), the user phrases are read from the sidecar file instead, which avoids parsing the user phrases strings of
+ * the song file. A sidecar file which does not match the song file (e.g. song file was modified by an older JJazzLab version) is
+ * ignored.
+ */
+class UserPhrasesSidecar
+{
+
+    public static final String EXTENSION = "sngup";
+    private static final int MAGIC = 0x4A4A5550;    // "JJUP"
+    private static final int VERSION = 1;
+    /**
+     * Used to read a song file whose user phrases are read from the sidecar file.
+     */
+    static final XStreamCodec XSTREAM_CODEC_NO_USER_PHRASES = new XStreamCodec(xstream ->
+    {
+        xstream.alias("Song", Song.class);
+        Song.omitUserPhrases(xstream);
+    });
+    private static final Logger LOGGER = Logger.getLogger(UserPhrasesSidecar.class.getSimpleName());
+
+    /**
+     * The sidecar file of the specified song file.
+     *
+     * @param songFile
+     * @return
+     */
+    static public File getFile(File songFile)
+    {
+        return new File(songFile.getAbsoluteFile().getParentFile(), Utilities.replaceExtension(songFile.getName(), EXTENSION));
+    }
+
+    /**
+     * Save the user phrases of song in the sidecar file of songFile.
+     *
+     * @param song
+     * @param songFile
+     * @param songFileLength
+     * @param songFileCrc The CRC32 of the song file content
+     * @throws IOException
+     */
+    static public void save(Song song, File songFile, long songFileLength, long songFileCrc) throws IOException
+    {
+        File f = getFile(songFile);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f))))
+        {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(songFileLength);
+            out.writeLong(songFileCrc);
+            out.writeInt(song.getUserPhraseNames().size());
+            for (String name : song.getUserPhraseNames())
+            {
+                out.writeUTF(name);
+                Phrase.saveAsBinary(song.getUserPhrase(name), out);
+            }
+        }
+        LOGGER.fine("save() saved " + f.getAbsolutePath());   //NOI18N
+    }
+
+    /**
+     * Load the user phrases from the sidecar file of songFile.
+     *
+     * @param songFile
+     * @param songFileLength
+     * @param songFileCrc The CRC32 of the song file content
+     * @return Null if the sidecar file does not match the song file content.
+     * @throws IOException If sidecar file is corrupted
+     */
+    static public Map<String, Phrase> load(File songFile, long songFileLength, long songFileCrc) throws IOException
+    {
+        File f = getFile(songFile);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f))))
+        {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+            {
+                throw new IOException("Invalid file format " + f.getAbsolutePath());   //NOI18N
+            }
+            if (in.readLong() != songFileLength || in.readLong() != songFileCrc)
+            {
+                LOGGER.fine("load() sidecar file does not match song file, ignored: " + f.getAbsolutePath());   //NOI18N
+                return null;
+            }
+            int nbPhrases = in.readInt();
+            Map<String, Phrase> res = new HashMap<>();
+            for (int i = 0; i < nbPhrases; i++)
+            {
+                String name = in.readUTF();
+                res.put(name, Phrase.loadAsBinary(in));
+            }
+            return res;
+        }
+    }
+
+    /**
+     * Delete the sidecar file of songFile, if any.
+     *
+     * @param songFile
+     */
+    static public void delete(File songFile)
+    {
+        File f = getFile(songFile);
+        if (f.exists() && !f.delete())
+        {
+            LOGGER.warning("delete() Could not delete " + f.getAbsolutePath());   //NOI18N
+        }
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ *  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ * 
+ *  Copyright @2019 Jerome Lelasseux. All rights reserved.
+ *
+ *  This file is part of the JJazzLabX software.
+ *   
+ *  JJazzLabX is free software: you can redistribute it and/or modify
+ *  it under the terms of the Lesser GNU General Public License (LGPLv3) 
+ *  as published by the Free Software Foundation, either version 3 of the License, 
+ *  or (at your option) any later version.
+ *
+ *  JJazzLabX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the 
+ *  GNU Lesser General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with JJazzLabX.  If not, see <https://www.gnu.org/licenses/>
+ * 
+ *  Contributor(s): 
+ */
+package org.jjazz.song.api;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.jjazz.harmony.api.TimeSignature;
+import org.jjazz.leadsheet.chordleadsheet.api.ChordLeadSheet;
+import org.jjazz.leadsheet.chordleadsheet.api.item.CLI_Factory;
+import org.jjazz.rhythm.database.api.RhythmDatabase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test of SongLibraryIndex update, search and save/reload.
+ */
+public class SongLibraryIndexTest
+{
+
+    private File dir;
+    private File songDir;
+    private File indexFile;
+    private File song1;
+    private File song2;
+    private File song3;
+
+    public SongLibraryIndexTest()
+    {
+    }
+
+    @BeforeClass
+    public static void setUpClass()
+    {
+        RhythmDatabase.getUnitTestDefault();
+    }
+
+    @Before
+    public void setUp() throws Exception
+    {
+        dir = Files.createTempDirectory("SongLibraryIndexTest").toFile();
+        songDir = new File(dir, "songs");
+        indexFile = new File(dir, "index.bin");
+        song1 = new File(songDir, "song1.sng");
+        song2 = new File(songDir, "sub1/song2.sng");
+        song3 = new File(songDir, "sub2/sub3/song3.sng");
+        assertTrue(song2.getParentFile().mkdirs());
+        assertTrue(song3.getParentFile().mkdirs());
+        saveSong(song1, 100, TimeSignature.FOUR_FOUR, "jazz", "ballad");
+        saveSong(song2, 140, TimeSignature.THREE_FOUR, "waltz");
+        saveSong(song3, 200, TimeSignature.FOUR_FOUR, "jazz");
+        Files.writeString(new File(songDir, "sub1/notASong.txt").toPath(), "hello");
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        try (Stream<Path> stream = Files.walk(dir.toPath()))
+        {
+            stream.sorted(Comparator.reverseOrder()).map(p -> p.toFile()).forEach(f -> f.delete());
+        }
+    }
+
+    @Test
+    public void testUpdateAndFind() throws Exception
+    {
+        System.out.println("=== testUpdateAndFind()");
+        SongLibraryIndex index = new SongLibraryIndex(indexFile);
+        assertTrue(index.getAll().isEmpty());
+        assertEquals(3, index.update(songDir, 2));
+        assertEquals(3, index.getAll().size());
+
+
+        SongMetadata sm2 = index.get(song2);
+        assertNotNull(sm2);
+        assertEquals("song2", sm2.getName());
+        assertEquals(140, sm2.getTempo());
+        assertEquals(Arrays.asList("waltz"), sm2.getTags());
+        assertEquals(Arrays.asList(TimeSignature.THREE_FOUR), sm2.getTimeSignatures());
+
+
+        assertEquals(Arrays.asList("song1", "song3"), getNames(index.findByTag("JAZZ")));
+        assertEquals(Arrays.asList("song2"), getNames(index.findByTag("waltz")));
+        assertTrue(index.findByTag("unknown").isEmpty());
+        assertEquals(Arrays.asList("song1", "song2"), getNames(index.findByTempo(100, 140)));
+        assertEquals(Arrays.asList("song3"), getNames(index.findByTempo(141, 300)));
+        assertEquals(Arrays.asList("song2"), getNames(index.findByRhythm(sm2.getRhythmIds().get(0))));
+        assertEquals(Arrays.asList("song2"), getNames(index.find(sm -> sm.getTimeSignatures().contains(TimeSignature.THREE_FOUR))));
+
+
+        // Nothing changed
+        assertEquals(0, index.update(songDir, 2));
+        assertEquals(3, index.getAll().size());
+    }
+
+    @Test
+    public void testSaveReloadAndUpdateModifiedFile() throws Exception
+    {
+        System.out.println("=== testSaveReloadAndUpdateModifiedFile()");
+        SongLibraryIndex index = new SongLibraryIndex(indexFile);
+        assertEquals(3, index.update(songDir, 3));
+        assertTrue(indexFile.exists());        // Saved by update()
+
+
+        // Reload
+        SongLibraryIndex index2 = new SongLibraryIndex(indexFile);
+        assertEquals(3, index2.getAll().size());
+        for (SongMetadata sm : index.getAll())
+        {
+            assertSameMetadata(sm, index2.get(sm.getFile()));
+        }
+        assertEquals(Arrays.asList("song1", "song3"), getNames(index2.findByTag("jazz")));
+        assertEquals(0, index2.update(songDir, 3));
+
+
+        // Modify one file: only this file is read again
+        saveSong(song3, 90, TimeSignature.FOUR_FOUR, "blues");
+        song3.setLastModified(index2.get(song3).getFileLastModified() + 2000);
+        assertTrue(index2.get(song3).isOutdated());
+        assertEquals(1, index2.update(songDir, 3));
+        assertEquals(90, index2.get(song3).getTempo());
+        assertEquals(Arrays.asList("song1"), getNames(index2.findByTag("jazz")));
+        assertEquals(Arrays.asList("song3"), getNames(index2.findByTag("blues")));
+        assertEquals(Arrays.asList("song1", "song3"), getNames(index2.findByTempo(80, 110)));
+
+
+        // The modification was saved
+        SongLibraryIndex index3 = new SongLibraryIndex(indexFile);
+        assertSameMetadata(index2.get(song3), index3.get(song3));
+        assertEquals(0, index3.update(songDir, 3));
+    }
+
+    @Test
+    public void testRemovedAndInvalidFiles() throws Exception
+    {
+        System.out.println("=== testRemovedAndInvalidFiles()");
+        SongLibraryIndex index = new SongLibraryIndex(indexFile);
+        assertEquals(3, index.update(songDir, 2));
+
+
+        // Removed file
+        assertTrue(song2.delete());
+        assertEquals(0, index.update(songDir, 2));
+        assertNull(index.get(song2));
+        assertTrue(index.findByTag("waltz").isEmpty());
+        assertEquals(2, new SongLibraryIndex(indexFile).getAll().size());
+
+
+        // Invalid song file is read but not indexed
+        File invalid = new File(songDir, "sub1/invalid.sng");
+        Files.writeString(invalid.toPath(), "not a song");
+        assertEquals(1, index.update(songDir, 2));
+        assertNull(index.get(invalid));
+        assertEquals(2, index.getAll().size());
+
+
+        // Updating a subdirectory does not impact the other entries
+        assertEquals(0, index.update(song3.getParentFile(), 2));
+        assertEquals(2, index.getAll().size());
+    }
+
+    @Test
+    public void testUnreadableSubdirectory() throws Exception
+    {
+        System.out.println("=== testUnreadableSubdirectory()");
+        SongLibraryIndex index = new SongLibraryIndex(indexFile);
+        assertEquals(3, index.update(songDir, 2));
+
+
+        File sub2 = song3.getParentFile().getParentFile();
+        assertTrue(sub2.setReadable(false));
+        try
+        {
+            if (sub2.list() != null)
+            {
+                // Permissions are not enforced, e.g. when run as root
+                System.out.println("  permissions not enforced, test skipped");
+                return;
+            }
+
+
+            // The unreadable subdirectory must not abort the update, and its entries are kept
+            saveSong(song1, 120, TimeSignature.FOUR_FOUR, "swing");
+            song1.setLastModified(index.get(song1).getFileLastModified() + 2000);
+            assertEquals(1, index.update(songDir, 2));
+            assertEquals(120, index.get(song1).getTempo());
+            assertNotNull(index.get(song3));
+            assertEquals(3, index.getAll().size());
+        } finally
+        {
+            sub2.setReadable(true);
+        }
+    }
+
+    // ==================================================================================================
+    // Private methods
+    // ==================================================================================================
+    private void saveSong(File f, int tempo, TimeSignature ts, String... tags) throws Exception
+    {
+        Song song = SongFactory.getInstance().createEmptySong("song", 4);
+        if (!ts.equals(TimeSignature.FOUR_FOUR))
+        {
+            ChordLeadSheet cls = song.getChordLeadSheet();
+            cls.setSectionTimeSignature(cls.getSection(0), ts);
+        }
+        song.setTempo(tempo);
+        song.setTags(Arrays.asList(tags));
+        song.saveToFile(f, false);
+        song.close(false);
+    }
+
+    private List<String> getNames(List<SongMetadata> sms)
+    {
+        return sms.stream().map(sm -> sm.getName()).sorted().collect(Collectors.toList());
+    }
+
+    private void assertSameMetadata(SongMetadata sm1, SongMetadata sm2)
+    {
+        assertNotNull(sm2);
+        assertEquals(sm1.getFile(), sm2.getFile());
+        assertEquals(sm1.getFileSize(), sm2.getFileSize());
+        assertEquals(sm1.getFileLastModified(), sm2.getFileLastModified());
+        assertEquals(sm1.getName(), sm2.getName());
+        assertEquals(sm1.getTempo(), sm2.getTempo());
+        assertEquals(sm1.getTags(), sm2.getTags());
+        assertEquals(sm1.getTimeSignatures(), sm2.getTimeSignatures());
+        assertEquals(sm1.getRhythmIds(), sm2.getRhythmIds());
+        assertEquals(sm1.getRhythmNames(), sm2.getRhythmNames());
+        assertEquals(sm1.getSectionNames(), sm2.getSectionNames());
+        assertEquals(sm1.getSizeInBars(), sm2.getSizeInBars());
+    }
+}
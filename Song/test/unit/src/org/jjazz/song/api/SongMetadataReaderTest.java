@@ -0,0 +1,172 @@
+/*
+ *  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ * 
+ *  Copyright @2019 Jerome Lelasseux. All rights reserved.
+ *
+ *  This file is part of the JJazzLabX software.
+ *   
+ *  JJazzLabX is free software: you can redistribute it and/or modify
+ *  it under the terms of the Lesser GNU General Public License (LGPLv3) 
+ *  as published by the Free Software Foundation, either version 3 of the License, 
+ *  or (at your option) any later version.
+ *
+ *  JJazzLabX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the 
+ *  GNU Lesser General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with JJazzLabX.  If not, see <https://www.gnu.org/licenses/>
+ * 
+ *  Contributor(s): 
+ */
+package org.jjazz.song.api;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.jjazz.harmony.api.TimeSignature;
+import org.jjazz.leadsheet.chordleadsheet.api.ChordLeadSheet;
+import org.jjazz.leadsheet.chordleadsheet.api.item.CLI_Factory;
+import org.jjazz.rhythm.database.api.RhythmDatabase;
+import org.jjazz.songstructure.api.SongPart;
+import org.jjazz.songstructure.api.SongStructure;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test of SongMetadataReader with song files saved by Song.saveToFile().
+ */
+public class SongMetadataReaderTest
+{
+
+    private File dir;
+
+    public SongMetadataReaderTest()
+    {
+    }
+
+    @BeforeClass
+    public static void setUpClass()
+    {
+        RhythmDatabase.getUnitTestDefault();
+    }
+
+    @Before
+    public void setUp() throws IOException
+    {
+        dir = Files.createTempDirectory("SongMetadataReaderTest").toFile();
+    }
+
+    @After
+    public void tearDown()
+    {
+        for (File f : dir.listFiles())
+        {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testRead() throws Exception
+    {
+        System.out.println("=== testRead()");
+        Song song = SongFactory.getInstance().createEmptySong("metadata", 8);
+        ChordLeadSheet cls = song.getChordLeadSheet();
+        cls.addSection(CLI_Factory.getDefault().createSection(cls, "B", TimeSignature.THREE_FOUR, 4));
+        cls.addSection(CLI_Factory.getDefault().createSection(cls, "C", TimeSignature.FOUR_FOUR, 6));
+        SongStructure sgs = song.getSongStructure();
+        SongPart spt0 = sgs.getSongParts().get(0);
+        sgs.addSongParts(Arrays.asList(spt0.clone(spt0.getRhythm(), sgs.getSizeInBars(), spt0.getNbBars(), spt0.getParentSection())));
+        song.setTempo(133);
+        song.setTags(Arrays.asList("jazz", "Ballad", "my tag"));
+
+        File songFile = new File(dir, "My Song.sng");
+        song.saveToFile(songFile, false);
+        song.close(false);
+
+
+        SongMetadata sm = SongMetadataReader.read(songFile);
+        assertEquals(songFile, sm.getFile());
+        assertEquals(songFile.length(), sm.getFileSize());
+        assertEquals(songFile.lastModified(), sm.getFileLastModified());
+        assertFalse(sm.isOutdated());
+        assertEquals("My Song", sm.getName());
+        assertEquals(133, sm.getTempo());
+        assertEquals(song.getTags(), sm.getTags());
+        assertEquals(Arrays.asList(TimeSignature.FOUR_FOUR, TimeSignature.THREE_FOUR), sm.getTimeSignatures());
+        assertEquals(Arrays.asList("A", "B", "C"), sm.getSectionNames());
+        assertEquals(12, sm.getSizeInBars());
+        assertEquals(sgs.getSizeInBars(), sm.getSizeInBars());
+
+
+        List<String> rhythmIds = sgs.getSongParts().stream()
+                .map(spt -> spt.getRhythm().getUniqueId())
+                .distinct()
+                .collect(Collectors.toList());
+        List<String> rhythmNames = sgs.getSongParts().stream()
+                .map(spt -> spt.getRhythm().getName())
+                .distinct()
+                .collect(Collectors.toList());
+        assertEquals(2, rhythmIds.size());
+        assertEquals(rhythmIds, sm.getRhythmIds());
+        assertEquals(rhythmNames, sm.getRhythmNames());
+
+
+        // Modifying the file makes the metadata outdated
+        assertTrue(songFile.setLastModified(songFile.lastModified() - 10000));
+        assertTrue(sm.isOutdated());
+    }
+
+    @Test
+    public void testReadEmptySong() throws Exception
+    {
+        System.out.println("=== testReadEmptySong()");
+        Song song = SongFactory.getInstance().createEmptySong("empty", 4);
+        File songFile = new File(dir, "empty.sng");
+        song.saveToFile(songFile, false);
+        song.close(false);
+
+        SongMetadata sm = SongMetadataReader.read(songFile);
+        assertEquals("empty", sm.getName());
+        assertEquals(song.getTempo(), sm.getTempo());
+        assertTrue(sm.getTags().isEmpty());
+        assertEquals(Arrays.asList(TimeSignature.FOUR_FOUR), sm.getTimeSignatures());
+        assertEquals(Arrays.asList("A"), sm.getSectionNames());
+        assertEquals(4, sm.getSizeInBars());
+        assertEquals(1, sm.getRhythmIds().size());
+    }
+
+    @Test
+    public void testReadInvalidFile() throws Exception
+    {
+        System.out.println("=== testReadInvalidFile()");
+        File f = new File(dir, "invalid.sng");
+        Files.writeString(f.toPath(), "<NotASong><spTempo>120</spTempo></NotASong>");
+        try
+        {
+            SongMetadataReader.read(f);
+            fail("IOException expected");
+        } catch (IOException ex)
+        {
+            // OK
+        }
+
+        Files.writeString(f.toPath(), "<Song><spTempo>12");
+        try
+        {
+            SongMetadataReader.read(f);
+            fail("IOException expected");
+        } catch (IOException ex)
+        {
+            // OK
+        }
+    }
+}
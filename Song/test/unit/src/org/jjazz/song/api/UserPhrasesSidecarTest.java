@@ -0,0 +1,313 @@
+/*
+ *  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ * 
+ *  Copyright @2019 Jerome Lelasseux. All rights reserved.
+ *
+ *  This file is part of the JJazzLabX software.
+ *   
+ *  JJazzLabX is free software: you can redistribute it and/or modify
+ *  it under the terms of the Lesser GNU General Public License (LGPLv3) 
+ *  as published by the Free Software Foundation, either version 3 of the License, 
+ *  or (at your option) any later version.
+ *
+ *  JJazzLabX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the 
+ *  GNU Lesser General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with JJazzLabX.  If not, see <https://www.gnu.org/licenses/>
+ * 
+ *  Contributor(s): 
+ */
+package org.jjazz.song.api;
+
+import java.beans.PropertyVetoException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+import org.jjazz.phrase.api.NoteEvent;
+import org.jjazz.phrase.api.Phrase;
+import org.jjazz.rhythm.database.api.RhythmDatabase;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test of the user phrases sidecar file, through Song.saveToFile() and SongFactory.createFromFile().
+ */
+public class UserPhrasesSidecarTest
+{
+
+    private static boolean saveSidecarEnabled;
+    private Random random;
+    private File dir;
+    private File songFile;
+    private File sidecarFile;
+
+    public UserPhrasesSidecarTest()
+    {
+    }
+
+    @BeforeClass
+    public static void setUpClass()
+    {
+        RhythmDatabase.getUnitTestDefault();
+        saveSidecarEnabled = SongFactory.getInstance().isUserPhrasesSidecarEnabled();
+        SongFactory.getInstance().setUserPhrasesSidecarEnabled(true);
+    }
+
+    @AfterClass
+    public static void tearDownClass()
+    {
+        SongFactory.getInstance().setUserPhrasesSidecarEnabled(saveSidecarEnabled);
+    }
+
+    @Before
+    public void setUp() throws IOException
+    {
+        random = new Random(97531L);
+        dir = Files.createTempDirectory("UserPhrasesSidecarTest").toFile();
+        songFile = new File(dir, "song.sng");
+        sidecarFile = UserPhrasesSidecar.getFile(songFile);
+    }
+
+    @After
+    public void tearDown()
+    {
+        for (File f : dir.listFiles())
+        {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testMatchingSidecar() throws Exception
+    {
+        System.out.println("=== testMatchingSidecar()");
+        Song song = createSong();
+        song.saveToFile(songFile, false);
+        assertTrue(sidecarFile.exists());
+
+
+        // Sidecar matches the song file
+        byte[] bytes = Files.readAllBytes(songFile.toPath());
+        var mapPhrases = UserPhrasesSidecar.load(songFile, bytes.length, getCrc(bytes));
+        assertNotNull(mapPhrases);
+        assertEquals(song.getUserPhraseNames(), mapPhrases.keySet());
+        for (String name : song.getUserPhraseNames())
+        {
+            assertSamePhrase(name, song.getUserPhrase(name), mapPhrases.get(name));
+        }
+
+
+        Song song2 = SongFactory.getInstance().createFromFile(songFile);
+        assertSameUserPhrases(song, song2);
+
+
+        // Check that the user phrases are really read from the sidecar file: use a matching sidecar with other phrases
+        Song otherSong = createSong();
+        UserPhrasesSidecar.save(otherSong, songFile, bytes.length, getCrc(bytes));
+        Song song3 = SongFactory.getInstance().createFromFile(songFile);
+        assertSameUserPhrases(otherSong, song3);
+        closeSongs(song, song2, otherSong, song3);
+    }
+
+    @Test
+    public void testStaleSidecarDifferentLength() throws Exception
+    {
+        System.out.println("=== testStaleSidecarDifferentLength()");
+        Song song = createSong();
+        song.saveToFile(songFile, false);
+        byte[] sidecarBytes = Files.readAllBytes(sidecarFile.toPath());
+
+
+        // Song file modified without updating the sidecar file, e.g. by a version which does not know about sidecar files
+        song.setUserPhrase("Piano", getRandomPhrase(3, 30));
+        song.saveToFile(songFile, false);
+        Files.write(sidecarFile.toPath(), sidecarBytes);
+        byte[] bytes = Files.readAllBytes(songFile.toPath());
+        assertNull(UserPhrasesSidecar.load(songFile, bytes.length, getCrc(bytes)));
+
+
+        // Song file user phrases must be used
+        Song song2 = SongFactory.getInstance().createFromFile(songFile);
+        assertSameUserPhrases(song, song2);
+        closeSongs(song, song2);
+    }
+
+    @Test
+    public void testStaleSidecarSameLength() throws Exception
+    {
+        System.out.println("=== testStaleSidecarSameLength()");
+        Song song = createSong();
+        song.saveToFile(songFile, false);
+
+
+        // Change one velocity digit of the song file: same length, different CRC
+        Phrase p = song.getUserPhrase("Bass");
+        NoteEvent ne = p.get(0);
+        int v = ne.getVelocity();
+        int newVelocity = (v == 9 || v == 99 || v == 127) ? v - 1 : v + 1;      // Same number of digits
+        String oldStr = NoteEvent.saveAsString(ne);
+        NoteEvent newNe = new NoteEvent(ne.getPitch(), ne.getDurationInBeats(), newVelocity, ne.getPositionInBeats());
+        String newStr = NoteEvent.saveAsString(newNe);
+        assertEquals(oldStr.length(), newStr.length());
+        String xml = new String(Files.readAllBytes(songFile.toPath()), StandardCharsets.UTF_8);
+        assertTrue(xml.contains(oldStr));
+        long length = songFile.length();
+        Files.write(songFile.toPath(), xml.replaceFirst(Pattern.quote(oldStr), newStr).getBytes(StandardCharsets.UTF_8));
+        assertEquals(length, songFile.length());
+        byte[] bytes = Files.readAllBytes(songFile.toPath());
+        assertNull(UserPhrasesSidecar.load(songFile, bytes.length, getCrc(bytes)));
+
+
+        // Song file user phrases must be used
+        Song song2 = SongFactory.getInstance().createFromFile(songFile);
+        assertEquals(newNe, song2.getUserPhrase("Bass").get(0));
+        closeSongs(song, song2);
+    }
+
+    @Test
+    public void testCorruptSidecar() throws Exception
+    {
+        System.out.println("=== testCorruptSidecar()");
+        Song song = createSong();
+        song.saveToFile(songFile, false);
+        byte[] bytes = Files.readAllBytes(songFile.toPath());
+        long crc = getCrc(bytes);
+
+
+        // Truncated sidecar file
+        try (RandomAccessFile raf = new RandomAccessFile(sidecarFile, "rw"))
+        {
+            raf.setLength(raf.length() / 2);
+        }
+        try
+        {
+            UserPhrasesSidecar.load(songFile, bytes.length, crc);
+            fail("Truncated sidecar file");
+        } catch (IOException ex)
+        {
+            // OK
+        }
+        Song song2 = SongFactory.getInstance().createFromFile(songFile);
+        assertSameUserPhrases(song, song2);
+
+
+        // Garbage sidecar file
+        byte[] garbage = new byte[200];
+        random.nextBytes(garbage);
+        Files.write(sidecarFile.toPath(), garbage);
+        try
+        {
+            UserPhrasesSidecar.load(songFile, bytes.length, crc);
+            fail("Garbage sidecar file");
+        } catch (IOException ex)
+        {
+            // OK
+        }
+        Song song3 = SongFactory.getInstance().createFromFile(songFile);
+        assertSameUserPhrases(song, song3);
+        closeSongs(song, song2, song3);
+    }
+
+    @Test
+    public void testSidecarDisabledOrNoUserPhrases() throws Exception
+    {
+        System.out.println("=== testSidecarDisabledOrNoUserPhrases()");
+        Song song = createSong();
+        song.saveToFile(songFile, false);
+        assertTrue(sidecarFile.exists());
+
+
+        // Sidecar file is removed when there is no user phrase anymore
+        for (String name : new ArrayList<>(song.getUserPhraseNames()))
+        {
+            song.removeUserPhrase(name);
+        }
+        song.saveToFile(songFile, false);
+        assertFalse(sidecarFile.exists());
+
+
+        // Or when disabled
+        song.setUserPhrase("Bass", getRandomPhrase(1, 10));
+        SongFactory.getInstance().setUserPhrasesSidecarEnabled(false);
+        try
+        {
+            song.saveToFile(songFile, false);
+        } finally
+        {
+            SongFactory.getInstance().setUserPhrasesSidecarEnabled(true);
+        }
+        assertFalse(sidecarFile.exists());
+        Song song2 = SongFactory.getInstance().createFromFile(songFile);
+        assertSameUserPhrases(song, song2);
+        closeSongs(song, song2);
+    }
+
+    // =======================================================================================================
+    // Private methods
+    // =======================================================================================================
+    private Song createSong() throws PropertyVetoException
+    {
+        Song song = SongFactory.getInstance().createEmptySong("song");
+        song.setUserPhrase("Bass", getRandomPhrase(1, 100));
+        song.setUserPhrase("Piano", getRandomPhrase(2, 20));
+        return song;
+    }
+
+    private void closeSongs(Song... songs)
+    {
+        for (Song song : songs)
+        {
+            song.close(false);
+        }
+    }
+
+    private long getCrc(byte[] bytes)
+    {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return crc.getValue();
+    }
+
+    private void assertSameUserPhrases(Song expected, Song song)
+    {
+        assertEquals(expected.getUserPhraseNames(), song.getUserPhraseNames());
+        for (String name : expected.getUserPhraseNames())
+        {
+            assertSamePhrase(name, expected.getUserPhrase(name), song.getUserPhrase(name));
+        }
+    }
+
+    private void assertSamePhrase(String msg, Phrase expected, Phrase p)
+    {
+        assertEquals(msg + " channel", expected.getChannel(), p.getChannel());
+        assertEquals(msg, new ArrayList<>(expected), new ArrayList<>(p));
+    }
+
+    private Phrase getRandomPhrase(int channel, int nbNotes)
+    {
+        Phrase p = new Phrase(channel);
+        for (int i = 0; i < nbNotes; i++)
+        {
+            int pitch = 30 + random.nextInt(60);
+            int vel = 1 + random.nextInt(127);
+            float pos = random.nextInt(32 * 4) / 2f;
+            float dur = 0.25f * (1 + random.nextInt(8));
+            p.addOrdered(new NoteEvent(pitch, dur, vel, pos));
+        }
+        return p;
+    }
+}
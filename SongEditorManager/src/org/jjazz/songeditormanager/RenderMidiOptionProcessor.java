@@ -0,0 +1,284 @@
+/*
+ *  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ *  Copyright @2019 Jerome Lelasseux. All rights reserved.
+ *
+ *  This file is part of the JJazzLabX software.
+ *
+ *  JJazzLabX is free software: you can redistribute it and/or modify
+ *  it under the terms of the Lesser GNU General Public License (LGPLv3)
+ *  as published by the Free Software Foundation, either version 3 of the License,
+ *  or (at your option) any later version.
+ *
+ *  JJazzLabX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with JJazzLabX.  If not, see <https://www.gnu.org/licenses/>
+ *
+ *  Contributor(s):
+ */
+package org.jjazz.songeditormanager;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.jjazz.filedirectorymanager.api.FileDirectoryManager;
+import org.jjazz.rhythm.database.api.RhythmDatabase;
+import org.jjazz.rhythmmusicgeneration.api.BatchMidiRenderer;
+import org.jjazz.startup.spi.StartupTask;
+import org.netbeans.api.sendopts.CommandException;
+import org.netbeans.spi.sendopts.Env;
+import org.netbeans.spi.sendopts.Option;
+import org.netbeans.spi.sendopts.OptionProcessor;
+import org.openide.LifecycleManager;
+import org.openide.util.RequestProcessor;
+import org.openide.util.lookup.ServiceProvider;
+
+/**
+ * Command line options to render song files to Midi files, using BatchMidiRenderer.
+ * <p>
+ * <code>--render-midi file1.sng dir2 ...</code> : render the song files, or the song files of the directories<br>
+ * <code>--render-midi-outdir dir</code> : the directory of the Midi files. If absent Midi files are created next to song files.<br>
+ * <code>--render-midi-threads n</code> : the number of songs rendered concurrently.<br>
+ * <code>--render-midi-exit</code> : exit the application once rendering is complete.
+ * <p>
+ * Rendering starts once the rhythm database is initialized. The rendering report is printed on the standard output.
+ */
+@ServiceProvider(service = OptionProcessor.class)
+public class RenderMidiOptionProcessor extends OptionProcessor
+{
+
+    private static final Option renderOption = Option.additionalArguments(Option.NO_SHORT_NAME, "render-midi");
+    private static final Option outDirOption = Option.requiredArgument(Option.NO_SHORT_NAME, "render-midi-outdir");
+    private static final Option threadsOption = Option.requiredArgument(Option.NO_SHORT_NAME, "render-midi-threads");
+    private static final Option exitOption = Option.withoutArgument(Option.NO_SHORT_NAME, "render-midi-exit");
+    /**
+     * The rendering request received before the end of startup.
+     */
+    private static RenderRequest pendingRequest;
+    private static boolean isStartupComplete;
+    private static final Logger LOGGER = Logger.getLogger(RenderMidiOptionProcessor.class.getSimpleName());
+
+    @Override
+    protected Set<Option> getOptions()
+    {
+        HashSet<Option> set = new HashSet<>();
+        set.add(renderOption);
+        set.add(outDirOption);
+        set.add(threadsOption);
+        set.add(exitOption);
+        return set;
+    }
+
+    @Override
+    protected void process(Env env, Map<Option, String[]> values) throws CommandException
+    {
+        LOGGER.fine("process() --  env=" + env + " values=" + values);   //NOI18N
+
+        if (!values.containsKey(renderOption))
+        {
+            throw new CommandException(1, "Missing --render-midi option");   //NOI18N
+        }
+
+
+        // Collect the song files
+        File curDir = env.getCurrentDirectory();
+        List<File> songFiles = new ArrayList<>();
+        for (String fileName : values.get(renderOption))
+        {
+            File file = new File(fileName);
+            if (!file.isAbsolute())
+            {
+                file = new File(curDir, fileName);
+            }
+            if (file.isDirectory())
+            {
+                songFiles.addAll(getSongFiles(file));
+            } else if (file.exists())
+            {
+                songFiles.add(file);
+            } else
+            {
+                throw new CommandException(1, "Can't find " + file.getAbsolutePath());   //NOI18N
+            }
+        }
+        if (songFiles.isEmpty())
+        {
+            throw new CommandException(1, "No song file to render");   //NOI18N
+        }
+
+
+        File outDir = null;
+        if (values.containsKey(outDirOption))
+        {
+            outDir = new File(values.get(outDirOption)[0]);
+            if (!outDir.isAbsolute())
+            {
+                outDir = new File(curDir, values.get(outDirOption)[0]);
+            }
+            if (!outDir.isDirectory() && !outDir.mkdirs())
+            {
+                throw new CommandException(1, "Can't create output directory " + outDir.getAbsolutePath());   //NOI18N
+            }
+        }
+
+
+        int nbThreads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        if (values.containsKey(threadsOption))
+        {
+            String s = values.get(threadsOption)[0];
+            try
+            {
+                nbThreads = Integer.parseInt(s);
+            } catch (NumberFormatException ex)
+            {
+                nbThreads = 0;
+            }
+            if (nbThreads < 1)
+            {
+                throw new CommandException(1, "Invalid --render-midi-threads value: " + s);   //NOI18N
+            }
+        }
+
+
+        var request = new RenderRequest(songFiles, outDir, nbThreads, values.containsKey(exitOption), env.getOutputStream(),
+                env.getErrorStream());
+        synchronized (RenderMidiOptionProcessor.class)
+        {
+            if (!isStartupComplete)
+            {
+                // Will be handled by the RenderMidiStartupTask
+                env.getOutputStream().println("Midi rendering of " + songFiles.size() + " song(s) will start after startup");
+                pendingRequest = request;
+                return;
+            }
+        }
+        env.getOutputStream().println("Starting Midi rendering of " + songFiles.size() + " song(s)");
+        request.start();
+    }
+
+    // ==================================================================================
+    // Private methods
+    // ==================================================================================
+    private List<File> getSongFiles(File dir)
+    {
+        File[] files = dir.listFiles((d, name) -> name.toLowerCase().endsWith("." + FileDirectoryManager.SONG_EXTENSION));
+        List<File> res = files == null ? new ArrayList<>() : new ArrayList<>(Arrays.asList(files));
+        res.sort(null);
+        return res;
+    }
+
+    // =====================================================================================
+    // Inner classes
+    // =====================================================================================
+    private static class RenderRequest
+    {
+
+        private final List<File> songFiles;
+        private final File outDir;
+        private final int nbThreads;
+        private final boolean exit;
+        private final PrintStream out;
+        private final PrintStream err;
+
+        /**
+         *
+         * @param songFiles
+         * @param outDir
+         * @param nbThreads
+         * @param exit
+         * @param out       The command line output stream for the results
+         * @param err       The command line error stream for the failed results
+         */
+        private RenderRequest(List<File> songFiles, File outDir, int nbThreads, boolean exit, PrintStream out, PrintStream err)
+        {
+            this.songFiles = songFiles;
+            this.outDir = outDir;
+            this.nbThreads = nbThreads;
+            this.exit = exit;
+            this.out = out;
+            this.err = err;
+        }
+
+        /**
+         * Render in a background thread.
+         */
+        private void start()
+        {
+            // Make sure the shared database is ready before starting the worker threads
+            RhythmDatabase.getDefault();
+
+            RequestProcessor.getDefault().post(() ->
+            {
+                try
+                {
+                    var renderer = new BatchMidiRenderer(nbThreads);
+                    var results = renderer.render(songFiles, outDir, r -> (r.isOk() ? out : err).println(r));
+                    String report = BatchMidiRenderer.toReport(results);
+                    LOGGER.info("RenderRequest.start() Midi rendering complete:\n" + report);   //NOI18N
+                    out.print(report);
+                } catch (InterruptedException ex)
+                {
+                    LOGGER.log(Level.WARNING, "RenderRequest.start() Midi rendering interrupted");   //NOI18N
+                    err.println("Midi rendering interrupted");
+                }
+                out.flush();
+                err.flush();
+
+                if (exit)
+                {
+                    LifecycleManager.getDefault().exit();
+                }
+            });
+        }
+    }
+
+    // =====================================================================================
+    // Startup Task
+    // =====================================================================================
+    @ServiceProvider(service = StartupTask.class)
+    static public class RenderMidiStartupTask implements StartupTask
+    {
+
+        public static final int PRIORITY = 601;            // Right after the opening of command line files, once rhythm database is created
+
+        @Override
+        public boolean run()
+        {
+            RenderRequest request;
+            synchronized (RenderMidiOptionProcessor.class)
+            {
+                isStartupComplete = true;
+                request = pendingRequest;
+                pendingRequest = null;
+            }
+            if (request != null)
+            {
+                request.start();
+            }
+            return true;
+        }
+
+        @Override
+        public int getPriority()
+        {
+            return PRIORITY;
+        }
+
+        @Override
+        public String getName()
+        {
+            return "Render command line songs to Midi files";
+        }
+    }
+}
@@ -37,6 +37,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Predicate;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -94,6 +95,14 @@ public class SongStructureImpl implements SongStructure, Serializable
      * Manage updates from parentChordLeadSheet
      */
     private transient SgsUpdater clsListener;
+    /**
+     * The cached bar/beat positions of the SongParts, null or obsolete if it needs to be rebuilt.
+     */
+    private transient volatile Timeline timeline;
+    /**
+     * Incremented each time the SongParts change: a Timeline built for a previous version is obsolete.
+     */
+    private final transient AtomicInteger timelineVersion = new AtomicInteger();
     private static final Logger LOGGER = Logger.getLogger(SongStructureImpl.class.getSimpleName());
     private static int DEBUG_UNDOEDIT_ID = 0;
 
@@ -160,26 +169,8 @@ public class SongStructureImpl implements SongStructure, Serializable
         {
             return FloatRange.EMPTY_FLOAT_RANGE;
         }
-        float startPos = -1;
-        float endPos = -1;
-        for (SongPart spt : songParts)
-        {
-            TimeSignature ts = spt.getRhythm().getTimeSignature();
-            IntRange ir = rg.getIntersectRange(spt.getBarRange());
-            if (ir.isEmpty())
-            {
-                continue;
-            }
-            if (startPos == -1)
-            {
-                startPos = getPositionInNaturalBeats(ir.from);
-                endPos = startPos + ir.size() * ts.getNbNaturalBeats();
-            } else
-            {
-                endPos += ir.size() * ts.getNbNaturalBeats();
-            }
-        }
-        return new FloatRange(startPos, endPos);
+        Timeline tl = getTimeline();
+        return new FloatRange(tl.getPositionInBeats(rg.from), tl.getPositionInBeats(rg.to + 1));
     }
 
     @Override
@@ -404,15 +395,9 @@ public class SongStructureImpl implements SongStructure, Serializable
     @Override
     public SongPart getSongPart(int absoluteBarIndex)
     {
-        int abi = absoluteBarIndex;
-        for (SongPart spt : songParts)
-        {
-            if (spt.getBarRange().contains(abi))
-            {
-                return spt;
-            }
-        }
-        return null;
+        Timeline tl = getTimeline();
+        int index = tl.getSptIndex(absoluteBarIndex);
+        return index == -1 ? null : tl.spts[index];
     }
 
     @Override
@@ -428,20 +413,19 @@ public class SongStructureImpl implements SongStructure, Serializable
         {
             throw new IllegalArgumentException("posInBeats=" + posInBeats);   //NOI18N
         }
-        for (SongPart spt : songParts)
+        Timeline tl = getTimeline();
+        int index = tl.getSptIndexFromBeat(posInBeats);
+        if (index == -1)
         {
-            FloatRange rg = getBeatRange(spt.getBarRange());
-            if (rg.contains(posInBeats, true))
-            {
-                TimeSignature ts = spt.getRhythm().getTimeSignature();
-                float beatInSpt = posInBeats - rg.from;
-                int barOffset = (int) Math.floor(beatInSpt / ts.getNbNaturalBeats());
-                int bar = spt.getStartBarIndex() + barOffset;
-                float beatInBar = posInBeats - rg.from - barOffset * ts.getNbNaturalBeats();
-                return new Position(bar, beatInBar);
-            }
+            return null;
         }
-        return null;
+        float sptStartPos = tl.startBeats[index];
+        float nbNaturalBeats = tl.nbNaturalBeats[index];
+        float beatInSpt = posInBeats - sptStartPos;
+        int barOffset = (int) Math.floor(beatInSpt / nbNaturalBeats);
+        int bar = tl.startBars[index] + barOffset;
+        float beatInBar = posInBeats - sptStartPos - barOffset * nbNaturalBeats;
+        return new Position(bar, beatInBar);
     }
 
     @Override
@@ -451,31 +435,7 @@ public class SongStructureImpl implements SongStructure, Serializable
         {
             throw new IllegalArgumentException("barIndex=" + barIndex);   //NOI18N
         }
-        float posInBeats = 0;
-        if (barIndex == getSizeInBars())
-        {
-            // Special case : barIndex is the bar right after the end of the songStructure
-            for (SongPart spt : songParts)
-            {
-                TimeSignature ts = spt.getParentSection().getData().getTimeSignature();
-                posInBeats += spt.getNbBars() * ts.getNbNaturalBeats();
-            }
-        } else
-        {
-            // Normal case: it's a bar within the songStructure
-            SongPart spt = getSongPart(barIndex);
-            for (SongPart spti : songParts)
-            {
-                TimeSignature ts = spti.getParentSection().getData().getTimeSignature();
-                if (spti == spt)
-                {
-                    posInBeats += (barIndex - spt.getStartBarIndex()) * ts.getNbNaturalBeats();
-                    break;
-                }
-                posInBeats += spti.getNbBars() * ts.getNbNaturalBeats();
-            }
-        }
-        return posInBeats;
+        return getTimeline().getPositionInBeats(barIndex);
     }
 
     @Override
@@ -773,6 +733,7 @@ public class SongStructureImpl implements SongStructure, Serializable
             // Update songParts and set new container
             int rpIndex = songParts.indexOf(oldSpt);
             songParts.set(rpIndex, newSpt);
+            invalidateTimeline();
             ((SongPartImpl) newSpt).setContainer(this);
 
             // Update mapTsLastRhythm
@@ -797,6 +758,7 @@ public class SongStructureImpl implements SongStructure, Serializable
 
                 // Restore the state of the songStructure
                 songParts = new ArrayList<>(oldSongParts);      // Must use a copy to make sure oldSongParts remains unaffected
+                invalidateTimeline();
                 mapTsLastRhythm = oldMapTsRhythm.clone();           // Must use a copy to make sure map remains unaffected            
                 // restore the container of the replacing songparts
                 for (int i = 0; i < newSpts.size(); i++)
@@ -816,6 +778,7 @@ public class SongStructureImpl implements SongStructure, Serializable
 
                 // Restore the state of the songStructure
                 songParts = new ArrayList<>(newSongParts);      // Must use a copy to make sure newSongParts remains unaffected
+                invalidateTimeline();
                 mapTsLastRhythm = newMapTsRhythm.clone();           // Must use a copy to make sure map remains unaffected                        
                 // Change the container of the replacing songparts
                 for (SongPart newSpt : newSpts)
@@ -1200,9 +1163,12 @@ public class SongStructureImpl implements SongStructure, Serializable
 
     /**
      * Check and possibly update each SongPart's startBarIndex.
+     * <p>
+     * Must be called after each change of the SongParts list or of a SongPart size.
      */
     private void updateStartBarIndexes()
     {
+        invalidateTimeline();
         int barIndex = 0;
         for (SongPart spt : songParts)
         {
@@ -1215,6 +1181,34 @@ public class SongStructureImpl implements SongStructure, Serializable
         }
     }
 
+    /**
+     * Get the timeline of the SongParts, rebuild it if needed.
+     *
+     * @return
+     */
+    private Timeline getTimeline()
+    {
+        int version = timelineVersion.get();
+        Timeline res = timeline;
+        if (res == null || res.version != version)
+        {
+            // A reader may publish a Timeline built from obsolete SongParts if the SongParts change meanwhile: it is not a
+            // problem since its version will not match anymore
+            res = new Timeline(songParts, version);
+            timeline = res;
+        }
+        return res;
+    }
+
+    /**
+     * Must be called each time the SongParts change.
+     */
+    private void invalidateTimeline()
+    {
+        timelineVersion.incrementAndGet();
+        timeline = null;
+    }
+
     /**
      * Make sure change is authorized by all listeners.
      *
@@ -1265,6 +1259,103 @@ public class SongStructureImpl implements SongStructure, Serializable
     }
 
 
+    // -----------------------------------------------------------------------
+    // Private classes
+    // -----------------------------------------------------------------------
+
+    /**
+     * The start bar and the start position in natural beats of each SongPart.
+     * <p>
+     * Immutable: a new instance must be created when the SongParts change. Allow bar/beat/SongPart conversions with a binary
+     * search instead of iterating over all the SongParts.
+     */
+    private static class Timeline
+    {
+
+        private final int version;
+        private final SongPart[] spts;
+        private final int[] startBars;
+        private final float[] nbNaturalBeats;
+        /**
+         * startBeats[i] is the start position in beats of spts[i], startBeats[spts.length] is the size in beats.
+         */
+        private final float[] startBeats;
+        private final int sizeInBars;
+
+        private Timeline(List<SongPart> songParts, int version)
+        {
+            this.version = version;
+            int n = songParts.size();
+            spts = songParts.toArray(new SongPart[n]);
+            startBars = new int[n];
+            nbNaturalBeats = new float[n];
+            startBeats = new float[n + 1];
+            float posInBeats = 0;
+            for (int i = 0; i < n; i++)
+            {
+                SongPart spt = spts[i];
+                startBars[i] = spt.getStartBarIndex();
+                nbNaturalBeats[i] = spt.getRhythm().getTimeSignature().getNbNaturalBeats();
+                startBeats[i] = posInBeats;
+                posInBeats += spt.getNbBars() * nbNaturalBeats[i];
+            }
+            startBeats[n] = posInBeats;
+            sizeInBars = n == 0 ? 0 : startBars[n - 1] + spts[n - 1].getNbBars();
+        }
+
+        /**
+         * @param barIndex
+         * @return The index of the SongPart which contains barIndex, -1 if not found.
+         */
+        private int getSptIndex(int barIndex)
+        {
+            if (barIndex < 0 || barIndex >= sizeInBars)
+            {
+                return -1;
+            }
+            int index = Arrays.binarySearch(startBars, barIndex);
+            return index >= 0 ? index : -index - 2;
+        }
+
+        /**
+         * @param posInBeats
+         * @return The index of the SongPart which contains posInBeats, -1 if not found.
+         */
+        private int getSptIndexFromBeat(float posInBeats)
+        {
+            if (posInBeats < 0 || posInBeats >= startBeats[spts.length])
+            {
+                return -1;
+            }
+            // Search only among the SongParts start positions
+            int index = Arrays.binarySearch(startBeats, 0, spts.length, posInBeats);
+            if (index < 0)
+            {
+                index = -index - 2;
+            }
+            // Skip possible empty SongParts
+            while (index < spts.length - 1 && startBeats[index + 1] <= posInBeats)
+            {
+                index++;
+            }
+            return index;
+        }
+
+        /**
+         * @param barIndex A bar index in the song structure, or the bar right after the end
+         * @return The position in natural beats of the start of barIndex
+         */
+        private float getPositionInBeats(int barIndex)
+        {
+            if (barIndex >= sizeInBars)
+            {
+                return startBeats[spts.length];
+            }
+            int index = getSptIndex(barIndex);
+            return startBeats[index] + (barIndex - startBars[index]) * nbNaturalBeats[index];
+        }
+    }
+
     // -----------------------------------------------------------------------
     // Serialization
     // -----------------------------------------------------------------------
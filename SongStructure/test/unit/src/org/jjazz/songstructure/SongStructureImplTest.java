@@ -27,12 +27,15 @@ import java.util.Arrays;
 import java.util.List;
 import org.jjazz.harmony.api.TimeSignature;
 import org.jjazz.leadsheet.chordleadsheet.api.UnsupportedEditException;
+import org.jjazz.leadsheet.chordleadsheet.api.item.Position;
 import org.jjazz.rhythm.api.Rhythm;
 import org.jjazz.rhythm.database.api.RhythmDatabase;
 import org.jjazz.rhythm.database.api.UnavailableRhythmException;
 import org.jjazz.undomanager.api.JJazzUndoManager;
 import org.jjazz.undomanager.api.JJazzUndoManagerFinder;
+import org.jjazz.util.api.FloatRange;
 import org.jjazz.util.api.SmallMap;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import org.junit.*;
 import org.openide.util.Exceptions;
@@ -250,6 +253,80 @@ public class SongStructureImplTest
         assertTrue(spt == spt2);   //NOI18N
     }
 
+    /**
+     * Test of the bar/beat lookups (getSongPart(), getPositionInNaturalBeats(), getPosition(), getBeatRange()) after edits,
+     * undo and redo.
+     */
+    @Test
+    public void testLookupsUndoRedo()
+    {
+        System.out.println("\n============ Test lookups after edits, undo and redo");
+        checkLookups();
+        spt3.setStartBarIndex(spt1.getStartBarIndex());
+        spt3.setNbBars(spt1.getNbBars());
+        try
+        {
+            sgs.replaceSongParts(Arrays.asList((SongPart) spt1), Arrays.asList((SongPart) spt3));
+            checkLookups();
+            sgs.resizeSongParts(msm(spt3, 7));
+            checkLookups();
+            spt4.setStartBarIndex(sgs.getSizeInBars());
+            sgs.addSongParts(Arrays.asList(spt4));
+            checkLookups();
+            sgs.removeSongParts(ml(spt0));
+            checkLookups();
+        } catch (UnsupportedEditException ex)
+        {
+            Exceptions.printStackTrace(ex);
+        }
+        assertTrue(sgs.getSongPart(0) == spt3 && sgs.getSongPart(7) == spt2 && sgs.getSongPart(13) == spt4);   //NOI18N
+
+
+        // Undo and redo each edit
+        undoManager.endCEdit("UT-edit");
+        while (undoManager.canUndo())
+        {
+            undoManager.undo();
+            checkLookups();
+        }
+        while (undoManager.canRedo())
+        {
+            undoManager.redo();
+            checkLookups();
+        }
+        assertTrue(sgs.getSongPart(0) == spt3 && sgs.getSongPart(7) == spt2 && sgs.getSongPart(13) == spt4);   //NOI18N
+        undoManager.startCEdit("UT-edit");
+    }
+
+    /**
+     * Compare the lookups of sgs with a linear scan of its SongParts.
+     */
+    private void checkLookups()
+    {
+        float posInBeats = 0;
+        int bar = 0;
+        for (SongPart spt : sgs.getSongParts())
+        {
+            assertTrue(spt.getStartBarIndex() == bar);   //NOI18N
+            float nbBeats = spt.getRhythm().getTimeSignature().getNbNaturalBeats();
+            for (int i = 0; i < spt.getNbBars(); i++)
+            {
+                assertTrue("bar=" + bar, sgs.getSongPart(bar) == spt);   //NOI18N
+                assertEquals("bar=" + bar, posInBeats, sgs.getPositionInNaturalBeats(bar), 0.0001f);   //NOI18N
+                assertEquals("bar=" + bar, new Position(bar, 0), sgs.getPosition(posInBeats));   //NOI18N
+                assertEquals("bar=" + bar, new Position(bar, 1), sgs.getPosition(posInBeats + 1));   //NOI18N
+                posInBeats += nbBeats;
+                bar++;
+            }
+        }
+        assertTrue(sgs.getSizeInBars() == bar);   //NOI18N
+        assertTrue(sgs.getSongPart(bar) == null);   //NOI18N
+        assertTrue(sgs.getPosition(posInBeats) == null);   //NOI18N
+        assertEquals(posInBeats, sgs.getPositionInNaturalBeats(bar), 0.0001f);   //NOI18N
+        FloatRange beatRange = sgs.getBeatRange(null);
+        assertTrue(beatRange.from == 0 && beatRange.to == posInBeats);   //NOI18N
+    }
+
     private List<SongPart> ml(SongPart rp)
     {
         ArrayList<SongPart> l = new ArrayList<>();
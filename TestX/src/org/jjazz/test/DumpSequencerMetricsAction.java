@@ -0,0 +1,75 @@
+/*
+ *  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ * 
+ *  Copyright @2019 Jerome Lelasseux. All rights reserved.
+ *
+ *  This file is part of the JJazzLabX software.
+ *   
+ *  JJazzLabX is free software: you can redistribute it and/or modify
+ *  it under the terms of the Lesser GNU General Public License (LGPLv3) 
+ *  as published by the Free Software Foundation, either version 3 of the License, 
+ *  or (at your option) any later version.
+ *
+ *  JJazzLabX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with JJazzLabX.  If not, see <https://www.gnu.org/licenses/>
+ * 
+ *  Contributor(s): 
+ */
+package org.jjazz.test;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.logging.Logger;
+import javax.sound.midi.Sequencer;
+import org.jjazz.midi.api.JJazzMidiSystem;
+import org.jjazz.midi.api.sequencer.HighResolutionSequencer;
+import org.jjazz.midi.api.sequencer.SequencerMetrics;
+import org.openide.awt.ActionID;
+import org.openide.awt.ActionReference;
+import org.openide.awt.ActionReferences;
+import org.openide.awt.ActionRegistration;
+
+/**
+ * For debug purposes...
+ */
+//@ActionID(category = "JJazz", id = "org.jjazz.test.dumpSequencerMetricsAction")
+//@ActionRegistration(displayName = "Dump sequencer metrics")
+//@ActionReferences(
+//        {
+//            @ActionReference(path = "Menu/Edit", position = 50200),
+//        })
+public final class DumpSequencerMetricsAction implements ActionListener
+{
+
+    private static final Logger LOGGER = Logger.getLogger(DumpSequencerMetricsAction.class.getSimpleName());
+
+    @Override
+    public void actionPerformed(ActionEvent ae)
+    {
+        Sequencer sequencer = JJazzMidiSystem.getInstance().getDefaultSequencer();
+        if (!(sequencer instanceof HighResolutionSequencer))
+        {
+            LOGGER.severe("Sequencer metrics not available for sequencer=" + sequencer);   //NOI18N
+            return;
+        }
+        HighResolutionSequencer hrSequencer = (HighResolutionSequencer) sequencer;
+        SequencerMetrics metrics = hrSequencer.getMetrics();
+        if (!metrics.isEnabled())
+        {
+            metrics.setEnabled(true);
+            LOGGER.severe("Sequencer metrics were disabled, now enabled: play a song then dump again");   //NOI18N
+            return;
+        }
+        LOGGER.severe("Dumping sequencer metrics ---------- highResolutionScheduling=" + hrSequencer.isHighResolutionScheduling());   //NOI18N
+        LOGGER.severe("\n" + metrics.toReport());   //NOI18N
+        LOGGER.severe("Recent late events:");   //NOI18N
+        metrics.getRecentDispatches().stream()
+                .filter(r -> r.getLatenessNanos() > metrics.getLateThresholdMs() * 1000000L)
+                .forEach(r -> LOGGER.severe("  " + r));   //NOI18N
+    }
+}
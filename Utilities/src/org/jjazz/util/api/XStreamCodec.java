@@ -0,0 +1,146 @@
+/*
+ *  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ *  Copyright @2019 Jerome Lelasseux. All rights reserved.
+ *
+ *  This file is part of the JJazzLabX software.
+ *
+ *  JJazzLabX is free software: you can redistribute it and/or modify
+ *  it under the terms of the Lesser GNU General Public License (LGPLv3)
+ *  as published by the Free Software Foundation, either version 3 of the License,
+ *  or (at your option) any later version.
+ *
+ *  JJazzLabX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with JJazzLabX.  If not, see <https://www.gnu.org/licenses/>
+ *
+ *  Contributor(s):
+ */
+package org.jjazz.util.api;
+
+import com.thoughtworks.xstream.XStream;
+import com.thoughtworks.xstream.XStreamException;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/**
+ * A preconfigured XStream codec which can be shared by several threads.
+ * <p>
+ * Creating and configuring an XStream instance is expensive, but a configured instance is thread-safe. A codec creates its
+ * instances once:<br>
+ * - a secured instance for unmarshalling (see Utilities.getSecuredXStreamInstance()), which also handles the package names used
+ * by files saved before JJazzLab 3.0<br>
+ * - a standard instance for marshalling.
+ * <p>
+ * Files are read and written using UTF-8 encoding.
+ */
+public class XStreamCodec
+{
+
+    private final XStream reader;
+    private final XStream writer;
+
+    /**
+     * Create a codec.
+     *
+     * @param configurer Called once for each XStream instance, e.g. to add class aliases. XStream instances must not be kept
+     * or modified afterwards.
+     */
+    public XStreamCodec(Consumer<XStream> configurer)
+    {
+        if (configurer == null)
+        {
+            throw new IllegalArgumentException("configurer=" + configurer);   //NOI18N
+        }
+
+        reader = Utilities.getSecuredXStreamInstance();
+        configurer.accept(reader);
+        addLegacyPackageAliases(reader);
+
+        writer = new XStream();
+        configurer.accept(writer);
+    }
+
+    /**
+     * Unmarshal an object from an UTF-8 XML file.
+     *
+     * @param f
+     * @return
+     * @throws IOException
+     * @throws XStreamException
+     */
+    public Object fromXML(File f) throws IOException
+    {
+        if (f == null)
+        {
+            throw new IllegalArgumentException("f=" + f);   //NOI18N
+        }
+        try (var fis = new FileInputStream(f))
+        {
+            return fromXML(fis);
+        }
+    }
+
+    /**
+     * Unmarshal an object from an UTF-8 XML stream.
+     * <p>
+     * The stream is not closed.
+     *
+     * @param is
+     * @return
+     * @throws XStreamException
+     */
+    public Object fromXML(InputStream is)
+    {
+        Reader r = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8));        // Needed to support special/accented chars
+        return reader.fromXML(r);
+    }
+
+    /**
+     * Marshal an object to an UTF-8 XML stream.
+     * <p>
+     * The stream is flushed but not closed.
+     *
+     * @param o
+     * @param os
+     * @throws XStreamException
+     */
+    public void toXML(Object o, OutputStream os)
+    {
+        Writer w = new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8));        // Needed to support special/accented chars
+        writer.toXML(o, w);
+    }
+
+    /**
+     * Add the package aliases required to unmarshal the files saved before JJazzLab 3.0.
+     * <p>
+     * From 3.0 all public packages are renamed with api or spi somewhere in the path. These aliases must not be used for
+     * marshalling, otherwise the old package names would be written.
+     *
+     * @param xstream
+     */
+    static public void addLegacyPackageAliases(XStream xstream)
+    {
+        xstream.aliasPackage("org.jjazz.harmony.api", "org.jjazz.harmony.api");     // Make sure new package name is not replaced by next alias
+        xstream.aliasPackage("org.jjazz.harmony", "org.jjazz.harmony.api");
+        xstream.aliasPackage("org.jjazz.midi.api", "org.jjazz.midi.api");           // Make sure new package name is not replaced by next alias
+        xstream.aliasPackage("org.jjazz.midi", "org.jjazz.midi.api");
+        xstream.aliasPackage("org.jjazz.midimix.api", "org.jjazz.midimix.api");     // Make sure new package name is not replaced by next alias
+        xstream.aliasPackage("org.jjazz.midimix", "org.jjazz.midimix.api");
+    }
+}
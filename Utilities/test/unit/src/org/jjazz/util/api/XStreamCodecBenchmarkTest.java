@@ -0,0 +1,249 @@
+/*
+ *  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ *  Copyright @2019 Jerome Lelasseux. All rights reserved.
+ *
+ *  This file is part of the JJazzLabX software.
+ *
+ *  JJazzLabX is free software: you can redistribute it and/or modify
+ *  it under the terms of the Lesser GNU General Public License (LGPLv3)
+ *  as published by the Free Software Foundation, either version 3 of the License,
+ *  or (at your option) any later version.
+ *
+ *  JJazzLabX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with JJazzLabX.  If not, see <https://www.gnu.org/licenses/>
+ *
+ *  Contributor(s):
+ */
+package org.jjazz.util.api;
+
+import com.thoughtworks.xstream.XStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Compare the loading of 1000 song-like XML files using a new XStream instance per file (the previous SongFactory/MidiMix
+ * implementation) and using a shared XStreamCodec, from one then several threads.
+ */
+public class XStreamCodecBenchmarkTest
+{
+
+    private static final int NB_SONGS = 1000;
+    private static final int NB_THREADS = 4;
+    private static final XStreamCodec CODEC = new XStreamCodec(xstream -> xstream.alias("Song", TestSong.class));
+    private static File dir;
+    private static List<File> files;
+    private static List<TestSong> songs;
+
+    public XStreamCodecBenchmarkTest()
+    {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws IOException
+    {
+        dir = Files.createTempDirectory("XStreamCodecBenchmarkTest").toFile();
+        files = new ArrayList<>();
+        songs = new ArrayList<>();
+        Random rnd = new Random(1234);
+        for (int i = 0; i < NB_SONGS; i++)
+        {
+            TestSong song = new TestSong("Song" + i, 60 + rnd.nextInt(180), rnd);
+            File f = new File(dir, song.name + ".sng");
+            try (var fos = new FileOutputStream(f))
+            {
+                CODEC.toXML(song, fos);
+            }
+            songs.add(song);
+            files.add(f);
+        }
+    }
+
+    @AfterClass
+    public static void tearDownClass()
+    {
+        files.forEach(f -> f.delete());
+        dir.delete();
+    }
+
+    @Test
+    public void testLoad1000Songs() throws Exception
+    {
+        System.out.println("testLoad1000Songs() -- nbSongs=" + NB_SONGS);
+
+        // Warm up
+        loadPerFileXStream(files.subList(0, 50));
+        loadCodec(files.subList(0, 50));
+
+
+        long t = System.nanoTime();
+        List<TestSong> res = loadPerFileXStream(files);
+        long tPerFile = System.nanoTime() - t;
+        assertEquals(songs, res);
+
+
+        t = System.nanoTime();
+        res = loadCodec(files);
+        long tCodec = System.nanoTime() - t;
+        assertEquals(songs, res);
+
+
+        ExecutorService executor = Executors.newFixedThreadPool(NB_THREADS);
+        try
+        {
+            t = System.nanoTime();
+            List<Future<TestSong>> futures = new ArrayList<>();
+            for (File f : files)
+            {
+                futures.add(executor.submit(() -> (TestSong) CODEC.fromXML(f)));
+            }
+            res = new ArrayList<>();
+            for (var future : futures)
+            {
+                res.add(future.get());
+            }
+        } finally
+        {
+            executor.shutdown();
+        }
+        long tParallel = System.nanoTime() - t;
+        assertEquals(songs, res);
+
+
+        System.out.println(String.format("  new XStream per file=%.1fms  shared codec=%.1fms  shared codec %d threads=%.1fms",
+                tPerFile / 1000000f, tCodec / 1000000f, NB_THREADS, tParallel / 1000000f));
+    }
+
+    // =================================================================================================
+    // Private methods
+    // =================================================================================================
+    /**
+     * The previous implementation.
+     */
+    private List<TestSong> loadPerFileXStream(List<File> songFiles) throws IOException
+    {
+        List<TestSong> res = new ArrayList<>();
+        for (File f : songFiles)
+        {
+            XStream xstream = Utilities.getSecuredXStreamInstance();
+            xstream.alias("Song", TestSong.class);
+            XStreamCodec.addLegacyPackageAliases(xstream);
+            try (var fis = new FileInputStream(f))
+            {
+                Reader r = new BufferedReader(new InputStreamReader(fis, StandardCharsets.UTF_8));
+                res.add((TestSong) xstream.fromXML(r));
+            }
+        }
+        return res;
+    }
+
+    private List<TestSong> loadCodec(List<File> songFiles) throws IOException
+    {
+        List<TestSong> res = new ArrayList<>();
+        for (File f : songFiles)
+        {
+            res.add((TestSong) CODEC.fromXML(f));
+        }
+        return res;
+    }
+
+    // =================================================================================================
+    // Private classes
+    // =================================================================================================
+    private static class TestSong
+    {
+
+        private final String name;
+        private final int tempo;
+        private final List<TestChord> chords = new ArrayList<>();
+        private final List<String> tags = new ArrayList<>();
+
+        private TestSong(String name, int tempo, Random rnd)
+        {
+            this.name = name;
+            this.tempo = tempo;
+            String[] chordNames =
+            {
+                "C7", "Fm7", "Bb7", "EbM7", "Abdim7", "G7b9", "Dm7b5", "C6"
+            };
+            for (int bar = 0; bar < 32; bar++)
+            {
+                chords.add(new TestChord(chordNames[rnd.nextInt(chordNames.length)], bar, rnd.nextInt(4)));
+            }
+            tags.add("jazz");
+            tags.add("tag" + rnd.nextInt(10));
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (!(o instanceof TestSong))
+            {
+                return false;
+            }
+            TestSong s = (TestSong) o;
+            return name.equals(s.name) && tempo == s.tempo && chords.equals(s.chords) && tags.equals(s.tags);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(name, tempo, chords, tags);
+        }
+    }
+
+    private static class TestChord
+    {
+
+        private final String name;
+        private final int bar;
+        private final float beat;
+
+        private TestChord(String name, int bar, float beat)
+        {
+            this.name = name;
+            this.bar = bar;
+            this.beat = beat;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (!(o instanceof TestChord))
+            {
+                return false;
+            }
+            TestChord c = (TestChord) o;
+            return name.equals(c.name) && bar == c.bar && beat == c.beat;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(name, bar, beat);
+        }
+    }
+}